@@ -0,0 +1,23 @@
+package domino.java;
+
+/**
+ * The phases in which the `whenBundleActive` handlers of an
+ * {@link OsgiContext} run, see
+ * {@link OsgiContext#whenBundleActive(ActivationPhase, de.tototec.utils.functional.Procedure1)}.
+ */
+public enum ActivationPhase {
+	/**
+	 * Runs first, when the bundle is started.
+	 */
+	CRITICAL,
+	/**
+	 * Runs when the bundle is started, after all critical handlers. This is
+	 * the phase of handlers registered without an explicit phase.
+	 */
+	NORMAL,
+	/**
+	 * Runs on a low priority background thread, after the bundle became active
+	 * and the framework reported that it completed its start.
+	 */
+	DEFERRED
+}
@@ -0,0 +1,233 @@
+package domino.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import domino.java.internal.DominoExecutors;
+
+/**
+ * A Java Util Logging handler, which publishes the log records to its
+ * delegate handlers on a separate daemon thread. The logging thread only puts
+ * the record into a bounded ring buffer, so slow handlers (e.g. writing to a
+ * console or file) no longer slow down e.g. the delivery of service events.
+ * <p>
+ * If the buffer is full, records are dropped according to the
+ * {@link DropPolicy} and counted, see {@link #dropped()}.
+ * <p>
+ * Domino logs to JUL if SLF4J is not available. Use
+ * {@link #install(Logger, int, DropPolicy)} to move the handlers of a logger,
+ * e.g. the root logger, behind an asynchronous handler.
+ *
+ * @param capacity
+ *            The maximal number of buffered records
+ * @param dropPolicy
+ *            Which record to drop, if the buffer is full
+ * @param delegates
+ *            The handlers publishing the records
+ */
+public class AsyncLogHandler extends Handler {
+
+	/**
+	 * Which record to drop, if the buffer is full.
+	 */
+	public enum DropPolicy {
+		/**
+		 * Drop the record to be logged.
+		 */
+		DROP_NEWEST,
+		/**
+		 * Drop the oldest buffered record, to make room for the new one.
+		 */
+		DROP_OLDEST
+	}
+
+	private final Handler[] delegates;
+	private final DropPolicy dropPolicy;
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread publisher;
+
+	// All fields below are guarded by this
+	private final LogRecord[] ring;
+	private int head = 0;
+	private int size = 0;
+	/**
+	 * `true` while the publisher thread publishes records taken from the
+	 * ring.
+	 */
+	private boolean publishing = false;
+	private boolean closed = false;
+
+	public AsyncLogHandler(final int capacity, final DropPolicy dropPolicy, final Handler... delegates) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.ring = new LogRecord[capacity];
+		this.dropPolicy = dropPolicy;
+		this.delegates = delegates.clone();
+		this.publisher = DominoExecutors.daemonThreadFactory("domino-async-log").newThread(this::publishLoop);
+		publisher.start();
+	}
+
+	/**
+	 * Replaces all handlers of the given logger by an asynchronous handler
+	 * delegating to them.
+	 *
+	 * @return The installed handler. Close it to stop it and its delegates.
+	 */
+	public static AsyncLogHandler install(final Logger logger, final int capacity, final DropPolicy dropPolicy) {
+		final Handler[] handlers = logger.getHandlers();
+		final AsyncLogHandler async = new AsyncLogHandler(capacity, dropPolicy, handlers);
+		// Remove the delegates first, so no record is published twice
+		for (final Handler handler : handlers) {
+			logger.removeHandler(handler);
+		}
+		logger.addHandler(async);
+		return async;
+	}
+
+	@Override
+	public void publish(final LogRecord record) {
+		if (record == null || !isLoggable(record)) {
+			return;
+		}
+		// Infer the caller while still on the logging thread, the delegates
+		// would find the publisher thread otherwise
+		record.getSourceClassName();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			if (size == ring.length) {
+				dropped.incrementAndGet();
+				if (dropPolicy == DropPolicy.DROP_NEWEST) {
+					return;
+				}
+				// overwrite the oldest record
+				ring[head] = record;
+				head = (head + 1) % ring.length;
+				return;
+			}
+			ring[(head + size) % ring.length] = record;
+			size++;
+			if (size == 1) {
+				notifyAll();
+			}
+		}
+	}
+
+	private void publishLoop() {
+		final List<LogRecord> batch = new ArrayList<>();
+		while (true) {
+			synchronized (this) {
+				publishing = false;
+				notifyAll();
+				while (size == 0 && !closed) {
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						// only stopped by close
+					}
+				}
+				if (size == 0) {
+					return;
+				}
+				while (size > 0) {
+					batch.add(ring[head]);
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					size--;
+				}
+				publishing = true;
+			}
+			for (final LogRecord record : batch) {
+				for (final Handler delegate : delegates) {
+					try {
+						delegate.publish(record);
+					} catch (final RuntimeException e) {
+						reportError("Delegate handler failed", e, ErrorManager.WRITE_FAILURE);
+					}
+				}
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * The number of records dropped because the buffer was full.
+	 */
+	public long dropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * The number of currently buffered records.
+	 */
+	public synchronized int queueDepth() {
+		return size;
+	}
+
+	/**
+	 * Waits until all buffered records are published and flushes the
+	 * delegates.
+	 */
+	@Override
+	public void flush() {
+		if (Thread.currentThread() != publisher) {
+			synchronized (this) {
+				while ((size > 0 || publishing) && publisher.isAlive()) {
+					try {
+						wait(100);
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}
+		for (final Handler delegate : delegates) {
+			delegate.flush();
+		}
+	}
+
+	/**
+	 * Publishes all buffered records, stops the publisher thread and closes
+	 * the delegates.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		if (Thread.currentThread() != publisher) {
+			try {
+				publisher.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (final Handler delegate : delegates) {
+			delegate.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(capacity=" + ring.length +
+				",dropPolicy=" + dropPolicy +
+				",delegates=" + Arrays.toString(delegates) +
+				",dropped=" + dropped.get() +
+				")";
+	}
+
+}
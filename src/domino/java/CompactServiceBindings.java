@@ -0,0 +1,579 @@
+package domino.java;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+import de.tototec.utils.functional.F1;
+import de.tototec.utils.functional.Optional;
+import de.tototec.utils.functional.Procedure1;
+import domino.java.capsule.Capsule;
+import domino.java.capsule.CapsuleContext;
+import domino.java.capsule.CapsuleScope;
+import domino.java.capsule.ConcurrentAppendList;
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * All bindings of one {@link OsgiContext} created with
+ * {@link ServiceWatching#whenAdvancedServicePresent(Class, String, Procedure1)}
+ * for the same type and filter while compact bindings are enabled.
+ * <p>
+ * Instead of a service watcher with its own tracker per binding, all bindings
+ * share a single tracker. The state of each binding is kept in flat arrays
+ * indexed by a slot number: the handler, the scope of the current activation
+ * and the `service.id` of the bound service (`-1` if unbound). Free slots are
+ * reused. Only a small {@link Slot} is created per binding. It is added to the
+ * scope of the binding, to release the slot when that scope stops, and
+ * returned to the user as the tracker of the binding.
+ * <p>
+ * The semantics are those of a regular binding: each binding binds to a
+ * present service and stays with it until that service goes away. All handlers
+ * of one instance are serialized. They run without holding the lock of the
+ * instance, so they can safely add or release bindings or wait for other
+ * threads.
+ * <p>
+ * The bindings are reported as a single {@link ServiceBinding}, which is
+ * satisfied if all bindings are bound.
+ *
+ * @param bundleContext
+ *            Bundle context
+ * @param type
+ *            Service type
+ * @param userFilter
+ *            The filter given by the user, as reported in the binding
+ * @param filter
+ *            Filter expression restricting the set of services to be tracked
+ * @param trackerFactory
+ *            Optional function creating the shared service tracker for the
+ *            given customizer
+ * @param capsuleContext
+ *            The capsule context to run the handlers in
+ * @param dependencyTracker
+ *            Tracks the readiness of the bindings
+ * @param onClose
+ *            Called when the last binding was released. The instance can
+ *            not be used afterwards.
+ * @tparam S Service type
+ */
+class CompactServiceBindings<S> {
+
+	private final Logger log = LoggerFactory.getLogger(CompactServiceBindings.class);
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private final BundleContext bundleContext;
+	private final Filter filter;
+	private final Optional<F1<ServiceTrackerCustomizer<S, S>, ServiceTracker<S, S>>> trackerFactory;
+	private final CapsuleContext capsuleContext;
+	private final DependencyTracker dependencyTracker;
+	private final ServiceBinding binding;
+	private final Runnable onClose;
+
+	// All fields below are guarded by this
+	private Procedure1<S>[] handlers;
+	private CapsuleScope[] scopes;
+	private long[] boundServiceIds;
+	/**
+	 * Incremented on each change of the binding of a slot, so a queued
+	 * activation can tell whether it is still current.
+	 */
+	private int[] generations;
+	private int[] freeSlots;
+	private int freeCount = 0;
+	/**
+	 * The highest used slot number + 1.
+	 */
+	private int slotCount = 0;
+	private int liveCount = 0;
+	private int boundCount = 0;
+
+	private ServiceTracker<S, S> tracker;
+	/**
+	 * The services added to the tracker, the best first. Bindings added
+	 * later bind to the first one.
+	 */
+	private final TreeMap<ServiceReference<S>, S> presentServices = new TreeMap<>(
+			Collections.<ServiceReference<S>>reverseOrder());
+	private boolean closed = false;
+	/**
+	 * Handler invocations, scope stops and binding updates, collected under
+	 * the lock and run after releasing it.
+	 */
+	private final Queue<Runnable> actions = new ArrayDeque<>();
+	/**
+	 * The thread currently running actions, if any.
+	 */
+	private Thread runningThread;
+
+	@SuppressWarnings("unchecked")
+	CompactServiceBindings(
+			final BundleContext bundleContext,
+			final Class<S> type,
+			final String userFilter,
+			final Filter filter,
+			final Optional<F1<ServiceTrackerCustomizer<S, S>, ServiceTracker<S, S>>> trackerFactory,
+			final CapsuleContext capsuleContext,
+			final DependencyTracker dependencyTracker,
+			final Runnable onClose) {
+		this.bundleContext = bundleContext;
+		this.filter = filter;
+		this.trackerFactory = trackerFactory;
+		this.capsuleContext = capsuleContext;
+		this.dependencyTracker = dependencyTracker;
+		this.onClose = onClose;
+		this.binding = dependencyTracker.register(type, userFilter, Util.bundleName(bundleContext));
+		this.handlers = (Procedure1<S>[]) new Procedure1<?>[INITIAL_CAPACITY];
+		this.scopes = new CapsuleScope[INITIAL_CAPACITY];
+		this.boundServiceIds = new long[INITIAL_CAPACITY];
+		this.generations = new int[INITIAL_CAPACITY];
+		this.freeSlots = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * The handle of a single binding: the capsule releasing its slot when
+	 * stopped, and the tracker returned to the user. As a tracker, it reads
+	 * the shared tracker. Closing it releases only this binding, the shared
+	 * tracker stays open for the other bindings.
+	 */
+	final class Slot extends ServiceTracker<S, S> implements Capsule {
+		private final int index;
+		/**
+		 * Guarded by the enclosing instance.
+		 */
+		private boolean released = false;
+		/**
+		 * The entry of this slot in the scope of the binding, removed when
+		 * the binding is released before its scope stops.
+		 */
+		private volatile ConcurrentAppendList.Entry<Capsule> scopeEntry;
+
+		Slot(final int index) {
+			super(bundleContext, CompactServiceBindings.this.filter, null);
+			this.index = index;
+		}
+
+		@Override
+		public void start() {
+		}
+
+		@Override
+		public void stop() {
+			release(this);
+		}
+
+		void setScopeEntry(final ConcurrentAppendList.Entry<Capsule> scopeEntry) {
+			this.scopeEntry = scopeEntry;
+		}
+
+		/**
+		 * Opens the shared tracker, if not already done, and binds this slot
+		 * to the best present service.
+		 */
+		void bind() {
+			CompactServiceBindings.this.bind(index);
+		}
+
+		@Override
+		public void open() {
+			// The shared tracker is opened when the binding is bound
+		}
+
+		@Override
+		public void open(final boolean trackAllServices) {
+			// The shared tracker is opened when the binding is bound
+		}
+
+		@Override
+		public void close() {
+			release(this);
+			final ConcurrentAppendList.Entry<Capsule> entry = scopeEntry;
+			if (entry != null) {
+				entry.remove();
+			}
+		}
+
+		@Override
+		public ServiceReference<S>[] getServiceReferences() {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null ? null : t.getServiceReferences();
+		}
+
+		@Override
+		public ServiceReference<S> getServiceReference() {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null ? null : t.getServiceReference();
+		}
+
+		@Override
+		public S getService(final ServiceReference<S> reference) {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null ? null : t.getService(reference);
+		}
+
+		@Override
+		public Object[] getServices() {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null ? null : t.getServices();
+		}
+
+		@Override
+		public S[] getServices(final S[] array) {
+			final ServiceTracker<S, S> t = tracker();
+			if (t == null) {
+				if (array.length > 0) {
+					array[0] = null;
+				}
+				return array;
+			}
+			return t.getServices(array);
+		}
+
+		@Override
+		public S getService() {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null ? null : t.getService();
+		}
+
+		@Override
+		public S waitForService(final long timeout) throws InterruptedException {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null ? null : t.waitForService(timeout);
+		}
+
+		@Override
+		public void remove(final ServiceReference<S> reference) {
+			throw new UnsupportedOperationException("The tracker of a compact binding is shared");
+		}
+
+		@Override
+		public int size() {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null ? 0 : t.size();
+		}
+
+		@Override
+		public int getTrackingCount() {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null ? -1 : t.getTrackingCount();
+		}
+
+		@Override
+		public SortedMap<ServiceReference<S>, S> getTracked() {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null ? new TreeMap<ServiceReference<S>, S>() : t.getTracked();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			final ServiceTracker<S, S> t = tracker();
+			return t == null || t.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() + "(index=" + index + ",filter=" + filter + ")";
+		}
+	}
+
+	/**
+	 * Reserves a slot for the given handler. The binding is not bound before
+	 * {@link Slot#bind()} is called.
+	 *
+	 * @return The slot, or `null` if this instance is already closed.
+	 */
+	synchronized Slot reserve(final Procedure1<S> handler) {
+		if (closed) {
+			return null;
+		}
+		final int index;
+		if (freeCount > 0) {
+			index = freeSlots[--freeCount];
+		} else {
+			if (slotCount == handlers.length) {
+				final int capacity = handlers.length * 2;
+				handlers = Arrays.copyOf(handlers, capacity);
+				scopes = Arrays.copyOf(scopes, capacity);
+				boundServiceIds = Arrays.copyOf(boundServiceIds, capacity);
+				generations = Arrays.copyOf(generations, capacity);
+				freeSlots = Arrays.copyOf(freeSlots, capacity);
+			}
+			index = slotCount++;
+		}
+		handlers[index] = handler;
+		scopes[index] = null;
+		boundServiceIds[index] = -1;
+		liveCount++;
+		return new Slot(index);
+	}
+
+	private void bind(final int index) {
+		ServiceTracker<S, S> toOpen = null;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			if (tracker == null) {
+				tracker = createTracker();
+				// opening binds all unbound slots
+				toOpen = tracker;
+			} else if (handlers[index] != null && boundServiceIds[index] < 0 && !presentServices.isEmpty()) {
+				final Map.Entry<ServiceReference<S>, S> best = presentServices.firstEntry();
+				activate(index, serviceId(best.getKey()), best.getValue());
+			}
+			updateBinding();
+		}
+		if (toOpen != null) {
+			toOpen.open();
+		}
+		runActions();
+	}
+
+	private ServiceTracker<S, S> createTracker() {
+		final ServiceTrackerCustomizer<S, S> customizer = new ServiceTrackerCustomizer<S, S>() {
+			@Override
+			public S addingService(final ServiceReference<S> reference) {
+				final S service = bundleContext.getService(reference);
+				if (service != null) {
+					added(reference, service);
+				}
+				return service;
+			}
+
+			@Override
+			public void modifiedService(final ServiceReference<S> reference, final S service) {
+				// Bindings stay with their service
+			}
+
+			@Override
+			public void removedService(final ServiceReference<S> reference, final S service) {
+				removed(reference);
+			}
+		};
+		return trackerFactory.isDefined() ? trackerFactory.get().apply(customizer)
+				: new ServiceTracker<S, S>(bundleContext, filter, customizer);
+	}
+
+	/**
+	 * The shared tracker, or `null` if it is not opened yet or already
+	 * closed.
+	 */
+	synchronized ServiceTracker<S, S> tracker() {
+		return tracker;
+	}
+
+	synchronized int size() {
+		return liveCount;
+	}
+
+	private static long serviceId(final ServiceReference<?> reference) {
+		final Object id = reference.getProperty(Constants.SERVICE_ID);
+		return id instanceof Number ? ((Number) id).longValue() : -1;
+	}
+
+	/**
+	 * Binds the slot and queues the invocation of its handler. Must be called
+	 * with the lock held.
+	 */
+	private void activate(final int index, final long serviceId, final S service) {
+		final Procedure1<S> handler = handlers[index];
+		final int generation = ++generations[index];
+		boundServiceIds[index] = serviceId;
+		boundCount++;
+		actions.add(() -> {
+			synchronized (this) {
+				if (generations[index] != generation) {
+					// unbound or released before the handler ran
+					return;
+				}
+			}
+			final CapsuleScope scope = capsuleContext.executeWithinNewCapsuleScope(() -> handler.apply(service));
+			final boolean current;
+			synchronized (this) {
+				current = generations[index] == generation;
+				if (current) {
+					scopes[index] = scope;
+				}
+			}
+			if (!current) {
+				// released or unbound by the handler itself
+				scope.stop();
+			}
+		});
+	}
+
+	/**
+	 * Unbinds the slot and queues the stop of its scope. Must be called with
+	 * the lock held.
+	 */
+	private void deactivate(final int index) {
+		final CapsuleScope scope = scopes[index];
+		scopes[index] = null;
+		generations[index]++;
+		boundServiceIds[index] = -1;
+		boundCount--;
+		if (scope != null) {
+			actions.add(scope::stop);
+		}
+	}
+
+	private void added(final ServiceReference<S> reference, final S service) {
+		synchronized (this) {
+			presentServices.put(reference, service);
+			final long serviceId = serviceId(reference);
+			for (int i = 0; i < slotCount; ++i) {
+				if (handlers[i] != null && boundServiceIds[i] < 0) {
+					activate(i, serviceId, service);
+				}
+			}
+			updateBinding();
+		}
+		runActions();
+	}
+
+	private void removed(final ServiceReference<S> reference) {
+		synchronized (this) {
+			presentServices.remove(reference);
+			final long serviceId = serviceId(reference);
+			for (int i = 0; i < slotCount; ++i) {
+				if (boundServiceIds[i] == serviceId) {
+					deactivate(i);
+				}
+			}
+			updateBinding();
+			// release the service after the scopes using it stopped
+			actions.add(() -> {
+				try {
+					bundleContext.ungetService(reference);
+				} catch (final IllegalStateException e) {
+					// Do nothing. Bundle context is no longer valid.
+				}
+			});
+		}
+		runActions();
+	}
+
+	private void release(final Slot slot) {
+		final boolean closing;
+		ServiceTracker<S, S> toClose = null;
+		synchronized (this) {
+			if (slot.released) {
+				return;
+			}
+			slot.released = true;
+			final int index = slot.index;
+			if (boundServiceIds[index] >= 0) {
+				deactivate(index);
+			} else {
+				generations[index]++;
+			}
+			handlers[index] = null;
+			freeSlots[freeCount++] = index;
+			liveCount--;
+			closing = liveCount == 0;
+			if (closing) {
+				closed = true;
+				toClose = tracker;
+				tracker = null;
+			} else {
+				updateBinding();
+			}
+		}
+		runActions();
+		if (closing) {
+			close(toClose);
+		}
+	}
+
+	private void close(final ServiceTracker<S, S> t) {
+		if (log.isDebugEnabled()) {
+			log.debug("Bundle {}: Closing shared tracker of compact bindings with filter [{}]",
+					Util.bundleName(bundleContext), filter);
+		}
+		if (t != null) {
+			t.close();
+			runActions();
+		}
+		dependencyTracker.unregister(binding);
+		onClose.run();
+	}
+
+	/**
+	 * Queues the update of the reported binding. Must be called with the lock
+	 * held.
+	 */
+	private void updateBinding() {
+		actions.add(() -> {
+			final boolean satisfied;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				satisfied = liveCount > 0 && boundCount == liveCount;
+			}
+			if (!satisfied) {
+				dependencyTracker.unsatisfied(binding);
+			} else if (!binding.isSatisfied()) {
+				dependencyTracker.satisfied(binding);
+			}
+		});
+	}
+
+	/**
+	 * Runs the queued actions in order, without holding the lock, so the
+	 * handlers may bind or release further bindings. Only one thread runs
+	 * actions at a time. Other threads wait for it, so their actions ran when
+	 * this method returns. Called from within an action, this method returns
+	 * immediately, and the actions queued meanwhile run after the current
+	 * one.
+	 */
+	private void runActions() {
+		final Thread current = Thread.currentThread();
+		while (true) {
+			final Runnable action;
+			synchronized (this) {
+				if (runningThread == current) {
+					return;
+				}
+				while (runningThread != null) {
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				action = actions.poll();
+				if (action == null) {
+					return;
+				}
+				runningThread = current;
+			}
+			try {
+				action.run();
+			} finally {
+				synchronized (this) {
+					runningThread = null;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(filter=" + filter + ",size=" + size() + ")";
+	}
+
+}
@@ -0,0 +1,39 @@
+package domino.java;
+
+import java.util.List;
+
+/**
+ * Reports the state of all service dependencies (bindings) of a bundle.
+ * <p>
+ * An {@link OsgiContext} exposes its status via
+ * {@link OsgiContext#dependencyStatus()}, and, if enabled with
+ * {@link OsgiContext#setDependencyStatusPublished(boolean)}, also as OSGi
+ * service under this interface.
+ */
+public interface DependencyStatus {
+
+	/**
+	 * The service property containing the symbolic name of the bundle whose
+	 * dependencies are reported.
+	 */
+	String BUNDLE_PROPERTY = "domino.bundle";
+
+	/**
+	 * Returns all currently declared bindings, in no particular order. With
+	 * {@link OsgiContext#setCompactBindings(boolean) compact bindings}, all
+	 * bindings for the same type and filter are reported as one binding.
+	 */
+	List<ServiceBinding> bindings();
+
+	/**
+	 * Returns all currently declared bindings which are still waiting for a
+	 * service, the longest waiting first.
+	 */
+	List<ServiceBinding> unsatisfiedBindings();
+
+	/**
+	 * Returns `true` if all declared bindings are satisfied.
+	 */
+	boolean isSatisfied();
+
+}
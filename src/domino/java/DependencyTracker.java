@@ -0,0 +1,96 @@
+package domino.java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * Keeps track of the service bindings of one {@link OsgiContext}.
+ */
+public class DependencyTracker implements DependencyStatus {
+
+	private final Logger log = LoggerFactory.getLogger(DependencyTracker.class);
+
+	private final Set<ServiceBinding> bindings = ConcurrentHashMap.newKeySet();
+	/**
+	 * The number of registered and unsatisfied bindings, so
+	 * {@link #isSatisfied()} needs no traversal of all bindings.
+	 */
+	private final AtomicInteger unsatisfiedCount = new AtomicInteger();
+	private final Runnable onChange;
+
+	/**
+	 * @param onChange
+	 *            Called after a binding was satisfied or removed.
+	 */
+	public DependencyTracker(final Runnable onChange) {
+		this.onChange = onChange;
+	}
+
+	public ServiceBinding register(final Class<?> type, final String filter, final String bundleName) {
+		final ServiceBinding binding = new ServiceBinding(type.getName(), filter, bundleName);
+		unsatisfiedCount.incrementAndGet();
+		bindings.add(binding);
+		return binding;
+	}
+
+	public void satisfied(final ServiceBinding binding) {
+		if (binding.markSatisfied()) {
+			unsatisfiedCount.decrementAndGet();
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Bundle {}: Binding for [{}] with filter [{}] satisfied after {} ms", binding.bundleName(),
+					binding.type(), binding.filter(), binding.lastWaitMillis());
+		}
+		onChange.run();
+	}
+
+	public void unsatisfied(final ServiceBinding binding) {
+		if (binding.markUnsatisfied()) {
+			unsatisfiedCount.incrementAndGet();
+		}
+	}
+
+	public void unregister(final ServiceBinding binding) {
+		if (binding.markUnregistered()) {
+			unsatisfiedCount.decrementAndGet();
+		}
+		bindings.remove(binding);
+		onChange.run();
+	}
+
+	@Override
+	public List<ServiceBinding> bindings() {
+		return Collections.unmodifiableList(new ArrayList<>(bindings));
+	}
+
+	@Override
+	public List<ServiceBinding> unsatisfiedBindings() {
+		final List<ServiceBinding> unsatisfied = new ArrayList<>();
+		for (final ServiceBinding binding : bindings) {
+			if (!binding.isSatisfied()) {
+				unsatisfied.add(binding);
+			}
+		}
+		unsatisfied.sort(Comparator.comparingLong(ServiceBinding::waitingSinceNanos));
+		return Collections.unmodifiableList(unsatisfied);
+	}
+
+	@Override
+	public boolean isSatisfied() {
+		return unsatisfiedCount.get() == 0;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(bindings=" + bindings + ")";
+	}
+
+}
@@ -0,0 +1,52 @@
+package domino.java;
+
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * The bundle activator of the optional Domino runtime bundle. It registers a
+ * {@link SharedRegistryMirror} as {@link ServiceRegistryMirror} service, to
+ * which the service watchers of all Domino bundles subscribe instead of
+ * opening their own service listeners.
+ * <p>
+ * The runtime bundle should be started before and stopped after the bundles
+ * using Domino, e.g. by giving it a lower start level. Watchers started while
+ * the runtime is absent use their own service trackers, as before.
+ */
+public class DominoRuntime implements BundleActivator {
+
+	private SharedRegistryMirror mirror;
+	private ServiceRegistration<ServiceRegistryMirror> registration;
+
+	@Override
+	public void start(final BundleContext context) throws Exception {
+		mirror = new SharedRegistryMirror();
+		mirror.open(context);
+		registration = context.registerService(ServiceRegistryMirror.class, mirror, null);
+	}
+
+	@Override
+	public void stop(final BundleContext context) throws Exception {
+		if (registration != null) {
+			try {
+				registration.unregister();
+			} catch (final IllegalStateException e) {
+				// Do nothing. Was already unregistered.
+			}
+			registration = null;
+		}
+		if (mirror != null) {
+			mirror.close();
+			mirror = null;
+		}
+	}
+
+	/**
+	 * The mirror, while the runtime is started.
+	 */
+	public SharedRegistryMirror mirror() {
+		return mirror;
+	}
+
+}
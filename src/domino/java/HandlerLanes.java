@@ -0,0 +1,240 @@
+package domino.java;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import domino.java.internal.DominoExecutors;
+
+/**
+ * Dispatches the events of service watchers in lanes, one per
+ * {@link HandlerPriority}, so that a flood of events for low priority
+ * handlers cannot delay the handling of critical services.
+ * <p>
+ * {@link HandlerPriority#HIGH} handlers run on dedicated threads,
+ * {@link HandlerPriority#NORMAL} handlers on the thread delivering the service
+ * event, and {@link HandlerPriority#LOW} handlers on a single low priority
+ * thread with a bounded queue, in which
+ * {@link ServiceWatcherEvent.EventType#MODIFIED} events are coalesced. Each
+ * watcher still receives its events in order.
+ * <p>
+ * The {@link #shared() shared} instance is used by all service watchers. Each
+ * lane exposes its metrics via {@link #lane(HandlerPriority)}. Events handled
+ * on the delivering thread are only counted, so that the default lane costs no
+ * more than calling the handler directly.
+ *
+ * @param highThreads
+ *            The number of dedicated threads of the high priority lane
+ * @param lowCapacity
+ *            The maximal number of events queued in the low priority lane
+ *            before modifications are dropped
+ */
+public class HandlerLanes {
+
+	private static volatile HandlerLanes shared;
+
+	private final Map<HandlerPriority, Lane> lanes = new EnumMap<>(HandlerPriority.class);
+
+	public HandlerLanes(final int highThreads, final int lowCapacity) {
+		if (highThreads < 1) {
+			throw new IllegalArgumentException("highThreads must be positive");
+		}
+		if (lowCapacity < 1) {
+			throw new IllegalArgumentException("lowCapacity must be positive");
+		}
+		lanes.put(HandlerPriority.HIGH, new Lane(HandlerPriority.HIGH,
+				lazyPool(highThreads, "domino-lane-high", Thread.MAX_PRIORITY), 0));
+		lanes.put(HandlerPriority.NORMAL, new Lane(HandlerPriority.NORMAL, null, 0));
+		lanes.put(HandlerPriority.LOW, new Lane(HandlerPriority.LOW,
+				lazyPool(1, "domino-lane-low", Thread.MIN_PRIORITY), lowCapacity));
+	}
+
+	/**
+	 * The shared instance with 2 high priority threads and room for 10000
+	 * events in the low priority lane.
+	 */
+	public static HandlerLanes shared() {
+		HandlerLanes s = shared;
+		if (s == null) {
+			synchronized (HandlerLanes.class) {
+				s = shared;
+				if (s == null) {
+					shared = s = new HandlerLanes(2, 10000);
+				}
+			}
+		}
+		return s;
+	}
+
+	private static Executor lazyPool(final int threads, final String prefix, final int priority) {
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				threads, threads,
+				60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				DominoExecutors.daemonThreadFactory(prefix, priority));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	public Lane lane(final HandlerPriority priority) {
+		return lanes.get(priority);
+	}
+
+	/**
+	 * A lane of handlers with the same priority, and its metrics.
+	 */
+	public static class Lane {
+
+		private final HandlerPriority priority;
+		private final Executor executor;
+		private final int capacity;
+
+		private final AtomicInteger queueDepth = new AtomicInteger();
+		private final LongAdder dispatched = new LongAdder();
+		private final LongAdder coalesced = new LongAdder();
+		private final LongAdder dropped = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		/**
+		 * Keys of the modifications currently queued, used to coalesce them.
+		 */
+		private final Set<Object> pendingModifications = ConcurrentHashMap.newKeySet();
+
+		Lane(final HandlerPriority priority, final Executor executor, final int capacity) {
+			this.priority = priority;
+			this.executor = executor;
+			this.capacity = capacity;
+		}
+
+		/**
+		 * The executor running the handlers of this lane, or `null` if they
+		 * run on the calling thread. Events of one watcher must be serialized
+		 * on top of it.
+		 */
+		Executor executor() {
+			return executor;
+		}
+
+		/**
+		 * Submits the invocation of a handler.
+		 *
+		 * @param ordering
+		 *            The executor serializing the events of the watcher, or
+		 *            `null` to run the invocation on the calling thread.
+		 * @param modificationKey
+		 *            Identifies the watcher and service of a
+		 *            {@link ServiceWatcherEvent.EventType#MODIFIED} event, or
+		 *            `null` for all other events, which are never coalesced or
+		 *            dropped.
+		 * @param invocation
+		 *            The handler invocation.
+		 */
+		void submit(final Executor ordering, final Object modificationKey, final Runnable invocation) {
+			if (ordering == null && modificationKey == null) {
+				// Nothing is queued, so there is no wait to measure
+				dispatched.increment();
+				invocation.run();
+				return;
+			}
+			final long enqueued = System.nanoTime();
+			final boolean coalescing = modificationKey != null && capacity > 0;
+			if (coalescing) {
+				if (!pendingModifications.add(modificationKey)) {
+					// the pending event will see the current service properties
+					coalesced.increment();
+					return;
+				}
+				if (queueDepth.get() >= capacity) {
+					pendingModifications.remove(modificationKey);
+					dropped.increment();
+					return;
+				}
+			}
+			queueDepth.incrementAndGet();
+			final Runnable task = () -> {
+				queueDepth.decrementAndGet();
+				if (coalescing) {
+					pendingModifications.remove(modificationKey);
+				}
+				dispatched.increment();
+				try {
+					invocation.run();
+				} finally {
+					latency.record(System.nanoTime() - enqueued);
+				}
+			};
+			if (ordering != null) {
+				ordering.execute(task);
+			} else {
+				task.run();
+			}
+		}
+
+		public HandlerPriority priority() {
+			return priority;
+		}
+
+		/**
+		 * The number of events waiting to be dispatched.
+		 */
+		public int queueDepth() {
+			return queueDepth.get();
+		}
+
+		/**
+		 * The number of events delivered to handlers.
+		 */
+		public long dispatched() {
+			return dispatched.sum();
+		}
+
+		/**
+		 * The number of modification events merged into a pending one.
+		 */
+		public long coalesced() {
+			return coalesced.sum();
+		}
+
+		/**
+		 * The number of modification events dropped because the queue was
+		 * full.
+		 */
+		public long dropped() {
+			return dropped.sum();
+		}
+
+		/**
+		 * The time from the service event until the handler returned, for
+		 * events dispatched to another thread. Handlers invoked on the
+		 * delivering thread are not timed.
+		 */
+		public LatencyHistogram latency() {
+			return latency;
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() +
+					"(priority=" + priority +
+					",queueDepth=" + queueDepth +
+					",dispatched=" + dispatched +
+					",coalesced=" + coalesced +
+					",dropped=" + dropped +
+					",latency=" + latency +
+					")";
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(lanes=" + lanes.values() + ")";
+	}
+
+}
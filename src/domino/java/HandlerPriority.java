@@ -0,0 +1,25 @@
+package domino.java;
+
+/**
+ * The priority of a service watcher handler, which selects the
+ * {@link HandlerLanes lane} its events are dispatched in.
+ */
+public enum HandlerPriority {
+	/**
+	 * Events are dispatched on dedicated threads, so they are never delayed by
+	 * other handlers. Use it for critical dependencies.
+	 */
+	HIGH,
+	/**
+	 * Events are dispatched on the thread delivering the service event, as
+	 * before.
+	 */
+	NORMAL,
+	/**
+	 * Events are dispatched on a single low priority thread. Its queue is
+	 * bounded, and {@link ServiceWatcherEvent.EventType#MODIFIED} events of a
+	 * service are coalesced while one is pending, or dropped if the queue is
+	 * full.
+	 */
+	LOW;
+}
@@ -0,0 +1,337 @@
+package domino.java;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.tototec.utils.functional.Procedure1;
+import domino.java.internal.DominoExecutors;
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * Times handler invocations which run on framework threads and reports the
+ * ones exceeding a configurable threshold.
+ * <p>
+ * A single sweeper, scheduled only while timed handlers run, checks the start
+ * time of the handler currently running on each thread. When a handler is
+ * still running after the threshold, the stack trace of the blocked thread is
+ * captured and a {@link StallReport} is published to the log (as warning) and
+ * to all registered stall listeners. The counters of this
+ * class can be exported to any metrics system.
+ * <p>
+ * In strict mode, a service watcher whose handler stalled is switched to
+ * asynchronous dispatch, so that further events of that watcher no longer block
+ * the framework thread.
+ * <p>
+ * Install a watchdog with {@link OsgiContext#setHandlerWatchdog(HandlerWatchdog)}.
+ */
+public class HandlerWatchdog {
+
+	private final Logger log = LoggerFactory.getLogger(HandlerWatchdog.class);
+
+	private final long thresholdMillis;
+	private final boolean strict;
+	private final List<Procedure1<StallReport>> stallListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * The invocation currently timed on a thread, reused for all invocations
+	 * on that thread. Guarded by itself.
+	 */
+	private static final class InFlight {
+		private final Thread thread = Thread.currentThread();
+		private boolean running = false;
+		private StallReport.HandlerKind handlerKind;
+		private String bundleName;
+		private String filter;
+		private Object handler;
+		private Runnable onStall;
+		private long startNanos;
+		private boolean reported;
+
+		void set(final boolean running, final StallReport.HandlerKind handlerKind, final String bundleName,
+				final String filter, final Object handler, final Runnable onStall, final long startNanos,
+				final boolean reported) {
+			this.running = running;
+			this.handlerKind = handlerKind;
+			this.bundleName = bundleName;
+			this.filter = filter;
+			this.handler = handler;
+			this.onStall = onStall;
+			this.startNanos = startNanos;
+			this.reported = reported;
+		}
+	}
+
+	/**
+	 * The slots of all threads which ran a timed invocation and are still
+	 * alive.
+	 */
+	private final Set<InFlight> threads = ConcurrentHashMap.newKeySet();
+	private final ThreadLocal<InFlight> inFlight = ThreadLocal.withInitial(() -> {
+		final InFlight slot = new InFlight();
+		threads.add(slot);
+		return slot;
+	});
+	/**
+	 * `true` while the sweeper is scheduled.
+	 */
+	private final AtomicBoolean sweeping = new AtomicBoolean(false);
+
+	private final LongAdder invocations = new LongAdder();
+	private final LongAdder stalls = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+
+	/**
+	 * Creates a non-strict watchdog.
+	 *
+	 * @param thresholdMillis
+	 *            The time in milliseconds a handler may run before it is
+	 *            considered stalled.
+	 */
+	public HandlerWatchdog(final long thresholdMillis) {
+		this(thresholdMillis, false);
+	}
+
+	/**
+	 * @param thresholdMillis
+	 *            The time in milliseconds a handler may run before it is
+	 *            considered stalled.
+	 * @param strict
+	 *            If `true`, service watchers with stalled handlers are moved
+	 *            to asynchronous dispatch.
+	 */
+	public HandlerWatchdog(final long thresholdMillis, final boolean strict) {
+		if (thresholdMillis <= 0) {
+			throw new IllegalArgumentException("thresholdMillis must be positive");
+		}
+		this.thresholdMillis = thresholdMillis;
+		this.strict = strict;
+	}
+
+	public long thresholdMillis() {
+		return thresholdMillis;
+	}
+
+	public boolean isStrict() {
+		return strict;
+	}
+
+	/**
+	 * Adds a listener which gets notified about each stall.
+	 */
+	public void addStallListener(final Procedure1<StallReport> listener) {
+		stallListeners.add(listener);
+	}
+
+	public void removeStallListener(final Procedure1<StallReport> listener) {
+		stallListeners.remove(listener);
+	}
+
+	/**
+	 * The number of timed handler invocations.
+	 */
+	public long invocationCount() {
+		return invocations.sum();
+	}
+
+	/**
+	 * The number of handler invocations which exceeded the threshold.
+	 */
+	public long stallCount() {
+		return stalls.sum();
+	}
+
+	/**
+	 * The accumulated run time of all timed handler invocations in
+	 * nanoseconds.
+	 */
+	public long totalTimeNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * Runs the given handler invocation and times it.
+	 *
+	 * @param handlerKind
+	 *            The kind of the handler.
+	 * @param bundleName
+	 *            The name of the bundle owning the handler.
+	 * @param filter
+	 *            The filter of the watcher, or `null`.
+	 * @param handler
+	 *            The handler object, used for attribution only.
+	 * @param onStall
+	 *            Will be called (from the watchdog thread) when a stall was
+	 *            detected, or `null`.
+	 * @param invocation
+	 *            The actual invocation.
+	 */
+	public void time(
+			final StallReport.HandlerKind handlerKind,
+			final String bundleName,
+			final String filter,
+			final Object handler,
+			final Runnable onStall,
+			final Runnable invocation) {
+		final InFlight inFlight = this.inFlight.get();
+		final long start = System.nanoTime();
+		// Nested invocations (e.g. a watcher handler called from a
+		// whenBundleActive handler) take over the slot of the thread until
+		// they return
+		final boolean outerRunning;
+		final StallReport.HandlerKind outerKind;
+		final String outerBundleName;
+		final String outerFilter;
+		final Object outerHandler;
+		final Runnable outerOnStall;
+		final long outerStart;
+		final boolean outerReported;
+		synchronized (inFlight) {
+			outerRunning = inFlight.running;
+			outerKind = inFlight.handlerKind;
+			outerBundleName = inFlight.bundleName;
+			outerFilter = inFlight.filter;
+			outerHandler = inFlight.handler;
+			outerOnStall = inFlight.onStall;
+			outerStart = inFlight.startNanos;
+			outerReported = inFlight.reported;
+			inFlight.set(true, handlerKind, bundleName, filter, handler, onStall, start, false);
+		}
+		ensureSweeping();
+
+		invocations.increment();
+		try {
+			invocation.run();
+		} finally {
+			final long durationNanos = System.nanoTime() - start;
+			totalNanos.add(durationNanos);
+			final long duration = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+			final boolean reported;
+			synchronized (inFlight) {
+				reported = inFlight.reported;
+				inFlight.set(outerRunning, outerKind, outerBundleName, outerFilter, outerHandler, outerOnStall,
+						outerStart, outerReported);
+			}
+			// the sweeper might have been too busy to catch the stall
+			if (duration >= thresholdMillis && !reported) {
+				publish(new StallReport(handlerKind, bundleName, filter, handler.getClass(),
+						inFlight.thread.getName(), new StackTraceElement[0], duration, true), onStall);
+			}
+		}
+	}
+
+	/**
+	 * Starts the sweeper, unless it is already running.
+	 */
+	private void ensureSweeping() {
+		if (!sweeping.get() && sweeping.compareAndSet(false, true)) {
+			scheduleSweep();
+		}
+	}
+
+	private void scheduleSweep() {
+		final long period = Math.max(1, thresholdMillis / 2);
+		try {
+			DominoExecutors.scheduler().schedule(this::sweep, period, TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			// The executors were shut down, the next invocation tries again
+			sweeping.set(false);
+		}
+	}
+
+	/**
+	 * Reports the invocations running longer than the threshold. Reschedules
+	 * itself as long as invocations are running.
+	 */
+	private void sweep() {
+		boolean running = false;
+		final long now = System.nanoTime();
+		final long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		for (final InFlight inFlight : threads) {
+			final StallReport.HandlerKind handlerKind;
+			final String bundleName;
+			final String filter;
+			final Object handler;
+			final Runnable onStall;
+			final long startNanos;
+			synchronized (inFlight) {
+				if (!inFlight.running) {
+					if (!inFlight.thread.isAlive()) {
+						threads.remove(inFlight);
+					}
+					continue;
+				}
+				running = true;
+				if (inFlight.reported || now - inFlight.startNanos < thresholdNanos) {
+					continue;
+				}
+				inFlight.reported = true;
+				handlerKind = inFlight.handlerKind;
+				bundleName = inFlight.bundleName;
+				filter = inFlight.filter;
+				handler = inFlight.handler;
+				onStall = inFlight.onStall;
+				startNanos = inFlight.startNanos;
+			}
+			final StackTraceElement[] stackTrace = inFlight.thread.getStackTrace();
+			final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+			publish(new StallReport(handlerKind, bundleName, filter, handler.getClass(), inFlight.thread.getName(),
+					stackTrace, duration, false), onStall);
+		}
+		if (running) {
+			scheduleSweep();
+		} else {
+			sweeping.set(false);
+			// An invocation might have started after its thread was checked
+			for (final InFlight inFlight : threads) {
+				synchronized (inFlight) {
+					if (inFlight.running) {
+						ensureSweeping();
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	protected void publish(final StallReport report, final Runnable onStall) {
+		stalls.increment();
+		if (log.isWarnEnabled()) {
+			final StringBuilder trace = new StringBuilder();
+			for (final StackTraceElement element : report.stackTrace()) {
+				trace.append("\n\tat ").append(element);
+			}
+			log.warn("Bundle {}: {} handler [{}] (filter [{}]) is running for {} ms on thread [{}]{}{}",
+					report.bundleName(), report.handlerKind(), report.handlerClass().getName(), report.filter(),
+					report.durationMillis(), report.threadName(), report.completed() ? " (completed)" : "",
+					trace);
+		}
+		for (final Procedure1<StallReport> listener : stallListeners) {
+			try {
+				listener.apply(report);
+			} catch (final Throwable e) {
+				log.error("Exception thrown by stall listener {}", listener, e);
+			}
+		}
+		if (strict && onStall != null) {
+			onStall.run();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(thresholdMillis=" + thresholdMillis +
+				",strict=" + strict +
+				",invocations=" + invocationCount() +
+				",stalls=" + stallCount() +
+				")";
+	}
+
+}
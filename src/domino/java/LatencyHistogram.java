@@ -0,0 +1,100 @@
+package domino.java;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power-of-two buckets.
+ * <p>
+ * Bucket `i` counts all latencies `l` (in nanoseconds) with `2^(i-1) <= l <
+ * 2^i`; bucket `0` counts latencies of `0`. Recording a value costs a single
+ * atomic increment.
+ */
+public class LatencyHistogram {
+
+	public static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Records the given latency.
+	 *
+	 * @param nanos
+	 *            The latency in nanoseconds.
+	 */
+	public void record(final long nanos) {
+		buckets.incrementAndGet(bucket(nanos));
+	}
+
+	/**
+	 * Returns the bucket index of the given latency.
+	 */
+	public static int bucket(final long nanos) {
+		return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * Returns the exclusive upper bound in nanoseconds of the given bucket.
+	 */
+	public static long bucketUpperBound(final int bucket) {
+		return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+	}
+
+	/**
+	 * Returns a copy of all bucket counts.
+	 */
+	public long[] bucketCounts() {
+		final long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the number of recorded latencies.
+	 */
+	public long count() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns an upper bound in nanoseconds for the given percentile of all
+	 * recorded latencies, or `0` if nothing was recorded.
+	 *
+	 * @param percentile
+	 *            The percentile, between `0` and `100`.
+	 */
+	public long percentileUpperBound(final double percentile) {
+		final long[] counts = bucketCounts();
+		long total = 0;
+		for (final long count : counts) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long threshold = (long) Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts[i];
+			if (seen >= threshold && seen > 0) {
+				return bucketUpperBound(i);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(count=" + count() +
+				",p50=" + percentileUpperBound(50) +
+				",p99=" + percentileUpperBound(99) +
+				")";
+	}
+
+}
@@ -0,0 +1,205 @@
+package domino.java;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+
+import de.tototec.utils.functional.F0;
+import domino.java.internal.DominoExecutors;
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * A {@link ServiceFactory} creating the service object on the first request
+ * and disposing it after the last release.
+ *
+ * @param supplier
+ *            Creates the service object.
+ * @param options
+ *            Lifecycle options.
+ * @tparam S Service type
+ *
+ * @see LazyServiceOptions
+ */
+public class LazyServiceFactory<S> implements ServiceFactory<S> {
+
+	private final Logger log = LoggerFactory.getLogger(LazyServiceFactory.class);
+
+	private static class Entry<S> {
+		/**
+		 * `null` while being created.
+		 */
+		private S service;
+		private int users;
+		private ScheduledFuture<?> disposal;
+	}
+
+	/**
+	 * The key of the single entry, if the service object is not created per
+	 * bundle.
+	 */
+	private static final Object SINGLETON = new Object();
+
+	private final F0<S> supplier;
+	private final LazyServiceOptions<S> options;
+
+	private final Map<Object, Entry<S>> entries = new HashMap<>();
+
+	public LazyServiceFactory(final F0<S> supplier, final LazyServiceOptions<S> options) {
+		this.supplier = supplier;
+		this.options = options;
+	}
+
+	@Override
+	public S getService(final Bundle bundle, final ServiceRegistration<S> registration) {
+		final Object key = options.isPerBundle() ? bundle : SINGLETON;
+		final Entry<S> created;
+		synchronized (entries) {
+			while (true) {
+				final Entry<S> entry = entries.get(key);
+				if (entry == null) {
+					// Reserve the entry, the service object is created without holding the lock
+					created = new Entry<>();
+					entries.put(key, created);
+					break;
+				}
+				if (entry.service != null) {
+					if (entry.disposal != null) {
+						entry.disposal.cancel(false);
+						entry.disposal = null;
+					}
+					entry.users++;
+					return entry.service;
+				}
+				// Another thread creates the service object
+				try {
+					entries.wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for the lazy service object", e);
+				}
+			}
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("Creating lazy service object for bundle {}", bundle.getSymbolicName());
+		}
+		S service = null;
+		try {
+			service = supplier.apply();
+		} finally {
+			synchronized (entries) {
+				if (service != null && entries.get(key) == created) {
+					created.service = service;
+					created.users++;
+				} else {
+					entries.remove(key, created);
+				}
+				entries.notifyAll();
+			}
+		}
+		if (created.service != service) {
+			// Disposed concurrently, e.g. after the service was unregistered
+			dispose(service);
+			return null;
+		}
+		return service;
+	}
+
+	@Override
+	public void ungetService(final Bundle bundle, final ServiceRegistration<S> registration, final S service) {
+		final Object key = options.isPerBundle() ? bundle : SINGLETON;
+		Entry<S> disposeNow = null;
+		synchronized (entries) {
+			final Entry<S> entry = entries.get(key);
+			if (entry == null || entry.service != service) {
+				return;
+			}
+			entry.users--;
+			if (entry.users <= 0) {
+				if (options.idleTimeoutMillis() > 0) {
+					entry.disposal = DominoExecutors.scheduler().schedule(() -> {
+						Entry<S> idle = null;
+						synchronized (entries) {
+							if (entry.users <= 0 && entries.get(key) == entry) {
+								entries.remove(key);
+								idle = entry;
+							}
+						}
+						if (idle != null) {
+							dispose(idle.service);
+						}
+					}, options.idleTimeoutMillis(), TimeUnit.MILLISECONDS);
+				} else {
+					entries.remove(key);
+					disposeNow = entry;
+				}
+			}
+		}
+		if (disposeNow != null) {
+			dispose(disposeNow.service);
+		}
+	}
+
+	/**
+	 * Returns the number of currently existing service objects.
+	 */
+	public int instanceCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Disposes all service objects, regardless of their idle time. Should be
+	 * called after the service was unregistered.
+	 */
+	public void disposeAll() {
+		final List<Entry<S>> toDispose;
+		synchronized (entries) {
+			toDispose = new ArrayList<>(entries.values());
+			entries.clear();
+		}
+		for (final Entry<S> entry : toDispose) {
+			if (entry.disposal != null) {
+				entry.disposal.cancel(false);
+			}
+			if (entry.service == null) {
+				// Still being created, disposed by the creating thread
+				continue;
+			}
+			dispose(entry.service);
+		}
+	}
+
+	protected void dispose(final S service) {
+		if (log.isDebugEnabled()) {
+			log.debug("Disposing lazy service object [{}]", service);
+		}
+		try {
+			if (options.disposer() != null) {
+				options.disposer().apply(service);
+			} else if (service instanceof AutoCloseable) {
+				((AutoCloseable) service).close();
+			}
+		} catch (final Exception e) {
+			log.error("Could not dispose lazy service object [{}]", service, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(supplier=" + supplier +
+				",options=" + options +
+				")";
+	}
+
+}
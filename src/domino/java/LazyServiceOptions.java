@@ -0,0 +1,84 @@
+package domino.java;
+
+import de.tototec.utils.functional.Procedure1;
+
+/**
+ * Options for services registered with
+ * {@link ServiceProviding#providesLazyService(de.tototec.utils.functional.F0, Iterable, java.util.Map, LazyServiceOptions)}.
+ * <p>
+ * Instances are immutable, all `with` methods return a modified copy.
+ *
+ * @tparam S Service type
+ */
+public class LazyServiceOptions<S> {
+
+	private final boolean perBundle;
+	private final long idleTimeoutMillis;
+	private final Procedure1<S> disposer;
+
+	protected LazyServiceOptions(final boolean perBundle, final long idleTimeoutMillis, final Procedure1<S> disposer) {
+		this.perBundle = perBundle;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.disposer = disposer;
+	}
+
+	/**
+	 * One service object is shared by all consuming bundles. It is created on
+	 * the first request and disposed after the last bundle released it.
+	 */
+	public static <S> LazyServiceOptions<S> singleton() {
+		return new LazyServiceOptions<>(false, 0, null);
+	}
+
+	/**
+	 * Each consuming bundle gets its own service object. It is created on the
+	 * first request of that bundle and disposed when that bundle released it.
+	 */
+	public static <S> LazyServiceOptions<S> perBundle() {
+		return new LazyServiceOptions<>(true, 0, null);
+	}
+
+	/**
+	 * Keeps an unused service object for the given time before disposing it,
+	 * so that it can be reused if requested again in the meantime.
+	 */
+	public LazyServiceOptions<S> withIdleTimeout(final long idleTimeoutMillis) {
+		if (idleTimeoutMillis < 0) {
+			throw new IllegalArgumentException("idleTimeoutMillis must not be negative");
+		}
+		return new LazyServiceOptions<>(perBundle, idleTimeoutMillis, disposer);
+	}
+
+	/**
+	 * Uses the given procedure to dispose service objects. By default,
+	 * service objects implementing {@link AutoCloseable} are closed.
+	 */
+	public LazyServiceOptions<S> withDisposer(final Procedure1<S> disposer) {
+		return new LazyServiceOptions<>(perBundle, idleTimeoutMillis, disposer);
+	}
+
+	public boolean isPerBundle() {
+		return perBundle;
+	}
+
+	public long idleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * The custom disposer, or `null`.
+	 */
+	public Procedure1<S> disposer() {
+		return disposer;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(perBundle=" + perBundle +
+				",idleTimeoutMillis=" + idleTimeoutMillis +
+				",disposer=" + disposer +
+				")";
+	}
+
+}
@@ -0,0 +1,277 @@
+package domino.java;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+import de.tototec.utils.functional.Optional;
+import domino.java.internal.DominoExecutors;
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * A handle to update the service properties of a service registered by a
+ * {@link ServiceProviderCapsule}.
+ * <p>
+ * Updates are merged into the current properties. Updates which do not change
+ * any value are skipped. The changed properties are published with
+ * {@link ServiceRegistration#setProperties(java.util.Dictionary)} at most once
+ * per coalesce interval, so that bursts of updates result in a single
+ * `MODIFIED` service event. When the capsule stops, pending changes are
+ * published before the service is unregistered.
+ *
+ * @param properties
+ *            The initial service properties
+ * @param coalesceIntervalMillis
+ *            The minimal time between two publications, or `0` to publish
+ *            each change immediately
+ * @tparam S Service type
+ */
+public class ManagedServiceProperties<S> {
+
+	private final Logger log = LoggerFactory.getLogger(ManagedServiceProperties.class);
+
+	private final long coalesceIntervalMillis;
+
+	/**
+	 * The properties as requested by the last update.
+	 */
+	private ServiceProperties current;
+
+	/**
+	 * The properties as last given to the framework.
+	 */
+	private ServiceProperties published;
+
+	private Optional<ServiceRegistration<S>> registration = Optional.none();
+	private ScheduledFuture<?> pendingPublication;
+	private long lastPublicationNanos;
+
+	/**
+	 * Serializes the calls to the framework.
+	 */
+	private final Object publicationLock = new Object();
+
+	private final LongAdder updates = new LongAdder();
+	private final LongAdder skippedUpdates = new LongAdder();
+	private final LongAdder publications = new LongAdder();
+
+	public ManagedServiceProperties(final Map<String, Object> properties, final long coalesceIntervalMillis) {
+		if (coalesceIntervalMillis < 0) {
+			throw new IllegalArgumentException("coalesceIntervalMillis must not be negative");
+		}
+		this.coalesceIntervalMillis = coalesceIntervalMillis;
+		this.current = ServiceProperties.copyOf(properties);
+		this.published = current;
+		this.lastPublicationNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(coalesceIntervalMillis);
+	}
+
+	public long coalesceIntervalMillis() {
+		return coalesceIntervalMillis;
+	}
+
+	/**
+	 * Returns the current properties, including changes not yet published.
+	 */
+	public synchronized ServiceProperties current() {
+		return current;
+	}
+
+	/**
+	 * The registration of the service, if currently registered.
+	 */
+	public synchronized Optional<ServiceRegistration<S>> serviceRegistration() {
+		return registration;
+	}
+
+	/**
+	 * Merges the given properties into the current ones. A `null` value
+	 * removes the property. Keys are case-insensitive, an existing property
+	 * keeps the spelling of its key.
+	 *
+	 * @return `true` if any property value changed.
+	 */
+	public boolean update(final Map<String, ?> changes) {
+		updates.increment();
+		boolean changed = false;
+		synchronized (this) {
+			final ServiceProperties.Builder next = ServiceProperties.builder(current);
+			// Keys are case-insensitive, like in the framework. An existing
+			// key keeps its spelling.
+			final Map<String, String> spellings = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			for (final String key : current.keySet()) {
+				spellings.put(key, key);
+			}
+			for (final Map.Entry<String, ?> change : changes.entrySet()) {
+				if (isFrameworkProperty(change.getKey())) {
+					continue;
+				}
+				final String existing = spellings.get(change.getKey());
+				if (change.getValue() == null) {
+					if (existing != null) {
+						changed = true;
+						next.remove(existing);
+						spellings.remove(existing);
+					}
+				} else if (existing == null || !Objects.deepEquals(current.get(existing), change.getValue())) {
+					final String key = existing != null ? existing : change.getKey();
+					changed = true;
+					next.put(key, change.getValue());
+					spellings.put(key, key);
+				}
+			}
+			if (!changed) {
+				skippedUpdates.increment();
+				return false;
+			}
+			current = next.build();
+		}
+		schedulePublication();
+		return true;
+	}
+
+	/**
+	 * Sets a single property.
+	 *
+	 * @return `true` if the property value changed.
+	 */
+	public boolean update(final String key, final Object value) {
+		return update(Collections.singletonMap(key, value));
+	}
+
+	/**
+	 * Removes the given properties.
+	 *
+	 * @return `true` if any property was removed.
+	 */
+	public boolean remove(final String... keys) {
+		final Map<String, Object> changes = new LinkedHashMap<>();
+		for (final String key : keys) {
+			changes.put(key, null);
+		}
+		return update(changes);
+	}
+
+	/**
+	 * Publishes pending changes immediately.
+	 */
+	public void flush() {
+		synchronized (this) {
+			if (pendingPublication != null) {
+				pendingPublication.cancel(false);
+				pendingPublication = null;
+			}
+		}
+		publish();
+	}
+
+	/**
+	 * The number of requested updates.
+	 */
+	public long updateCount() {
+		return updates.sum();
+	}
+
+	/**
+	 * The number of updates skipped because no value changed.
+	 */
+	public long skippedUpdateCount() {
+		return skippedUpdates.sum();
+	}
+
+	/**
+	 * The number of calls to
+	 * {@link ServiceRegistration#setProperties(java.util.Dictionary)}.
+	 */
+	public long publicationCount() {
+		return publications.sum();
+	}
+
+	/**
+	 * Called by the capsule after the service was registered.
+	 */
+	synchronized void attach(final ServiceRegistration<S> registration) {
+		this.registration = Optional.some(registration);
+		this.published = current;
+	}
+
+	/**
+	 * Called by the capsule before the service is unregistered. Publishes
+	 * pending changes.
+	 */
+	void detach() {
+		flush();
+		synchronized (this) {
+			registration = Optional.none();
+		}
+	}
+
+	protected void schedulePublication() {
+		synchronized (this) {
+			if (registration.isEmpty() || pendingPublication != null) {
+				return;
+			}
+			final long delayNanos = lastPublicationNanos + TimeUnit.MILLISECONDS.toNanos(coalesceIntervalMillis)
+					- System.nanoTime();
+			if (delayNanos > 0) {
+				pendingPublication = DominoExecutors.scheduler().schedule(() -> {
+					synchronized (ManagedServiceProperties.this) {
+						pendingPublication = null;
+					}
+					publish();
+				}, delayNanos, TimeUnit.NANOSECONDS);
+				return;
+			}
+		}
+		publish();
+	}
+
+	protected void publish() {
+		synchronized (publicationLock) {
+			final ServiceRegistration<S> reg;
+			final ServiceProperties props;
+			synchronized (this) {
+				if (registration.isEmpty() || current.equals(published)) {
+					return;
+				}
+				reg = registration.get();
+				published = current;
+				props = current;
+				lastPublicationNanos = System.nanoTime();
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Publishing service properties [{}] of service [{}]", props, reg);
+			}
+			try {
+				reg.setProperties(props);
+				publications.increment();
+			} catch (final IllegalStateException e) {
+				// Do nothing. Was already unregistered.
+			} catch (final IllegalArgumentException e) {
+				log.error("Could not publish service properties [{}] of service [{}]", props, reg, e);
+			}
+		}
+	}
+
+	private static boolean isFrameworkProperty(final String key) {
+		return Constants.OBJECTCLASS.equalsIgnoreCase(key) || Constants.SERVICE_ID.equalsIgnoreCase(key)
+				|| Constants.SERVICE_BUNDLEID.equalsIgnoreCase(key) || Constants.SERVICE_SCOPE.equalsIgnoreCase(key);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(coalesceIntervalMillis=" + coalesceIntervalMillis +
+				",current=" + current() +
+				")";
+	}
+
+}
@@ -0,0 +1,66 @@
+package domino.java;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call count, error count and latency histogram of one method of an
+ * instrumented service interface.
+ *
+ * @see ServiceInstrumentation
+ */
+public class MethodCallMetrics {
+
+	private final Method method;
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	public MethodCallMetrics(final Method method) {
+		this.method = method;
+	}
+
+	public Method method() {
+		return method;
+	}
+
+	/**
+	 * The number of calls.
+	 */
+	public long calls() {
+		return calls.sum();
+	}
+
+	/**
+	 * The number of calls which threw an exception.
+	 */
+	public long errors() {
+		return errors.sum();
+	}
+
+	/**
+	 * The latencies of the sampled calls.
+	 */
+	public LatencyHistogram latency() {
+		return latency;
+	}
+
+	void recordCall() {
+		calls.increment();
+	}
+
+	void recordError() {
+		errors.increment();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(method=" + method.getName() +
+				",calls=" + calls +
+				",errors=" + errors +
+				",latency=" + latency +
+				")";
+	}
+
+}
@@ -0,0 +1,399 @@
+package domino.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * A {@link ServiceTracker} which is fed by a {@link ServiceRegistryMirror}
+ * subscription instead of its own service listener. The services are still
+ * acquired with the bundle context of the tracking bundle.
+ * <p>
+ * All public methods of {@link ServiceTracker} are overridden, as the state
+ * of the base class is never used.
+ * <p>
+ * If the mirror closes while this tracker is open, the tracker falls back to
+ * its own service listener and catches up with the changes it missed.
+ *
+ * @param bundleContext
+ *            Bundle context of the tracking bundle
+ * @param mirrorReference
+ *            Reference of the mirror service, released on close
+ * @param mirror
+ *            The mirror
+ * @param className
+ *            Class name of the tracked services
+ * @param filter
+ *            Filter of the tracked services
+ * @param customizer
+ *            The customizer, or `null`
+ * @tparam S Service type
+ */
+class MirroredServiceTracker<S> extends ServiceTracker<S, S> implements ServiceRegistryMirror.Subscriber {
+
+	private final Logger log = LoggerFactory.getLogger(MirroredServiceTracker.class);
+
+	private final BundleContext bundleContext;
+	private final ServiceReference<ServiceRegistryMirror> mirrorReference;
+	private final ServiceRegistryMirror mirror;
+	private final String className;
+	private final Filter trackerFilter;
+	private final ServiceTrackerCustomizer<S, S> trackerCustomizer;
+
+	// All fields below are guarded by this
+	private final Map<ServiceReference<S>, S> trackedServices = new HashMap<>();
+	private final Set<ServiceReference<S>> adding = new HashSet<>();
+	private final Set<ServiceReference<S>> removedWhileAdding = new HashSet<>();
+	private int trackingCount = -1;
+	private ServiceRegistryMirror.Subscription subscription;
+	/**
+	 * The own service listener, after the mirror closed.
+	 */
+	private ServiceListener fallbackListener;
+	private boolean closed = false;
+
+	MirroredServiceTracker(
+			final BundleContext bundleContext,
+			final ServiceReference<ServiceRegistryMirror> mirrorReference,
+			final ServiceRegistryMirror mirror,
+			final String className,
+			final Filter filter,
+			final ServiceTrackerCustomizer<S, S> customizer) {
+		super(bundleContext, filter, customizer);
+		this.bundleContext = bundleContext;
+		this.mirrorReference = mirrorReference;
+		this.mirror = mirror;
+		this.className = className;
+		this.trackerFilter = filter;
+		this.trackerCustomizer = customizer != null ? customizer : this;
+	}
+
+	@Override
+	public void open() {
+		synchronized (this) {
+			if (trackingCount >= 0 || closed) {
+				return;
+			}
+			trackingCount = 0;
+		}
+		final ServiceRegistryMirror.Subscription s;
+		try {
+			s = mirror.subscribe(bundleContext.getBundle(), className, trackerFilter, this);
+		} catch (final IllegalStateException e) {
+			// The mirror closed meanwhile
+			mirrorClosed();
+			return;
+		}
+		final boolean closedMeanwhile;
+		synchronized (this) {
+			subscription = s;
+			closedMeanwhile = closed;
+		}
+		if (closedMeanwhile) {
+			s.close();
+		}
+	}
+
+	@Override
+	public void open(final boolean trackAllServices) {
+		open();
+	}
+
+	@Override
+	public void close() {
+		final ServiceRegistryMirror.Subscription s;
+		final ServiceListener listener;
+		final Map<ServiceReference<S>, S> removed;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			s = subscription;
+			subscription = null;
+			listener = fallbackListener;
+			fallbackListener = null;
+			removed = new HashMap<>(trackedServices);
+			trackedServices.clear();
+			notifyAll();
+		}
+		if (s != null) {
+			s.close();
+		}
+		if (listener != null) {
+			try {
+				bundleContext.removeServiceListener(listener);
+			} catch (final IllegalStateException e) {
+				// Do nothing. Bundle context is no longer valid.
+			}
+		}
+		for (final Map.Entry<ServiceReference<S>, S> entry : removed.entrySet()) {
+			trackerCustomizer.removedService(entry.getKey(), entry.getValue());
+		}
+		try {
+			bundleContext.ungetService(mirrorReference);
+		} catch (final IllegalStateException e) {
+			// Do nothing. Bundle context is no longer valid.
+		}
+	}
+
+	/**
+	 * Falls back to an own service listener and catches up with the services
+	 * registered, modified or unregistered since the mirror stopped
+	 * listening.
+	 */
+	@Override
+	public void mirrorClosed() {
+		final ServiceListener listener = event -> serviceEvent(event.getType(), event.getServiceReference());
+		synchronized (this) {
+			if (closed || fallbackListener != null) {
+				return;
+			}
+			subscription = null;
+			fallbackListener = listener;
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Bundle {}: Registry mirror closed, tracking services with filter [{}] with own listener",
+					Util.bundleName(bundleContext), trackerFilter);
+		}
+		final ServiceReference<?>[] present;
+		try {
+			bundleContext.addServiceListener(listener, trackerFilter.toString());
+			present = bundleContext.getServiceReferences(className, trackerFilter.toString());
+		} catch (final InvalidSyntaxException e) {
+			throw new IllegalStateException("Invalid filter: " + trackerFilter, e);
+		} catch (final IllegalStateException e) {
+			// Do nothing. Bundle context is no longer valid.
+			return;
+		}
+		final Set<ServiceReference<?>> presentSet = new HashSet<>();
+		if (present != null) {
+			presentSet.addAll(Arrays.asList(present));
+		}
+		final List<ServiceReference<S>> gone = new ArrayList<>();
+		final List<ServiceReference<?>> added = new ArrayList<>();
+		synchronized (this) {
+			for (final ServiceReference<S> reference : trackedServices.keySet()) {
+				if (!presentSet.contains(reference)) {
+					gone.add(reference);
+				}
+			}
+			for (final ServiceReference<?> reference : presentSet) {
+				if (!trackedServices.containsKey(reference)) {
+					added.add(reference);
+				}
+			}
+		}
+		for (final ServiceReference<S> reference : gone) {
+			untrack(reference);
+		}
+		for (final ServiceReference<?> reference : added) {
+			serviceEvent(ServiceEvent.REGISTERED, reference);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void serviceEvent(final int type, final ServiceReference<?> ref) {
+		final ServiceReference<S> reference = (ServiceReference<S>) ref;
+		switch (type) {
+			case ServiceEvent.REGISTERED:
+			case ServiceEvent.MODIFIED:
+				track(reference);
+				break;
+			case ServiceEvent.MODIFIED_ENDMATCH:
+			case ServiceEvent.UNREGISTERING:
+				untrack(reference);
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void track(final ServiceReference<S> reference) {
+		final S existing;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			existing = trackedServices.get(reference);
+			if (existing == null) {
+				if (!adding.add(reference)) {
+					return;
+				}
+			} else {
+				trackingCount++;
+			}
+		}
+		if (existing != null) {
+			trackerCustomizer.modifiedService(reference, existing);
+			return;
+		}
+
+		S service = null;
+		boolean dropped = true;
+		try {
+			service = trackerCustomizer.addingService(reference);
+		} finally {
+			synchronized (this) {
+				adding.remove(reference);
+				// the service might have been unregistered while we were adding it
+				final boolean removed = removedWhileAdding.remove(reference) || reference.getBundle() == null;
+				if (service != null && !closed && !removed) {
+					trackedServices.put(reference, service);
+					trackingCount++;
+					dropped = false;
+					notifyAll();
+				}
+			}
+		}
+		if (service != null && dropped) {
+			trackerCustomizer.removedService(reference, service);
+		}
+	}
+
+	private void untrack(final ServiceReference<S> reference) {
+		final S service;
+		synchronized (this) {
+			service = trackedServices.remove(reference);
+			if (service == null) {
+				if (adding.contains(reference)) {
+					removedWhileAdding.add(reference);
+				}
+				return;
+			}
+			trackingCount++;
+		}
+		trackerCustomizer.removedService(reference, service);
+	}
+
+	@Override
+	public S addingService(final ServiceReference<S> reference) {
+		return bundleContext.getService(reference);
+	}
+
+	@Override
+	public void removedService(final ServiceReference<S> reference, final S service) {
+		bundleContext.ungetService(reference);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized ServiceReference<S>[] getServiceReferences() {
+		if (trackedServices.isEmpty()) {
+			return null;
+		}
+		return (ServiceReference<S>[]) trackedServices.keySet().toArray(new ServiceReference<?>[trackedServices.size()]);
+	}
+
+	@Override
+	public synchronized ServiceReference<S> getServiceReference() {
+		ServiceReference<S> best = null;
+		for (final ServiceReference<S> reference : trackedServices.keySet()) {
+			if (best == null || reference.compareTo(best) > 0) {
+				best = reference;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public synchronized S getService(final ServiceReference<S> reference) {
+		return trackedServices.get(reference);
+	}
+
+	@Override
+	public synchronized Object[] getServices() {
+		if (trackedServices.isEmpty()) {
+			return null;
+		}
+		return trackedServices.values().toArray();
+	}
+
+	@Override
+	public synchronized S[] getServices(final S[] array) {
+		final List<S> services = new ArrayList<>(trackedServices.values());
+		return services.toArray(array);
+	}
+
+	@Override
+	public synchronized S getService() {
+		final ServiceReference<S> reference = getServiceReference();
+		return reference == null ? null : trackedServices.get(reference);
+	}
+
+	@Override
+	public synchronized S waitForService(final long timeout) throws InterruptedException {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout value is negative");
+		}
+		final long deadline = timeout == 0 ? 0 : System.currentTimeMillis() + timeout;
+		while (trackedServices.isEmpty() && !closed) {
+			if (timeout == 0) {
+				wait();
+			} else {
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				wait(remaining);
+			}
+		}
+		return getService();
+	}
+
+	@Override
+	public void remove(final ServiceReference<S> reference) {
+		untrack(reference);
+	}
+
+	@Override
+	public synchronized int size() {
+		return trackedServices.size();
+	}
+
+	@Override
+	public synchronized int getTrackingCount() {
+		return closed ? -1 : trackingCount;
+	}
+
+	@Override
+	public synchronized SortedMap<ServiceReference<S>, S> getTracked() {
+		final SortedMap<ServiceReference<S>, S> map = new TreeMap<>(Collections.<ServiceReference<S>>reverseOrder());
+		map.putAll(trackedServices);
+		return map;
+	}
+
+	@Override
+	public synchronized boolean isEmpty() {
+		return trackedServices.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(className=" + className +
+				",filter=" + trackerFilter +
+				")";
+	}
+
+}
@@ -1,27 +1,51 @@
 package domino.java;
 
-import static de.tototec.utils.functional.FList.append;
-import static de.tototec.utils.functional.FList.filter;
 import static de.tototec.utils.functional.FList.foreach;
 import static de.tototec.utils.functional.FList.headOption;
 import static de.tototec.utils.functional.FList.map;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceObjects;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
+import de.tototec.utils.functional.F0;
 import de.tototec.utils.functional.F1;
+import de.tototec.utils.functional.F2;
 import de.tototec.utils.functional.Optional;
 import de.tototec.utils.functional.Procedure1;
 import de.tototec.utils.functional.Procedure2;
@@ -29,7 +53,9 @@ import de.tototec.utils.functional.Procedure3;
 import de.tototec.utils.functional.Procedure4;
 import domino.java.capsule.Capsule;
 import domino.java.capsule.CapsuleScope;
+import domino.java.capsule.ConcurrentAppendList;
 import domino.java.capsule.DynamicCapsuleContext;
+import domino.java.internal.DominoExecutors;
 import domino.java.internal.Logger;
 import domino.java.internal.LoggerFactory;
 
@@ -99,21 +125,48 @@ public class OsgiContext
 	extends DynamicCapsuleContext
 	implements BundleActivator, ServiceWatching, ServiceProviding, ServiceConsuming {
 
+	/**
+	 * The lifecycle states of an {@link OsgiContext}.
+	 */
+	public enum LifecycleState {
+		/** Not started, or completely stopped. */
+		STOPPED,
+		/**
+		 * Lazily started, waiting for the first request of a placeholder
+		 * service (see {@link OsgiContext#setLazyActivation(Class...)}).
+		 */
+		LAZY,
+		/** The `whenBundleActive` handlers are running. */
+		STARTING,
+		/** All `whenBundleActive` handlers ran. */
+		ACTIVE,
+		/** The capsule scopes are being stopped. */
+		STOPPING
+	}
+
 	private static class ActiveHandler {
+		private final ActivationPhase phase;
 		private final Procedure1<BundleContext> start;
-		private volatile boolean started;
+		private final AtomicBoolean started = new AtomicBoolean(false);
 
-		public ActiveHandler(final Procedure1<BundleContext> handler) {
+		public ActiveHandler(final ActivationPhase phase, final Procedure1<BundleContext> handler) {
+			this.phase = phase;
 			this.start = handler;
-			this.started = false;
 		}
 
 		public boolean isStarted() {
-			return started;
+			return started.get();
 		}
 
-		public void setStarted() {
-			this.started = true;
+		/**
+		 * @return `true`, if the handler was not started before.
+		 */
+		public boolean markStarted() {
+			return started.compareAndSet(false, true);
+		}
+
+		public void reset() {
+			started.set(false);
 		}
 	}
 
@@ -123,14 +176,123 @@ public class OsgiContext
 	 * Contains the handler that {@link #whenBundleActive(Procedure1)} has been
 	 * called with.
 	 */
-	private List<ActiveHandler> bundleActiveHandler = new LinkedList<>();
+	private final List<ActiveHandler> bundleActiveHandler = new CopyOnWriteArrayList<>();
+
+	private final AtomicReference<LifecycleState> lifecycleState = new AtomicReference<>(LifecycleState.STOPPED);
 
 	/**
 	 * Contains the bundle context as long as the bundle is active.
 	 */
-	private Optional<BundleContext> bundleContext = Optional.none();
+	private volatile Optional<BundleContext> bundleContext = Optional.none();
+
+	/**
+	 * The executor for asynchronous activation, if any.
+	 */
+	private volatile Optional<Executor> activationExecutor = Optional.none();
+
+	private volatile long activationTimeoutMillis = 0;
+
+	/**
+	 * Completes when all handlers of the current start ran.
+	 */
+	private volatile CompletableFuture<Void> activation = new CompletableFuture<>();
+
+	/**
+	 * Completes when the current start was completely stopped.
+	 */
+	private volatile CompletableFuture<Void> deactivation = CompletableFuture.completedFuture(null);
+
+	/**
+	 * The thread running the handlers while {@link LifecycleState#STARTING}.
+	 */
+	private volatile Thread activationThread;
+
+	/**
+	 * The service types to register placeholders for in lazy activation mode.
+	 */
+	private volatile List<Class<?>> lazyActivationTypes = Collections.emptyList();
+
+	private volatile List<ServiceRegistration<?>> placeholderRegistrations = Collections.emptyList();
+
+	/**
+	 * The time spent in the handlers of each {@link ActivationPhase} since the
+	 * last start.
+	 */
+	private final AtomicLongArray activationTimeNanos = new AtomicLongArray(ActivationPhase.values().length);
+
+	/**
+	 * Completes when the {@link ActivationPhase#DEFERRED} handlers ran.
+	 */
+	private volatile CompletableFuture<Void> deferredActivation = new CompletableFuture<>();
+
+	/**
+	 * Waits for the framework to complete its start, if the deferred handlers
+	 * are not yet scheduled.
+	 */
+	private volatile Optional<FrameworkListener> frameworkStartListener = Optional.none();
+
+	/**
+	 * The capsule scopes created by the `whenBundleActive` handlers. A new list
+	 * is created on each start and closed on stop.
+	 */
+	private volatile ConcurrentAppendList<CapsuleScope> bundleActiveCapsuleScope = new ConcurrentAppendList<>();
+
+	/**
+	 * The watchdog timing all handlers running on framework threads, if any.
+	 */
+	private volatile Optional<HandlerWatchdog> handlerWatchdog = Optional.none();
+
+	/**
+	 * Whether service watchers subscribe to a {@link ServiceRegistryMirror}, if
+	 * present.
+	 */
+	private volatile boolean useRegistryMirror = true;
+
+	/**
+	 * Whether plain service bindings share their trackers.
+	 */
+	private volatile boolean compactBindings = false;
+
+	/**
+	 * The compact bindings, by their complete filter.
+	 */
+	private final Map<String, CompactServiceBindings<?>> compactServiceBindings = new ConcurrentHashMap<>();
+
+	/**
+	 * Tracks all bindings created with
+	 * {@link #whenAdvancedServicePresent(Class, String, Procedure1)}.
+	 */
+	private final DependencyTracker dependencyTracker = new DependencyTracker(this::checkReadiness);
+
+	/**
+	 * Completes when all handlers ran and all bindings are satisfied.
+	 */
+	private volatile CompletableFuture<Void> readiness = new CompletableFuture<>();
+
+	private volatile boolean dependencyStatusPublished = false;
+
+	private Optional<ServiceRegistration<DependencyStatus>> dependencyStatusRegistration = Optional.none();
+
+	/**
+	 * The accounting of all services acquired without release, if any.
+	 */
+	private volatile Optional<ServiceUsageAccounting> serviceUsageAccounting = Optional.none();
+
+	/**
+	 * The pending auto-releases of the service usage accounting, one per
+	 * capsule scope and service reference.
+	 */
+	private final Map<Object, AutoRelease> autoReleases = new ConcurrentHashMap<>();
+
+	/**
+	 * The pools used by {@link #withPooledService(Class, String, ServicePoolOptions, F1)}.
+	 */
+	private final Map<ServiceReference<?>, ServicePool<?>> servicePools = new ConcurrentHashMap<>();
 
-	private List<CapsuleScope> bundleActiveCapsuleScope = new LinkedList<>();
+	/**
+	 * The listeners draining the service pools when their service goes away.
+	 */
+	private final Map<ServicePool<?>, ServiceListener> servicePoolListeners = new ConcurrentHashMap<>();
 
 	/**
 	 * Will be called by the OSGi framework, if you inherit from this class.
@@ -150,6 +312,132 @@ public class OsgiContext
 		return bundleContext.isDefined();
 	}
 
+	/**
+	 * Returns the current lifecycle state.
+	 */
+	public LifecycleState lifecycleState() {
+		return lifecycleState.get();
+	}
+
+	/**
+	 * Sets the watchdog which times all `whenBundleActive` handlers and all
+	 * service watcher handlers created afterwards. Use `null` to remove the
+	 * watchdog.
+	 *
+	 * @param watchdog The watchdog or `null`.
+	 */
+	public void setHandlerWatchdog(final HandlerWatchdog watchdog) {
+		this.handlerWatchdog = Optional.of(watchdog);
+	}
+
+	/**
+	 * Returns the watchdog set with {@link #setHandlerWatchdog(HandlerWatchdog)}.
+	 */
+	public Optional<HandlerWatchdog> handlerWatchdog() {
+		return handlerWatchdog;
+	}
+
+	/**
+	 * Enables or disables the use of a shared {@link ServiceRegistryMirror}
+	 * (registered by the {@link DominoRuntime}) by service watchers created
+	 * afterwards. Enabled by default. If the mirror is not present, watchers
+	 * open their own service trackers.
+	 */
+	public void setUseRegistryMirror(final boolean useRegistryMirror) {
+		this.useRegistryMirror = useRegistryMirror;
+	}
+
+	public boolean isUseRegistryMirror() {
+		return useRegistryMirror;
+	}
+
+	/**
+	 * Enables or disables compact bindings for
+	 * {@link #whenAdvancedServicePresent(Class, String, Procedure1)} and its
+	 * convenience variants called afterwards. Disabled by default.
+	 * <p>
+	 * With compact bindings, all bindings for the same type and filter share
+	 * one service tracker and keep their state in flat arrays instead of
+	 * having their own service watcher. This reduces the heap footprint of
+	 * very large numbers of bindings considerably. The returned tracker is a
+	 * handle of the binding reading the shared tracker. Closing it releases
+	 * only that binding. Bindings with instrumentation, a
+	 * handler priority other than {@link HandlerPriority#NORMAL}, significant
+	 * property keys, or while a {@link HandlerWatchdog} is set, are not
+	 * compacted.
+	 * <p>
+	 * Note that all bindings for the same type and filter are reported as one
+	 * {@link ServiceBinding} by the {@link #dependencyStatus()}, which is
+	 * satisfied if all of them are bound.
+	 */
+	public void setCompactBindings(final boolean compactBindings) {
+		this.compactBindings = compactBindings;
+	}
+
+	public boolean isCompactBindings() {
+		return compactBindings;
+	}
+
+	/**
+	 * Sets the accounting recording all service acquisitions made with
+	 * {@link #service(Class)}, {@link #service(Class, String)} and
+	 * {@link #services(Class, String)}. Use `null` to remove the accounting.
+	 *
+	 * @param accounting The accounting or `null`.
+	 */
+	public void setServiceUsageAccounting(final ServiceUsageAccounting accounting) {
+		this.serviceUsageAccounting = Optional.of(accounting);
+	}
+
+	/**
+	 * Returns the accounting set with
+	 * {@link #setServiceUsageAccounting(ServiceUsageAccounting)}.
+	 */
+	public Optional<ServiceUsageAccounting> serviceUsageAccounting() {
+		return serviceUsageAccounting;
+	}
+
+	/**
+	 * Returns the status of all service bindings declared with
+	 * {@link #whenAdvancedServicePresent(Class, String, Procedure1)} (or one of
+	 * its convenience variants) including their wait times.
+	 */
+	public DependencyStatus dependencyStatus() {
+		return dependencyTracker;
+	}
+
+	/**
+	 * If set to `true`, the {@link #dependencyStatus()} will be registered as
+	 * {@link DependencyStatus} service while the bundle is active. Must be
+	 * called before the bundle is started.
+	 */
+	public void setDependencyStatusPublished(final boolean published) {
+		this.dependencyStatusPublished = published;
+	}
+
+	/**
+	 * Returns a stage which completes when all `whenBundleActive` handlers
+	 * have run and all bindings declared in them are satisfied. It completes
+	 * exceptionally if a `whenBundleActive` handler failed.
+	 * <p>
+	 * Once completed, the stage stays completed until the bundle is stopped,
+	 * even if a binding gets unsatisfied again. Use
+	 * {@link DependencyStatus#isSatisfied()} to check the current state.
+	 */
+	public CompletionStage<Void> readiness() {
+		return readiness;
+	}
+
+	private void checkReadiness() {
+		if (lifecycleState.get() == LifecycleState.ACTIVE && bundleContext.isDefined()
+			&& dependencyTracker.isSatisfied()) {
+			if (readiness.complete(null)) {
+				bundleContext.foreach(bc -> log.debug("Bundle {}: All bindings satisfied",
+					Logger.lazy(() -> Util.bundleName(bc))));
+			}
+		}
+	}
+
 	/**
 	 * Defines a handler `f` to be executed when the bundle becomes active. `f`
 	 * is executed as soon as the bundle activator's `start` method is called.
@@ -161,10 +449,31 @@ public class OsgiContext
 	 * method is called. So you have the big chance here to encapsulate start
 	 * and stop logic at one place, making the bundle activator less
 	 * error-prone, better readable and easier to write.
+	 * <p>
+	 * This method can be called from any thread. If the bundle is already
+	 * active, `f` is executed immediately. The handlers are kept when the
+	 * bundle is stopped, so that they run again when it is restarted.
 	 *
 	 * @param f Handler
 	 */
 	public void whenBundleActive(final Procedure1<BundleContext> f) {
+		whenBundleActive(ActivationPhase.NORMAL, f);
+	}
+
+	/**
+	 * Defines a handler `f` to be executed in the given phase of the bundle
+	 * activation. On start, all {@link ActivationPhase#CRITICAL} handlers run
+	 * before the {@link ActivationPhase#NORMAL} ones. The
+	 * {@link ActivationPhase#DEFERRED} handlers run on a low priority
+	 * background thread once the bundle is active and the framework completed
+	 * its start. Their capsules are stopped with the bundle as usual.
+	 *
+	 * @param phase The activation phase.
+	 * @param f     Handler
+	 * @see #whenBundleActive(Procedure1)
+	 * @see #activationTimeNanos(ActivationPhase)
+	 */
+	public void whenBundleActive(final ActivationPhase phase, final Procedure1<BundleContext> f) {
 		// TODO log the caller here
 		if (bundleActiveHandler.isEmpty()) {
 			log.debug("Registering whenBundleActive");
@@ -172,80 +481,548 @@ public class OsgiContext
 			log.debug("Registering additional wheBundleActive ({})", bundleActiveHandler.size() + 1);
 		}
 
-		bundleActiveHandler.add(new ActiveHandler(f));
+		bundleActiveHandler.add(new ActiveHandler(phase, f));
 
 		// check if we were already started and apply the handler now
-		if (bundleContext.isDefined()) {
+		final LifecycleState state = lifecycleState.get();
+		if (phase == ActivationPhase.DEFERRED) {
+			if (state == LifecycleState.ACTIVE) {
+				bundleContext.foreach(bc -> scheduleDeferredHandlers(bc));
+			}
+		} else if (state == LifecycleState.ACTIVE) {
 			internalStart();
 		}
+		// While starting, the activating thread runs the handler after the
+		// transition to ACTIVE at the latest, keeping the phase order
+	}
+
+	/**
+	 * Returns the time spent in the handlers of the given phase since the last
+	 * start.
+	 */
+	public long activationTimeNanos(final ActivationPhase phase) {
+		return activationTimeNanos.get(phase.ordinal());
+	}
+
+	/**
+	 * Returns a stage which completes when the
+	 * {@link ActivationPhase#DEFERRED} handlers of the current start have run.
+	 * It completes exceptionally if one of them failed.
+	 */
+	public CompletionStage<Void> deferredActivation() {
+		return deferredActivation;
 	}
 
 	@Override
 	public void start(final BundleContext context) {
-		if (bundleContext.isDefined()) {
-			log.error("A BundleContext is already defined. The OsgiContext / bundle was started before? Bundle [{}]. Ignoring start request!",
-				Util.bundleName(context));
+		if (!lifecycleState.compareAndSet(LifecycleState.STOPPED, LifecycleState.STARTING)) {
+			log.error("The OsgiContext / bundle was started before and is {}. Bundle [{}]. Ignoring start request!",
+				lifecycleState.get(), Util.bundleName(context));
 			return;
 		}
+		DominoExecutors.acquire();
 
 		// Make bundle context available in this class
 		bundleContext = Optional.of(context);
+		bundleActiveCapsuleScope = new ConcurrentAppendList<>();
+		if (readiness.isDone()) {
+			readiness = new CompletableFuture<>();
+		}
+
+		if (dependencyStatusPublished) {
+			final ServiceProperties props = ServiceProperties.of(
+				DependencyStatus.BUNDLE_PROPERTY, context.getBundle().getSymbolicName());
+			dependencyStatusRegistration = Optional.of(
+				context.registerService(DependencyStatus.class, dependencyTracker, props));
+		}
+
+		if (bundleActiveHandler.isEmpty()) {
+			log.warn("Bundle {}: Starting a OsgiContext (Activator) without any registered whenBundleActive handler",
+				Util.bundleName(context));
+		}
+
+		final CompletableFuture<Void> activation = new CompletableFuture<>();
+		this.activation = activation;
+		this.deactivation = new CompletableFuture<>();
+		this.deferredActivation = new CompletableFuture<>();
+		for (int i = 0; i < activationTimeNanos.length(); ++i) {
+			activationTimeNanos.set(i, 0);
+		}
+
+		if (!lazyActivationTypes.isEmpty()) {
+			registerPlaceholders(context);
+			if (lifecycleState.compareAndSet(LifecycleState.STARTING, LifecycleState.LAZY)) {
+				log.debug("Bundle {}: Waiting for the first request of {}", Logger.lazy(() -> Util.bundleName(context)),
+					lazyActivationTypes);
+			} else {
+				internalStop(context, false);
+			}
+			return;
+		}
+
+		final Optional<Executor> executor = activationExecutor;
+		if (executor.isEmpty()) {
+			activate(context, activation);
+			return;
+		}
+
+		log.debug("Bundle {}: Starting asynchronously", Logger.lazy(() -> Util.bundleName(context)));
+		final long timeout = activationTimeoutMillis;
+		if (timeout > 0) {
+			final ScheduledFuture<?> timer = DominoExecutors.scheduler().schedule(() -> {
+				if (activation.completeExceptionally(new TimeoutException(
+					"Activation did not complete within " + timeout + " ms"))) {
+					log.warn("Bundle {}: Activation did not complete within {} ms. Stopping.",
+						Util.bundleName(context), timeout);
+					// The activating thread stops after the running handler
+					lifecycleState.compareAndSet(LifecycleState.STARTING, LifecycleState.STOPPING);
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+			activation.whenComplete((v, e) -> timer.cancel(false));
+		}
+		try {
+			executor.get().execute(() -> {
+				try {
+					activate(context, activation);
+				} catch (final Throwable e) {
+					log.error("Bundle {}: Asynchronous activation failed", Util.bundleName(context), e);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			activation.completeExceptionally(e);
+			lifecycleState.set(LifecycleState.STOPPING);
+			internalStop(context, false);
+			throw e;
+		}
+	}
+
+	private void registerPlaceholders(final BundleContext context) {
+		final List<ServiceRegistration<?>> registrations = new ArrayList<>();
+		final ServiceProperties props = ServiceProperties.of(
+			PlaceholderServiceFactory.PLACEHOLDER_PROPERTY, Boolean.TRUE,
+			Constants.SERVICE_RANKING, Integer.MIN_VALUE);
+		for (final Class<?> type : lazyActivationTypes) {
+			registrations.add(context.registerService(type.getName(),
+				new PlaceholderServiceFactory(type, context, this::activateOnDemand), props));
+		}
+		placeholderRegistrations = registrations;
+	}
+
+	private void unregisterPlaceholders() {
+		foreach(placeholderRegistrations, reg -> {
+			try {
+				reg.unregister();
+			} catch (final IllegalStateException e) {
+				// Do nothing. Was already unregistered.
+			}
+		});
+		placeholderRegistrations = Collections.emptyList();
+	}
+
+	/**
+	 * Activates a lazily started context, or waits until a concurrently
+	 * running activation completed.
+	 *
+	 * @return `true`, if the context is active.
+	 */
+	private boolean activateOnDemand() {
+		while (true) {
+			final LifecycleState state = lifecycleState.get();
+			if (state == LifecycleState.ACTIVE) {
+				return true;
+			} else if (state == LifecycleState.LAZY) {
+				if (lifecycleState.compareAndSet(state, LifecycleState.STARTING)) {
+					final BundleContext context = bundleContext.get();
+					log.debug("Bundle {}: Activating on first demand", Logger.lazy(() -> Util.bundleName(context)));
+					if (readiness.isDone()) {
+						readiness = new CompletableFuture<>();
+					}
+					try {
+						activate(context, activation);
+					} catch (final Throwable e) {
+						log.error("Bundle {}: Lazy activation failed", Util.bundleName(context), e);
+					}
+					return lifecycleState.get() == LifecycleState.ACTIVE;
+				}
+			} else if (state == LifecycleState.STARTING) {
+				if (activationThread == Thread.currentThread()) {
+					// requested by a handler of the running activation
+					return false;
+				}
+				try {
+					activation.get();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				} catch (final ExecutionException | CancellationException e) {
+					return false;
+				}
+			} else {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Runs all handlers and transitions from {@link LifecycleState#STARTING}
+	 * to {@link LifecycleState#ACTIVE}, or stops again if the start failed or
+	 * a stop was requested meanwhile.
+	 */
+	private void activate(final BundleContext context, final CompletableFuture<Void> activation) {
+		activationThread = Thread.currentThread();
+		try {
+			try {
+				internalStart();
+			} catch (final Throwable e) {
+				// Undo the partial start
+				activation.completeExceptionally(e);
+				final boolean stopRequested = lifecycleState.getAndSet(LifecycleState.STOPPING) == LifecycleState.STOPPING;
+				try {
+					// In lazy activation mode, wait for the next request for another attempt
+					internalStop(context, !lazyActivationTypes.isEmpty() && !stopRequested);
+				} catch (final Throwable e2) {
+					e.addSuppressed(e2);
+				}
+				throw e;
+			}
+
+			if (lifecycleState.compareAndSet(LifecycleState.STARTING, LifecycleState.ACTIVE)) {
+				// The real services are registered now, consumers bound to a
+				// placeholder see its unregistration and rebind
+				unregisterPlaceholders();
+				// Run handlers registered concurrently while we were starting
+				internalStart();
+				activation.complete(null);
+				checkReadiness();
+				scheduleDeferredHandlers(context);
+			} else {
+				// stop was requested while we were starting
+				activation.completeExceptionally(new CancellationException("Stopped while starting"));
+				internalStop(context, false);
+			}
+		} finally {
+			activationThread = null;
+		}
+	}
 
-		internalStart();
+	/**
+	 * Runs the `whenBundleActive` handlers on the given executor instead of
+	 * the thread calling {@link #start(BundleContext)}, which then returns
+	 * immediately. Use {@link #activation()} to get notified when all handlers
+	 * ran. Use `null` (the default) to activate synchronously.
+	 * <p>
+	 * As the framework usually starts bundles one after another, an executor
+	 * shared by many bundles (e.g. a fixed thread pool) activates them in
+	 * parallel. Must be called before the bundle is started.
+	 *
+	 * @param executor The executor or `null`.
+	 */
+	public void setActivationExecutor(final Executor executor) {
+		this.activationExecutor = Optional.of(executor);
+	}
+
+	/**
+	 * Enables the lazy activation mode: When the bundle is started, no
+	 * `whenBundleActive` handler runs. Instead, a placeholder service (a
+	 * {@link org.osgi.framework.ServiceFactory} with lowest ranking and the
+	 * property `domino.placeholder=true`) is registered for each of the given
+	 * types. When a consumer requests one of them for the first time, all
+	 * handlers run synchronously and the consumer gets the best ranked real
+	 * service of that type, registered by this bundle. Once active, the
+	 * placeholders are unregistered, so consumers bound to them rebind to the
+	 * real services. If the activation fails, the placeholders stay registered
+	 * and the next request tries again. Must be called before the bundle is
+	 * started.
+	 *
+	 * @param serviceTypes The service types provided by the handlers. Without
+	 *                     any type, lazy activation is disabled.
+	 */
+	public void setLazyActivation(final Class<?>... serviceTypes) {
+		this.lazyActivationTypes = Collections.unmodifiableList(Arrays.asList(serviceTypes));
+	}
+
+	/**
+	 * Limits the time an asynchronous activation may take. If exceeded, the
+	 * {@link #activation()} fails with a {@link TimeoutException} and the
+	 * context stops as soon as the running handler returns. Use `0` (the
+	 * default) for no limit.
+	 *
+	 * @param timeoutMillis The timeout in milliseconds.
+	 */
+	public void setActivationTimeout(final long timeoutMillis) {
+		if (timeoutMillis < 0) {
+			throw new IllegalArgumentException("timeoutMillis must not be negative");
+		}
+		this.activationTimeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Returns a stage which completes when all `whenBundleActive` handlers of
+	 * the current (or last) start have run. It completes exceptionally if a
+	 * handler failed, the activation timed out, or the context was stopped
+	 * before the activation completed.
+	 */
+	public CompletionStage<Void> activation() {
+		return activation;
 	}
 
 	private void internalStart() {
 		bundleContext.foreach(bc -> {
+			runHandlers(bc, ActivationPhase.CRITICAL);
+			runHandlers(bc, ActivationPhase.NORMAL);
+		});
+	}
+
+	/**
+	 * Runs all not yet started handlers of the given phase.
+	 */
+	private void runHandlers(final BundleContext bc, final ActivationPhase phase) {
+		final ConcurrentAppendList<CapsuleScope> scopes = bundleActiveCapsuleScope;
+		final long startNanos = System.nanoTime();
+		final int[] count = { 0 };
+		try {
 			// Execute the handler if one was defined
-			final LinkedList<ActiveHandler> copy;
-			synchronized (bundleActiveHandler) {
-				copy = new LinkedList<>(bundleActiveHandler);
-			}
-			foreach(copy, handler -> {
-				if (!handler.isStarted()) {
-					handler.setStarted();
-					log.debug("Bundle {}: Starting whenBundleActive", Util.bundleName(bc));
+			foreach(bundleActiveHandler, handler -> {
+				final LifecycleState state = lifecycleState.get();
+				if (handler.phase == phase && (state == LifecycleState.STARTING || state == LifecycleState.ACTIVE)
+					&& handler.markStarted()) {
+					log.debug("Bundle {}: Starting whenBundleActive ({})", Logger.lazy(() -> Util.bundleName(bc)),
+						phase);
+					count[0]++;
 					// Executes f. All capsules added in f are added to a new
 					// capsule
 					// scope which is returned afterwards.
 					try {
-						bundleActiveCapsuleScope = append(bundleActiveCapsuleScope,
-							executeWithinNewCapsuleScope(() -> handler.start.apply(bc)));
+						final CapsuleScope scope = executeWithinNewCapsuleScope(() -> runHandler(bc, handler.start));
+						if (scopes.append(scope) == null) {
+							// stopped concurrently
+							scope.stop();
+						}
 					} catch (final Throwable e) {
-						log.debug("Bundle {}: Exception thrown while starting whenBundleActive", Util.bundleName(bc),
-							e);
+						log.debug("Bundle {}: Exception thrown while starting whenBundleActive",
+							Logger.lazy(() -> Util.bundleName(bc)), e);
+						if (phase != ActivationPhase.DEFERRED) {
+							readiness.completeExceptionally(e);
+						}
 						throw e;
 					}
 				}
 			});
-			if (bundleActiveHandler.isEmpty()) {
-				log.warn(
-					"Bundle {}: Starting a OsgiContext (Activator) without any registered whenBundleActive handler",
-					Util.bundleName(bc));
+		} finally {
+			if (count[0] > 0) {
+				final long durationNanos = System.nanoTime() - startNanos;
+				activationTimeNanos.addAndGet(phase.ordinal(), durationNanos);
+				if (log.isDebugEnabled()) {
+					log.debug("Bundle {}: Activation phase {} ran {} handlers in {} ms",
+						Logger.lazy(() -> Util.bundleName(bc)), phase, count[0],
+						TimeUnit.NANOSECONDS.toMillis(durationNanos));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the pending {@link ActivationPhase#DEFERRED} handlers on the
+	 * background executor, as soon as the framework completed its start.
+	 */
+	private void scheduleDeferredHandlers(final BundleContext context) {
+		boolean pending = false;
+		for (final ActiveHandler handler : bundleActiveHandler) {
+			pending |= handler.phase == ActivationPhase.DEFERRED && !handler.isStarted();
+		}
+		if (!pending) {
+			deferredActivation.complete(null);
+			return;
+		}
+		final CompletableFuture<Void> deferred = deferredActivation;
+		final Runnable run = () -> DominoExecutors.background().execute(() -> {
+			if (lifecycleState.get() != LifecycleState.ACTIVE) {
+				return;
+			}
+			try {
+				runHandlers(context, ActivationPhase.DEFERRED);
+				deferred.complete(null);
+			} catch (final Throwable e) {
+				log.error("Bundle {}: Deferred whenBundleActive handler failed", Util.bundleName(context), e);
+				deferred.completeExceptionally(e);
 			}
 		});
+
+		final Bundle systemBundle = context.getBundle(Constants.SYSTEM_BUNDLE_ID);
+		if (systemBundle == null || systemBundle.getState() == Bundle.ACTIVE) {
+			run.run();
+			return;
+		}
+		synchronized (this) {
+			if (frameworkStartListener.isDefined()) {
+				// already waiting
+				return;
+			}
+			final FrameworkListener listener = new FrameworkListener() {
+				@Override
+				public void frameworkEvent(final FrameworkEvent event) {
+					if (event.getType() == FrameworkEvent.STARTED) {
+						removeFrameworkStartListener(context);
+						run.run();
+					}
+				}
+			};
+			frameworkStartListener = Optional.some(listener);
+			context.addFrameworkListener(listener);
+		}
+		// The framework might have completed its start meanwhile
+		if (systemBundle.getState() == Bundle.ACTIVE && removeFrameworkStartListener(context)) {
+			run.run();
+		}
+	}
+
+	/**
+	 * @return `true`, if a listener was removed.
+	 */
+	private synchronized boolean removeFrameworkStartListener(final BundleContext context) {
+		if (frameworkStartListener.isEmpty()) {
+			return false;
+		}
+		try {
+			context.removeFrameworkListener(frameworkStartListener.get());
+		} catch (final IllegalStateException e) {
+			// bundle context no longer valid
+		}
+		frameworkStartListener = Optional.none();
+		return true;
+	}
+
+	private void runHandler(final BundleContext bc, final Procedure1<BundleContext> handler) {
+		final Optional<HandlerWatchdog> watchdog = handlerWatchdog;
+		if (watchdog.isDefined()) {
+			watchdog.get().time(StallReport.HandlerKind.BUNDLE_ACTIVE, Util.bundleName(bc), null, handler, null,
+				() -> handler.apply(bc));
+		} else {
+			handler.apply(bc);
+		}
+	}
+
+	@Override
+	public void stop(final BundleContext context) throws Exception {
+		while (true) {
+			final LifecycleState state = lifecycleState.get();
+			if (state == LifecycleState.ACTIVE) {
+				if (lifecycleState.compareAndSet(state, LifecycleState.STOPPING)) {
+					break;
+				}
+			} else if (state == LifecycleState.LAZY) {
+				if (lifecycleState.compareAndSet(state, LifecycleState.STOPPING)) {
+					break;
+				}
+			} else if (state == LifecycleState.STARTING) {
+				if (lifecycleState.compareAndSet(state, LifecycleState.STOPPING)) {
+					// The activating thread will stop, once the running handler returns
+					log.debug("Bundle {}: Stop requested while starting", Logger.lazy(() -> Util.bundleName(context)));
+					awaitDeactivation(context);
+					return;
+				}
+			} else if (state == LifecycleState.STOPPING) {
+				// Probably the activating thread is stopping after a timeout
+				awaitDeactivation(context);
+				return;
+			} else {
+				log.debug("Bundle {}: Ignoring stop request, the OsgiContext is {}",
+					Logger.lazy(() -> Util.bundleName(context)), state);
+				return;
+			}
+		}
+		internalStop(context, false);
 	}
 
-	@Override
-	public void stop(final BundleContext context) throws Exception {
+	/**
+	 * Waits until a stop carried out by the activating thread completed. As
+	 * running handlers are not interrupted, this takes as long as the running
+	 * handler.
+	 */
+	private void awaitDeactivation(final BundleContext context) throws Exception {
+		if (activationThread == Thread.currentThread()) {
+			// Called from a handler, the stop happens after it returned
+			return;
+		}
+		log.debug("Bundle {}: Waiting for the activation to stop", Logger.lazy(() -> Util.bundleName(context)));
+		deactivation.get();
+	}
+
+	/**
+	 * Stops all capsule scopes and releases all resources. Must be called in
+	 * state {@link LifecycleState#STOPPING}.
+	 *
+	 * @param rearmLazily If `true`, the placeholders of the lazy activation
+	 *                    mode are kept (or registered again) and the context
+	 *                    gets {@link LifecycleState#LAZY} again.
+	 */
+	private void internalStop(final BundleContext context, final boolean rearmLazily) {
 		// Stop and release all the capsules in the scope
 		try {
-			foreach(bundleActiveCapsuleScope, scope -> {
+			foreach(bundleActiveCapsuleScope.close(), scope -> {
 				try {
-					log.debug("Bundle {}: Stopping whenBundleActive of bundle: {}", Util.bundleName(context));
+					log.debug("Bundle {}: Stopping whenBundleActive of bundle: {}",
+						Logger.lazy(() -> Util.bundleName(context)));
 					scope.stop();
 				} catch (final Throwable e) {
-					log.debug("Bundle {}: Exception thrown while stopping whenBundleActive", Util.bundleName(context),
-						e);
+					log.debug("Bundle {}: Exception thrown while stopping whenBundleActive",
+						Logger.lazy(() -> Util.bundleName(context)), e);
 					throw e;
-				} finally {
-					bundleActiveCapsuleScope = filter(bundleActiveCapsuleScope, s -> s == scope);
 				}
 			});
 
 		} finally {
-			// Release bundle context
-			bundleContext = Optional.none();
+			if (!rearmLazily) {
+				dependencyStatusRegistration.foreach(reg -> {
+					try {
+						reg.unregister();
+					} catch (final IllegalStateException e) {
+						// Do nothing. Was already unregistered.
+					}
+				});
+				dependencyStatusRegistration = Optional.none();
+
+				unregisterPlaceholders();
+			}
+
+			foreach(new ArrayList<>(servicePools.values()), pool -> drainServicePool(context, pool));
+
+			serviceUsageAccounting.foreach(accounting -> {
+				if (log.isWarnEnabled()) {
+					foreach(accounting.unbalanced(context), usage -> {
+						log.warn("Bundle {}: Service [{}] with id {} was acquired {} times without release. Call sites: {}",
+							usage.bundleName(), usage.serviceType(), usage.serviceId(), usage.unbalanced(),
+							usage.callSites());
+					});
+				}
+				accounting.reset(context);
+			});
+
+			if (readiness.isDone() && !readiness.isCompletedExceptionally()) {
+				readiness = new CompletableFuture<>();
+			}
+
+			removeFrameworkStartListener(context);
+
+			// Allow the handlers to run again on restart
+			foreach(bundleActiveHandler, handler -> handler.reset());
+
+			final CompletableFuture<Void> stopped = deactivation;
+			if (rearmLazily) {
+				if (placeholderRegistrations.isEmpty()) {
+					registerPlaceholders(context);
+				}
+				bundleActiveCapsuleScope = new ConcurrentAppendList<>();
+				activation = new CompletableFuture<>();
+				deactivation = new CompletableFuture<>();
+				lifecycleState.set(LifecycleState.LAZY);
+			} else {
+				// Release bundle context
+				bundleContext = Optional.none();
+				lifecycleState.set(LifecycleState.STOPPED);
+				DominoExecutors.release();
+			}
+			stopped.complete(null);
 		}
 	}
 
@@ -283,7 +1060,25 @@ public class OsgiContext
 		final Optional<ServiceRegistration<S>> reg = bundleContext.flatMap(bc -> {
 			final ServiceProviderCapsule<S> spc = new ServiceProviderCapsule<>(interfaces, properties, bc, service);
 			addCapsule(spc);
-			return spc.serviceRegistration();
+			// In a transactional scope, the service is registered later
+			return Optional.some(spc.serviceRegistration().isDefined() ? spc.serviceRegistration().get()
+				: new PendingServiceRegistration<>(spc));
+		});
+		return reg.get();
+	}
+
+	protected <S> ServiceRegistration<S> internalProvideLazyService(final LazyServiceFactory<S> factory,
+																	final Iterable<Class<? super S>> interfaces, final Map<String, Object> properties) {
+		if (bundleContext.isEmpty()) {
+			throw new IllegalStateException(
+				"Cannot provide service. This API method must be called with an valid bundle context.");
+		}
+		final Optional<ServiceRegistration<S>> reg = bundleContext.flatMap(bc -> {
+			final ServiceProviderCapsule<S> spc = new ServiceProviderCapsule<>(interfaces, properties, bc, factory);
+			addCapsule(spc);
+			// In a transactional scope, the service is registered later
+			return Optional.some(spc.serviceRegistration().isDefined() ? spc.serviceRegistration().get()
+				: new PendingServiceRegistration<>(spc));
 		});
 		return reg.get();
 	}
@@ -351,12 +1146,54 @@ public class OsgiContext
 		return internalProvideService(service, Arrays.asList(type1, type2, type3, type4), properties);
 	}
 
+	@Override
+	public <S> ManagedServiceProperties<S> providesManagedService(final S service,
+																  final Iterable<Class<? super S>> types,
+																  final Map<String, Object> properties,
+																  final long coalesceIntervalMillis) {
+		if (bundleContext.isEmpty()) {
+			throw new IllegalStateException(
+				"Cannot provide service. This API method must be called with an valid bundle context.");
+		}
+		final ServiceProviderCapsule<S> spc = new ServiceProviderCapsule<>(types, properties, bundleContext.get(),
+			service, coalesceIntervalMillis);
+		addCapsule(spc);
+		return spc.managedProperties();
+	}
+
+	@Override
+	public <S> ServiceRegistration<S> providesLazyService(final F0<S> supplier, final Class<? super S> type) {
+		return providesLazyService(supplier, Arrays.asList(type), Collections.emptyMap(),
+			LazyServiceOptions.singleton());
+	}
+
+	@Override
+	public <S> ServiceRegistration<S> providesLazyService(final F0<S> supplier, final Class<? super S> type,
+														  final Map<String, Object> properties) {
+		return providesLazyService(supplier, Arrays.asList(type), properties, LazyServiceOptions.singleton());
+	}
+
+	@Override
+	public <S> ServiceRegistration<S> providesLazyService(final F0<S> supplier,
+														  final Iterable<Class<? super S>> types,
+														  final Map<String, Object> properties,
+														  final LazyServiceOptions<S> options) {
+		return internalProvideLazyService(new LazyServiceFactory<>(supplier, options), types, properties);
+	}
+
 	//////////////////////////////////
 	// Service Watching
 
 	@Override
 	public <S> ServiceTracker<S, S> watchAdvancedServices(final Class<S> type, final String filter,
 														  final Procedure1<ServiceWatcherEvent<S>> f) {
+		return watchAdvancedServices(type, filter, ServiceWatcherOptions.defaults(), f);
+	}
+
+	@Override
+	public <S> ServiceTracker<S, S> watchAdvancedServices(final Class<S> type, final String filter,
+														  final ServiceWatcherOptions options,
+														  final Procedure1<ServiceWatcherEvent<S>> f) {
 		if (bundleContext.isEmpty()) {
 			throw new IllegalStateException(
 				"Cannot watch service. This API method must be called with an valid bundle context.");
@@ -370,23 +1207,134 @@ public class OsgiContext
 				throw new RuntimeException(
 					"Could not create valid filter from generated filter string: " + combinedFilter, e);
 			}
-			final ServiceWatcherCapsule<S> swc = new ServiceWatcherCapsule<S>(typedFilter, f, bc);
+			final Optional<F2<ServiceReference<S>, S, S>> decorator = Optional.of(options.instrumentation())
+				.map(i -> (ref, service) -> i.instrument(type, bc, ref, service));
+			final ServiceWatcherCapsule<S> swc = new ServiceWatcherCapsule<S>(typedFilter, f, bc, handlerWatchdog,
+				decorator, options, trackerFactory(bc, type, typedFilter));
 			addCapsule(swc);
 			return swc.tracker();
 		});
 		return tracker.get();
 	}
 
+	/**
+	 * Creates the factory for service trackers fed by the shared registry
+	 * mirror, if it is enabled and present. The mirror is looked up when the
+	 * tracker is created.
+	 */
+	private <S> Optional<F1<ServiceTrackerCustomizer<S, S>, ServiceTracker<S, S>>> trackerFactory(
+		final BundleContext bc, final Class<S> type, final Filter filter) {
+		if (!useRegistryMirror) {
+			return Optional.none();
+		}
+		return Optional.some(customizer -> {
+			final ServiceReference<ServiceRegistryMirror> mirrorRef = bc.getServiceReference(ServiceRegistryMirror.class);
+			final ServiceRegistryMirror mirror = mirrorRef != null ? bc.getService(mirrorRef) : null;
+			if (mirror == null) {
+				return new ServiceTracker<S, S>(bc, filter, customizer);
+			}
+			return new MirroredServiceTracker<S>(bc, mirrorRef, mirror, type.getName(), filter, customizer);
+		});
+	}
+
+	@Override
+	public <S> ServiceCollectionCapsule<S, Void> trackAll(final Class<S> type, final String filter) {
+		return internalTrackAll(type, filter, Optional.none());
+	}
+
+	@Override
+	public <S, P> ServiceCollectionCapsule<S, P> trackAll(final Class<S> type, final String filter,
+														  final F1<ServiceReference<S>, P> projection) {
+		return internalTrackAll(type, filter, Optional.some(projection));
+	}
+
+	private <S, P> ServiceCollectionCapsule<S, P> internalTrackAll(final Class<S> type, final String filter,
+																   final Optional<F1<ServiceReference<S>, P>> projection) {
+		final Optional<BundleContext> context = bundleContext;
+		if (context.isEmpty()) {
+			throw new IllegalStateException(
+				"Cannot track services. This API method must be called with an valid bundle context.");
+		}
+		final BundleContext bc = context.get();
+		final String combinedFilter = Util.createCompleteFilter(type, filter);
+		final Filter typedFilter;
+		try {
+			typedFilter = bc.createFilter(combinedFilter);
+		} catch (final InvalidSyntaxException e) {
+			throw new RuntimeException(
+				"Could not create valid filter from generated filter string: " + combinedFilter, e);
+		}
+		final ServiceCollectionCapsule<S, P> capsule = new ServiceCollectionCapsule<>(typedFilter, projection, bc,
+			trackerFactory(bc, type, typedFilter));
+		addCapsule(capsule);
+		return capsule;
+	}
+
+	@Override
+	public <S> ServiceTracker<S, S> whenAdvancedServicePresent(final Class<S> type, final String filter,
+															   final Procedure1<S> f) {
+		return whenAdvancedServicePresent(type, filter, ServiceWatcherOptions.defaults(), f);
+	}
+
 	@Override
 	public <S> ServiceTracker<S, S> whenAdvancedServicePresent(final Class<S> type, final String filter,
+															   final ServiceWatcherOptions options,
 															   final Procedure1<S> f) {
+		return internalWhenServicePresent(type, filter, options, null, f, null);
+	}
+
+	@Override
+	public <S> ServiceTracker<S, S> whenAdvancedServicePresentWithKeys(final Class<S> type, final String filter,
+																	   final Set<String> significantKeys,
+																	   final Procedure1<S> f) {
+		return whenAdvancedServicePresentWithKeys(type, filter, ServiceWatcherOptions.defaults(), significantKeys, f,
+			null);
+	}
+
+	@Override
+	public <S> ServiceTracker<S, S> whenAdvancedServicePresentWithKeys(final Class<S> type, final String filter,
+																	   final ServiceWatcherOptions options,
+																	   final Set<String> significantKeys,
+																	   final Procedure1<S> f,
+																	   final Procedure2<S, PropertyDelta> onUpdate) {
+		if (significantKeys == null) {
+			throw new NullPointerException("significantKeys must not be null");
+		}
+		return internalWhenServicePresent(type, filter, options, significantKeys, f, onUpdate);
+	}
+
+	/**
+	 * Binds the inner logic to the first present service.
+	 *
+	 * @param significantKeys
+	 *            If `null`, modifications are ignored and a binding is not
+	 *            moved to another service when its service goes away.
+	 *            Otherwise, a modification of one of the given keys re-activates
+	 *            the inner logic (or calls `onUpdate`), and a removed binding
+	 *            moves to the next matching service.
+	 * @param onUpdate
+	 *            Called instead of re-activating the inner logic, or `null`.
+	 */
+	private <S> ServiceTracker<S, S> internalWhenServicePresent(final Class<S> type, final String filter,
+																final ServiceWatcherOptions options,
+																final Set<String> significantKeys,
+																final Procedure1<S> f,
+																final Procedure2<S, PropertyDelta> onUpdate) {
+
+		if (compactBindings && significantKeys == null && options.instrumentation() == null
+			&& options.priority() == HandlerPriority.NORMAL && handlerWatchdog.isEmpty()) {
+			return compactWhenServicePresent(type, filter, f);
+		}
 
 		class ActivationState {
 
+			private final ServiceReference<S> watchedReference;
 			private final S watchedService;
 			private final CapsuleScope servicePresentCapsuleScope;
 
-			public ActivationState(final S watchedService, final CapsuleScope servicePresentCapsuleScope) {
+			public ActivationState(final ServiceReference<S> watchedReference, final S watchedService,
+								   final CapsuleScope servicePresentCapsuleScope) {
+				this.watchedReference = watchedReference;
 				this.watchedService = watchedService;
 				this.servicePresentCapsuleScope = servicePresentCapsuleScope;
 			}
@@ -395,6 +1343,10 @@ public class OsgiContext
 				return servicePresentCapsuleScope;
 			}
 
+			public ServiceReference<S> watchedReference() {
+				return watchedReference;
+			}
+
 			public S watchedService() {
 				return watchedService;
 			}
@@ -407,35 +1359,142 @@ public class OsgiContext
 
 		}
 
-		@SuppressWarnings("unchecked") final Optional<ActivationState>[] optActivationState = new Optional[]{Optional.none()};
+		if (bundleContext.isEmpty()) {
+			throw new IllegalStateException(
+				"Cannot watch service. This API method must be called with an valid bundle context.");
+		}
+		final ServiceBinding binding = dependencyTracker.register(type, filter, Util.bundleName(bundleContext.get()));
+
+		/**
+		 * The mutable state of this binding, shared by the event handlers.
+		 */
+		class BindingState {
+			Optional<ActivationState> activation = Optional.none();
+			/**
+			 * The watching tracker, set once the watcher is open.
+			 */
+			ServiceTracker<S, S> tracker;
+		}
+		final BindingState state = new BindingState();
+
+		final Procedure2<ServiceReference<S>, S> activate = (reference, service) -> {
+			final CapsuleScope newScope = executeWithinNewCapsuleScope(() -> {
+				f.apply(service);
+			});
 
-		final ServiceTracker<S, S> reg = watchAdvancedServices(type, filter, event -> {
-			if (event.eventType() == ServiceWatcherEvent.EventType.ADDING) {
-				if (optActivationState[0].isEmpty()) {
-					// Not already watching a service of this type. Run handler.
-					final CapsuleScope newScope = executeWithinNewCapsuleScope(() -> {
-						f.apply(event.service());
-					});
+			// Save the activation state
+			state.activation = Optional.some(new ActivationState(reference, service, newScope));
+			dependencyTracker.satisfied(binding);
+		};
 
-					// Save the activation state
-					optActivationState[0] = Optional.some(new ActivationState(event.service(), newScope));
-				}
-			} else if (event.eventType() == ServiceWatcherEvent.EventType.REMOVED) {
-				optActivationState[0].foreach(activationState -> {
-					// Stop the capsule scope only if exactly that service got
-					// removed which triggered its creation
-					if (event.service() == activationState.watchedService()) {
+		final ServiceTracker<S, S> reg;
+		try {
+			// Only selective re-activation needs the deltas of modifications
+			final ServiceWatcherOptions watcherOptions = options.withInitialSnapshot(false)
+				.withPropertyDeltas(significantKeys != null);
+			reg = watchAdvancedServices(type, filter, watcherOptions, event -> {
+				if (event.eventType() == ServiceWatcherEvent.EventType.ADDING) {
+					if (state.activation.isEmpty()) {
+						// Not already watching a service of this type. Run handler.
+						activate.apply(event.context().reference(), event.service());
+					}
+				} else if (event.eventType() == ServiceWatcherEvent.EventType.MODIFIED) {
+					if (significantKeys == null || state.activation.isEmpty()) {
+						return;
+					}
+					final ActivationState activationState = state.activation.get();
+					final PropertyDelta delta = event.delta();
+					if (!event.context().reference().equals(activationState.watchedReference()) || delta == null
+						|| !affectsAny(delta, significantKeys)) {
+						return;
+					}
+					if (onUpdate != null) {
+						onUpdate.apply(activationState.watchedService(), delta);
+					} else {
+						// Re-activate with the new properties
 						activationState.servicePresentCapsuleScope().stop();
-						optActivationState[0] = Optional.none();
+						state.activation = Optional.none();
+						activate.apply(activationState.watchedReference(), activationState.watchedService());
 					}
-				});
+				} else if (event.eventType() == ServiceWatcherEvent.EventType.REMOVED) {
+					state.activation.foreach(activationState -> {
+						// Stop the capsule scope only if exactly that service got
+						// removed which triggered its creation
+						if (significantKeys == null ? event.service() == activationState.watchedService()
+							: event.context().reference().equals(activationState.watchedReference())) {
+							activationState.servicePresentCapsuleScope().stop();
+							state.activation = Optional.none();
+							dependencyTracker.unsatisfied(binding);
+						}
+					});
+					if (significantKeys != null && state.activation.isEmpty() && state.tracker != null) {
+						// Move the binding to the next matching service
+						final ServiceReference<S> next = state.tracker.getServiceReference();
+						if (next != null && !next.equals(event.context().reference())) {
+							final S nextService = state.tracker.getService(next);
+							if (nextService != null) {
+								activate.apply(next, nextService);
+							}
+						}
+					}
+				}
+			});
+			state.tracker = reg;
+		} catch (final RuntimeException e) {
+			dependencyTracker.unregister(binding);
+			throw e;
+		}
 
-			}
-		});
+		// Forget the binding, when the watcher is gone
+		onStop(() -> dependencyTracker.unregister(binding));
 
 		return reg;
 	}
 
+	private <S> ServiceTracker<S, S> compactWhenServicePresent(final Class<S> type, final String filter,
+															   final Procedure1<S> f) {
+		final Optional<BundleContext> context = bundleContext;
+		if (context.isEmpty()) {
+			throw new IllegalStateException(
+				"Cannot watch service. This API method must be called with an valid bundle context.");
+		}
+		final BundleContext bc = context.get();
+		final String combinedFilter = Util.createCompleteFilter(type, filter);
+
+		CompactServiceBindings<S>.Slot slot = null;
+		while (slot == null) {
+			@SuppressWarnings("unchecked") final CompactServiceBindings<S> bindings = (CompactServiceBindings<S>) compactServiceBindings
+				.computeIfAbsent(combinedFilter, k -> {
+					final Filter typedFilter;
+					try {
+						typedFilter = bc.createFilter(combinedFilter);
+					} catch (final InvalidSyntaxException e) {
+						throw new RuntimeException(
+							"Could not create valid filter from generated filter string: " + combinedFilter, e);
+					}
+					final CompactServiceBindings<?>[] created = new CompactServiceBindings<?>[1];
+					created[0] = new CompactServiceBindings<S>(bc, type, filter, typedFilter,
+						trackerFactory(bc, type, typedFilter), this, dependencyTracker,
+						() -> compactServiceBindings.remove(combinedFilter, created[0]));
+					return created[0];
+				});
+			// null, if the bindings were closed meanwhile
+			slot = bindings.reserve(f);
+		}
+		slot.setScopeEntry(addRemovableCapsule(slot));
+		slot.bind();
+		return slot;
+	}
+
+	private static boolean affectsAny(final PropertyDelta delta, final Set<String> keys) {
+		for (final String key : keys) {
+			if (delta.affects(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public <S> ServiceTracker<S, S> whenServicePresent(final Class<S> type, final Procedure1<S> f) {
 		return whenAdvancedServicePresent(type, null, f);
@@ -479,6 +1538,12 @@ public class OsgiContext
 
 	@Override
 	public <S, R> R withService(final Class<S> type, final F1<Optional<S>, R> f) {
+		return withService(type, null, f);
+	}
+
+	@Override
+	public <S, R> R withService(final Class<S> type, final ServiceInstrumentation instrumentation,
+								final F1<Optional<S>, R> f) {
 		if (bundleContext.isEmpty()) {
 			throw new IllegalStateException(
 				"Cannot get service. This API method must be called with an valid bundle context.");
@@ -489,6 +1554,9 @@ public class OsgiContext
 		if (ref.isDefined()) {
 			final S s = bc.getService(ref.get());
 			try {
+				if (instrumentation != null) {
+					return f.apply(Optional.some(instrumentation.instrument(type, bc, ref.get(), s)));
+				}
 				return f.apply(Optional.some(s));
 			} finally {
 				bc.ungetService(ref.get());
@@ -498,6 +1566,112 @@ public class OsgiContext
 		}
 	}
 
+	@Override
+	public <S, R> R withPooledService(final Class<S> type, final String filter, final F1<Optional<S>, R> f) {
+		return withPooledService(type, filter, ServicePoolOptions.defaults(), f);
+	}
+
+	@Override
+	public <S, R> R withPooledService(final Class<S> type, final String filter, final ServicePoolOptions options,
+									  final F1<Optional<S>, R> f) {
+		if (bundleContext.isEmpty()) {
+			throw new IllegalStateException(
+				"Cannot get service. This API method must be called with an valid bundle context.");
+		}
+		final BundleContext bc = bundleContext.get();
+
+		// Select the highest ranked service
+		ServiceReference<S> ref = null;
+		for (final ServiceReference<S> candidate : serviceRefs(type, filter)) {
+			if (ref == null || candidate.compareTo(ref) > 0) {
+				ref = candidate;
+			}
+		}
+		if (ref == null) {
+			return f.apply(Optional.none());
+		}
+
+		final ServicePool<S> pool = servicePool(bc, ref, options);
+		final S s = pool == null ? null : pool.borrow();
+		if (s == null) {
+			return f.apply(Optional.none());
+		}
+		try {
+			return f.apply(Optional.some(s));
+		} finally {
+			pool.giveBack(s);
+		}
+	}
+
+	/**
+	 * Returns the currently active service pools used by
+	 * {@link #withPooledService(Class, String, ServicePoolOptions, F1)}.
+	 */
+	public Collection<ServicePool<?>> servicePools() {
+		return new ArrayList<>(servicePools.values());
+	}
+
+	/**
+	 * Gets or creates the pool for the given service. The pool is drained when
+	 * the service is unregistered or the current capsule scope stops.
+	 *
+	 * @return The pool, or `null` if the service is no longer available.
+	 */
+	private <S> ServicePool<S> servicePool(final BundleContext bc, final ServiceReference<S> ref,
+										   final ServicePoolOptions options) {
+		@SuppressWarnings("unchecked") final ServicePool<S> existing = (ServicePool<S>) servicePools.get(ref);
+		if (existing != null && !existing.isDrained()) {
+			return existing;
+		}
+		synchronized (servicePools) {
+			@SuppressWarnings("unchecked") final ServicePool<S> current = (ServicePool<S>) servicePools.get(ref);
+			if (current != null && !current.isDrained()) {
+				return current;
+			}
+			final ServiceObjects<S> serviceObjects = bc.getServiceObjects(ref);
+			if (serviceObjects == null) {
+				return null;
+			}
+			final ServicePool<S> pool = new ServicePool<>(serviceObjects, options);
+			servicePools.put(ref, pool);
+
+			// Drain the pool when the service goes away
+			final ServiceListener listener = event -> {
+				if (event.getType() == ServiceEvent.UNREGISTERING) {
+					drainServicePool(bc, pool);
+				}
+			};
+			servicePoolListeners.put(pool, listener);
+			try {
+				bc.addServiceListener(listener,
+					"(" + Constants.SERVICE_ID + "=" + ref.getProperty(Constants.SERVICE_ID) + ")");
+			} catch (final InvalidSyntaxException e) {
+				throw new RuntimeException("Could not create service listener filter", e);
+			}
+
+			// Drain the pool when the current scope stops
+			onStop(() -> drainServicePool(bc, pool));
+
+			if (log.isDebugEnabled()) {
+				log.debug("Bundle {}: Created service pool {}", Logger.lazy(() -> Util.bundleName(bc)), pool);
+			}
+			return pool;
+		}
+	}
+
+	private void drainServicePool(final BundleContext bc, final ServicePool<?> pool) {
+		servicePools.remove(pool.serviceReference(), pool);
+		final ServiceListener listener = servicePoolListeners.remove(pool);
+		if (listener != null) {
+			try {
+				bc.removeServiceListener(listener);
+			} catch (final IllegalStateException e) {
+				// Do nothing. The bundle context is no longer valid.
+			}
+		}
+		pool.drain();
+	}
+
 	@Override
 	public <S> Optional<ServiceReference<S>> serviceRef(final Class<? super S> type) {
 		if (bundleContext.isEmpty()) {
@@ -546,7 +1720,8 @@ public class OsgiContext
 			throw new IllegalStateException(
 				"Cannot get service. This API method must be called with an valid bundle context.");
 		}
-		return serviceRef(type).map(s -> bundleContext.get().getService(s));
+		final BundleContext bc = bundleContext.get();
+		return serviceRef(type).map(ref -> acquireService(bc, ref));
 	}
 
 	@Override
@@ -555,7 +1730,22 @@ public class OsgiContext
 			throw new IllegalStateException(
 				"Cannot get service. This API method must be called with an valid bundle context.");
 		}
-		return serviceRef(type, filter).map(s -> bundleContext.get().getService(s));
+		final BundleContext bc = bundleContext.get();
+		return serviceRef(type, filter).map(ref -> acquireService(bc, ref));
+	}
+
+	@Override
+	public <S> Optional<S> service(final Class<S> type, final String filter,
+								   final ServiceInstrumentation instrumentation) {
+		if (instrumentation == null) {
+			return service(type, filter);
+		}
+		if (bundleContext.isEmpty()) {
+			throw new IllegalStateException(
+				"Cannot get service. This API method must be called with an valid bundle context.");
+		}
+		final BundleContext bc = bundleContext.get();
+		return serviceRef(type, filter).map(ref -> instrumentation.instrument(type, bc, ref, acquireService(bc, ref)));
 	}
 
 	@Override
@@ -566,11 +1756,165 @@ public class OsgiContext
 		}
 		final BundleContext bc = bundleContext.get();
 		final Collection<ServiceReference<S>> refs = serviceRefs(type, filter);
-		return map(refs, ref -> bc.getService(ref));
+		return map(refs, ref -> acquireService(bc, ref));
 	}
 
 	@Override
 	public <S> List<S> services(final Class<S> type) {
 		return services(type, null);
 	}
+
+	/**
+	 * Releases a service acquired with {@link #service(Class)},
+	 * {@link #service(Class, String)} or {@link #services(Class, String)}.
+	 *
+	 * @param ref The reference of the acquired service.
+	 * @return `false` if the service was not in use by this bundle.
+	 */
+	public boolean ungetService(final ServiceReference<?> ref) {
+		if (bundleContext.isEmpty()) {
+			throw new IllegalStateException(
+				"Cannot unget service. This API method must be called with an valid bundle context.");
+		}
+		final BundleContext bc = bundleContext.get();
+		final boolean released = bc.ungetService(ref);
+		if (released) {
+			serviceUsageAccounting.foreach(accounting -> accounting.released(bc, ref));
+			cancelAutoRelease(ref);
+		}
+		return released;
+	}
+
+	/**
+	 * Cancels one pending auto-release of the referenced service, preferably
+	 * one of the current scope.
+	 */
+	private void cancelAutoRelease(final ServiceReference<?> ref) {
+		if (autoReleases.isEmpty()) {
+			return;
+		}
+		final Optional<CapsuleScope> scope = currentScope();
+		if (scope.isDefined()) {
+			final AutoRelease release = autoReleases.get(new AbstractMap.SimpleImmutableEntry<>(scope.get(), ref));
+			if (release != null && release.cancelOne()) {
+				return;
+			}
+		}
+		for (final AutoRelease release : autoReleases.values()) {
+			if (release.ref.equals(ref) && release.cancelOne()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the service and records the acquisition in the service usage
+	 * accounting.
+	 */
+	private <S> S acquireService(final BundleContext bc, final ServiceReference<S> ref) {
+		final S service = bc.getService(ref);
+		if (service != null && serviceUsageAccounting.isDefined()) {
+			final ServiceUsageAccounting accounting = serviceUsageAccounting.get();
+			accounting.acquired(bc, ref);
+			if (accounting.isAutoRelease()) {
+				scheduleAutoRelease(bc, ref, accounting);
+			}
+		}
+		return service;
+	}
+
+	/**
+	 * Releases the service when the current scope stops. All acquisitions of
+	 * the same service in the same scope share one release capsule. Outside
+	 * of a scope, the service is not released automatically.
+	 */
+	private void scheduleAutoRelease(final BundleContext bc, final ServiceReference<?> ref,
+			final ServiceUsageAccounting accounting) {
+		final Optional<CapsuleScope> scope = currentScope();
+		if (scope.isEmpty()) {
+			if (log.isDebugEnabled()) {
+				log.debug("Bundle {}: Service [{}] acquired outside of a capsule scope will not be released automatically",
+						Util.bundleName(bc), ref);
+			}
+			return;
+		}
+		final Object key = new AbstractMap.SimpleImmutableEntry<>(scope.get(), ref);
+		AutoRelease release = autoReleases.get(key);
+		if (release == null) {
+			final AutoRelease created = new AutoRelease(key, bc, ref, accounting);
+			release = autoReleases.putIfAbsent(key, created);
+			if (release == null) {
+				release = created;
+				addCapsule(created);
+			}
+		}
+		release.retain();
+	}
+
+	/**
+	 * Releases all acquisitions of a service made in one scope when that scope
+	 * stops.
+	 */
+	private final class AutoRelease implements Capsule {
+		private final Object key;
+		private final BundleContext bc;
+		private final ServiceReference<?> ref;
+		private final ServiceUsageAccounting accounting;
+		// guarded by this
+		private int count = 0;
+
+		AutoRelease(final Object key, final BundleContext bc, final ServiceReference<?> ref,
+				final ServiceUsageAccounting accounting) {
+			this.key = key;
+			this.bc = bc;
+			this.ref = ref;
+			this.accounting = accounting;
+		}
+
+		synchronized void retain() {
+			count++;
+		}
+
+		/**
+		 * Cancels one release, as the service was released manually.
+		 *
+		 * @return `false` if no release was pending.
+		 */
+		synchronized boolean cancelOne() {
+			if (count == 0) {
+				return false;
+			}
+			count--;
+			return true;
+		}
+
+		@Override
+		public void start() {
+			// nothing to do
+		}
+
+		@Override
+		public void stop() {
+			autoReleases.remove(key, this);
+			final int pending;
+			synchronized (this) {
+				pending = count;
+				count = 0;
+			}
+			for (int i = 0; i < pending; ++i) {
+				try {
+					if (bc.ungetService(ref)) {
+						accounting.released(bc, ref);
+					}
+				} catch (final IllegalStateException e) {
+					// Do nothing. Bundle context is no longer valid.
+				}
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			return getClass().getSimpleName() + "(ref=" + ref + ",count=" + count + ")";
+		}
+	}
 }
@@ -0,0 +1,78 @@
+package domino.java;
+
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * The registration returned for a service provided within a transactional
+ * capsule scope (see
+ * {@link domino.java.capsule.DynamicCapsuleContext#setTransactionalScopes(boolean)}).
+ * It delegates to the real registration, as soon as the scope is complete and
+ * the service got registered.
+ * <p>
+ * Before that, {@link #setProperties(Dictionary)} changes the properties the
+ * service will be registered with, whereas {@link #getReference()} and
+ * {@link #unregister()} throw an {@link IllegalStateException}.
+ *
+ * @param capsule
+ *            The capsule registering the service
+ * @tparam S Service type
+ */
+class PendingServiceRegistration<S> implements ServiceRegistration<S> {
+
+	private final ServiceProviderCapsule<S> capsule;
+
+	public PendingServiceRegistration(final ServiceProviderCapsule<S> capsule) {
+		this.capsule = capsule;
+	}
+
+	private ServiceRegistration<S> registration(final String action) {
+		if (capsule.serviceRegistration().isEmpty()) {
+			throw new IllegalStateException("Cannot " + action
+					+ ". The service is not registered before its transactional capsule scope is complete.");
+		}
+		return capsule.serviceRegistration().get();
+	}
+
+	@Override
+	public ServiceReference<S> getReference() {
+		return registration("get service reference").getReference();
+	}
+
+	@Override
+	public void setProperties(final Dictionary<String, ?> properties) {
+		if (capsule.serviceRegistration().isDefined()) {
+			capsule.serviceRegistration().get().setProperties(properties);
+			return;
+		}
+		// Replace all properties
+		final Map<String, Object> changes = new LinkedHashMap<>();
+		for (final String key : capsule.managedProperties().current().keySet()) {
+			changes.put(key, null);
+		}
+		if (properties != null) {
+			final Enumeration<String> keys = properties.keys();
+			while (keys.hasMoreElements()) {
+				final String key = keys.nextElement();
+				changes.put(key, properties.get(key));
+			}
+		}
+		capsule.managedProperties().update(changes);
+	}
+
+	@Override
+	public void unregister() {
+		registration("unregister service").unregister();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(capsule=" + capsule + ")";
+	}
+
+}
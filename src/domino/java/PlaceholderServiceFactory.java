@@ -0,0 +1,117 @@
+package domino.java;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+import de.tototec.utils.functional.F0;
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * A placeholder registered for a service type of a lazily activated
+ * {@link OsgiContext} (see {@link OsgiContext#setLazyActivation(Class...)}).
+ * <p>
+ * When a consumer requests the placeholder, the context gets activated and the
+ * real service of the same type, registered by the same bundle, is returned
+ * instead.
+ *
+ * @param type
+ *            The placeholder service type
+ * @param bundleContext
+ *            The bundle context of the lazily activated bundle
+ * @param activate
+ *            Activates the context on first demand, returns `false` if the
+ *            activation failed
+ */
+class PlaceholderServiceFactory implements ServiceFactory<Object> {
+
+	private final Logger log = LoggerFactory.getLogger(PlaceholderServiceFactory.class);
+
+	/**
+	 * Set to `true` on all placeholder registrations.
+	 */
+	public static final String PLACEHOLDER_PROPERTY = "domino.placeholder";
+
+	private final Class<?> type;
+	private final BundleContext bundleContext;
+	private final F0<Boolean> activate;
+
+	/**
+	 * The real service references handed out per consuming bundle.
+	 */
+	private final Map<Bundle, ServiceReference<?>> delegates = new ConcurrentHashMap<>();
+
+	public PlaceholderServiceFactory(final Class<?> type, final BundleContext bundleContext,
+			final F0<Boolean> activate) {
+		this.type = type;
+		this.bundleContext = bundleContext;
+		this.activate = activate;
+	}
+
+	@Override
+	public Object getService(final Bundle bundle, final ServiceRegistration<Object> registration) {
+		if (!activate.apply()) {
+			return null;
+		}
+		final ServiceReference<?> delegate = realServiceReference();
+		if (delegate == null) {
+			log.warn("Bundle {}: The lazy activation did not register a service of type [{}]",
+					Util.bundleName(bundleContext), type.getName());
+			return null;
+		}
+		final Object service = bundleContext.getService(delegate);
+		if (service != null) {
+			delegates.put(bundle, delegate);
+		}
+		return service;
+	}
+
+	@Override
+	public void ungetService(final Bundle bundle, final ServiceRegistration<Object> registration,
+			final Object service) {
+		final ServiceReference<?> delegate = delegates.remove(bundle);
+		if (delegate != null) {
+			try {
+				bundleContext.ungetService(delegate);
+			} catch (final IllegalStateException e) {
+				// bundle context no longer valid
+			}
+		}
+	}
+
+	/**
+	 * The best ranked non-placeholder service of the placeholder type,
+	 * registered by the same bundle.
+	 */
+	private ServiceReference<?> realServiceReference() {
+		final ServiceReference<?>[] refs;
+		try {
+			refs = bundleContext.getServiceReferences(type.getName(), "(!(" + PLACEHOLDER_PROPERTY + "=true))");
+		} catch (final InvalidSyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+		ServiceReference<?> best = null;
+		if (refs != null) {
+			for (final ServiceReference<?> ref : refs) {
+				if (ref.getBundle() != null && ref.getBundle().equals(bundleContext.getBundle())
+						&& (best == null || ref.compareTo(best) > 0)) {
+					best = ref;
+				}
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(type=" + type.getName() + ")";
+	}
+
+}
@@ -0,0 +1,131 @@
+package domino.java;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The difference between two {@link PropertySnapshot}s of a service, as
+ * attached to {@link ServiceWatcherEvent.EventType#MODIFIED} events.
+ * <p>
+ * Array values are compared by their content.
+ *
+ * @param before
+ *            The properties before the modification
+ * @param after
+ *            The properties after the modification
+ */
+public final class PropertyDelta {
+
+	private final PropertySnapshot before;
+	private final PropertySnapshot after;
+	private final Set<String> addedKeys;
+	private final Set<String> removedKeys;
+	private final Set<String> changedKeys;
+
+	private PropertyDelta(final PropertySnapshot before, final PropertySnapshot after, final Set<String> addedKeys,
+			final Set<String> removedKeys, final Set<String> changedKeys) {
+		this.before = before;
+		this.after = after;
+		this.addedKeys = addedKeys;
+		this.removedKeys = removedKeys;
+		this.changedKeys = changedKeys;
+	}
+
+	/**
+	 * Computes the difference between the two snapshots.
+	 */
+	public static PropertyDelta between(final PropertySnapshot before, final PropertySnapshot after) {
+		Set<String> added = Collections.emptySet();
+		Set<String> removed = Collections.emptySet();
+		Set<String> changed = Collections.emptySet();
+		final ServiceProperties oldProps = before.asMap();
+		final ServiceProperties newProps = after.asMap();
+		for (int i = 0; i < newProps.size(); ++i) {
+			final String key = newProps.keyAt(i);
+			final Object oldValue = oldProps.get(key);
+			if (oldValue == null) {
+				if (added.isEmpty()) {
+					added = new LinkedHashSet<>();
+				}
+				added.add(key);
+			} else if (!PropertySnapshot.valueEquals(oldValue, newProps.valueAt(i))) {
+				if (changed.isEmpty()) {
+					changed = new LinkedHashSet<>();
+				}
+				changed.add(key);
+			}
+		}
+		for (int i = 0; i < oldProps.size(); ++i) {
+			final String key = oldProps.keyAt(i);
+			if (!newProps.containsKey(key)) {
+				if (removed.isEmpty()) {
+					removed = new LinkedHashSet<>();
+				}
+				removed.add(key);
+			}
+		}
+		return new PropertyDelta(before, after,
+				Collections.unmodifiableSet(added),
+				Collections.unmodifiableSet(removed),
+				Collections.unmodifiableSet(changed));
+	}
+
+	/**
+	 * Returns `true` if no property value changed.
+	 */
+	public boolean isEmpty() {
+		return addedKeys.isEmpty() && removedKeys.isEmpty() && changedKeys.isEmpty();
+	}
+
+	/**
+	 * Returns `true` if the given property was added, removed or changed.
+	 */
+	public boolean affects(final String key) {
+		return addedKeys.contains(key) || removedKeys.contains(key) || changedKeys.contains(key);
+	}
+
+	public Set<String> addedKeys() {
+		return addedKeys;
+	}
+
+	public Set<String> removedKeys() {
+		return removedKeys;
+	}
+
+	public Set<String> changedKeys() {
+		return changedKeys;
+	}
+
+	/**
+	 * The value of the given property before the modification, or `null`.
+	 */
+	public Object oldValue(final String key) {
+		return before.get(key);
+	}
+
+	/**
+	 * The value of the given property after the modification, or `null`.
+	 */
+	public Object newValue(final String key) {
+		return after.get(key);
+	}
+
+	public PropertySnapshot before() {
+		return before;
+	}
+
+	public PropertySnapshot after() {
+		return after;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(added=" + addedKeys +
+				",removed=" + removedKeys +
+				",changed=" + changedKeys +
+				")";
+	}
+
+}
@@ -0,0 +1,347 @@
+package domino.java;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * An immutable snapshot of the properties of a service reference.
+ * <p>
+ * Reading a property from a {@link ServiceReference} usually synchronizes on
+ * the service registration and may copy the value. A snapshot reads all
+ * properties once and can then be read by any number of threads without
+ * touching the framework. The `service.id` and `service.ranking` are
+ * extracted upfront, and the typed accessors cache their conversions. Like
+ * {@link ServiceReference#getProperty(String)}, all accessors look up keys
+ * case-insensitively.
+ * <p>
+ * Taking a snapshot reads the properties one by one, so it is not atomic
+ * against a concurrent modification of the service properties.
+ */
+public final class PropertySnapshot {
+
+	public static final PropertySnapshot EMPTY = new PropertySnapshot(ServiceProperties.EMPTY);
+
+	/**
+	 * Marks a cached value which could not be converted.
+	 */
+	private static final Object UNCONVERTIBLE = new Object();
+
+	private final ServiceProperties properties;
+	private final long serviceId;
+	private final int serviceRanking;
+
+	private volatile ConcurrentHashMap<String, Object> intCache;
+	private volatile ConcurrentHashMap<String, Object> longCache;
+	private volatile ConcurrentHashMap<String, Object> booleanCache;
+	private volatile ConcurrentHashMap<String, Object> stringsCache;
+	/**
+	 * The keys by their lower case variant, built on the first lookup which
+	 * does not match a key exactly.
+	 */
+	private volatile Map<String, String> foldedKeys;
+
+	private PropertySnapshot(final ServiceProperties properties) {
+		this.properties = properties;
+		final Object id = properties.get(Constants.SERVICE_ID);
+		this.serviceId = id instanceof Number ? ((Number) id).longValue() : -1;
+		final Object ranking = properties.get(Constants.SERVICE_RANKING);
+		// like the framework, only accept integers as ranking
+		this.serviceRanking = ranking instanceof Integer ? (Integer) ranking : 0;
+	}
+
+	/**
+	 * Takes a snapshot of the current properties of the given reference.
+	 */
+	public static PropertySnapshot of(final ServiceReference<?> reference) {
+		final String[] keys = reference.getPropertyKeys();
+		if (keys == null || keys.length == 0) {
+			return EMPTY;
+		}
+		final ServiceProperties.Builder builder = ServiceProperties.builder();
+		for (final String key : keys) {
+			final Object value = reference.getProperty(key);
+			if (value != null) {
+				builder.put(key, value);
+			}
+		}
+		return new PropertySnapshot(builder.build());
+	}
+
+	/**
+	 * Creates a snapshot of the given properties.
+	 */
+	public static PropertySnapshot of(final Map<String, ?> properties) {
+		return new PropertySnapshot(ServiceProperties.copyOf(properties));
+	}
+
+	/**
+	 * All properties as immutable map.
+	 */
+	public ServiceProperties asMap() {
+		return properties;
+	}
+
+	/**
+	 * The raw value of the given property, or `null`.
+	 */
+	public Object get(final String key) {
+		return lookup(key);
+	}
+
+	/**
+	 * Looks up the given key, first exactly and then case-insensitively.
+	 */
+	private Object lookup(final String key) {
+		final Object value = properties.get(key);
+		if (value != null || key == null) {
+			return value;
+		}
+		Map<String, String> folded = foldedKeys;
+		if (folded == null) {
+			folded = new HashMap<>(properties.size() * 2);
+			for (int i = 0; i < properties.size(); ++i) {
+				folded.put(properties.keyAt(i).toLowerCase(Locale.ROOT), properties.keyAt(i));
+			}
+			foldedKeys = folded;
+		}
+		final String actual = folded.get(key.toLowerCase(Locale.ROOT));
+		return actual == null ? null : properties.get(actual);
+	}
+
+	/**
+	 * The `service.id`, or `-1` if there is none.
+	 */
+	public long serviceId() {
+		return serviceId;
+	}
+
+	/**
+	 * The `service.ranking`, or `0` if there is none or it is not an
+	 * `Integer`.
+	 */
+	public int serviceRanking() {
+		return serviceRanking;
+	}
+
+	/**
+	 * The value of the given property as string, or the default value if it
+	 * is not present.
+	 */
+	public String getString(final String key, final String defaultValue) {
+		final Object value = lookup(key);
+		return value == null ? defaultValue : value instanceof String ? (String) value : String.valueOf(value);
+	}
+
+	/**
+	 * The value of the given property as `int`, converted from any number or
+	 * a decimal string, or the default value if it is not present or can not
+	 * be converted without loss (e.g. a `long` out of the `int` range or a
+	 * fractional `double`).
+	 */
+	public int getInt(final String key, final int defaultValue) {
+		if (intCache == null) {
+			intCache = new ConcurrentHashMap<>();
+		}
+		final Object converted = intCache.computeIfAbsent(key, k -> {
+			final Object value = lookup(k);
+			if (value instanceof Number) {
+				final Object exact = exactLong((Number) value);
+				if (exact == UNCONVERTIBLE) {
+					return UNCONVERTIBLE;
+				}
+				final long longValue = (Long) exact;
+				return longValue == (int) longValue ? (Object) (int) longValue : UNCONVERTIBLE;
+			}
+			if (value instanceof String) {
+				try {
+					return Integer.valueOf(((String) value).trim());
+				} catch (final NumberFormatException e) {
+					return UNCONVERTIBLE;
+				}
+			}
+			return UNCONVERTIBLE;
+		});
+		return converted == UNCONVERTIBLE ? defaultValue : (Integer) converted;
+	}
+
+	/**
+	 * The value of the given property as `long`, converted from any number or
+	 * a decimal string, or the default value if it is not present or can not
+	 * be converted without loss.
+	 */
+	public long getLong(final String key, final long defaultValue) {
+		if (longCache == null) {
+			longCache = new ConcurrentHashMap<>();
+		}
+		final Object converted = longCache.computeIfAbsent(key, k -> {
+			final Object value = lookup(k);
+			if (value instanceof Number) {
+				return exactLong((Number) value);
+			}
+			if (value instanceof String) {
+				try {
+					return Long.valueOf(((String) value).trim());
+				} catch (final NumberFormatException e) {
+					return UNCONVERTIBLE;
+				}
+			}
+			return UNCONVERTIBLE;
+		});
+		return converted == UNCONVERTIBLE ? defaultValue : (Long) converted;
+	}
+
+	/**
+	 * Converts the given number to a `Long`, or returns {@link #UNCONVERTIBLE}
+	 * if it is out of the `long` range or has a fractional part.
+	 */
+	private static Object exactLong(final Number number) {
+		if (number instanceof Double || number instanceof Float) {
+			final double value = number.doubleValue();
+			// 2^63 is the smallest double above Long.MAX_VALUE
+			if (value != Math.rint(value) || value < -0x1p63 || value >= 0x1p63) {
+				return UNCONVERTIBLE;
+			}
+			return (long) value;
+		}
+		if (number instanceof BigInteger) {
+			return ((BigInteger) number).bitLength() < 64 ? number.longValue() : UNCONVERTIBLE;
+		}
+		if (number instanceof BigDecimal) {
+			try {
+				return ((BigDecimal) number).longValueExact();
+			} catch (final ArithmeticException e) {
+				return UNCONVERTIBLE;
+			}
+		}
+		return number.longValue();
+	}
+
+	/**
+	 * The value of the given property as `boolean`, converted from a
+	 * `Boolean` or the strings `true` and `false` (ignoring case), or the
+	 * default value if it is not present or can not be converted.
+	 */
+	public boolean getBoolean(final String key, final boolean defaultValue) {
+		if (booleanCache == null) {
+			booleanCache = new ConcurrentHashMap<>();
+		}
+		final Object converted = booleanCache.computeIfAbsent(key, k -> {
+			final Object value = lookup(k);
+			if (value instanceof Boolean) {
+				return value;
+			}
+			if (value instanceof String) {
+				final String str = ((String) value).trim();
+				if (str.equalsIgnoreCase("true")) {
+					return Boolean.TRUE;
+				}
+				if (str.equalsIgnoreCase("false")) {
+					return Boolean.FALSE;
+				}
+			}
+			return UNCONVERTIBLE;
+		});
+		return converted == UNCONVERTIBLE ? defaultValue : (Boolean) converted;
+	}
+
+	/**
+	 * The value of the given property as list of strings, converted from a
+	 * single value, an array or a collection. Returns an empty list if the
+	 * property is not present.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> getStrings(final String key) {
+		if (stringsCache == null) {
+			stringsCache = new ConcurrentHashMap<>();
+		}
+		return (List<String>) stringsCache.computeIfAbsent(key, k -> {
+			final Object value = lookup(k);
+			if (value == null) {
+				return Collections.<String>emptyList();
+			}
+			final List<String> strings = new ArrayList<>();
+			if (value.getClass().isArray()) {
+				for (int i = 0; i < Array.getLength(value); ++i) {
+					strings.add(String.valueOf(Array.get(value, i)));
+				}
+			} else if (value instanceof Collection) {
+				for (final Object item : (Collection<?>) value) {
+					strings.add(String.valueOf(item));
+				}
+			} else {
+				strings.add(String.valueOf(value));
+			}
+			return Collections.unmodifiableList(strings);
+		});
+	}
+
+	/**
+	 * Compares two property values, arrays by their content.
+	 */
+	static boolean valueEquals(final Object a, final Object b) {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null) {
+			return false;
+		}
+		if (a.getClass().isArray() && b.getClass().isArray()) {
+			return Arrays.deepEquals(new Object[] { a }, new Object[] { b });
+		}
+		return a.equals(b);
+	}
+
+	/**
+	 * Two snapshots are equal if they have the same keys with equal values,
+	 * comparing arrays by their content.
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof PropertySnapshot)) {
+			return false;
+		}
+		final ServiceProperties other = ((PropertySnapshot) obj).properties;
+		if (other.size() != properties.size()) {
+			return false;
+		}
+		for (int i = 0; i < properties.size(); ++i) {
+			if (!valueEquals(properties.valueAt(i), other.get(properties.keyAt(i)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		for (int i = 0; i < properties.size(); ++i) {
+			final Object value = properties.valueAt(i);
+			hash += properties.keyAt(i).hashCode()
+					^ (value.getClass().isArray() ? Arrays.deepHashCode(new Object[] { value }) : value.hashCode());
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(properties=" + properties + ")";
+	}
+
+}
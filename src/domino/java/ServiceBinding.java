@@ -0,0 +1,165 @@
+package domino.java;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A service dependency declared with
+ * {@link ServiceWatching#whenAdvancedServicePresent(Class, String, de.tototec.utils.functional.Procedure1)}
+ * (or one of its convenience variants) together with its wait times.
+ * <p>
+ * A binding is unsatisfied as long as no matching service is bound. Each time
+ * the binding gets satisfied, the time it waited for the service is recorded.
+ *
+ * @see DependencyStatus
+ */
+public class ServiceBinding {
+
+	private final String type;
+	private final String filter;
+	private final String bundleName;
+	private final long createdAtMillis;
+
+	private volatile boolean satisfied;
+	private volatile long waitingSinceMillis;
+	/**
+	 * The wait times are measured with the monotonic {@link System#nanoTime()}.
+	 */
+	private volatile long waitingSinceNanos;
+	private volatile long lastWaitMillis = -1;
+	private volatile long satisfiedCount;
+
+	public ServiceBinding(final String type, final String filter, final String bundleName) {
+		this.type = type;
+		this.filter = filter;
+		this.bundleName = bundleName;
+		this.createdAtMillis = System.currentTimeMillis();
+		this.waitingSinceMillis = createdAtMillis;
+		this.waitingSinceNanos = System.nanoTime();
+	}
+
+	/**
+	 * The name of the required service type.
+	 */
+	public String type() {
+		return type;
+	}
+
+	/**
+	 * The additional filter, or `null`.
+	 */
+	public String filter() {
+		return filter;
+	}
+
+	/**
+	 * The name of the bundle declaring the binding.
+	 */
+	public String bundleName() {
+		return bundleName;
+	}
+
+	public long createdAtMillis() {
+		return createdAtMillis;
+	}
+
+	/**
+	 * The time in milliseconds since the epoch the binding started to wait for
+	 * the currently missing service.
+	 */
+	public long waitingSinceMillis() {
+		return waitingSinceMillis;
+	}
+
+	public boolean isSatisfied() {
+		return satisfied;
+	}
+
+	/**
+	 * The time in milliseconds the binding is waiting for a service, or `0` if
+	 * it is satisfied.
+	 */
+	public long waitingMillis() {
+		return satisfied ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitingSinceNanos);
+	}
+
+	/**
+	 * The {@link System#nanoTime()} the binding started to wait for the
+	 * currently missing service.
+	 */
+	long waitingSinceNanos() {
+		return waitingSinceNanos;
+	}
+
+	/**
+	 * The time in milliseconds the binding waited before it was satisfied the
+	 * last time, or `-1` if it was never satisfied.
+	 */
+	public long lastWaitMillis() {
+		return lastWaitMillis;
+	}
+
+	/**
+	 * How often the binding got satisfied.
+	 */
+	public long satisfiedCount() {
+		return satisfiedCount;
+	}
+
+	/**
+	 * Guarded by this.
+	 */
+	private boolean registered = true;
+
+	/**
+	 * @return `true`, if a registered binding changed from unsatisfied to
+	 *         satisfied.
+	 */
+	synchronized boolean markSatisfied() {
+		if (!satisfied) {
+			lastWaitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitingSinceNanos);
+			satisfiedCount++;
+			satisfied = true;
+			return registered;
+		}
+		return false;
+	}
+
+	/**
+	 * @return `true`, if a registered binding changed from satisfied to
+	 *         unsatisfied.
+	 */
+	synchronized boolean markUnsatisfied() {
+		if (satisfied) {
+			waitingSinceMillis = System.currentTimeMillis();
+			waitingSinceNanos = System.nanoTime();
+			satisfied = false;
+			return registered;
+		}
+		return false;
+	}
+
+	/**
+	 * @return `true`, if the binding was registered and unsatisfied.
+	 */
+	synchronized boolean markUnregistered() {
+		if (registered) {
+			registered = false;
+			return !satisfied;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(type=" + type +
+				",filter=" + filter +
+				",bundleName=" + bundleName +
+				",satisfied=" + satisfied +
+				",waitingMillis=" + waitingMillis() +
+				",lastWaitMillis=" + lastWaitMillis +
+				",satisfiedCount=" + satisfiedCount +
+				")";
+	}
+
+}
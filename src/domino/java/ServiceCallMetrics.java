@@ -0,0 +1,80 @@
+package domino.java;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The call metrics of one service interface consumed by one bundle from one
+ * providing bundle.
+ *
+ * @see ServiceInstrumentation
+ */
+public class ServiceCallMetrics {
+
+	private final String serviceType;
+	private final String consumerBundle;
+	private final String providerBundle;
+	private final Map<Method, MethodCallMetrics> methods;
+
+	public ServiceCallMetrics(final Class<?> serviceType, final String consumerBundle, final String providerBundle) {
+		this.serviceType = serviceType.getName();
+		this.consumerBundle = consumerBundle;
+		this.providerBundle = providerBundle;
+		final Map<Method, MethodCallMetrics> methods = new HashMap<>();
+		for (final Method method : serviceType.getMethods()) {
+			methods.put(method, new MethodCallMetrics(method));
+		}
+		this.methods = Collections.unmodifiableMap(methods);
+	}
+
+	/**
+	 * The name of the instrumented service interface.
+	 */
+	public String serviceType() {
+		return serviceType;
+	}
+
+	/**
+	 * The name of the bundle calling the service.
+	 */
+	public String consumerBundle() {
+		return consumerBundle;
+	}
+
+	/**
+	 * The name of the bundle which registered the service.
+	 */
+	public String providerBundle() {
+		return providerBundle;
+	}
+
+	/**
+	 * The metrics of the given method, or `null` if the method is not part of
+	 * the service interface.
+	 */
+	public MethodCallMetrics method(final Method method) {
+		return methods.get(method);
+	}
+
+	/**
+	 * The metrics of all methods of the service interface.
+	 */
+	public Collection<MethodCallMetrics> methods() {
+		return new ArrayList<>(methods.values());
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(serviceType=" + serviceType +
+				",consumerBundle=" + consumerBundle +
+				",providerBundle=" + providerBundle +
+				",methods=" + methods.values() +
+				")";
+	}
+
+}
@@ -0,0 +1,325 @@
+package domino.java;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+import de.tototec.utils.functional.F1;
+import de.tototec.utils.functional.Optional;
+import de.tototec.utils.functional.Procedure1;
+import domino.java.capsule.Capsule;
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * A capsule which keeps a live collection of all services matching the given
+ * filter while the current scope is active, e.g. the listeners of a
+ * whiteboard.
+ * <p>
+ * The collection is held in an immutable {@link Snapshot}, which is replaced
+ * (copy-on-write) on each service event. Readers get the current snapshot with
+ * a single volatile read and can iterate it by index without any allocation
+ * or locking. The services are sorted by ranking, the highest ranked service
+ * first.
+ * <p>
+ * Each service can be accompanied by a projection of its service properties,
+ * computed when the service is added or modified, so callers don't need to
+ * look into the service properties on the hot path. The
+ * {@link Snapshot#generation() generation} of the snapshot changes with each
+ * update and can be used to cache data derived from the collection.
+ *
+ * @param filter
+ *            Filter expression restricting the set of services to be tracked
+ * @param projection
+ *            Optional function computing the projection of a service
+ *            reference
+ * @param bundleContext
+ *            Bundle context
+ * @param trackerFactory
+ *            Optional function creating the service tracker for the given
+ *            customizer, e.g. a tracker fed by a {@link ServiceRegistryMirror}
+ * @tparam S Service type to be tracked
+ * @tparam P Type of the projection
+ */
+public class ServiceCollectionCapsule<S, P> implements Capsule {
+
+	private final Logger log = LoggerFactory.getLogger(ServiceCollectionCapsule.class);
+
+	private final Filter filter;
+	private final Optional<F1<ServiceReference<S>, P>> projection;
+	private final BundleContext bundleContext;
+	private final Optional<F1<ServiceTrackerCustomizer<S, S>, ServiceTracker<S, S>>> trackerFactory;
+
+	private Optional<ServiceTracker<S, S>> tracker = Optional.none();
+
+	private volatile Snapshot<S, P> snapshot = Snapshot.empty(0);
+
+	public ServiceCollectionCapsule(
+			final Filter filter,
+			final Optional<F1<ServiceReference<S>, P>> projection,
+			final BundleContext bundleContext) {
+		this(filter, projection, bundleContext, Optional.none());
+	}
+
+	public ServiceCollectionCapsule(
+			final Filter filter,
+			final Optional<F1<ServiceReference<S>, P>> projection,
+			final BundleContext bundleContext,
+			final Optional<F1<ServiceTrackerCustomizer<S, S>, ServiceTracker<S, S>>> trackerFactory) {
+		this.filter = filter;
+		this.projection = projection;
+		this.bundleContext = bundleContext;
+		this.trackerFactory = trackerFactory;
+	}
+
+	/**
+	 * An immutable snapshot of the tracked services, sorted by ranking.
+	 * <p>
+	 * Iterate it allocation-free by index:
+	 *
+	 * <pre>
+	 * final Snapshot&lt;Listener, Void&gt; listeners = collection.snapshot();
+	 * for (int i = 0; i &lt; listeners.size(); ++i) {
+	 * 	listeners.service(i).onMessage(message);
+	 * }
+	 * </pre>
+	 *
+	 * @tparam S Service type
+	 * @tparam P Type of the projection
+	 */
+	public static final class Snapshot<S, P> implements Iterable<S> {
+
+		private static final Object[] NONE = new Object[0];
+
+		private final ServiceReference<?>[] references;
+		private final Object[] services;
+		private final Object[] projections;
+		private final long generation;
+
+		private Snapshot(final ServiceReference<?>[] references, final Object[] services,
+				final Object[] projections, final long generation) {
+			this.references = references;
+			this.services = services;
+			this.projections = projections;
+			this.generation = generation;
+		}
+
+		static <S, P> Snapshot<S, P> empty(final long generation) {
+			return new Snapshot<>(new ServiceReference<?>[0], NONE, NONE, generation);
+		}
+
+		public int size() {
+			return services.length;
+		}
+
+		public boolean isEmpty() {
+			return services.length == 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		public S service(final int i) {
+			return (S) services[i];
+		}
+
+		@SuppressWarnings("unchecked")
+		public ServiceReference<S> reference(final int i) {
+			return (ServiceReference<S>) references[i];
+		}
+
+		/**
+		 * The projection of the service at the given index, or `null` if no
+		 * projection function was given.
+		 */
+		@SuppressWarnings("unchecked")
+		public P projection(final int i) {
+			return (P) projections[i];
+		}
+
+		/**
+		 * The generation of this snapshot. Each update of the collection
+		 * creates a snapshot with a higher generation.
+		 */
+		public long generation() {
+			return generation;
+		}
+
+		/**
+		 * Applies the given function to all services, without allocation.
+		 */
+		public void foreach(final Procedure1<? super S> f) {
+			for (int i = 0; i < services.length; ++i) {
+				f.apply(service(i));
+			}
+		}
+
+		@Override
+		public Iterator<S> iterator() {
+			return new Iterator<S>() {
+				private int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return next < services.length;
+				}
+
+				@Override
+				public S next() {
+					if (next >= services.length) {
+						throw new NoSuchElementException();
+					}
+					return service(next++);
+				}
+			};
+		}
+
+		int indexOf(final ServiceReference<?> reference) {
+			for (int i = 0; i < references.length; ++i) {
+				if (references[i].equals(reference)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		Snapshot<S, P> without(final int index) {
+			final int size = references.length - 1;
+			final ServiceReference<?>[] newReferences = new ServiceReference<?>[size];
+			final Object[] newServices = new Object[size];
+			final Object[] newProjections = new Object[size];
+			System.arraycopy(references, 0, newReferences, 0, index);
+			System.arraycopy(references, index + 1, newReferences, index, size - index);
+			System.arraycopy(services, 0, newServices, 0, index);
+			System.arraycopy(services, index + 1, newServices, index, size - index);
+			System.arraycopy(projections, 0, newProjections, 0, index);
+			System.arraycopy(projections, index + 1, newProjections, index, size - index);
+			return new Snapshot<>(newReferences, newServices, newProjections, generation + 1);
+		}
+
+		Snapshot<S, P> with(final ServiceReference<S> reference, final S service, final P projection) {
+			// references compare ascending by ranking, so insert before the first lower one
+			int index = 0;
+			while (index < references.length && reference.compareTo(references[index]) <= 0) {
+				index++;
+			}
+			final int size = references.length;
+			final ServiceReference<?>[] newReferences = Arrays.copyOf(references, size + 1);
+			final Object[] newServices = Arrays.copyOf(services, size + 1);
+			final Object[] newProjections = Arrays.copyOf(projections, size + 1);
+			System.arraycopy(references, index, newReferences, index + 1, size - index);
+			System.arraycopy(services, index, newServices, index + 1, size - index);
+			System.arraycopy(projections, index, newProjections, index + 1, size - index);
+			newReferences[index] = reference;
+			newServices[index] = service;
+			newProjections[index] = projection;
+			return new Snapshot<>(newReferences, newServices, newProjections, generation + 1);
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() + "(generation=" + generation + ",services="
+					+ Arrays.toString(services) + ")";
+		}
+	}
+
+	/**
+	 * The current snapshot of all tracked services. This is a single volatile
+	 * read and safe to call from any thread.
+	 */
+	public Snapshot<S, P> snapshot() {
+		return snapshot;
+	}
+
+	public Optional<ServiceTracker<S, S>> tracker() {
+		return tracker;
+	}
+
+	private P project(final ServiceReference<S> reference) {
+		return projection.isDefined() ? projection.get().apply(reference) : null;
+	}
+
+	/**
+	 * Updates are serialized, as the tracker may deliver events on different
+	 * threads.
+	 */
+	private synchronized void added(final ServiceReference<S> reference, final S service) {
+		snapshot = snapshot.with(reference, service, project(reference));
+	}
+
+	private synchronized void modified(final ServiceReference<S> reference, final S service) {
+		final Snapshot<S, P> current = snapshot;
+		final int index = current.indexOf(reference);
+		// the ranking might have changed, so re-insert
+		final Snapshot<S, P> removed = index < 0 ? current : current.without(index);
+		snapshot = removed.with(reference, service, project(reference));
+	}
+
+	private synchronized void removed(final ServiceReference<S> reference) {
+		final Snapshot<S, P> current = snapshot;
+		final int index = current.indexOf(reference);
+		if (index >= 0) {
+			snapshot = current.without(index);
+		}
+	}
+
+	@Override
+	public void start() {
+		if (log.isDebugEnabled()) {
+			log.debug("Bundle {}: Start collecting services with filter [{}]", Util.bundleName(bundleContext),
+					filter);
+		}
+
+		final ServiceTrackerCustomizer<S, S> customizer = new ServiceTrackerCustomizer<S, S>() {
+			@Override
+			public S addingService(final ServiceReference<S> reference) {
+				final S service = bundleContext.getService(reference);
+				if (service == null) {
+					return null;
+				}
+				added(reference, service);
+				return service;
+			}
+
+			@Override
+			public void modifiedService(final ServiceReference<S> reference, final S service) {
+				modified(reference, service);
+			}
+
+			@Override
+			public void removedService(final ServiceReference<S> reference, final S service) {
+				removed(reference);
+				bundleContext.ungetService(reference);
+			}
+		};
+		final ServiceTracker<S, S> t = trackerFactory.isDefined() ? trackerFactory.get().apply(customizer)
+				: new ServiceTracker<S, S>(bundleContext, filter, customizer);
+		tracker = Optional.some(t);
+		t.open();
+	}
+
+	@Override
+	public void stop() {
+		if (log.isDebugEnabled()) {
+			log.debug("Bundle {}: Stop collecting services with filter [{}]", Util.bundleName(bundleContext),
+					filter);
+		}
+		tracker.foreach(t -> {
+			t.close();
+			tracker = Optional.none();
+		});
+		synchronized (this) {
+			snapshot = Snapshot.empty(snapshot.generation() + 1);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(filter=" + filter + ",snapshot=" + snapshot + ")";
+	}
+
+}
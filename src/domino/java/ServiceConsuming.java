@@ -29,6 +29,60 @@ public interface ServiceConsuming {
 	 */
 	<S, R> R withService(Class<S> type, F1<Optional<S>, R> f);
 
+	/**
+	 * Like {@link #withService(Class, F1)}, but the service given to the
+	 * handler is wrapped in an instrumenting proxy, if an instrumentation is
+	 * given.
+	 *
+	 * @param instrumentation
+	 *            The instrumentation recording the service calls, or `null`.
+	 * @param f
+	 *            Handler that uses the service.
+	 * @tparam S The service type, which must be an interface.
+	 * @tparam R The function result type.
+	 * @return The handler result.
+	 */
+	<S, R> R withService(Class<S> type, ServiceInstrumentation instrumentation, F1<Optional<S>, R> f);
+
+	/**
+	 * Executes the given handler with a service object borrowed from a pool of
+	 * the highest-ranked service of the specified type which satisfies the
+	 * filter. If no such service is available, it still executes it but with
+	 * `None`.
+	 * <p>
+	 * The service objects are obtained via
+	 * {@link org.osgi.framework.ServiceObjects}, so for prototype scoped
+	 * services, each concurrently executing handler gets its own service
+	 * object. When the handler returns, the service object is returned to the
+	 * pool. The pool is drained when the service is unregistered or the
+	 * capsule scope, in which the pool was created, stops.
+	 *
+	 * @param filter
+	 *            filter expression, or `null`
+	 * @param f
+	 *            Handler that uses the service.
+	 * @tparam S The service type.
+	 * @tparam R The function result type.
+	 * @return The handler result.
+	 */
+	<S, R> R withPooledService(Class<S> type, String filter, F1<Optional<S>, R> f);
+
+	/**
+	 * Like {@link #withPooledService(Class, String, F1)}, but uses the given
+	 * options when a new pool needs to be created.
+	 *
+	 * @param filter
+	 *            filter expression, or `null`
+	 * @param options
+	 *            The pool options.
+	 * @param f
+	 *            Handler that uses the service.
+	 * @tparam S The service type.
+	 * @tparam R The function result type.
+	 * @return The handler result.
+	 */
+	<S, R> R withPooledService(Class<S> type, String filter, ServicePoolOptions options, F1<Optional<S>, R> f);
+
 	/**
 	 * Like {@link #service(Class)} but returns the reference so you can access meta
 	 * information
@@ -74,6 +128,19 @@ public interface ServiceConsuming {
 	 */
 	<S> Optional<S> service(Class<S> type, String filter);
 
+	/**
+	 * Like {@link #service(Class, String)}, but the service is wrapped in an
+	 * instrumenting proxy, if an instrumentation is given.
+	 *
+	 * @param filter
+	 *            filter expression
+	 * @param instrumentation
+	 *            The instrumentation recording the service calls, or `null`.
+	 * @tparam S service type, which must be an interface
+	 * @return service if available
+	 */
+	<S> Optional<S> service(Class<S> type, String filter, ServiceInstrumentation instrumentation);
+
 	/**
 	 * Returns all services of the specified type which satisfy the given filter.
 	 *
@@ -0,0 +1,212 @@
+package domino.java;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Wraps consumed services into interface proxies which record call counts,
+ * errors and latency histograms per interface method.
+ * <p>
+ * The metrics are tagged with the consuming and the providing bundle and can
+ * be retrieved with {@link #metrics()}. Call and error counts are recorded for
+ * every call, latencies only for a random sample of calls, which keeps the
+ * overhead per call low. The proxy class is created once per interface and
+ * cached.
+ * <p>
+ * Only interface types can be instrumented.
+ */
+public class ServiceInstrumentation {
+
+	/**
+	 * Caches the constructor of the proxy class per interface.
+	 */
+	private static final ClassValue<Constructor<?>> proxyConstructors = new ClassValue<Constructor<?>>() {
+		@Override
+		protected Constructor<?> computeValue(final Class<?> type) {
+			final Object prototype = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+					(proxy, method, args) -> null);
+			try {
+				return prototype.getClass().getConstructor(InvocationHandler.class);
+			} catch (final NoSuchMethodException e) {
+				throw new IllegalStateException("Cannot find constructor of proxy class for " + type.getName(), e);
+			}
+		}
+	};
+
+	/**
+	 * The default sampling interval: the latency of one of 64 calls is
+	 * recorded on average.
+	 */
+	public static final int DEFAULT_SAMPLING_INTERVAL = 64;
+
+	private final int samplingInterval;
+	private final ConcurrentHashMap<String, ServiceCallMetrics> metrics = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an instrumentation recording the latency of one of
+	 * {@link #DEFAULT_SAMPLING_INTERVAL} calls on average.
+	 */
+	public ServiceInstrumentation() {
+		this(DEFAULT_SAMPLING_INTERVAL);
+	}
+
+	/**
+	 * @param samplingInterval
+	 *            Record the latency of one of `samplingInterval` calls on
+	 *            average. Use `1` to record the latency of each call.
+	 */
+	public ServiceInstrumentation(final int samplingInterval) {
+		if (samplingInterval < 1) {
+			throw new IllegalArgumentException("samplingInterval must be positive");
+		}
+		this.samplingInterval = samplingInterval;
+	}
+
+	public int samplingInterval() {
+		return samplingInterval;
+	}
+
+	/**
+	 * Returns the metrics of all instrumented services.
+	 */
+	public List<ServiceCallMetrics> metrics() {
+		return new ArrayList<>(metrics.values());
+	}
+
+	/**
+	 * Wraps the given service into an instrumenting proxy.
+	 *
+	 * @param type
+	 *            The interface to instrument.
+	 * @param consumer
+	 *            The bundle context of the consuming bundle.
+	 * @param reference
+	 *            The reference of the service.
+	 * @param service
+	 *            The service to wrap. If `null`, `null` is returned.
+	 * @return The instrumenting proxy.
+	 */
+	public <S> S instrument(final Class<S> type, final BundleContext consumer, final ServiceReference<?> reference,
+			final S service) {
+		if (!type.isInterface()) {
+			throw new IllegalArgumentException("Only interface types can be instrumented: " + type.getName());
+		}
+		if (service == null) {
+			return null;
+		}
+		final String consumerBundle = Util.bundleName(consumer);
+		final Bundle provider = reference.getBundle();
+		final String providerBundle = provider == null ? null
+				: provider.getSymbolicName() + "[" + provider.getBundleId() + "]";
+		final ServiceCallMetrics serviceMetrics = metrics.computeIfAbsent(
+				type.getName() + "|" + consumerBundle + "|" + providerBundle,
+				key -> new ServiceCallMetrics(type, consumerBundle, providerBundle));
+
+		final InvocationHandler handler = new InstrumentingHandler(service, serviceMetrics, samplingInterval);
+
+		try {
+			return type.cast(proxyConstructors.get(type).newInstance(handler));
+		} catch (final ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot create instrumenting proxy for " + type.getName(), e);
+		}
+	}
+
+	/**
+	 * Records the metrics of the calls and delegates them to the service.
+	 * `equals`, `hashCode` and `toString` are answered for the proxy itself,
+	 * so two proxies of the same service are equal.
+	 */
+	private static final class InstrumentingHandler implements InvocationHandler {
+		private final Object service;
+		private final ServiceCallMetrics serviceMetrics;
+		private final int samplingInterval;
+
+		InstrumentingHandler(final Object service, final ServiceCallMetrics serviceMetrics,
+				final int samplingInterval) {
+			this.service = service;
+			this.serviceMetrics = serviceMetrics;
+			this.samplingInterval = samplingInterval;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final MethodCallMetrics methodMetrics = serviceMetrics.method(method);
+			if (methodMetrics == null) {
+				return invokeObjectMethod(proxy, method, args);
+			}
+			methodMetrics.recordCall();
+			if (samplingInterval != 1 && ThreadLocalRandom.current().nextInt(samplingInterval) != 0) {
+				// not sampled, so no latency and no clock reads
+				try {
+					return ServiceInstrumentation.invoke(service, method, args);
+				} catch (final Throwable e) {
+					methodMetrics.recordError();
+					throw e;
+				}
+			}
+			final long start = System.nanoTime();
+			try {
+				return ServiceInstrumentation.invoke(service, method, args);
+			} catch (final Throwable e) {
+				methodMetrics.recordError();
+				throw e;
+			} finally {
+				methodMetrics.latency().record(System.nanoTime() - start);
+			}
+		}
+
+		private Object invokeObjectMethod(final Object proxy, final Method method, final Object[] args)
+				throws Throwable {
+			if (args == null || args.length == 0) {
+				switch (method.getName()) {
+					case "hashCode":
+						return service.hashCode();
+					case "toString":
+						return service.toString();
+					default:
+						break;
+				}
+			} else if (args.length == 1 && method.getName().equals("equals")
+					&& method.getParameterTypes()[0] == Object.class) {
+				final Object other = args[0];
+				if (other == proxy) {
+					return true;
+				}
+				if (other != null && Proxy.isProxyClass(other.getClass())
+						&& Proxy.getInvocationHandler(other) instanceof InstrumentingHandler) {
+					return service.equals(((InstrumentingHandler) Proxy.getInvocationHandler(other)).service);
+				}
+				return false;
+			}
+			return ServiceInstrumentation.invoke(service, method, args);
+		}
+	}
+
+	private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (final InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(samplingInterval=" + samplingInterval +
+				",metrics=" + metrics.values() +
+				")";
+	}
+
+}
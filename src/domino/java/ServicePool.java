@@ -0,0 +1,334 @@
+package domino.java;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.osgi.framework.ServiceObjects;
+import org.osgi.framework.ServiceReference;
+
+import domino.java.internal.DominoExecutors;
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * A bounded pool of service objects of one (typically prototype scoped)
+ * service, obtained via {@link ServiceObjects}.
+ * <p>
+ * Service objects are borrowed with {@link #borrow()} and must be given back
+ * with {@link #giveBack(Object)}. Service objects idle for longer than the
+ * configured idle timeout are released. After {@link #drain()}, all idle
+ * service objects are released immediately and borrowed ones when they are
+ * given back.
+ *
+ * @param serviceObjects
+ *            The service objects of the pooled service.
+ * @param options
+ *            The pool options.
+ * @tparam S Service type
+ */
+public class ServicePool<S> {
+
+	private final Logger log = LoggerFactory.getLogger(ServicePool.class);
+
+	private static class Idle<S> {
+		private final S service;
+		private final long since;
+
+		public Idle(final S service, final long since) {
+			this.service = service;
+			this.since = since;
+		}
+	}
+
+	private final ServiceObjects<S> serviceObjects;
+	private final ServicePoolOptions options;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final ArrayDeque<Idle<S>> idle = new ArrayDeque<>();
+	private int borrowed = 0;
+	private boolean drained = false;
+
+	private final LongAdder borrows = new LongAdder();
+	private final LongAdder created = new LongAdder();
+	private final LongAdder released = new LongAdder();
+	private final LongAdder waits = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+
+	private final ScheduledFuture<?> eviction;
+
+	public ServicePool(final ServiceObjects<S> serviceObjects, final ServicePoolOptions options) {
+		this.serviceObjects = serviceObjects;
+		this.options = options;
+		if (options.idleTimeoutMillis() > 0) {
+			final long period = Math.max(1, options.idleTimeoutMillis() / 2);
+			this.eviction = DominoExecutors.scheduler().scheduleWithFixedDelay(this::evictIdle, period, period,
+					TimeUnit.MILLISECONDS);
+		} else {
+			this.eviction = null;
+		}
+	}
+
+	/**
+	 * The reference of the pooled service.
+	 */
+	public ServiceReference<S> serviceReference() {
+		return serviceObjects.getServiceReference();
+	}
+
+	public ServicePoolOptions options() {
+		return options;
+	}
+
+	/**
+	 * Borrows a service object, creating a new one if no idle one is
+	 * available and the pool is not exhausted. Otherwise, waits for a service
+	 * object to be given back.
+	 *
+	 * @return The service object, or `null` if the service is no longer
+	 *         available, e.g. because the pool was drained meanwhile.
+	 * @throws IllegalStateException
+	 *             if no service object was available within the borrow
+	 *             timeout.
+	 */
+	public S borrow() {
+		lock.lock();
+		try {
+			long remainingNanos = TimeUnit.MILLISECONDS.toNanos(options.borrowTimeoutMillis());
+			while (true) {
+				if (drained) {
+					// The service went away
+					return null;
+				}
+				final Idle<S> next = idle.pollFirst();
+				if (next != null) {
+					borrowed++;
+					borrows.increment();
+					return next.service;
+				}
+				if (borrowed < options.maxSize()) {
+					// Reserve the slot, the service object is created without holding the lock
+					borrowed++;
+					break;
+				}
+				if (remainingNanos <= 0) {
+					timeouts.increment();
+					throw new IllegalStateException("No pooled service object available within "
+							+ options.borrowTimeoutMillis() + " ms: " + this);
+				}
+				waits.increment();
+				try {
+					remainingNanos = available.awaitNanos(remainingNanos);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for a pooled service object", e);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		S service = null;
+		try {
+			service = serviceObjects.getService();
+		} finally {
+			if (service == null) {
+				cancelReservation();
+			}
+		}
+		if (service != null) {
+			created.increment();
+			borrows.increment();
+		}
+		return service;
+	}
+
+	/**
+	 * Frees a slot reserved by {@link #borrow()}, as no service object could
+	 * be created.
+	 */
+	private void cancelReservation() {
+		lock.lock();
+		try {
+			borrowed--;
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives a borrowed service object back to the pool.
+	 */
+	public void giveBack(final S service) {
+		boolean release = false;
+		lock.lock();
+		try {
+			borrowed--;
+			if (drained) {
+				release = true;
+			} else {
+				// LIFO keeps the number of warm objects small
+				idle.addFirst(new Idle<>(service, System.nanoTime()));
+				available.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (release) {
+			release(service);
+		}
+	}
+
+	/**
+	 * Releases all idle service objects and all borrowed ones as soon as they
+	 * are given back. Further attempts to borrow return `null`.
+	 */
+	public void drain() {
+		final List<S> toRelease = new ArrayList<>();
+		lock.lock();
+		try {
+			if (drained) {
+				return;
+			}
+			drained = true;
+			for (final Idle<S> i : idle) {
+				toRelease.add(i.service);
+			}
+			idle.clear();
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if (eviction != null) {
+			eviction.cancel(false);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Draining service pool {}", this);
+		}
+		for (final S service : toRelease) {
+			release(service);
+		}
+	}
+
+	/**
+	 * Releases all service objects idle for longer than the idle timeout.
+	 */
+	public void evictIdle() {
+		final long threshold = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(options.idleTimeoutMillis());
+		final List<S> toRelease = new ArrayList<>();
+		lock.lock();
+		try {
+			final Iterator<Idle<S>> it = idle.iterator();
+			while (it.hasNext()) {
+				final Idle<S> i = it.next();
+				if (i.since - threshold < 0) {
+					it.remove();
+					toRelease.add(i.service);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		for (final S service : toRelease) {
+			release(service);
+		}
+	}
+
+	protected void release(final S service) {
+		try {
+			serviceObjects.ungetService(service);
+		} catch (final IllegalStateException | IllegalArgumentException e) {
+			// service already unregistered or bundle context invalid
+			log.debug("Could not release pooled service object [{}]", service, e);
+		}
+		released.increment();
+	}
+
+	public boolean isDrained() {
+		lock.lock();
+		try {
+			return drained;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The number of currently borrowed service objects.
+	 */
+	public int borrowedCount() {
+		lock.lock();
+		try {
+			return borrowed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The number of currently idle service objects.
+	 */
+	public int idleCount() {
+		lock.lock();
+		try {
+			return idle.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The total number of borrows.
+	 */
+	public long borrowCount() {
+		return borrows.sum();
+	}
+
+	/**
+	 * The total number of created service objects.
+	 */
+	public long createdCount() {
+		return created.sum();
+	}
+
+	/**
+	 * The total number of released service objects.
+	 */
+	public long releasedCount() {
+		return released.sum();
+	}
+
+	/**
+	 * The number of times a borrower had to wait for a free service object.
+	 */
+	public long waitCount() {
+		return waits.sum();
+	}
+
+	/**
+	 * The number of borrows failed because of the borrow timeout.
+	 */
+	public long timeoutCount() {
+		return timeouts.sum();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(serviceReference=" + serviceObjects.getServiceReference() +
+				",options=" + options +
+				",borrows=" + borrows +
+				",created=" + created +
+				",released=" + released +
+				")";
+	}
+
+}
@@ -0,0 +1,83 @@
+package domino.java;
+
+/**
+ * Options for the pools used by
+ * {@link ServiceConsuming#withPooledService(Class, String, ServicePoolOptions, de.tototec.utils.functional.F1)}.
+ * <p>
+ * Instances are immutable, all `with` methods return a modified copy.
+ */
+public class ServicePoolOptions {
+
+	private final int maxSize;
+	private final long idleTimeoutMillis;
+	private final long borrowTimeoutMillis;
+
+	protected ServicePoolOptions(final int maxSize, final long idleTimeoutMillis, final long borrowTimeoutMillis) {
+		this.maxSize = maxSize;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+	}
+
+	/**
+	 * The default options: At most 8 service objects, evicted after 60
+	 * seconds of idleness, and borrowers wait at most 30 seconds for a free
+	 * service object.
+	 */
+	public static ServicePoolOptions defaults() {
+		return new ServicePoolOptions(8, 60000, 30000);
+	}
+
+	/**
+	 * Limits the number of service objects (borrowed and idle) of one pool.
+	 */
+	public ServicePoolOptions withMaxSize(final int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		return new ServicePoolOptions(maxSize, idleTimeoutMillis, borrowTimeoutMillis);
+	}
+
+	/**
+	 * Releases service objects which were not borrowed for the given time. Use
+	 * `0` to never evict idle service objects.
+	 */
+	public ServicePoolOptions withIdleTimeout(final long idleTimeoutMillis) {
+		if (idleTimeoutMillis < 0) {
+			throw new IllegalArgumentException("idleTimeoutMillis must not be negative");
+		}
+		return new ServicePoolOptions(maxSize, idleTimeoutMillis, borrowTimeoutMillis);
+	}
+
+	/**
+	 * The maximal time to wait for a free service object, if the pool is
+	 * exhausted.
+	 */
+	public ServicePoolOptions withBorrowTimeout(final long borrowTimeoutMillis) {
+		if (borrowTimeoutMillis < 0) {
+			throw new IllegalArgumentException("borrowTimeoutMillis must not be negative");
+		}
+		return new ServicePoolOptions(maxSize, idleTimeoutMillis, borrowTimeoutMillis);
+	}
+
+	public int maxSize() {
+		return maxSize;
+	}
+
+	public long idleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	public long borrowTimeoutMillis() {
+		return borrowTimeoutMillis;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(maxSize=" + maxSize +
+				",idleTimeoutMillis=" + idleTimeoutMillis +
+				",borrowTimeoutMillis=" + borrowTimeoutMillis +
+				")";
+	}
+
+}
@@ -0,0 +1,439 @@
+package domino.java;
+
+import java.lang.reflect.Array;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, immutable map of service properties.
+ * <p>
+ * The entries are stored in two flat arrays in insertion order. Small maps are
+ * searched linearly, larger ones get an additional hash index. As the class is
+ * also a {@link Dictionary}, it can be handed to the framework (e.g. to
+ * {@link org.osgi.framework.BundleContext#registerService(String[], Object, Dictionary)})
+ * without copying it into a {@link java.util.Hashtable}.
+ * <p>
+ * Create instances with {@link #of(String, Object)} and its variants, with
+ * {@link #builder()} or with {@link #copyOf(Map)}. Neither keys nor values
+ * may be `null`.
+ */
+public final class ServiceProperties extends Dictionary<String, Object> implements Map<String, Object> {
+
+	/**
+	 * Maps up to this size are searched linearly.
+	 */
+	private static final int LINEAR_SEARCH_LIMIT = 8;
+
+	private static final String[] NO_KEYS = new String[0];
+	private static final Object[] NO_VALUES = new Object[0];
+
+	public static final ServiceProperties EMPTY = new ServiceProperties(NO_KEYS, NO_VALUES);
+
+	private final String[] keys;
+	private final Object[] values;
+	private final Map<String, Integer> index;
+
+	private ServiceProperties(final String[] keys, final Object[] values) {
+		this.keys = keys;
+		this.values = values;
+		if (keys.length > LINEAR_SEARCH_LIMIT) {
+			final HashMap<String, Integer> index = new HashMap<>(keys.length * 2);
+			for (int i = 0; i < keys.length; ++i) {
+				index.put(keys[i], i);
+			}
+			this.index = index;
+		} else {
+			this.index = null;
+		}
+	}
+
+	/**
+	 * A builder for {@link ServiceProperties}. Putting an existing key again
+	 * replaces its value.
+	 */
+	public static class Builder {
+		private String[] keys;
+		private Object[] values;
+		private int size;
+
+		protected Builder(final int capacity) {
+			keys = new String[capacity];
+			values = new Object[capacity];
+		}
+
+		public Builder put(final String key, final Object value) {
+			if (key == null || value == null) {
+				throw new NullPointerException("Service property keys and values must not be null");
+			}
+			for (int i = 0; i < size; ++i) {
+				if (keys[i].equals(key)) {
+					values[i] = value;
+					return this;
+				}
+			}
+			if (size == keys.length) {
+				final int capacity = Math.max(4, size * 2);
+				keys = Arrays.copyOf(keys, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+			keys[size] = key;
+			values[size] = value;
+			size++;
+			return this;
+		}
+
+		/**
+		 * Puts all entries of the given map.
+		 */
+		public Builder putAll(final Map<String, ?> map) {
+			for (final Map.Entry<String, ?> entry : map.entrySet()) {
+				put(entry.getKey(), entry.getValue());
+			}
+			return this;
+		}
+
+		/**
+		 * Removes the given key, if present.
+		 */
+		public Builder remove(final String key) {
+			for (int i = 0; i < size; ++i) {
+				if (keys[i].equals(key)) {
+					System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+					System.arraycopy(values, i + 1, values, i, size - i - 1);
+					size--;
+					keys[size] = null;
+					values[size] = null;
+					return this;
+				}
+			}
+			return this;
+		}
+
+		public ServiceProperties build() {
+			if (size == 0) {
+				return EMPTY;
+			}
+			return new ServiceProperties(Arrays.copyOf(keys, size), Arrays.copyOf(values, size));
+		}
+	}
+
+	/**
+	 * Creates a new builder.
+	 */
+	public static Builder builder() {
+		return new Builder(4);
+	}
+
+	/**
+	 * Creates a new builder initialized with the given properties.
+	 */
+	public static Builder builder(final Map<String, ?> properties) {
+		return new Builder(properties.size() + 2).putAll(properties);
+	}
+
+	/**
+	 * Returns the given map as {@link ServiceProperties}. If it already is an
+	 * instance of this class, it is returned as-is, without copying.
+	 */
+	public static ServiceProperties copyOf(final Map<String, ?> properties) {
+		if (properties instanceof ServiceProperties) {
+			return (ServiceProperties) properties;
+		}
+		if (properties.isEmpty()) {
+			return EMPTY;
+		}
+		return new Builder(properties.size()).putAll(properties).build();
+	}
+
+	public static ServiceProperties of() {
+		return EMPTY;
+	}
+
+	public static ServiceProperties of(final String key1, final Object value1) {
+		return new Builder(1).put(key1, value1).build();
+	}
+
+	public static ServiceProperties of(
+			final String key1, final Object value1,
+			final String key2, final Object value2) {
+		return new Builder(2).put(key1, value1).put(key2, value2).build();
+	}
+
+	public static ServiceProperties of(
+			final String key1, final Object value1,
+			final String key2, final Object value2,
+			final String key3, final Object value3) {
+		return new Builder(3).put(key1, value1).put(key2, value2).put(key3, value3).build();
+	}
+
+	public static ServiceProperties of(
+			final String key1, final Object value1,
+			final String key2, final Object value2,
+			final String key3, final Object value3,
+			final String key4, final Object value4) {
+		return new Builder(4).put(key1, value1).put(key2, value2).put(key3, value3).put(key4, value4).build();
+	}
+
+	private int indexOf(final Object key) {
+		if (index != null) {
+			final Integer i = index.get(key);
+			return i == null ? -1 : i;
+		}
+		for (int i = 0; i < keys.length; ++i) {
+			if (keys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the key at the given position (in insertion order).
+	 */
+	public String keyAt(final int i) {
+		return keys[i];
+	}
+
+	/**
+	 * Returns the value at the given position (in insertion order).
+	 */
+	public Object valueAt(final int i) {
+		return values[i];
+	}
+
+	@Override
+	public int size() {
+		return keys.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return keys.length == 0;
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public boolean containsValue(final Object value) {
+		for (final Object v : values) {
+			if (v.equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Object get(final Object key) {
+		final int i = indexOf(key);
+		return i < 0 ? null : values[i];
+	}
+
+	@Override
+	public Object put(final String key, final Object value) {
+		throw new UnsupportedOperationException("ServiceProperties are immutable");
+	}
+
+	@Override
+	public Object remove(final Object key) {
+		throw new UnsupportedOperationException("ServiceProperties are immutable");
+	}
+
+	@Override
+	public void putAll(final Map<? extends String, ? extends Object> m) {
+		throw new UnsupportedOperationException("ServiceProperties are immutable");
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("ServiceProperties are immutable");
+	}
+
+	@Override
+	public Enumeration<String> keys() {
+		return new ArrayEnumeration<>(keys);
+	}
+
+	@Override
+	public Enumeration<Object> elements() {
+		return new ArrayEnumeration<>(values);
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new ArrayIterator<>(keys);
+			}
+
+			@Override
+			public boolean contains(final Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public int size() {
+				return keys.length;
+			}
+		};
+	}
+
+	@Override
+	public Collection<Object> values() {
+		return new AbstractCollection<Object>() {
+			@Override
+			public Iterator<Object> iterator() {
+				return new ArrayIterator<>(values);
+			}
+
+			@Override
+			public int size() {
+				return values.length;
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new Iterator<Map.Entry<String, Object>>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < keys.length;
+					}
+
+					@Override
+					public Map.Entry<String, Object> next() {
+						if (next >= keys.length) {
+							throw new NoSuchElementException();
+						}
+						final int i = next++;
+						return new AbstractMap.SimpleImmutableEntry<>(keys[i], values[i]);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return keys.length;
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof Map)) {
+			return false;
+		}
+		final Map<?, ?> other = (Map<?, ?>) obj;
+		if (other.size() != keys.length) {
+			return false;
+		}
+		for (int i = 0; i < keys.length; ++i) {
+			if (!values[i].equals(other.get(keys[i]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		for (int i = 0; i < keys.length; ++i) {
+			hash += keys[i].hashCode() ^ values[i].hashCode();
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder str = new StringBuilder("{");
+		for (int i = 0; i < keys.length; ++i) {
+			if (i > 0) {
+				str.append(", ");
+			}
+			str.append(keys[i]).append("=");
+			final Object value = values[i];
+			if (value.getClass().isArray()) {
+				str.append("[");
+				for (int j = 0; j < Array.getLength(value); ++j) {
+					if (j > 0) {
+						str.append(", ");
+					}
+					str.append(Array.get(value, j));
+				}
+				str.append("]");
+			} else {
+				str.append(value);
+			}
+		}
+		return str.append("}").toString();
+	}
+
+	private static class ArrayIterator<T> implements Iterator<T> {
+		private final T[] array;
+		private int next = 0;
+
+		public ArrayIterator(final T[] array) {
+			this.array = array;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < array.length;
+		}
+
+		@Override
+		public T next() {
+			if (next >= array.length) {
+				throw new NoSuchElementException();
+			}
+			return array[next++];
+		}
+	}
+
+	private static class ArrayEnumeration<T> implements Enumeration<T> {
+		private final T[] array;
+		private int next = 0;
+
+		public ArrayEnumeration(final T[] array) {
+			this.array = array;
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			return next < array.length;
+		}
+
+		@Override
+		public T nextElement() {
+			if (next >= array.length) {
+				throw new NoSuchElementException();
+			}
+			return array[next++];
+		}
+	}
+
+}
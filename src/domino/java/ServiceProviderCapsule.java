@@ -3,15 +3,15 @@ package domino.java;
 import static de.tototec.utils.functional.FList.map;
 import static de.tototec.utils.functional.FList.mkString;
 
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
 
 import de.tototec.utils.functional.Optional;
-import domino.java.capsule.Capsule;
+import domino.java.capsule.DeferrableCapsule;
 import domino.java.internal.Logger;
 import domino.java.internal.LoggerFactory;
 
@@ -27,28 +27,60 @@ import domino.java.internal.LoggerFactory;
  * @param bundleContext
  *            Bundle context
  * @param service
- *            The object to be registered
+ *            The object to be registered, or a {@link LazyServiceFactory}
+ *            creating it on demand
+ * @param coalesceIntervalMillis
+ *            The minimal time between two property updates published via
+ *            {@link #managedProperties()}
  * @tparam S Service type
  */
-public class ServiceProviderCapsule<S> implements Capsule {
+public class ServiceProviderCapsule<S> implements DeferrableCapsule {
 
 	private final Logger log = LoggerFactory.getLogger(ServiceProviderCapsule.class);
 
 	private final Iterable<Class<? super S>> interfaces;
-	private final Map<String, Object> properties;
 	private final BundleContext bundleContext;
-	private final S service;
+	private final Object service;
+	private final Optional<LazyServiceFactory<S>> lazyServiceFactory;
+	private final ManagedServiceProperties<S> managedProperties;
 
 	public ServiceProviderCapsule(
 			final Iterable<Class<? super S>> interfaces,
 			final Map<String, Object> properties,
 			final BundleContext bundleContext,
 			final S service) {
+		this(interfaces, properties, bundleContext, service, 0);
+	}
+
+	public ServiceProviderCapsule(
+			final Iterable<Class<? super S>> interfaces,
+			final Map<String, Object> properties,
+			final BundleContext bundleContext,
+			final S service,
+			final long coalesceIntervalMillis) {
+		this(interfaces, properties, bundleContext, service, Optional.none(), coalesceIntervalMillis);
+	}
+
+	public ServiceProviderCapsule(
+			final Iterable<Class<? super S>> interfaces,
+			final Map<String, Object> properties,
+			final BundleContext bundleContext,
+			final LazyServiceFactory<S> lazyServiceFactory) {
+		this(interfaces, properties, bundleContext, lazyServiceFactory, Optional.some(lazyServiceFactory), 0);
+	}
+
+	protected ServiceProviderCapsule(
+			final Iterable<Class<? super S>> interfaces,
+			final Map<String, Object> properties,
+			final BundleContext bundleContext,
+			final Object service,
+			final Optional<LazyServiceFactory<S>> lazyServiceFactory,
+			final long coalesceIntervalMillis) {
 		this.interfaces = interfaces;
-		this.properties = properties;
 		this.bundleContext = bundleContext;
 		this.service = service;
-
+		this.lazyServiceFactory = lazyServiceFactory;
+		this.managedProperties = new ManagedServiceProperties<>(properties, coalesceIntervalMillis);
 	}
 
 	private Optional<ServiceRegistration<S>> serviceRegistration = Optional.none();
@@ -60,17 +92,37 @@ public class ServiceProviderCapsule<S> implements Capsule {
 		return serviceRegistration;
 	}
 
+	/**
+	 * Returns the handle to update the service properties. Use it instead of
+	 * {@link ServiceRegistration#setProperties(java.util.Dictionary)}, to
+	 * avoid redundant and excessive `MODIFIED` service events.
+	 */
+	public ManagedServiceProperties<S> managedProperties() {
+		return managedProperties;
+	}
+
+	/**
+	 * The service ranking, so that in transactional scopes the best ranked
+	 * services are registered first.
+	 */
+	@Override
+	public int startPriority() {
+		final Object ranking = managedProperties.current().get(Constants.SERVICE_RANKING);
+		return ranking instanceof Integer ? (Integer) ranking : 0;
+	}
+
 	@Override
 	public void start() {
 		// Create array of class names under which the service shall be
 		// registered
 		final List<String> types = map(interfaces, i -> i.getName());
 
-		final Hashtable<String, ?> props = new Hashtable<>(properties);
+		// Immutable and already a Dictionary, so no copy is needed
+		final ServiceProperties props = managedProperties.current();
 
 		if (log.isDebugEnabled()) {
 			log.debug("Bundle {}: Register service [{}] with interfaces [{}} and properties [{}]",
-					Util.bundleName(bundleContext), service, mkString(types, ", "), properties);
+					Util.bundleName(bundleContext), service, mkString(types, ", "), props);
 		}
 
 		// Register service
@@ -78,23 +130,28 @@ public class ServiceProviderCapsule<S> implements Capsule {
 		final ServiceRegistration<S> serviceRegistration = (ServiceRegistration<S>) bundleContext
 				.registerService(types.toArray(new String[types.size()]), service, props);
 		this.serviceRegistration = Optional.of(serviceRegistration);
+		managedProperties.attach(serviceRegistration);
 	}
 
 	@Override
 	public void stop() {
 		serviceRegistration.foreach(reg -> {
+			// publish the latest state
+			managedProperties.detach();
 
 			try {
 				if (log.isDebugEnabled()) {
 					final List<String> types = map(interfaces, i -> i.getName());
 					log.debug("Bundle {}: Unregister service: [{}] with interfaces [{}] and properties [{}]",
-							Util.bundleName(bundleContext), service, mkString(types, ", "), properties);
+							Util.bundleName(bundleContext), service, mkString(types, ", "),
+							managedProperties.current());
 				}
 				reg.unregister();
 			} catch (final IllegalStateException e) {
 				// Do nothing. Was already unregistered.
 			}
 			serviceRegistration = Optional.none();
+			lazyServiceFactory.foreach(factory -> factory.disposeAll());
 		});
 
 	}
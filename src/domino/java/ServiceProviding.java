@@ -4,6 +4,8 @@ import java.util.Map;
 
 import org.osgi.framework.ServiceRegistration;
 
+import de.tototec.utils.functional.F0;
+
 /**
  * Provides convenient methods to provide any object easily in the OSGi service
  * registry.
@@ -39,7 +41,7 @@ public interface ServiceProviding {
 	 * Registers the service under the specified types and without service
 	 * properties.
 	 *
-	 * @see Util#asMap(Object, Object) to easily create a map in-place.
+	 * @see ServiceProperties#of(String, Object) to easily create a map in-place.
 	 * 
 	 * @param service
 	 *            The service.
@@ -55,7 +57,7 @@ public interface ServiceProviding {
 	 * Registers the service under the specified types and without service
 	 * properties.
 	 *
-	 * @see Util#asMap(Object, Object) to easily create a map in-place.
+	 * @see ServiceProperties#of(String, Object) to easily create a map in-place.
 	 * 
 	 * @param service
 	 *            The service.
@@ -72,7 +74,7 @@ public interface ServiceProviding {
 	 * Registers the service under it's own specified type with the given service
 	 * properties.
 	 *
-	 * @see Util#asMap(Object, Object) to easily create a map in-place.
+	 * @see ServiceProperties#of(String, Object) to easily create a map in-place.
 	 * 
 	 * @param service
 	 *            The service.
@@ -86,7 +88,7 @@ public interface ServiceProviding {
 	 * Registers the service under the specified type with the given service
 	 * properties.
 	 *
-	 * @see Util#asMap(Object, Object) to easily create a map in-place.
+	 * @see ServiceProperties#of(String, Object) to easily create a map in-place.
 	 * 
 	 * @param service
 	 *            The service.
@@ -100,7 +102,7 @@ public interface ServiceProviding {
 	 * Registers the service under the specified types with the given service
 	 * properties.
 	 *
-	 * @see Util#asMap(Object, Object) to easily create a map in-place.
+	 * @see ServiceProperties#of(String, Object) to easily create a map in-place.
 	 * 
 	 * @param service
 	 *            The service.
@@ -118,7 +120,7 @@ public interface ServiceProviding {
 	 * Registers the service under the specified types with the given service
 	 * properties.
 	 *
-	 * @see Util#asMap(Object, Object) to easily create a map in-place.
+	 * @see ServiceProperties#of(String, Object) to easily create a map in-place.
 	 * 
 	 * @param service
 	 *            The service.
@@ -136,7 +138,7 @@ public interface ServiceProviding {
 	 * Registers the service under the specified types with the given service
 	 * properties.
 	 *
-	 * @see Util#asMap(Object, Object) to easily create a map in-place.
+	 * @see ServiceProperties#of(String, Object) to easily create a map in-place.
 	 * 
 	 * @param service
 	 *            The service.
@@ -150,4 +152,76 @@ public interface ServiceProviding {
 			Class<? super S> type3,
 			Class<? super S> type4,
 			Map<String, Object> properties);
+
+	/**
+	 * Registers a lazily created service under the specified type and without
+	 * service properties. The service object is created by the supplier on the
+	 * first request and disposed after the last release.
+	 *
+	 * @param supplier
+	 *            Creates the service object.
+	 * @return The service registration.
+	 */
+	<S> ServiceRegistration<S> providesLazyService(F0<S> supplier, Class<? super S> type);
+
+	/**
+	 * Registers a lazily created service under the specified type with the
+	 * given service properties. The service object is created by the supplier
+	 * on the first request and disposed after the last release.
+	 *
+	 * @param supplier
+	 *            Creates the service object.
+	 * @param properties
+	 *            The service properties.
+	 * @return The service registration.
+	 */
+	<S> ServiceRegistration<S> providesLazyService(F0<S> supplier, Class<? super S> type,
+			Map<String, Object> properties);
+
+	/**
+	 * Registers a lazily created service under the specified types with the
+	 * given service properties. The service object is created by the supplier
+	 * on the first request and disposed after the last release, according to
+	 * the given options.
+	 *
+	 * @param supplier
+	 *            Creates the service object.
+	 * @param types
+	 *            The types under which to register the service.
+	 * @param properties
+	 *            The service properties.
+	 * @param options
+	 *            Lifecycle options, e.g. whether each bundle gets its own
+	 *            service object.
+	 * @return The service registration.
+	 */
+	<S> ServiceRegistration<S> providesLazyService(F0<S> supplier,
+			Iterable<Class<? super S>> types,
+			Map<String, Object> properties,
+			LazyServiceOptions<S> options);
+
+	/**
+	 * Registers the service under the specified types with the given service
+	 * properties and returns a handle to update the properties later.
+	 * <p>
+	 * Updates via the handle are merged into the current properties, skipped
+	 * if they do not change any value, and coalesced, so that the framework is
+	 * notified at most once per coalesce interval.
+	 *
+	 * @param service
+	 *            The service.
+	 * @param types
+	 *            The types under which to register the service.
+	 * @param properties
+	 *            The initial service properties.
+	 * @param coalesceIntervalMillis
+	 *            The minimal time between two property updates sent to the
+	 *            framework, or `0` to send each change immediately.
+	 * @return The handle to update the service properties, which also gives
+	 *         access to the service registration.
+	 */
+	<S> ManagedServiceProperties<S> providesManagedService(S service,
+			Iterable<Class<? super S>> types,
+			Map<String, Object> properties,
+			long coalesceIntervalMillis);
 }
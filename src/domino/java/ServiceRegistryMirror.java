@@ -0,0 +1,74 @@
+package domino.java;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * A service shared by all Domino bundles, which listens to the service
+ * registry once and forwards each service event only to the subscribers
+ * interested in one of the service types.
+ * <p>
+ * If this service is present, service watchers of an {@link OsgiContext}
+ * subscribe to it instead of registering their own service listeners. It is
+ * registered by the {@link DominoRuntime} bundle activator.
+ *
+ * @see SharedRegistryMirror
+ */
+public interface ServiceRegistryMirror {
+
+	/**
+	 * Receives the service events of a subscription.
+	 */
+	interface Subscriber {
+		/**
+		 * Called for each service event of a matching service.
+		 *
+		 * @param type
+		 *            {@link ServiceEvent#REGISTERED} for new and already
+		 *            existing services, {@link ServiceEvent#MODIFIED} if the
+		 *            service still matches after a modification,
+		 *            {@link ServiceEvent#MODIFIED_ENDMATCH} if it no longer
+		 *            matches, or {@link ServiceEvent#UNREGISTERING}.
+		 * @param reference
+		 *            The service reference.
+		 */
+		void serviceEvent(int type, ServiceReference<?> reference);
+
+		/**
+		 * Called when the mirror stopped listening, e.g. because the
+		 * {@link DominoRuntime} stopped. The subscription receives no further
+		 * events, so the subscriber should listen to the service registry
+		 * itself from now on.
+		 */
+		default void mirrorClosed() {
+		}
+	}
+
+	/**
+	 * A subscription, which must be closed when no longer needed.
+	 */
+	interface Subscription {
+		void close();
+	}
+
+	/**
+	 * Subscribes to all services registered under the given class name which
+	 * match the given filter and are assignable to the class as seen by the
+	 * given bundle. All already registered services are delivered as
+	 * {@link ServiceEvent#REGISTERED} events before this method returns.
+	 *
+	 * @param bundle
+	 *            The subscribing bundle.
+	 * @param className
+	 *            The class name, under which the services are registered.
+	 * @param filter
+	 *            The filter, or `null`.
+	 * @param subscriber
+	 *            Receives the events.
+	 * @return The subscription.
+	 */
+	Subscription subscribe(Bundle bundle, String className, Filter filter, Subscriber subscriber);
+
+}
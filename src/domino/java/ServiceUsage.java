@@ -0,0 +1,106 @@
+package domino.java;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The acquisitions and releases of one service by one bundle, as recorded by
+ * {@link ServiceUsageAccounting}.
+ */
+public class ServiceUsage {
+
+	/**
+	 * The call site key used for all call sites exceeding the call site limit.
+	 */
+	public static final String OTHER_CALL_SITES = "<other>";
+
+	private final String bundleName;
+	private final long serviceId;
+	private final String serviceType;
+	private final int maxCallSites;
+
+	private final LongAdder acquired = new LongAdder();
+	private final LongAdder released = new LongAdder();
+	private final ConcurrentHashMap<String, LongAdder> callSites = new ConcurrentHashMap<>();
+
+	public ServiceUsage(final String bundleName, final long serviceId, final String serviceType,
+			final int maxCallSites) {
+		this.bundleName = bundleName;
+		this.serviceId = serviceId;
+		this.serviceType = serviceType;
+		this.maxCallSites = maxCallSites;
+	}
+
+	public String bundleName() {
+		return bundleName;
+	}
+
+	/**
+	 * The `service.id` of the used service.
+	 */
+	public long serviceId() {
+		return serviceId;
+	}
+
+	/**
+	 * The first `objectClass` of the used service.
+	 */
+	public String serviceType() {
+		return serviceType;
+	}
+
+	public long acquired() {
+		return acquired.sum();
+	}
+
+	public long released() {
+		return released.sum();
+	}
+
+	/**
+	 * The number of acquisitions not yet released.
+	 */
+	public long unbalanced() {
+		return acquired.sum() - released.sum();
+	}
+
+	/**
+	 * The sampled call sites with their number of sampled acquisitions.
+	 */
+	public Map<String, Long> callSites() {
+		final Map<String, Long> result = new HashMap<>();
+		callSites.forEach((site, count) -> result.put(site, count.sum()));
+		return result;
+	}
+
+	void recordAcquisition(final String callSite) {
+		acquired.increment();
+		if (callSite != null) {
+			LongAdder count = callSites.get(callSite);
+			if (count == null) {
+				final String key = callSites.size() < maxCallSites ? callSite : OTHER_CALL_SITES;
+				count = callSites.computeIfAbsent(key, k -> new LongAdder());
+			}
+			count.increment();
+		}
+	}
+
+	void recordRelease() {
+		released.increment();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(bundleName=" + bundleName +
+				",serviceId=" + serviceId +
+				",serviceType=" + serviceType +
+				",acquired=" + acquired +
+				",released=" + released +
+				",callSites=" + callSites() +
+				")";
+	}
+
+}
@@ -0,0 +1,197 @@
+package domino.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Accounts all service acquisitions Domino makes on behalf of a bundle with
+ * {@link ServiceConsuming#service(Class)},
+ * {@link ServiceConsuming#service(Class, String)} and
+ * {@link ServiceConsuming#services(Class, String)}, which never release the
+ * acquired services themselves.
+ * <p>
+ * The accounting is designed to stay enabled in production: Each acquisition
+ * costs two map lookups and a counter increment, without calling into the
+ * framework; the service properties are only read for the first acquisition of
+ * a service. The call site of an acquisition (the expensive part, as it
+ * requires a stack trace) is only captured for every n-th acquisition, and the
+ * number of distinct call sites per service is bounded. There is no budget
+ * beyond that: the cost grows with the acquisition rate, so use a sampling
+ * interval matching the expected rate.
+ * <p>
+ * In auto-release mode, each acquisition is released when the capsule scope, in
+ * which it was made, stops. Acquisitions made outside of any capsule scope are
+ * not released automatically. A service released manually with
+ * {@link OsgiContext#ungetService(ServiceReference)} is not released again.
+ * <p>
+ * Install the accounting with
+ * {@link OsgiContext#setServiceUsageAccounting(ServiceUsageAccounting)}.
+ */
+public class ServiceUsageAccounting {
+
+	private final boolean autoRelease;
+	private final int callSiteSamplingInterval;
+	private final int maxCallSites;
+
+	private final AtomicLong sampleCounter = new AtomicLong();
+	private final ConcurrentHashMap<BundleContext, ConcurrentHashMap<ServiceReference<?>, ServiceUsage>> usagesPerBundle = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an accounting without call site sampling and without
+	 * auto-release.
+	 */
+	public ServiceUsageAccounting() {
+		this(false, 0, 0);
+	}
+
+	/**
+	 * @param autoRelease
+	 *            If `true`, acquisitions are released when the capsule scope
+	 *            in which they were made stops. Acquisitions outside of a
+	 *            scope must still be released manually.
+	 * @param callSiteSamplingInterval
+	 *            Capture the call site of every n-th acquisition. Use `0` to
+	 *            disable call site sampling.
+	 * @param maxCallSites
+	 *            The maximal number of distinct call sites recorded per bundle
+	 *            and service. Further call sites are counted as
+	 *            {@link ServiceUsage#OTHER_CALL_SITES}.
+	 */
+	public ServiceUsageAccounting(final boolean autoRelease, final int callSiteSamplingInterval,
+			final int maxCallSites) {
+		if (callSiteSamplingInterval < 0) {
+			throw new IllegalArgumentException("callSiteSamplingInterval must not be negative");
+		}
+		this.autoRelease = autoRelease;
+		this.callSiteSamplingInterval = callSiteSamplingInterval;
+		this.maxCallSites = maxCallSites;
+	}
+
+	public boolean isAutoRelease() {
+		return autoRelease;
+	}
+
+	public int callSiteSamplingInterval() {
+		return callSiteSamplingInterval;
+	}
+
+	/**
+	 * Records an acquisition of the referenced service by the bundle.
+	 */
+	public void acquired(final BundleContext bundleContext, final ServiceReference<?> reference) {
+		final String callSite;
+		if (callSiteSamplingInterval > 0 && sampleCounter.incrementAndGet() % callSiteSamplingInterval == 0) {
+			callSite = callSite(new Throwable().getStackTrace());
+		} else {
+			callSite = null;
+		}
+		usage(bundleContext, reference).recordAcquisition(callSite);
+	}
+
+	/**
+	 * Records a release of the referenced service by the bundle.
+	 */
+	public void released(final BundleContext bundleContext, final ServiceReference<?> reference) {
+		usage(bundleContext, reference).recordRelease();
+	}
+
+	/**
+	 * Returns all recorded usages.
+	 */
+	public List<ServiceUsage> usages() {
+		final List<ServiceUsage> result = new ArrayList<>();
+		usagesPerBundle.values().forEach(usages -> result.addAll(usages.values()));
+		return result;
+	}
+
+	/**
+	 * Returns all usages with more acquisitions than releases.
+	 */
+	public List<ServiceUsage> unbalanced() {
+		final List<ServiceUsage> result = new ArrayList<>();
+		usagesPerBundle.values().forEach(usages -> usages.values().forEach(usage -> {
+			if (usage.unbalanced() > 0) {
+				result.add(usage);
+			}
+		}));
+		return result;
+	}
+
+	/**
+	 * Returns all usages of the given bundle with more acquisitions than
+	 * releases.
+	 */
+	public List<ServiceUsage> unbalanced(final BundleContext bundleContext) {
+		final List<ServiceUsage> result = new ArrayList<>();
+		final ConcurrentHashMap<ServiceReference<?>, ServiceUsage> usages = usagesPerBundle.get(bundleContext);
+		if (usages != null) {
+			usages.values().forEach(usage -> {
+				if (usage.unbalanced() > 0) {
+					result.add(usage);
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Forgets all recorded usages of the given bundle.
+	 */
+	public void reset(final BundleContext bundleContext) {
+		usagesPerBundle.remove(bundleContext);
+	}
+
+	protected ServiceUsage usage(final BundleContext bundleContext, final ServiceReference<?> reference) {
+		ConcurrentHashMap<ServiceReference<?>, ServiceUsage> usages = usagesPerBundle.get(bundleContext);
+		if (usages == null) {
+			usages = usagesPerBundle.computeIfAbsent(bundleContext, bc -> new ConcurrentHashMap<>());
+		}
+		ServiceUsage usage = usages.get(reference);
+		if (usage == null) {
+			usage = usages.computeIfAbsent(reference, ref -> {
+				final String[] objectClass = (String[]) ref.getProperty(Constants.OBJECTCLASS);
+				return new ServiceUsage(Util.bundleName(bundleContext), (Long) ref.getProperty(Constants.SERVICE_ID),
+						objectClass != null && objectClass.length > 0 ? objectClass[0] : null, maxCallSites);
+			});
+		}
+		return usage;
+	}
+
+	/**
+	 * Finds the first stack frame outside of the Domino service consuming
+	 * implementation.
+	 */
+	protected String callSite(final StackTraceElement[] stackTrace) {
+		for (final StackTraceElement element : stackTrace) {
+			final String className = element.getClassName();
+			if (!isClassOrInner(className, ServiceUsageAccounting.class)
+					&& !isClassOrInner(className, OsgiContext.class)
+					&& !className.startsWith("de.tototec.utils.functional.")) {
+				return element.toString();
+			}
+		}
+		return stackTrace.length > 0 ? stackTrace[stackTrace.length - 1].toString() : null;
+	}
+
+	private static boolean isClassOrInner(final String className, final Class<?> clazz) {
+		return className.startsWith(clazz.getName())
+				&& (className.length() == clazz.getName().length()
+						|| className.charAt(clazz.getName().length()) == '$');
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(autoRelease=" + autoRelease +
+				",callSiteSamplingInterval=" + callSiteSamplingInterval +
+				",maxCallSites=" + maxCallSites +
+				")";
+	}
+
+}
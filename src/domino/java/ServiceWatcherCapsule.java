@@ -1,15 +1,29 @@
 package domino.java;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
 import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
+import de.tototec.utils.functional.F1;
+import de.tototec.utils.functional.F2;
 import de.tototec.utils.functional.Optional;
 import de.tototec.utils.functional.Procedure1;
 import domino.java.capsule.Capsule;
+import domino.java.internal.DominoExecutors;
 import domino.java.internal.Logger;
 import domino.java.internal.LoggerFactory;
+import domino.java.internal.SerialExecutor;
 
 /**
  * A capsule which executes the given event handlers on service state
@@ -23,6 +37,17 @@ import domino.java.internal.LoggerFactory;
  *            Event handlers
  * @param bundleContext
  *            Bundle context
+ * @param watchdog
+ *            Optional watchdog timing each handler invocation
+ * @param serviceDecorator
+ *            Optional function to wrap each tracked service, e.g. into an
+ *            instrumenting proxy. The wrapped service is delivered to the
+ *            event handlers and held by the tracker.
+ * @param options
+ *            Watcher options, e.g. whether to deliver an initial snapshot
+ * @param trackerFactory
+ *            Optional function creating the service tracker for the given
+ *            customizer, e.g. a tracker fed by a {@link ServiceRegistryMirror}
  * @tparam S Service type to be tracked
  */
 public class ServiceWatcherCapsule<S> implements Capsule {
@@ -32,22 +57,326 @@ public class ServiceWatcherCapsule<S> implements Capsule {
 	private final Filter filter;
 	private final Procedure1<ServiceWatcherEvent<S>> f;
 	private final BundleContext bundleContext;
+	private final Optional<HandlerWatchdog> watchdog;
+	private final Optional<F2<ServiceReference<S>, S, S>> serviceDecorator;
+	private final ServiceWatcherOptions options;
+	private final Optional<F1<ServiceTrackerCustomizer<S, S>, ServiceTracker<S, S>>> trackerFactory;
+	private final HandlerLanes.Lane lane;
+
+	/**
+	 * Serializes the events on the executor of the lane, if the lane has one.
+	 */
+	private final SerialExecutor laneDispatcher;
 
 	private Optional<ServiceTracker<S, S>> tracker = Optional.none();
 
+	private final Object snapshotLock = new Object();
+
+	/**
+	 * While the tracker is opened with an initial snapshot, the added
+	 * services are collected here instead of being dispatched. Guarded by
+	 * `snapshotLock`.
+	 */
+	private Map<ServiceReference<S>, S> initialServices;
+
+	/**
+	 * `true` while the initial snapshot is collected or delivered. Events from
+	 * other threads then wait for the snapshot to be delivered.
+	 */
+	private volatile boolean openingSnapshot = false;
+
+	/**
+	 * The properties of each tracked service as last delivered to the
+	 * handler, to compute the {@link PropertyDelta} of modifications. Only
+	 * used if property deltas are enabled.
+	 */
+	private final Map<ServiceReference<S>, PropertySnapshot> deliveredProperties = new ConcurrentHashMap<>();
+
+	/**
+	 * If set, events are dispatched asynchronously (but in order) with this
+	 * executor.
+	 */
+	private volatile SerialExecutor asyncDispatcher;
+
+	/**
+	 * Set when the watcher starts stopping. Additions and modifications not
+	 * yet delivered are dropped then.
+	 */
+	private volatile boolean stopping = false;
+
+	/**
+	 * Set when the watcher stopped. Events are no longer queued then.
+	 */
+	private volatile boolean stopped = false;
+
+	/**
+	 * The services whose addition was dropped while stopping. Their removal
+	 * is dropped, too.
+	 */
+	private final Set<ServiceReference<S>> droppedServices = ConcurrentHashMap.newKeySet();
+
 	public ServiceWatcherCapsule(
 			final Filter filter,
 			final Procedure1<ServiceWatcherEvent<S>> f,
 			final BundleContext bundleContext) {
+		this(filter, f, bundleContext, Optional.none());
+	}
+
+	public ServiceWatcherCapsule(
+			final Filter filter,
+			final Procedure1<ServiceWatcherEvent<S>> f,
+			final BundleContext bundleContext,
+			final Optional<HandlerWatchdog> watchdog) {
+		this(filter, f, bundleContext, watchdog, Optional.none());
+	}
+
+	public ServiceWatcherCapsule(
+			final Filter filter,
+			final Procedure1<ServiceWatcherEvent<S>> f,
+			final BundleContext bundleContext,
+			final Optional<HandlerWatchdog> watchdog,
+			final Optional<F2<ServiceReference<S>, S, S>> serviceDecorator) {
+		this(filter, f, bundleContext, watchdog, serviceDecorator, ServiceWatcherOptions.defaults());
+	}
+
+	public ServiceWatcherCapsule(
+			final Filter filter,
+			final Procedure1<ServiceWatcherEvent<S>> f,
+			final BundleContext bundleContext,
+			final Optional<HandlerWatchdog> watchdog,
+			final Optional<F2<ServiceReference<S>, S, S>> serviceDecorator,
+			final ServiceWatcherOptions options) {
+		this(filter, f, bundleContext, watchdog, serviceDecorator, options, Optional.none());
+	}
+
+	public ServiceWatcherCapsule(
+			final Filter filter,
+			final Procedure1<ServiceWatcherEvent<S>> f,
+			final BundleContext bundleContext,
+			final Optional<HandlerWatchdog> watchdog,
+			final Optional<F2<ServiceReference<S>, S, S>> serviceDecorator,
+			final ServiceWatcherOptions options,
+			final Optional<F1<ServiceTrackerCustomizer<S, S>, ServiceTracker<S, S>>> trackerFactory) {
 		this.filter = filter;
 		this.f = f;
 		this.bundleContext = bundleContext;
+		this.watchdog = watchdog;
+		this.serviceDecorator = serviceDecorator;
+		this.options = options;
+		this.trackerFactory = trackerFactory;
+		this.lane = HandlerLanes.shared().lane(options.priority());
+		this.laneDispatcher = lane.executor() != null ? new SerialExecutor(lane.executor()) : null;
 	}
 
 	public Optional<ServiceTracker<S, S>> tracker() {
 		return tracker;
 	}
 
+	/**
+	 * Returns `true` if events are no longer dispatched on the framework
+	 * thread.
+	 */
+	public boolean isAsyncDispatch() {
+		return laneDispatcher != null || asyncDispatcher != null;
+	}
+
+	/**
+	 * Dispatches all further events asynchronously, but still in order. The
+	 * event handler then no longer blocks the framework thread delivering the
+	 * service event.
+	 */
+	public synchronized void switchToAsyncDispatch() {
+		// handlers in a lane with its own threads never block the framework thread
+		if (asyncDispatcher == null && laneDispatcher == null && !stopped) {
+			log.warn("Bundle {}: Switching service watcher with filter [{}] to asynchronous dispatch",
+					Util.bundleName(bundleContext), filter);
+			asyncDispatcher = new SerialExecutor(DominoExecutors.dispatcher());
+		}
+	}
+
+	/**
+	 * Takes the property snapshot of the event right before it is delivered
+	 * and computes the delta to the last delivered properties of the service.
+	 * As this happens on the dispatching thread, a delayed or coalesced
+	 * modification sees all changes since the last delivery.
+	 *
+	 * <p>
+	 * Only done if {@link ServiceWatcherOptions#isPropertyDeltas() property
+	 * deltas} are enabled. Otherwise the event is delivered unchanged and
+	 * takes its snapshot lazily.
+	 *
+	 * @return The event to deliver, or `null` if it is a modification which
+	 *         did not change any property value.
+	 */
+	private ServiceWatcherEvent<S> withProperties(final ServiceWatcherEvent<S> event) {
+		if (!options.isPropertyDeltas()) {
+			return event;
+		}
+		final ServiceReference<S> reference = event.context().reference();
+		switch (event.eventType()) {
+			case ADDING: {
+				final PropertySnapshot properties = PropertySnapshot.of(reference);
+				deliveredProperties.put(reference, properties);
+				return new ServiceWatcherEvent<S>(event.service(), event.context(), event.eventType(), properties,
+						null);
+			}
+			case MODIFIED: {
+				final PropertySnapshot properties = PropertySnapshot.of(reference);
+				final PropertySnapshot previous = deliveredProperties.put(reference, properties);
+				final PropertyDelta delta = previous == null ? null : PropertyDelta.between(previous, properties);
+				if (delta != null && delta.isEmpty()) {
+					if (log.isDebugEnabled()) {
+						log.debug("Bundle {}: Suppressing modification without changes of service [{}]",
+								Util.bundleName(bundleContext), event.service());
+					}
+					return null;
+				}
+				return new ServiceWatcherEvent<S>(event.service(), event.context(), event.eventType(), properties,
+						delta);
+			}
+			case REMOVED:
+				deliveredProperties.remove(reference);
+				return event;
+			case INITIAL_SNAPSHOT:
+				for (final ServiceReference<S> ref : event.references()) {
+					deliveredProperties.put(ref, PropertySnapshot.of(ref));
+				}
+				return event;
+			default:
+				return event;
+		}
+	}
+
+	/**
+	 * Decides whether an event is still delivered while the watcher stops.
+	 * Only the removal of services already delivered to the handler is.
+	 */
+	private boolean deliverWhileStopping(final ServiceWatcherEvent<S> event) {
+		switch (event.eventType()) {
+			case ADDING:
+				droppedServices.add(event.context().reference());
+				return false;
+			case INITIAL_SNAPSHOT:
+				droppedServices.addAll(event.references());
+				return false;
+			case REMOVED:
+				return !droppedServices.remove(event.context().reference());
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Delivers the event to the handler and runs `afterwards` when the handler
+	 * returned.
+	 */
+	protected void dispatch(final ServiceWatcherEvent<S> event, final Runnable afterwards) {
+		final Runnable invocation = () -> {
+			try {
+				if (stopping && !deliverWhileStopping(event)) {
+					if (log.isDebugEnabled()) {
+						log.debug("Bundle {}: Dropping {} event of stopped service watcher with filter [{}]",
+								Util.bundleName(bundleContext), event.eventType(), filter);
+					}
+					return;
+				}
+				final ServiceWatcherEvent<S> delivered = withProperties(event);
+				if (delivered != null) {
+					if (watchdog.isDefined()) {
+						watchdog.get().time(StallReport.HandlerKind.SERVICE_WATCHER, Util.bundleName(bundleContext),
+								filter.toString(), f, this::switchToAsyncDispatch, () -> f.apply(delivered));
+					} else {
+						f.apply(delivered);
+					}
+				}
+			} finally {
+				if (afterwards != null) {
+					afterwards.run();
+				}
+			}
+		};
+		if (stopped) {
+			// The lane no longer accepts events of this watcher
+			invocation.run();
+			return;
+		}
+		final Object modificationKey = options.priority() == HandlerPriority.LOW
+				&& event.eventType() == ServiceWatcherEvent.EventType.MODIFIED
+						? new AbstractMap.SimpleImmutableEntry<>(this, event.context().reference())
+						: null;
+		lane.submit(laneDispatcher != null ? laneDispatcher : asyncDispatcher, modificationKey, invocation);
+	}
+
+	/**
+	 * Dispatches an event of the tracker, unless it is part of the initial
+	 * snapshot.
+	 */
+	private void trackerEvent(final ServiceWatcherEvent<S> event, final Runnable afterwards) {
+		if (openingSnapshot) {
+			synchronized (snapshotLock) {
+				// While the snapshot is delivered, only the delivering thread can get here
+				if (initialServices != null) {
+					final ServiceReference<S> reference = event.context().reference();
+					switch (event.eventType()) {
+						case ADDING:
+							initialServices.put(reference, event.service());
+							return;
+						case MODIFIED:
+							// the snapshot holds the reference with its current properties
+							return;
+						case REMOVED:
+							if (initialServices.remove(reference) != null) {
+								if (afterwards != null) {
+									afterwards.run();
+								}
+								return;
+							}
+							break;
+						default:
+							break;
+					}
+				}
+			}
+		}
+		dispatch(event, afterwards);
+	}
+
+	/**
+	 * Opens the tracker and delivers all services added while opening in one
+	 * event.
+	 */
+	private void openWithInitialSnapshot(final ServiceTracker<S, S> t) {
+		synchronized (snapshotLock) {
+			initialServices = new LinkedHashMap<>();
+			openingSnapshot = true;
+		}
+		try {
+			t.open();
+		} catch (final RuntimeException | Error e) {
+			synchronized (snapshotLock) {
+				initialServices = null;
+				openingSnapshot = false;
+			}
+			throw e;
+		}
+		synchronized (snapshotLock) {
+			final Map<ServiceReference<S>, S> initial = initialServices;
+			initialServices = null;
+			try {
+				// highest ranking first, like the tracker
+				final List<ServiceReference<S>> references = new ArrayList<>(initial.keySet());
+				Collections.sort(references, Collections.reverseOrder());
+				final List<S> services = new ArrayList<>(references.size());
+				for (final ServiceReference<S> reference : references) {
+					services.add(initial.get(reference));
+				}
+				dispatch(new ServiceWatcherEvent<S>(services, references, t), null);
+			} finally {
+				openingSnapshot = false;
+			}
+		}
+	}
+
 	@Override
 	public void start() {
 		if (log.isDebugEnabled()) {
@@ -55,10 +384,12 @@ public class ServiceWatcherCapsule<S> implements Capsule {
 		}
 
 		// Create tracker matching this filter
-		final ServiceTracker<S, S> t = new ServiceTracker<S, S>(bundleContext, filter, null) {
+		final ServiceTrackerCustomizer<S, S> customizer = new ServiceTrackerCustomizer<S, S>() {
 			@Override
 			public S addingService(final ServiceReference<S> reference) {
-				final S service = context.getService(reference);
+				final S rawService = bundleContext.getService(reference);
+				final S service = serviceDecorator.isDefined() ? serviceDecorator.get().apply(reference, rawService)
+						: rawService;
 				if (log.isDebugEnabled()) {
 					log.debug("Bundle {}: Adding service [{}] for filter [{}]", Util.bundleName(bundleContext), service,
 							filter);
@@ -67,7 +398,7 @@ public class ServiceWatcherCapsule<S> implements Capsule {
 						service,
 						new ServiceWatcherContext<>(tracker().orNull(), reference),
 						ServiceWatcherEvent.EventType.ADDING);
-				f.apply(event);
+				trackerEvent(event, null);
 				return service;
 			}
 
@@ -81,7 +412,7 @@ public class ServiceWatcherCapsule<S> implements Capsule {
 						service,
 						new ServiceWatcherContext<>(tracker().orNull(), reference),
 						ServiceWatcherEvent.EventType.MODIFIED);
-				f.apply(event);
+				trackerEvent(event, null);
 			}
 
 			@Override
@@ -94,15 +425,17 @@ public class ServiceWatcherCapsule<S> implements Capsule {
 						service,
 						new ServiceWatcherContext<>(tracker().orNull(), reference),
 						ServiceWatcherEvent.EventType.REMOVED);
-				try {
-					f.apply(event);
-				} finally {
-					context.ungetService(reference);
-				}
+				trackerEvent(event, () -> bundleContext.ungetService(reference));
 			}
 		};
+		final ServiceTracker<S, S> t = trackerFactory.isDefined() ? trackerFactory.get().apply(customizer)
+				: new ServiceTracker<S, S>(bundleContext, filter, customizer);
 		tracker = Optional.some(t);
-		t.open();
+		if (options.isInitialSnapshot()) {
+			openWithInitialSnapshot(t);
+		} else {
+			t.open();
+		}
 	}
 
 	@Override
@@ -110,10 +443,24 @@ public class ServiceWatcherCapsule<S> implements Capsule {
 		if (log.isDebugEnabled()) {
 			log.debug("Bundle {}: Stop tracking services with filter [{}]", Util.bundleName(bundleContext), filter);
 		}
+		stopping = true;
 		tracker.foreach(t -> {
 			t.close();
 			tracker = Optional.none();
 		});
+		stopped = true;
+		// Wait for the running handler and deliver the queued removals, so no
+		// handler runs after the watcher stopped
+		if (laneDispatcher != null) {
+			laneDispatcher.drain();
+		}
+		final SerialExecutor async;
+		synchronized (this) {
+			async = asyncDispatcher;
+		}
+		if (async != null) {
+			async.drain();
+		}
 	}
 
 }
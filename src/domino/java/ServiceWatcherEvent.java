@@ -1,5 +1,11 @@
 package domino.java;
 
+import java.util.Collections;
+import java.util.List;
+
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+
 /**
  * A Service watcher events.
  * 
@@ -22,12 +28,27 @@ public class ServiceWatcherEvent<S> {
 		/** A service tracked by the ServiceTracker has been modified. */
 		MODIFIED,
 		/** A service tracked by the ServiceTracker has been removed. */
-		REMOVED;
+		REMOVED,
+		/**
+		 * All services present when the ServiceTracker was opened. Only
+		 * delivered if enabled with
+		 * {@link ServiceWatcherOptions#withInitialSnapshot(boolean)}.
+		 */
+		INITIAL_SNAPSHOT;
 	}
 
 	private final S service;
 	private final ServiceWatcherContext<S> context;
 	private final EventType eventType;
+	private final List<S> services;
+	private final List<ServiceReference<S>> references;
+
+	/**
+	 * The snapshot of the service properties, taken on first access.
+	 */
+	private volatile PropertySnapshot properties;
+
+	private final PropertyDelta delta;
 
 	public ServiceWatcherEvent(
 			final S service,
@@ -36,12 +57,125 @@ public class ServiceWatcherEvent<S> {
 		this.service = service;
 		this.context = context;
 		this.eventType = eventType;
+		this.services = null;
+		this.references = null;
+		this.delta = null;
+	}
+
+	/**
+	 * Creates an event with the given property snapshot.
+	 *
+	 * @param properties
+	 *            The snapshot of the service properties.
+	 * @param delta
+	 *            The changes of a {@link EventType#MODIFIED} event, or `null`.
+	 */
+	public ServiceWatcherEvent(
+			final S service,
+			final ServiceWatcherContext<S> context,
+			final EventType eventType,
+			final PropertySnapshot properties,
+			final PropertyDelta delta) {
+		this.service = service;
+		this.context = context;
+		this.eventType = eventType;
+		this.services = null;
+		this.references = null;
+		this.properties = properties;
+		this.delta = delta;
+	}
+
+	/**
+	 * Creates an {@link EventType#INITIAL_SNAPSHOT} event.
+	 *
+	 * @param services
+	 *            The services, in the same order as the references.
+	 * @param references
+	 *            The references of the services.
+	 * @param tracker
+	 *            Underlying service tracker
+	 */
+	public ServiceWatcherEvent(
+			final List<S> services,
+			final List<ServiceReference<S>> references,
+			final ServiceTracker<S, S> tracker) {
+		this.service = null;
+		this.context = new ServiceWatcherContext<>(tracker, null);
+		this.eventType = EventType.INITIAL_SNAPSHOT;
+		this.services = Collections.unmodifiableList(services);
+		this.references = Collections.unmodifiableList(references);
+		this.delta = null;
 	}
 
+	/**
+	 * The affected service, or `null` for an
+	 * {@link EventType#INITIAL_SNAPSHOT} event.
+	 */
 	public S service() {
 		return service;
 	}
 
+	/**
+	 * An immutable snapshot of the properties of the affected service, taken
+	 * on the first call. Reading properties from the snapshot does not touch
+	 * the framework. For an {@link EventType#INITIAL_SNAPSHOT} event, this is
+	 * {@link PropertySnapshot#EMPTY}.
+	 */
+	public PropertySnapshot properties() {
+		PropertySnapshot p = properties;
+		if (p == null) {
+			final ServiceReference<S> reference = context.reference();
+			p = reference == null ? PropertySnapshot.EMPTY : PropertySnapshot.of(reference);
+			properties = p;
+		}
+		return p;
+	}
+
+	/**
+	 * The changes of the service properties since the last event delivered
+	 * for this service, for {@link EventType#MODIFIED} events of a
+	 * {@link ServiceWatcherCapsule} with
+	 * {@link ServiceWatcherOptions#withPropertyDeltas(boolean) property
+	 * deltas} enabled. Modifications which did not change any property value
+	 * are not delivered at all then. `null` for all other events.
+	 */
+	public PropertyDelta delta() {
+		return delta;
+	}
+
+	/**
+	 * The `service.id` of the affected service, from the
+	 * {@link #properties() property snapshot}.
+	 */
+	public long serviceId() {
+		return properties().serviceId();
+	}
+
+	/**
+	 * The `service.ranking` of the affected service, from the
+	 * {@link #properties() property snapshot}.
+	 */
+	public int serviceRanking() {
+		return properties().serviceRanking();
+	}
+
+	/**
+	 * All services affected by this event. For an
+	 * {@link EventType#INITIAL_SNAPSHOT} event, these are all services present
+	 * when the watcher started, otherwise just {@link #service()}.
+	 */
+	public List<S> services() {
+		return services != null ? services : Collections.singletonList(service);
+	}
+
+	/**
+	 * The references of all services affected by this event, in the same
+	 * order as {@link #services()}.
+	 */
+	public List<ServiceReference<S>> references() {
+		return references != null ? references : Collections.singletonList(context.reference());
+	}
+
 	public ServiceWatcherContext<S> context() {
 		return context;
 	}
@@ -56,6 +190,8 @@ public class ServiceWatcherEvent<S> {
 				"(service=" + service +
 				",context=" + context +
 				",eventType=" + eventType +
+				(services != null ? ",services=" + services : "") +
+				(delta != null ? ",delta=" + delta : "") +
 				")";
 	}
 
@@ -0,0 +1,106 @@
+package domino.java;
+
+/**
+ * Options for service watchers created with
+ * {@link ServiceWatching#watchAdvancedServices(Class, String, ServiceWatcherOptions, de.tototec.utils.functional.Procedure1)}.
+ * <p>
+ * Instances are immutable, all `with` methods return a modified copy.
+ */
+public class ServiceWatcherOptions {
+
+	private final boolean initialSnapshot;
+	private final ServiceInstrumentation instrumentation;
+	private final HandlerPriority priority;
+	private final boolean propertyDeltas;
+
+	protected ServiceWatcherOptions(final boolean initialSnapshot, final ServiceInstrumentation instrumentation,
+			final HandlerPriority priority, final boolean propertyDeltas) {
+		this.initialSnapshot = initialSnapshot;
+		this.instrumentation = instrumentation;
+		this.priority = priority;
+		this.propertyDeltas = propertyDeltas;
+	}
+
+	/**
+	 * The default options: Each service is delivered in its own
+	 * {@link ServiceWatcherEvent.EventType#ADDING} event, services are not
+	 * instrumented, the handler runs with {@link HandlerPriority#NORMAL}
+	 * priority, and modifications carry no {@link PropertyDelta}.
+	 */
+	public static ServiceWatcherOptions defaults() {
+		return new ServiceWatcherOptions(false, null, HandlerPriority.NORMAL, false);
+	}
+
+	/**
+	 * If enabled, all services already present when the watcher starts are
+	 * delivered in one {@link ServiceWatcherEvent.EventType#INITIAL_SNAPSHOT}
+	 * event, instead of one {@link ServiceWatcherEvent.EventType#ADDING} event
+	 * per service. All later changes are delivered as usual. The snapshot event
+	 * is delivered even if there are no services.
+	 */
+	public ServiceWatcherOptions withInitialSnapshot(final boolean initialSnapshot) {
+		return new ServiceWatcherOptions(initialSnapshot, instrumentation, priority, propertyDeltas);
+	}
+
+	/**
+	 * Wraps all services delivered to the handler in instrumenting proxies.
+	 *
+	 * @param instrumentation
+	 *            The instrumentation recording the service calls, or `null`.
+	 */
+	public ServiceWatcherOptions withInstrumentation(final ServiceInstrumentation instrumentation) {
+		return new ServiceWatcherOptions(initialSnapshot, instrumentation, priority, propertyDeltas);
+	}
+
+	/**
+	 * Dispatches the events in the {@link HandlerLanes lane} of the given
+	 * priority.
+	 */
+	public ServiceWatcherOptions withPriority(final HandlerPriority priority) {
+		if (priority == null) {
+			throw new NullPointerException("priority must not be null");
+		}
+		return new ServiceWatcherOptions(initialSnapshot, instrumentation, priority, propertyDeltas);
+	}
+
+	/**
+	 * If enabled, each {@link ServiceWatcherEvent.EventType#MODIFIED} event
+	 * carries the {@link PropertyDelta} to the properties last delivered for
+	 * the service, and modifications which did not change any property value
+	 * are not delivered at all. This takes a property snapshot for each
+	 * event.
+	 */
+	public ServiceWatcherOptions withPropertyDeltas(final boolean propertyDeltas) {
+		return new ServiceWatcherOptions(initialSnapshot, instrumentation, priority, propertyDeltas);
+	}
+
+	public boolean isInitialSnapshot() {
+		return initialSnapshot;
+	}
+
+	/**
+	 * The instrumentation, or `null`.
+	 */
+	public ServiceInstrumentation instrumentation() {
+		return instrumentation;
+	}
+
+	public HandlerPriority priority() {
+		return priority;
+	}
+
+	public boolean isPropertyDeltas() {
+		return propertyDeltas;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(initialSnapshot=" + initialSnapshot +
+				",instrumentation=" + instrumentation +
+				",priority=" + priority +
+				",propertyDeltas=" + propertyDeltas +
+				")";
+	}
+
+}
@@ -1,7 +1,11 @@
 package domino.java;
 
+import java.util.Set;
+
+import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
 
+import de.tototec.utils.functional.F1;
 import de.tototec.utils.functional.Procedure1;
 import de.tototec.utils.functional.Procedure2;
 import de.tototec.utils.functional.Procedure3;
@@ -29,6 +33,52 @@ public interface ServiceWatching {
 	 */
 	<S> ServiceTracker<S, S> watchAdvancedServices(Class<S> type, String filter, Procedure1<ServiceWatcherEvent<S>> f);
 
+	/**
+	 * Like {@link #watchAdvancedServices(Class, String, Procedure1)}, but with
+	 * the given options, e.g. to receive all services present at start in one
+	 * {@link ServiceWatcherEvent.EventType#INITIAL_SNAPSHOT} event, or to
+	 * wrap the services in instrumenting proxies with
+	 * {@link ServiceWatcherOptions#withInstrumentation(ServiceInstrumentation)}.
+	 *
+	 * @param options
+	 *            The watcher options.
+	 * @tparam S Service type
+	 * @return Underlying service tracker
+	 */
+	<S> ServiceTracker<S, S> watchAdvancedServices(
+			Class<S> type,
+			String filter,
+			ServiceWatcherOptions options,
+			Procedure1<ServiceWatcherEvent<S>> f);
+
+	/**
+	 * Keeps a live collection of all services with the specified type which
+	 * match the given filter, sorted by ranking. The collection is updated
+	 * incrementally and can be read from any thread without locking, see
+	 * {@link ServiceCollectionCapsule}.
+	 *
+	 * @param type
+	 *            The `Class` representing the service type.
+	 * @param filter
+	 *            A filter criteria expression (LDAP-style filter) to further
+	 *            specify the service, or `null`.
+	 * @tparam S Service type
+	 * @return The capsule holding the current snapshot of the services
+	 */
+	<S> ServiceCollectionCapsule<S, Void> trackAll(Class<S> type, String filter);
+
+	/**
+	 * Like {@link #trackAll(Class, String)}, but each service is accompanied by
+	 * a projection of its service reference, which is re-computed when the
+	 * service properties are modified.
+	 *
+	 * @param projection
+	 *            Computes the projection of a service reference.
+	 * @tparam P Type of the projection
+	 */
+	<S, P> ServiceCollectionCapsule<S, P> trackAll(Class<S> type, String filter,
+			F1<ServiceReference<S>, P> projection);
+
 	/**
 	 * Activates the given inner logic as long as the first service of the given
 	 * type is present. This implements the concept of required services. The
@@ -44,6 +94,58 @@ public interface ServiceWatching {
 	 */
 	<S> ServiceTracker<S, S> whenAdvancedServicePresent(Class<S> type, String filter, Procedure1<S> f);
 
+	/**
+	 * Like {@link #whenAdvancedServicePresent(Class, String, Procedure1)}, but
+	 * with the given options, e.g. to run the inner logic in the
+	 * {@link HandlerLanes lane} of a {@link ServiceWatcherOptions#withPriority(HandlerPriority)
+	 * priority}. The initial snapshot option is ignored.
+	 *
+	 * @param options
+	 *            The watcher options.
+	 * @tparam S Service type
+	 */
+	<S> ServiceTracker<S, S> whenAdvancedServicePresent(
+			Class<S> type,
+			String filter,
+			ServiceWatcherOptions options,
+			Procedure1<S> f);
+
+	/**
+	 * Like {@link #whenAdvancedServicePresent(Class, String, Procedure1)}, but
+	 * also reacts to property changes of the bound service: if one of the
+	 * significant property keys is added, removed or changed, the inner logic
+	 * is stopped and started again. If the bound service goes away, e.g.
+	 * because it no longer matches the filter after a modification, the
+	 * binding moves to the next matching service, if there is one.
+	 *
+	 * @param significantKeys
+	 *            The property keys whose changes re-activate the inner logic.
+	 * @tparam S Service type
+	 */
+	<S> ServiceTracker<S, S> whenAdvancedServicePresentWithKeys(
+			Class<S> type,
+			String filter,
+			Set<String> significantKeys,
+			Procedure1<S> f);
+
+	/**
+	 * Like {@link #whenAdvancedServicePresentWithKeys(Class, String, Set, Procedure1)},
+	 * with the given watcher options, and optionally with an update callback
+	 * instead of re-activation.
+	 *
+	 * @param onUpdate
+	 *            Called with the bound service and the property changes
+	 *            instead of re-activating the inner logic, or `null`.
+	 * @tparam S Service type
+	 */
+	<S> ServiceTracker<S, S> whenAdvancedServicePresentWithKeys(
+			Class<S> type,
+			String filter,
+			ServiceWatcherOptions options,
+			Set<String> significantKeys,
+			Procedure1<S> f,
+			Procedure2<S, PropertyDelta> onUpdate);
+
 	/**
 	 * Waits until a service of the specified type is available and executes the
 	 * given event handler with it. When the service disappears, the capsules
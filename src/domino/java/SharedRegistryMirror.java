@@ -0,0 +1,206 @@
+package domino.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * The default {@link ServiceRegistryMirror}. It registers a single service
+ * listener and keeps the subscriptions indexed by class name, so that a
+ * service event costs only as much as there are subscribers for one of the
+ * classes of the service.
+ */
+public class SharedRegistryMirror implements ServiceRegistryMirror {
+
+	private final Logger log = LoggerFactory.getLogger(SharedRegistryMirror.class);
+
+	private final ConcurrentHashMap<String, List<SubscriptionImpl>> subscriptionsByClass = new ConcurrentHashMap<>();
+	private final AtomicLong events = new AtomicLong();
+	private final AtomicLong deliveries = new AtomicLong();
+
+	private volatile BundleContext bundleContext;
+
+	private final AllServiceListener listener = this::serviceChanged;
+
+	private class SubscriptionImpl implements Subscription {
+		private final Bundle bundle;
+		private final String className;
+		private final Filter filter;
+		private final Subscriber subscriber;
+
+		SubscriptionImpl(final Bundle bundle, final String className, final Filter filter,
+				final Subscriber subscriber) {
+			this.bundle = bundle;
+			this.className = className;
+			this.filter = filter;
+			this.subscriber = subscriber;
+		}
+
+		boolean matches(final ServiceReference<?> reference) {
+			return (filter == null || filter.match(reference)) && reference.isAssignableTo(bundle, className);
+		}
+
+		@Override
+		public void close() {
+			subscriptionsByClass.computeIfPresent(className, (k, subscriptions) -> {
+				subscriptions.remove(this);
+				return subscriptions.isEmpty() ? null : subscriptions;
+			});
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() +
+					"(bundle=" + bundle +
+					",className=" + className +
+					",filter=" + filter +
+					")";
+		}
+	}
+
+	/**
+	 * Starts listening to the service registry of the given bundle context.
+	 */
+	public void open(final BundleContext bundleContext) {
+		this.bundleContext = bundleContext;
+		bundleContext.addServiceListener(listener);
+	}
+
+	/**
+	 * Stops listening. Existing subscriptions receive no further events. Their
+	 * subscribers are notified with {@link Subscriber#mirrorClosed()}.
+	 */
+	public void close() {
+		final BundleContext bc = bundleContext;
+		if (bc != null) {
+			bundleContext = null;
+			try {
+				bc.removeServiceListener(listener);
+			} catch (final IllegalStateException e) {
+				// Do nothing. Bundle context is no longer valid.
+			}
+		}
+		final List<SubscriptionImpl> closed = new ArrayList<>();
+		subscriptionsByClass.values().forEach(closed::addAll);
+		subscriptionsByClass.clear();
+		for (final SubscriptionImpl subscription : closed) {
+			try {
+				subscription.subscriber.mirrorClosed();
+			} catch (final RuntimeException e) {
+				log.error("Subscriber {} failed to handle the close of the mirror", subscription, e);
+			}
+		}
+	}
+
+	@Override
+	public Subscription subscribe(final Bundle bundle, final String className, final Filter filter,
+			final Subscriber subscriber) {
+		final BundleContext bc = bundleContext;
+		if (bc == null) {
+			throw new IllegalStateException("The registry mirror is closed");
+		}
+		final SubscriptionImpl subscription = new SubscriptionImpl(bundle, className, filter, subscriber);
+		// Index first, so no event gets lost while the existing services are delivered
+		subscriptionsByClass.compute(className, (k, subscriptions) -> {
+			final List<SubscriptionImpl> list = subscriptions != null ? subscriptions
+					: new CopyOnWriteArrayList<SubscriptionImpl>();
+			list.add(subscription);
+			return list;
+		});
+		final ServiceReference<?>[] existing;
+		try {
+			existing = bc.getAllServiceReferences(className, null);
+		} catch (final InvalidSyntaxException e) {
+			// can not happen, as there is no filter
+			throw new IllegalStateException(e);
+		}
+		if (existing != null) {
+			for (final ServiceReference<?> reference : existing) {
+				if (subscription.matches(reference)) {
+					subscriber.serviceEvent(ServiceEvent.REGISTERED, reference);
+				}
+			}
+		}
+		return subscription;
+	}
+
+	private void serviceChanged(final ServiceEvent event) {
+		events.incrementAndGet();
+		final ServiceReference<?> reference = event.getServiceReference();
+		final Object objectClass = reference.getProperty(Constants.OBJECTCLASS);
+		if (!(objectClass instanceof String[])) {
+			return;
+		}
+		for (final String className : (String[]) objectClass) {
+			final List<SubscriptionImpl> subscriptions = subscriptionsByClass.get(className);
+			if (subscriptions == null) {
+				continue;
+			}
+			for (final SubscriptionImpl subscription : subscriptions) {
+				final int type;
+				if (subscription.matches(reference)) {
+					type = event.getType();
+				} else if (event.getType() == ServiceEvent.MODIFIED) {
+					type = ServiceEvent.MODIFIED_ENDMATCH;
+				} else {
+					continue;
+				}
+				deliveries.incrementAndGet();
+				try {
+					subscription.subscriber.serviceEvent(type, reference);
+				} catch (final RuntimeException e) {
+					log.error("Subscriber {} failed to handle service event {}", subscription, event, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of service events received from the framework.
+	 */
+	public long events() {
+		return events.get();
+	}
+
+	/**
+	 * The number of events delivered to subscribers.
+	 */
+	public long deliveries() {
+		return deliveries.get();
+	}
+
+	/**
+	 * The number of open subscriptions.
+	 */
+	public int subscriptionCount() {
+		int count = 0;
+		for (final List<SubscriptionImpl> subscriptions : subscriptionsByClass.values()) {
+			count += subscriptions.size();
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(subscriptions=" + subscriptionCount() +
+				",events=" + events +
+				",deliveries=" + deliveries +
+				")";
+	}
+
+}
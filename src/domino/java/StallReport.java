@@ -0,0 +1,115 @@
+package domino.java;
+
+import java.util.Arrays;
+
+/**
+ * Describes a handler invocation which took longer than the threshold of the
+ * {@link HandlerWatchdog}.
+ *
+ * @see HandlerWatchdog
+ */
+public class StallReport {
+
+	/**
+	 * The kind of handler which stalled.
+	 */
+	public static enum HandlerKind {
+		/** A handler given to {@link OsgiContext#whenBundleActive}. */
+		BUNDLE_ACTIVE,
+		/** A service event handler of a {@link ServiceWatcherCapsule}. */
+		SERVICE_WATCHER;
+	}
+
+	private final HandlerKind handlerKind;
+	private final String bundleName;
+	private final String filter;
+	private final Class<?> handlerClass;
+	private final String threadName;
+	private final StackTraceElement[] stackTrace;
+	private final long durationMillis;
+	private final boolean completed;
+
+	public StallReport(
+			final HandlerKind handlerKind,
+			final String bundleName,
+			final String filter,
+			final Class<?> handlerClass,
+			final String threadName,
+			final StackTraceElement[] stackTrace,
+			final long durationMillis,
+			final boolean completed) {
+		this.handlerKind = handlerKind;
+		this.bundleName = bundleName;
+		this.filter = filter;
+		this.handlerClass = handlerClass;
+		this.threadName = threadName;
+		this.stackTrace = stackTrace;
+		this.durationMillis = durationMillis;
+		this.completed = completed;
+	}
+
+	public HandlerKind handlerKind() {
+		return handlerKind;
+	}
+
+	/**
+	 * The name of the bundle which owns the handler, as formatted by
+	 * {@link Util#bundleName(org.osgi.framework.BundleContext)}.
+	 */
+	public String bundleName() {
+		return bundleName;
+	}
+
+	/**
+	 * The filter of the service watcher, or `null` for non-watcher handlers.
+	 */
+	public String filter() {
+		return filter;
+	}
+
+	public Class<?> handlerClass() {
+		return handlerClass;
+	}
+
+	public String threadName() {
+		return threadName;
+	}
+
+	/**
+	 * The stack trace of the blocked thread, captured while the handler was
+	 * still running. Empty, if the handler completed before the watchdog could
+	 * capture it.
+	 */
+	public StackTraceElement[] stackTrace() {
+		return stackTrace;
+	}
+
+	/**
+	 * The time the handler was running when this report was created.
+	 */
+	public long durationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * `true` if the handler already completed when this report was created.
+	 */
+	public boolean completed() {
+		return completed;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() +
+				"(handlerKind=" + handlerKind +
+				",bundleName=" + bundleName +
+				",filter=" + filter +
+				",handlerClass=" + handlerClass.getName() +
+				",threadName=" + threadName +
+				",durationMillis=" + durationMillis +
+				",completed=" + completed +
+				",stackTrace=" + Arrays.toString(stackTrace) +
+				")";
+	}
+
+}
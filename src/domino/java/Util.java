@@ -62,6 +62,8 @@ public interface Util {
 	/**
 	 * Convenience method to create a {@link LinkedHashMap}<K, V> with 1 entry
 	 * in-place.
+	 * <p>
+	 * For service properties, prefer the more compact {@link ServiceProperties}.
 	 * 
 	 * @return The created Map.
 	 */
@@ -74,6 +76,8 @@ public interface Util {
 	/**
 	 * Convenience method to create a {@link LinkedHashMap}<K, V> with 2 entries
 	 * in-place.
+	 * <p>
+	 * For service properties, prefer the more compact {@link ServiceProperties}.
 	 * 
 	 * @return The created Map.
 	 */
@@ -87,6 +91,8 @@ public interface Util {
 	/**
 	 * Convenience method to create a {@link LinkedHashMap}<K, V> with 3 entries
 	 * in-place.
+	 * <p>
+	 * For service properties, prefer the more compact {@link ServiceProperties}.
 	 * 
 	 * @return The created Map.
 	 */
@@ -104,6 +110,8 @@ public interface Util {
 	/**
 	 * Convenience method to create a {@link LinkedHashMap}<K, V> with 4 entries
 	 * in-place.
+	 * <p>
+	 * For service properties, prefer the more compact {@link ServiceProperties}.
 	 * 
 	 * @return The created Map.
 	 */
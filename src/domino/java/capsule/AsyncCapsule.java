@@ -0,0 +1,44 @@
+package domino.java.capsule;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A capsule whose start and stop are asynchronous, e.g. because they involve
+ * I/O.
+ * <p>
+ * When added to a {@link DynamicCapsuleContext}, the start stages of all
+ * asynchronous capsules of a scope overlap, and the scope is only complete
+ * when all of them completed. If one of them fails or times out, all capsules
+ * of the scope are stopped again. Hence, {@link #stopAsync()} must also cope
+ * with a failed or not yet completed start.
+ * <p>
+ * The synchronous {@link #start()} and {@link #stop()} methods block until
+ * the respective stage completed.
+ */
+public interface AsyncCapsule extends Capsule {
+
+	/**
+	 * Starts the capsule.
+	 *
+	 * @return A stage completing when the capsule is active.
+	 */
+	CompletionStage<Void> startAsync();
+
+	/**
+	 * Stops the capsule.
+	 *
+	 * @return A stage completing when the capsule is inactive.
+	 */
+	CompletionStage<Void> stopAsync();
+
+	@Override
+	default void start() {
+		CompletionStages.await(startAsync());
+	}
+
+	@Override
+	default void stop() {
+		CompletionStages.await(stopAsync());
+	}
+
+}
@@ -1,5 +1,8 @@
 package domino.java.capsule;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * Represents a collection of capsules which shall all be stopped on the same
  * event.
@@ -9,4 +12,15 @@ public interface CapsuleScope {
 	 * Stops all capsules in this scope.
 	 */
 	void stop();
+
+	/**
+	 * Stops all capsules in this scope, without waiting for
+	 * {@link AsyncCapsule}s to complete their stop.
+	 *
+	 * @return A stage completing when all capsules are stopped.
+	 */
+	default CompletionStage<Void> stopAsync() {
+		stop();
+		return CompletableFuture.completedFuture(null);
+	}
 }
@@ -0,0 +1,146 @@
+package domino.java.capsule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import domino.java.internal.DominoExecutors;
+
+/**
+ * Helpers to compose the stages of {@link AsyncCapsule}s.
+ */
+final class CompletionStages {
+
+	private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+	private CompletionStages() {
+	}
+
+	static CompletableFuture<Void> done() {
+		return DONE;
+	}
+
+	/**
+	 * Waits for the stage and rethrows its failure unwrapped, if it is
+	 * unchecked.
+	 */
+	static <T> T await(final CompletionStage<T> stage) {
+		try {
+			return stage.toCompletableFuture().get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		} catch (final ExecutionException e) {
+			throw rethrow(e.getCause());
+		}
+	}
+
+	/**
+	 * Rethrows the given throwable, unwrapping a {@link CompletionException}.
+	 */
+	static RuntimeException rethrow(final Throwable e) {
+		final Throwable cause = unwrap(e);
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		throw new CompletionException(cause);
+	}
+
+	static Throwable unwrap(final Throwable e) {
+		return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+	}
+
+	/**
+	 * Returns a stage completing when all given stages completed. If any of
+	 * them failed, it fails with the first failure, with all other failures
+	 * suppressed.
+	 */
+	static CompletableFuture<Void> allOf(final List<? extends CompletionStage<?>> stages) {
+		if (stages.isEmpty()) {
+			return DONE;
+		}
+		final List<CompletableFuture<?>> futures = new ArrayList<>(stages.size());
+		for (final CompletionStage<?> stage : stages) {
+			futures.add(stage.toCompletableFuture());
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+				.handle((v, e) -> {
+					if (e == null) {
+						return null;
+					}
+					Throwable first = null;
+					for (final CompletableFuture<?> future : futures) {
+						if (future.isCompletedExceptionally()) {
+							try {
+								future.join();
+							} catch (final CompletionException | CancellationException f) {
+								final Throwable cause = unwrap(f);
+								if (first == null) {
+									first = cause;
+								} else if (first != cause) {
+									first.addSuppressed(cause);
+								}
+							}
+						}
+					}
+					throw new CompletionException(first);
+				});
+	}
+
+	/**
+	 * Returns a stage failing with a {@link TimeoutException} if the given
+	 * stage does not complete within the timeout.
+	 *
+	 * @param timeoutMillis The timeout, or `0` for no timeout.
+	 */
+	static <T> CompletableFuture<T> withTimeout(final CompletionStage<T> stage, final long timeoutMillis,
+			final String what) {
+		final CompletableFuture<T> future = stage.toCompletableFuture();
+		if (timeoutMillis <= 0 || future.isDone()) {
+			return future;
+		}
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final ScheduledFuture<?> timer = DominoExecutors.scheduler().schedule(
+				() -> result.completeExceptionally(
+						new TimeoutException(what + " did not complete within " + timeoutMillis + " ms")),
+				timeoutMillis, TimeUnit.MILLISECONDS);
+		future.whenComplete((v, e) -> {
+			timer.cancel(false);
+			if (e != null) {
+				result.completeExceptionally(unwrap(e));
+			} else {
+				result.complete(v);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Stops the given capsules in the given order. Asynchronous capsules are
+	 * stopped concurrently.
+	 *
+	 * @return A stage completing when all capsules are stopped.
+	 */
+	static CompletableFuture<Void> stopAll(final Iterable<Capsule> capsules) {
+		final List<CompletionStage<Void>> stops = new ArrayList<>();
+		for (final Capsule capsule : capsules) {
+			if (capsule instanceof AsyncCapsule) {
+				stops.add(((AsyncCapsule) capsule).stopAsync());
+			} else {
+				capsule.stop();
+			}
+		}
+		return allOf(stops);
+	}
+
+}
@@ -0,0 +1,235 @@
+package domino.java.capsule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A lock-free, insertion ordered list supporting concurrent appends, removal
+ * of single entries in constant time and consistent snapshots.
+ * <p>
+ * The list is a singly linked list appended to with compare-and-set. Removed
+ * entries are only marked as removed and are unlinked lazily while taking
+ * snapshots, or once they outnumber the remaining entries. After {@link #close()}, no more entries can be appended, and the
+ * returned snapshot contains exactly the entries appended before.
+ *
+ * @tparam T The element type
+ */
+public class ConcurrentAppendList<T> {
+
+	/**
+	 * An entry of the list, returned by {@link ConcurrentAppendList#append(Object)}
+	 * to remove it again.
+	 *
+	 * @tparam T The element type
+	 */
+	public static final class Entry<T> {
+		private final ConcurrentAppendList<T> list;
+		private final T value;
+		// not private, for the field updaters
+		volatile Entry<T> next;
+		volatile int removed;
+
+		private Entry(final ConcurrentAppendList<T> list, final T value) {
+			this.list = list;
+			this.value = value;
+		}
+
+		public T value() {
+			return value;
+		}
+
+		public boolean isRemoved() {
+			return removed != 0;
+		}
+
+		/**
+		 * Removes this entry from its list.
+		 *
+		 * @return `false`, if it was already removed.
+		 */
+		public boolean remove() {
+			if (!REMOVED.compareAndSet(this, 0, 1)) {
+				return false;
+			}
+			list.removed();
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() + "(value=" + value + ",removed=" + isRemoved() + ")";
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<Entry> REMOVED = AtomicIntegerFieldUpdater
+			.newUpdater(Entry.class, "removed");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Entry, Entry> NEXT = AtomicReferenceFieldUpdater
+			.newUpdater(Entry.class, Entry.class, "next");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<ConcurrentAppendList> LIVE = AtomicIntegerFieldUpdater
+			.newUpdater(ConcurrentAppendList.class, "live");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<ConcurrentAppendList> GARBAGE = AtomicIntegerFieldUpdater
+			.newUpdater(ConcurrentAppendList.class, "garbage");
+
+	/**
+	 * Removed entries are unlinked once there are more of them than this
+	 * number plus the not removed ones.
+	 */
+	private static final int GARBAGE_THRESHOLD = 32;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<ConcurrentAppendList, Entry> TAIL = AtomicReferenceFieldUpdater
+			.newUpdater(ConcurrentAppendList.class, Entry.class, "tail");
+
+	/**
+	 * Appended as last entry by {@link #close()}.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final Entry CLOSED = new Entry<>(null, null);
+
+	private final Entry<T> head = new Entry<>(null, null);
+	private volatile Entry<T> tail = head;
+	/**
+	 * The number of appended and not removed entries.
+	 */
+	private volatile int live = 0;
+	/**
+	 * The number of removed entries since the last unlinking traversal.
+	 */
+	private volatile int garbage = 0;
+
+	/**
+	 * Appends the value.
+	 *
+	 * @return The entry to remove the value again, or `null` if the list is
+	 *         already closed.
+	 */
+	@SuppressWarnings("unchecked")
+	public Entry<T> append(final T value) {
+		final Entry<T> entry = new Entry<>(this, value);
+		while (true) {
+			final Entry<T> t = tail;
+			if (t == CLOSED) {
+				return null;
+			}
+			final Entry<T> next = t.next;
+			if (next != null) {
+				// tail is lagging behind, help to advance it
+				TAIL.compareAndSet(this, t, next);
+			} else if (NEXT.compareAndSet(t, null, entry)) {
+				TAIL.compareAndSet(this, t, entry);
+				LIVE.incrementAndGet(this);
+				return entry;
+			}
+		}
+	}
+
+	/**
+	 * Closes the list, so that no more values can be appended.
+	 *
+	 * @return The snapshot of all not removed values, in insertion order, or
+	 *         an empty list if the list was already closed.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> close() {
+		while (true) {
+			final Entry<T> t = tail;
+			if (t == CLOSED) {
+				return new ArrayList<>();
+			}
+			final Entry<T> next = t.next;
+			if (next != null) {
+				TAIL.compareAndSet(this, t, next);
+			} else if (NEXT.compareAndSet(t, null, CLOSED)) {
+				TAIL.compareAndSet(this, t, CLOSED);
+				return snapshot();
+			}
+		}
+	}
+
+	/**
+	 * Unlinks the removed entries once they outnumber the not removed ones,
+	 * so a long living list does not keep them (and their values) reachable.
+	 * This keeps the amortized cost of a removal constant.
+	 */
+	private void removed() {
+		final int remaining = LIVE.decrementAndGet(this);
+		if (GARBAGE.incrementAndGet(this) > remaining + GARBAGE_THRESHOLD) {
+			GARBAGE.set(this, 0);
+			entries();
+		}
+	}
+
+	public boolean isClosed() {
+		return tail == CLOSED;
+	}
+
+	/**
+	 * Returns all not removed values in insertion order.
+	 */
+	public List<T> snapshot() {
+		final List<T> values = new ArrayList<>();
+		for (final Entry<T> entry : entries()) {
+			values.add(entry.value);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns all not removed entries in insertion order. Unlinks removed
+	 * entries on the way.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Entry<T>> entries() {
+		final List<Entry<T>> entries = new ArrayList<>();
+		Entry<T> pred = head;
+		Entry<T> cur = pred.next;
+		while (cur != null && cur != CLOSED) {
+			final Entry<T> next = cur.next;
+			if (cur.isRemoved() && next != null) {
+				// Never unlink the last entry, appends might happen there
+				NEXT.compareAndSet(pred, cur, next);
+			} else {
+				if (!cur.isRemoved()) {
+					entries.add(cur);
+				}
+				pred = cur;
+			}
+			cur = next;
+		}
+		return entries;
+	}
+
+	/**
+	 * The number of not removed values. This requires a traversal of the list.
+	 */
+	public int size() {
+		return entries().size();
+	}
+
+	/**
+	 * The number of linked entries, including removed but not yet unlinked
+	 * ones.
+	 */
+	int linkedSize() {
+		int count = 0;
+		for (Entry<T> cur = head.next; cur != null && cur != CLOSED; cur = cur.next) {
+			++count;
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(" + snapshot() + (isClosed() ? ",closed" : "") + ")";
+	}
+
+}
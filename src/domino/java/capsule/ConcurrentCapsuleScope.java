@@ -0,0 +1,113 @@
+package domino.java.capsule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A capsule scope which can be filled and stopped concurrently, based on a
+ * {@link ConcurrentAppendList}.
+ * <p>
+ * Capsules are stopped in the order they were added, whereas
+ * {@link AsyncCapsule}s are stopped concurrently. A capsule added after the
+ * scope was stopped is stopped immediately.
+ *
+ * @param asyncTimeoutMillis
+ *            The maximal time to wait for {@link AsyncCapsule}s to stop, or
+ *            `0` to wait without limit
+ */
+public class ConcurrentCapsuleScope implements CapsuleScope {
+
+	private final ConcurrentAppendList<Capsule> capsules = new ConcurrentAppendList<>();
+	private final long asyncTimeoutMillis;
+
+	public ConcurrentCapsuleScope() {
+		this(0);
+	}
+
+	public ConcurrentCapsuleScope(final long asyncTimeoutMillis) {
+		this.asyncTimeoutMillis = asyncTimeoutMillis;
+	}
+
+	/**
+	 * Adds an already started capsule to this scope. If the scope was already
+	 * stopped, the capsule is stopped immediately.
+	 *
+	 * @return The entry to remove the capsule from the scope without stopping
+	 *         it, or `null` if the scope was already stopped.
+	 */
+	public ConcurrentAppendList.Entry<Capsule> add(final Capsule capsule) {
+		final ConcurrentAppendList.Entry<Capsule> entry = capsules.append(capsule);
+		if (entry == null) {
+			capsule.stop();
+		}
+		return entry;
+	}
+
+	/**
+	 * The capsules currently in this scope, in the order they were added.
+	 */
+	public List<Capsule> capsules() {
+		return capsules.snapshot();
+	}
+
+	/**
+	 * The number of linked entries, including removed but not yet unlinked
+	 * ones.
+	 */
+	int linkedSize() {
+		return capsules.linkedSize();
+	}
+
+	public boolean isStopped() {
+		return capsules.isClosed();
+	}
+
+	/**
+	 * Stops all capsules in this scope, in the order they were added.
+	 */
+	@Override
+	public void stop() {
+		CompletionStages.await(stopAsync());
+	}
+
+	@Override
+	public CompletionStage<Void> stopAsync() {
+		return CompletionStages.withTimeout(CompletionStages.stopAll(capsules.close()), asyncTimeoutMillis,
+				"Stop of capsule scope");
+	}
+
+	/**
+	 * Stops all capsules in this scope in reverse order, collecting all
+	 * failures as suppressed exceptions of the given cause.
+	 */
+	void rollback(final Throwable cause) {
+		final List<Capsule> started = capsules.close();
+		Collections.reverse(started);
+		final List<CompletionStage<Void>> stops = new ArrayList<>();
+		for (final Capsule capsule : started) {
+			try {
+				if (capsule instanceof AsyncCapsule) {
+					stops.add(((AsyncCapsule) capsule).stopAsync());
+				} else {
+					capsule.stop();
+				}
+			} catch (final RuntimeException e) {
+				cause.addSuppressed(e);
+			}
+		}
+		try {
+			CompletionStages.await(CompletionStages.withTimeout(CompletionStages.allOf(stops), asyncTimeoutMillis,
+					"Rollback of capsule scope"));
+		} catch (final RuntimeException e) {
+			cause.addSuppressed(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(capsules=" + capsules + ")";
+	}
+
+}
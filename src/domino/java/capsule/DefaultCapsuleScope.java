@@ -1,5 +1,7 @@
 package domino.java.capsule;
 
+import java.util.concurrent.CompletionStage;
+
 /**
  * A capsule scope implementation based on a {@link Iterable}.
  *
@@ -22,8 +24,15 @@ public class DefaultCapsuleScope implements CapsuleScope {
 	 */
 	@Override
 	public void stop() {
-		for (final Capsule capsule : capsules) {
-			capsule.stop();
-		}
+		CompletionStages.await(stopAsync());
+	}
+
+	/**
+	 * Stops all containing capsules in order. {@link AsyncCapsule}s are
+	 * stopped concurrently.
+	 */
+	@Override
+	public CompletionStage<Void> stopAsync() {
+		return CompletionStages.stopAll(capsules);
 	}
 }
\ No newline at end of file
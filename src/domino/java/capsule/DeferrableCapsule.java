@@ -0,0 +1,18 @@
+package domino.java.capsule;
+
+/**
+ * A capsule whose start may be deferred until the capsule scope it was added
+ * to is completely set up.
+ * <p>
+ * In a transactional {@link DynamicCapsuleContext}, deferrable capsules added
+ * while executing {@link CapsuleContext#executeWithinNewCapsuleScope(Runnable)}
+ * are only started after the function completed successfully, in descending
+ * order of their {@link #startPriority()}. If the function fails, they are
+ * never started.
+ */
+public interface DeferrableCapsule extends Capsule {
+	/**
+	 * The start priority. Capsules with a higher priority are started first.
+	 */
+	int startPriority();
+}
@@ -1,42 +1,216 @@
 package domino.java.capsule;
 
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 import de.tototec.utils.functional.Optional;
 
 /**
  * A {@link CapsuleContext} implementation based on {@link DynamicVariable} and
- * {@link DefaultCapsuleScope}.
+ * {@link ConcurrentCapsuleScope}. Capsules can be added to the current scope
+ * from multiple threads.
+ * <p>
+ * If {@link #setTransactionalScopes(boolean) transactional scopes} are
+ * enabled, the start of all {@link DeferrableCapsule}s added to a new scope is
+ * deferred until the function creating the scope completed successfully.
+ * Then they are started in one burst, ordered by their
+ * {@link DeferrableCapsule#startPriority()}. If the function fails, deferred
+ * capsules are never started and all capsules already started in the new
+ * scope are stopped again.
+ * <p>
+ * {@link AsyncCapsule}s added to a scope are started concurrently. The scope
+ * is complete when all of them started. If one of them fails or does not
+ * start within the {@link #setAsyncCapsuleTimeout(long) timeout}, all
+ * capsules of the scope are stopped again.
  */
 public class DynamicCapsuleContext implements CapsuleContext {
+
+	/**
+	 * The state of a scope under construction.
+	 */
+	private static class ScopeState {
+		final ConcurrentCapsuleScope capsules;
+		/**
+		 * Capsules to start when the scope is complete, or `null` if the scope
+		 * is not transactional.
+		 */
+		final ConcurrentAppendList<DeferrableCapsule> deferred;
+		/**
+		 * The start stages of the asynchronous capsules.
+		 */
+		final ConcurrentAppendList<CompletionStage<Void>> asyncStarts = new ConcurrentAppendList<>();
+
+		ScopeState(final boolean transactional, final long asyncTimeoutMillis) {
+			this.capsules = new ConcurrentCapsuleScope(asyncTimeoutMillis);
+			this.deferred = transactional ? new ConcurrentAppendList<DeferrableCapsule>() : null;
+		}
+	}
+
 	/**
-	 * A Set representing the current scope.
+	 * The state of the current scope.
 	 */
-	private DynamicVariable<Optional<LinkedHashSet<Capsule>>> dynamicCapsuleSet = new DynamicVariable<Optional<LinkedHashSet<Capsule>>>(
+	private DynamicVariable<Optional<ScopeState>> dynamicScopeState = new DynamicVariable<Optional<ScopeState>>(
 			Optional.none());
 
+	private volatile boolean transactionalScopes = false;
+
+	private volatile long asyncCapsuleTimeoutMillis = 0;
+
+	/**
+	 * Enables or disables transactional scopes for all scopes created
+	 * afterwards.
+	 */
+	public void setTransactionalScopes(final boolean transactionalScopes) {
+		this.transactionalScopes = transactionalScopes;
+	}
+
+	public boolean isTransactionalScopes() {
+		return transactionalScopes;
+	}
+
+	/**
+	 * Limits the time the {@link AsyncCapsule}s of a scope created afterwards
+	 * may take to start or to stop. Use `0` (the default) for no limit.
+	 */
+	public void setAsyncCapsuleTimeout(final long timeoutMillis) {
+		if (timeoutMillis < 0) {
+			throw new IllegalArgumentException("timeoutMillis must not be negative");
+		}
+		this.asyncCapsuleTimeoutMillis = timeoutMillis;
+	}
+
+	public long asyncCapsuleTimeout() {
+		return asyncCapsuleTimeoutMillis;
+	}
+
+	/**
+	 * Returns the current capsule scope, or `none` if called outside of any
+	 * scope.
+	 */
+	protected Optional<CapsuleScope> currentScope() {
+		return dynamicScopeState.value().map(s -> (CapsuleScope) s.capsules);
+	}
+
 	//
 	@Override
 	public void addCapsule(final Capsule capsule) {
+		final Optional<ScopeState> scope = dynamicScopeState.value();
+		if (capsule instanceof DeferrableCapsule && scope.isDefined() && scope.get().deferred != null
+				// Start later, when the scope is complete, unless it is already complete
+				&& scope.get().deferred.append((DeferrableCapsule) capsule) != null) {
+			return;
+		}
+
+		if (capsule instanceof AsyncCapsule && scope.isDefined()) {
+			// Start without waiting, the scope waits for all starts
+			final CompletionStage<Void> start = ((AsyncCapsule) capsule).startAsync();
+			if (scope.get().asyncStarts.append(start) == null) {
+				// The scope is already complete
+				CompletionStages.await(start);
+			}
+			scope.get().capsules.add(capsule);
+			return;
+		}
+
 		// Start the capsule immediately
 		capsule.start();
 
-		// Add capsule to the current set if there is one
-		dynamicCapsuleSet.value().foreach(p -> p.add(capsule));
+		// Add capsule to the current scope if there is one
+		scope.foreach(s -> s.capsules.add(capsule));
+	}
+
+	/**
+	 * Starts the given capsule immediately and adds it to the current scope.
+	 * Unlike {@link #addCapsule(Capsule)}, the start is never deferred. The
+	 * returned entry removes the capsule from the scope again, so a capsule
+	 * stopped before its scope (e.g. a binding released by its owner) does not
+	 * stay in a long living scope.
+	 *
+	 * @return The entry of the capsule in the current scope, or `null` if
+	 *         there is no current scope or it is already stopped.
+	 */
+	protected ConcurrentAppendList.Entry<Capsule> addRemovableCapsule(final Capsule capsule) {
+		capsule.start();
+		final Optional<ScopeState> scope = dynamicScopeState.value();
+		return scope.isDefined() ? scope.get().capsules.add(capsule) : null;
 	}
 
 	@Override
 	public CapsuleScope executeWithinNewCapsuleScope(final Runnable f) {
-		// Create the new set of capsules
-		final LinkedHashSet<Capsule> newCapsuleSet = new LinkedHashSet<Capsule>();
+		return CompletionStages.await(executeWithinNewCapsuleScopeAsync(f));
+	}
 
-		// // Execute the function in the new set
-		dynamicCapsuleSet.withValue(Optional.some(newCapsuleSet), () -> {
-			f.run();
-			return null;
+	/**
+	 * Creates a new capsule scope on top of the active one and executes the
+	 * given function in it, like {@link #executeWithinNewCapsuleScope(Runnable)}.
+	 * But instead of waiting for all {@link AsyncCapsule}s of the new scope to
+	 * start, it returns right after the function returned.
+	 *
+	 * @param f
+	 *            The function which might add capsules to the new scope.
+	 * @return A stage completing with the new scope, when all its capsules
+	 *         are started.
+	 */
+	public CompletionStage<CapsuleScope> executeWithinNewCapsuleScopeAsync(final Runnable f) {
+		// Create the new scope
+		final ScopeState newScope = new ScopeState(transactionalScopes, asyncCapsuleTimeoutMillis);
+
+		// Execute the function in the new scope
+		try {
+			dynamicScopeState.withValue(Optional.some(newScope), () -> {
+				f.run();
+				return null;
+			});
+		} catch (final RuntimeException | Error e) {
+			if (newScope.deferred != null) {
+				rollback(newScope, e);
+			}
+			throw e;
+		}
+
+		final List<CompletionStage<Void>> asyncStarts = newScope.asyncStarts.close();
+		final CompletableFuture<Void> started = asyncStarts.isEmpty() ? CompletionStages.done()
+				: CompletionStages.withTimeout(CompletionStages.allOf(asyncStarts), asyncCapsuleTimeoutMillis,
+						"Start of capsule scope");
+
+		return started.handle((v, e) -> {
+			if (e != null) {
+				final Throwable cause = CompletionStages.unwrap(e);
+				rollback(newScope, cause);
+				throw new CompletionException(cause);
+			}
+			if (newScope.deferred != null) {
+				commit(newScope);
+			}
+			return newScope.capsules;
 		});
+	}
+
+	private void commit(final ScopeState scope) {
+		final List<DeferrableCapsule> deferred = scope.deferred.close();
+		// stable sort, so capsules of same priority start in the order they were added
+		Collections.sort(deferred, (a, b) -> Integer.compare(b.startPriority(), a.startPriority()));
+		try {
+			for (final DeferrableCapsule capsule : deferred) {
+				capsule.start();
+				scope.capsules.add(capsule);
+			}
+		} catch (final RuntimeException | Error e) {
+			rollback(scope, e);
+			throw e;
+		}
+	}
 
-		// Returns the set wrapped in the scope interface
-		return new DefaultCapsuleScope(newCapsuleSet);
+	/**
+	 * Stops all already started capsules of the scope in reverse order.
+	 */
+	private void rollback(final ScopeState scope, final Throwable cause) {
+		if (scope.deferred != null) {
+			scope.deferred.close();
+		}
+		scope.capsules.rollback(cause);
 	}
-}
\ No newline at end of file
+}
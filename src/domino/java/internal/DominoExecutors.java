@@ -0,0 +1,246 @@
+package domino.java.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared, lazily created executors used internally by Domino.
+ * <p>
+ * All threads created here are daemon threads, so they never prevent the JVM
+ * from shutting down. They have no context class loader and do not inherit
+ * the inheritable thread locals (e.g. the current capsule scope) of the
+ * thread which happened to create them, so they never pin a bundle class
+ * loader or run tasks within a foreign scope.
+ * <p>
+ * Each started {@link domino.java.OsgiContext} holds a reference to the
+ * executors (see {@link #acquire()}). When the last reference is released,
+ * the executors are shut down and created again on the next use. As all of
+ * them let their idle threads time out, executors created again without a
+ * reference retain no thread once their tasks ran. Tasks submitted to them
+ * must not hold on to bundle resources after the bundle stopped.
+ */
+public final class DominoExecutors {
+
+	private static volatile ScheduledExecutorService scheduler;
+	private static volatile ExecutorService dispatcher;
+	private static volatile ExecutorService background;
+
+	/**
+	 * The number of references to the executors. Guarded by the class.
+	 */
+	private static int references = 0;
+
+	/**
+	 * The `Thread(ThreadGroup, Runnable, String, long, boolean)` constructor
+	 * of Java 9+, or `null`.
+	 */
+	private static final MethodHandle threadWithoutInheritance = findThreadWithoutInheritance();
+
+	/**
+	 * The `inheritableThreadLocals` field of a thread on Java 8, or `null`.
+	 */
+	private static final Field inheritableThreadLocals = findInheritableThreadLocals();
+
+	private DominoExecutors() {
+	}
+
+	private static MethodHandle findThreadWithoutInheritance() {
+		try {
+			return MethodHandles.publicLookup().findConstructor(Thread.class, MethodType.methodType(void.class,
+					ThreadGroup.class, Runnable.class, String.class, long.class, boolean.class));
+		} catch (final NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	private static Field findInheritableThreadLocals() {
+		if (threadWithoutInheritance != null) {
+			return null;
+		}
+		try {
+			final Field field = Thread.class.getDeclaredField("inheritableThreadLocals");
+			field.setAccessible(true);
+			return field;
+		} catch (final RuntimeException | NoSuchFieldException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a thread which does not inherit the inheritable thread locals of
+	 * the current thread and has no context class loader.
+	 */
+	static Thread newCleanThread(final Runnable runnable, final String name) {
+		Thread thread = null;
+		if (threadWithoutInheritance != null) {
+			try {
+				thread = (Thread) threadWithoutInheritance.invoke((ThreadGroup) null, runnable, name, 0L, false);
+			} catch (final Throwable e) {
+				// Fall back to a regular thread
+			}
+		}
+		if (thread == null) {
+			thread = new Thread(runnable, name);
+			if (inheritableThreadLocals != null) {
+				try {
+					inheritableThreadLocals.set(thread, null);
+				} catch (final IllegalAccessException e) {
+					// Keep the inherited values
+				}
+			}
+		}
+		thread.setContextClassLoader(null);
+		return thread;
+	}
+
+	/**
+	 * Adds a reference to the shared executors.
+	 */
+	public static synchronized void acquire() {
+		references++;
+	}
+
+	static synchronized int references() {
+		return references;
+	}
+
+	/**
+	 * Releases a reference to the shared executors. When the last reference
+	 * is released, the executors are shut down. Already submitted tasks still
+	 * run.
+	 */
+	public static synchronized void release() {
+		if (references == 0) {
+			return;
+		}
+		references--;
+		if (references == 0) {
+			if (scheduler != null) {
+				scheduler.shutdown();
+				scheduler = null;
+			}
+			if (dispatcher != null) {
+				dispatcher.shutdown();
+				dispatcher = null;
+			}
+			if (background != null) {
+				background.shutdown();
+				background = null;
+			}
+		}
+	}
+
+	/**
+	 * Creates a thread factory producing daemon threads with the given name
+	 * prefix. The threads have no context class loader and do not inherit any
+	 * inheritable thread locals.
+	 *
+	 * @param prefix
+	 *            The prefix of the thread name.
+	 * @return The thread factory.
+	 */
+	public static ThreadFactory daemonThreadFactory(final String prefix) {
+		return daemonThreadFactory(prefix, Thread.NORM_PRIORITY);
+	}
+
+	/**
+	 * Creates a thread factory producing daemon threads with the given name
+	 * prefix and thread priority.
+	 *
+	 * @param prefix
+	 *            The prefix of the thread name.
+	 * @param priority
+	 *            The thread priority.
+	 * @return The thread factory.
+	 */
+	public static ThreadFactory daemonThreadFactory(final String prefix, final int priority) {
+		final AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			final Thread thread = newCleanThread(runnable, prefix + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(priority);
+			return thread;
+		};
+	}
+
+	/**
+	 * The shared single-threaded scheduler, used for timeouts and other
+	 * short-running timed tasks.
+	 */
+	public static ScheduledExecutorService scheduler() {
+		ScheduledExecutorService s = scheduler;
+		if (s == null) {
+			synchronized (DominoExecutors.class) {
+				s = scheduler;
+				if (s == null) {
+					final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+							daemonThreadFactory("domino-scheduler"));
+					executor.setRemoveOnCancelPolicy(true);
+					// Never keep an idle thread, e.g. if created again after the
+					// last reference was released
+					executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+					executor.allowCoreThreadTimeOut(true);
+					scheduler = s = executor;
+				}
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * The shared cached thread pool, used to dispatch work away from framework
+	 * threads.
+	 */
+	public static ExecutorService dispatcher() {
+		ExecutorService d = dispatcher;
+		if (d == null) {
+			synchronized (DominoExecutors.class) {
+				d = dispatcher;
+				if (d == null) {
+					final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+							0, Integer.MAX_VALUE,
+							60, TimeUnit.SECONDS,
+							new SynchronousQueue<Runnable>(),
+							daemonThreadFactory("domino-dispatcher"));
+					dispatcher = d = executor;
+				}
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * The shared single-threaded executor with minimal thread priority, used
+	 * for deferred background work.
+	 */
+	public static ExecutorService background() {
+		ExecutorService b = background;
+		if (b == null) {
+			synchronized (DominoExecutors.class) {
+				b = background;
+				if (b == null) {
+					final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+							1, 1,
+							60, TimeUnit.SECONDS,
+							new LinkedBlockingQueue<Runnable>(),
+							daemonThreadFactory("domino-background", Thread.MIN_PRIORITY));
+					executor.allowCoreThreadTimeOut(true);
+					background = b = executor;
+				}
+			}
+		}
+		return b;
+	}
+
+}
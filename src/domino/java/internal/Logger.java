@@ -1,10 +1,15 @@
 package domino.java.internal;
 
+import de.tototec.utils.functional.F0;
+
 /**
  * A lightweight wrapper around a logging API, if available.
  * <p>
- * We only support methods with Java varargs and expect, that logging calls are
- * not time-critical.
+ * Besides the methods with Java varargs, there are overloads with up to three
+ * arguments. These check the log level before any argument array is created,
+ * so a call with a disabled level does not allocate. Expensive arguments can
+ * be wrapped with {@link #lazy(F0)}, so that they are only computed when the
+ * message is actually logged.
  * <p>
  * All log messages support SLF4j-style placeholders for arguments.
  * (See also: http://www.slf4j.org/manual.html)
@@ -18,6 +23,20 @@ package domino.java.internal;
  */
 public interface Logger {
 
+	/**
+	 * Wraps an expensive log argument, e.g. the name of a bundle, which is only
+	 * computed when the log message is formatted. The wrapper itself is still
+	 * created, so hot paths should check the level instead.
+	 */
+	static Object lazy(final F0<?> argument) {
+		return new Object() {
+			@Override
+			public String toString() {
+				return String.valueOf(argument.apply());
+			}
+		};
+	}
+
 	boolean isErrorEnabled();
 
 	boolean isWarnEnabled();
@@ -30,12 +49,132 @@ public interface Logger {
 
 	void error(String msg, Object... args);
 
+	default void error(final String msg) {
+		if (isErrorEnabled()) {
+			error(msg, new Object[0]);
+		}
+	}
+
+	default void error(final String msg, final Object arg) {
+		if (isErrorEnabled()) {
+			error(msg, new Object[] { arg });
+		}
+	}
+
+	default void error(final String msg, final Object arg1, final Object arg2) {
+		if (isErrorEnabled()) {
+			error(msg, new Object[] { arg1, arg2 });
+		}
+	}
+
+	default void error(final String msg, final Object arg1, final Object arg2, final Object arg3) {
+		if (isErrorEnabled()) {
+			error(msg, new Object[] { arg1, arg2, arg3 });
+		}
+	}
+
 	void warn(String msg, Object... args);
 
+	default void warn(final String msg) {
+		if (isWarnEnabled()) {
+			warn(msg, new Object[0]);
+		}
+	}
+
+	default void warn(final String msg, final Object arg) {
+		if (isWarnEnabled()) {
+			warn(msg, new Object[] { arg });
+		}
+	}
+
+	default void warn(final String msg, final Object arg1, final Object arg2) {
+		if (isWarnEnabled()) {
+			warn(msg, new Object[] { arg1, arg2 });
+		}
+	}
+
+	default void warn(final String msg, final Object arg1, final Object arg2, final Object arg3) {
+		if (isWarnEnabled()) {
+			warn(msg, new Object[] { arg1, arg2, arg3 });
+		}
+	}
+
 	void info(String msg, Object... args);
 
+	default void info(final String msg) {
+		if (isInfoEnabled()) {
+			info(msg, new Object[0]);
+		}
+	}
+
+	default void info(final String msg, final Object arg) {
+		if (isInfoEnabled()) {
+			info(msg, new Object[] { arg });
+		}
+	}
+
+	default void info(final String msg, final Object arg1, final Object arg2) {
+		if (isInfoEnabled()) {
+			info(msg, new Object[] { arg1, arg2 });
+		}
+	}
+
+	default void info(final String msg, final Object arg1, final Object arg2, final Object arg3) {
+		if (isInfoEnabled()) {
+			info(msg, new Object[] { arg1, arg2, arg3 });
+		}
+	}
+
 	void debug(String msg, Object... args);
 
+	default void debug(final String msg) {
+		if (isDebugEnabled()) {
+			debug(msg, new Object[0]);
+		}
+	}
+
+	default void debug(final String msg, final Object arg) {
+		if (isDebugEnabled()) {
+			debug(msg, new Object[] { arg });
+		}
+	}
+
+	default void debug(final String msg, final Object arg1, final Object arg2) {
+		if (isDebugEnabled()) {
+			debug(msg, new Object[] { arg1, arg2 });
+		}
+	}
+
+	default void debug(final String msg, final Object arg1, final Object arg2, final Object arg3) {
+		if (isDebugEnabled()) {
+			debug(msg, new Object[] { arg1, arg2, arg3 });
+		}
+	}
+
 	void trace(String msg, Object... args);
 
+	default void trace(final String msg) {
+		if (isTraceEnabled()) {
+			trace(msg, new Object[0]);
+		}
+	}
+
+	default void trace(final String msg, final Object arg) {
+		if (isTraceEnabled()) {
+			trace(msg, new Object[] { arg });
+		}
+	}
+
+	default void trace(final String msg, final Object arg1, final Object arg2) {
+		if (isTraceEnabled()) {
+			trace(msg, new Object[] { arg1, arg2 });
+		}
+	}
+
+	default void trace(final String msg, final Object arg1, final Object arg2, final Object arg3) {
+		if (isTraceEnabled()) {
+			trace(msg, new Object[] { arg1, arg2, arg3 });
+		}
+	}
+
 }
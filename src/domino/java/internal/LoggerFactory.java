@@ -7,6 +7,9 @@ package domino.java.internal;
  * on the classpath. Else, it will fall back to use Java Util Logging.
  * 
  * The enhanced placeholder syntax of SLF4J is always supported.
+ * 
+ * Loggers are created once per class and cached, so it is cheap to hold a
+ * logger in an instance field.
  *
  */
 public class LoggerFactory {
@@ -45,22 +48,97 @@ public class LoggerFactory {
 			underlying.error(msg, args);
 		}
 
+		@Override
+		public void error(final String msg) {
+			underlying.error(msg);
+		}
+
+		@Override
+		public void error(final String msg, final Object arg) {
+			underlying.error(msg, arg);
+		}
+
+		@Override
+		public void error(final String msg, final Object arg1, final Object arg2) {
+			underlying.error(msg, arg1, arg2);
+		}
+
 		public void warn(final String msg, final Object... args) {
 			underlying.warn(msg, args);
 		}
 
+		@Override
+		public void warn(final String msg) {
+			underlying.warn(msg);
+		}
+
+		@Override
+		public void warn(final String msg, final Object arg) {
+			underlying.warn(msg, arg);
+		}
+
+		@Override
+		public void warn(final String msg, final Object arg1, final Object arg2) {
+			underlying.warn(msg, arg1, arg2);
+		}
+
 		public void info(final String msg, final Object... args) {
 			underlying.info(msg, args);
 		}
 
+		@Override
+		public void info(final String msg) {
+			underlying.info(msg);
+		}
+
+		@Override
+		public void info(final String msg, final Object arg) {
+			underlying.info(msg, arg);
+		}
+
+		@Override
+		public void info(final String msg, final Object arg1, final Object arg2) {
+			underlying.info(msg, arg1, arg2);
+		}
+
 		public void debug(final String msg, final Object... args) {
 			underlying.debug(msg, args);
 		}
 
+		@Override
+		public void debug(final String msg) {
+			underlying.debug(msg);
+		}
+
+		@Override
+		public void debug(final String msg, final Object arg) {
+			underlying.debug(msg, arg);
+		}
+
+		@Override
+		public void debug(final String msg, final Object arg1, final Object arg2) {
+			underlying.debug(msg, arg1, arg2);
+		}
+
 		public void trace(final String msg, final Object... args) {
 			underlying.trace(msg, args);
 		}
 
+		@Override
+		public void trace(final String msg) {
+			underlying.trace(msg);
+		}
+
+		@Override
+		public void trace(final String msg, final Object arg) {
+			underlying.trace(msg, arg);
+		}
+
+		@Override
+		public void trace(final String msg, final Object arg1, final Object arg2) {
+			underlying.trace(msg, arg1, arg2);
+		}
+
 		@Override
 		public String toString() {
 			return getClass().getSimpleName() + "(" + underlying + ")";
@@ -69,75 +147,47 @@ public class LoggerFactory {
 
 	/**
 	 * All log messages will be pre-processed before given to the JUL logger to
-	 * support SLF4J-style placeholders and arguments semantics.
+	 * support SLF4J-style placeholders and arguments semantics. The parsed
+	 * messages are cached, see {@link MessageTemplate}.
+	 * <p>
+	 * To move the (possibly slow) JUL handlers off the logging threads, install
+	 * an {@link domino.java.AsyncLogHandler}.
 	 */
 	public static class JavaUtilLogger implements Logger {
 		private final java.util.logging.Logger underlying;
+		private final String sourceClassName;
 
 		public JavaUtilLogger(final Class<?> clazz) {
 			underlying = java.util.logging.Logger.getLogger(clazz.getName());
+			sourceClassName = clazz.getName();
 		}
 
 		protected Object[] formattedMsgAndCause(final String msg, final Object... args) {
-			final String formattedMsg;
-			final Throwable thrown;
-			if (args != null && args.length > 0) {
-				final int l;
-				if (args[args.length - 1] instanceof Throwable) {
-					l = args.length - 1;
-					thrown = (Throwable) args[args.length - 1];
-				} else {
-					l = args.length;
-					thrown = null;
-				}
-				if (l > 0) {
-					final StringBuilder strBuilder = new StringBuilder();
-
-					boolean braceOpen = false;
-					int argNr = 0;
-					for (int i = 0; i < msg.length(); ++i) {
-						final char charAt = msg.charAt(i);
-						if (argNr < l) {
-							if (braceOpen) {
-								braceOpen = false;
-								if (charAt == '}') {
-									// instead, insert next arg
-									strBuilder.append(args[argNr]);
-									++argNr;
-									continue;
-								} else {
-									strBuilder.append("{");
-								}
-							} else if (charAt == '{') {
-								braceOpen = true;
-								continue;
-							}
-						}
-						strBuilder.append(charAt);
-					}
-					if (braceOpen) {
-						strBuilder.append("{");
-					}
-
-					formattedMsg = strBuilder.toString();
-				} else {
-					formattedMsg = msg;
-				}
-			} else {
-				formattedMsg = msg;
-				thrown = null;
+			final Throwable thrown = cause(args);
+			return new Object[] { format(msg, args, thrown), thrown };
+		}
+
+		private static Throwable cause(final Object[] args) {
+			if (args != null && args.length > 0 && args[args.length - 1] instanceof Throwable) {
+				return (Throwable) args[args.length - 1];
+			}
+			return null;
+		}
+
+		private static String format(final String msg, final Object[] args, final Throwable thrown) {
+			if (msg == null || args == null) {
+				return msg;
 			}
-			return new Object[] { formattedMsg, thrown };
+			final int l = thrown != null ? args.length - 1 : args.length;
+			return l > 0 ? MessageTemplate.of(msg).format(args, l) : msg;
 		}
 
 		private void log(final java.util.logging.Level level, final String msg, final Object... args) {
 			if (underlying.isLoggable(level)) {
-				final Object[] formattedMsgAndCause = formattedMsgAndCause(msg, args);
-				final String formattedMsg = (String) formattedMsgAndCause[0];
-				final Throwable thrown = (Throwable) formattedMsgAndCause[1];
-				underlying.log(level, formattedMsg, thrown);
+				final Throwable thrown = cause(args);
+				// Give the source class, so the record does not need to walk the stack
+				underlying.logp(level, sourceClassName, null, format(msg, args, thrown), thrown);
 			}
-
 		}
 
 		public boolean isErrorEnabled() {
@@ -231,7 +281,25 @@ public class LoggerFactory {
 
 	private static transient volatile boolean slf4ClassTestedButUnavailable = false;
 
+	/**
+	 * The loggers by class. A {@link ClassValue} does not prevent the class
+	 * (and its class loader) from being garbage collected.
+	 */
+	private static final ClassValue<Logger> loggers = new ClassValue<Logger>() {
+		@Override
+		protected Logger computeValue(final Class<?> clazz) {
+			return createLogger(clazz);
+		}
+	};
+
+	/**
+	 * Returns the logger for the given class, which is created on first use.
+	 */
 	public static Logger getLogger(final Class<?> clazz) {
+		return loggers.get(clazz);
+	}
+
+	private static Logger createLogger(final Class<?> clazz) {
 		// synchronization would be too costly.
 		// There is no problem in trying multiple times before giving up.
 		if (!slf4ClassTestedButUnavailable) {
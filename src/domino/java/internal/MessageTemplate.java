@@ -0,0 +1,102 @@
+package domino.java.internal;
+
+import java.util.Arrays;
+
+/**
+ * A parsed log message with SLF4J-style placeholders. Holds the offsets of all
+ * `{}` placeholders, so formatting does not need to scan the message again.
+ * <p>
+ * The templates are cached by the identity of the message string. Log
+ * messages are usually string constants, so the cache is hit on every call
+ * after the first one. The cache is a small direct-mapped table without
+ * locking: a colliding message replaces the previous one.
+ *
+ * @param msg
+ *            The message
+ * @param placeholders
+ *            The offsets of all placeholders
+ */
+final class MessageTemplate {
+
+	private static final int CACHE_SIZE = 512;
+
+	private static final MessageTemplate[] cache = new MessageTemplate[CACHE_SIZE];
+
+	private static final int[] NONE = new int[0];
+
+	private final String msg;
+	private final int[] placeholders;
+
+	private MessageTemplate(final String msg, final int[] placeholders) {
+		this.msg = msg;
+		this.placeholders = placeholders;
+	}
+
+	/**
+	 * Returns the (cached) template of the given message.
+	 */
+	static MessageTemplate of(final String msg) {
+		final int index = System.identityHashCode(msg) & (CACHE_SIZE - 1);
+		final MessageTemplate cached = cache[index];
+		if (cached != null && cached.msg == msg) {
+			return cached;
+		}
+		final MessageTemplate template = parse(msg);
+		cache[index] = template;
+		return template;
+	}
+
+	/**
+	 * Finds all placeholders. A `{` not followed by a `}` is kept together with
+	 * the next character, so `{{}` contains no placeholder.
+	 */
+	static MessageTemplate parse(final String msg) {
+		int[] placeholders = NONE;
+		int count = 0;
+		int i = 0;
+		final int length = msg.length();
+		while (i < length) {
+			if (msg.charAt(i) == '{') {
+				if (i + 1 < length && msg.charAt(i + 1) == '}') {
+					if (count == placeholders.length) {
+						placeholders = Arrays.copyOf(placeholders, Math.max(4, count * 2));
+					}
+					placeholders[count++] = i;
+				}
+				i += 2;
+			} else {
+				i++;
+			}
+		}
+		return new MessageTemplate(msg, count == placeholders.length ? placeholders
+				: Arrays.copyOf(placeholders, count));
+	}
+
+	int placeholderCount() {
+		return placeholders.length;
+	}
+
+	/**
+	 * Replaces the first `argCount` placeholders by the given arguments.
+	 * Placeholders without argument are kept as is.
+	 */
+	String format(final Object[] args, final int argCount) {
+		final int replaced = Math.min(argCount, placeholders.length);
+		if (replaced == 0) {
+			return msg;
+		}
+		final StringBuilder builder = new StringBuilder(msg.length() + 16 * replaced);
+		int start = 0;
+		for (int i = 0; i < replaced; ++i) {
+			builder.append(msg, start, placeholders[i]).append(args[i]);
+			start = placeholders[i] + 2;
+		}
+		return builder.append(msg, start, msg.length()).toString();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(msg=" + msg + ",placeholders=" + placeholders.length + ")";
+	}
+
+}
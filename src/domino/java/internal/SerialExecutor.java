@@ -0,0 +1,140 @@
+package domino.java.internal;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An executor which runs the submitted tasks one after another in submission
+ * order on an underlying executor.
+ * <p>
+ * Use {@link #drain()} to run the pending tasks on the calling thread, e.g.
+ * when their owner stops and can not wait for the underlying executor.
+ */
+public class SerialExecutor implements Executor {
+
+	private final Logger log = LoggerFactory.getLogger(SerialExecutor.class);
+
+	// All fields below are guarded by this
+	private final Queue<Runnable> tasks = new ArrayDeque<>();
+	private final Executor underlying;
+	/**
+	 * `true` while a worker is submitted to the underlying executor.
+	 */
+	private boolean scheduled = false;
+	/**
+	 * The thread currently running a task, if any.
+	 */
+	private Thread running;
+
+	public SerialExecutor(final Executor underlying) {
+		this.underlying = underlying;
+	}
+
+	@Override
+	public synchronized void execute(final Runnable task) {
+		tasks.add(task);
+		if (!scheduled && running == null) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Returns the number of tasks waiting for execution.
+	 */
+	public synchronized int pending() {
+		return tasks.size();
+	}
+
+	/**
+	 * Runs all pending tasks on the calling thread. A task already running on
+	 * another thread is awaited first. Returns when no task is pending or
+	 * running anymore.
+	 * <p>
+	 * If called from within a task of this executor, the pending tasks run
+	 * nested within that task.
+	 */
+	public void drain() {
+		final Thread current = Thread.currentThread();
+		while (true) {
+			final Runnable task;
+			final Thread previous;
+			synchronized (this) {
+				while (running != null && running != current) {
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				task = tasks.poll();
+				if (task == null) {
+					return;
+				}
+				previous = running;
+				running = current;
+			}
+			try {
+				runTask(task);
+			} finally {
+				synchronized (this) {
+					running = previous;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private void schedule() {
+		scheduled = true;
+		try {
+			underlying.execute(this::work);
+		} catch (final RejectedExecutionException e) {
+			// The tasks stay pending until drained
+			scheduled = false;
+			log.warn("Could not schedule task on executor {}", underlying, e);
+		}
+	}
+
+	/**
+	 * Runs the next task on the underlying executor and schedules itself
+	 * again, if more tasks are pending.
+	 */
+	private void work() {
+		final Runnable task;
+		synchronized (this) {
+			scheduled = false;
+			if (running != null) {
+				// The tasks are drained by another thread
+				return;
+			}
+			task = tasks.poll();
+			if (task == null) {
+				return;
+			}
+			running = Thread.currentThread();
+		}
+		try {
+			runTask(task);
+		} finally {
+			synchronized (this) {
+				running = null;
+				notifyAll();
+				if (!tasks.isEmpty()) {
+					schedule();
+				}
+			}
+		}
+	}
+
+	private void runTask(final Runnable task) {
+		try {
+			task.run();
+		} catch (final Throwable e) {
+			log.error("Exception thrown while executing task {}", task, e);
+		}
+	}
+
+}
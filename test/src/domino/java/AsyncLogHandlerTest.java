@@ -0,0 +1,106 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+
+public class AsyncLogHandlerTest extends FreeSpec {
+
+	private static class BlockingHandler extends Handler {
+		final List<String> published = new CopyOnWriteArrayList<>();
+		final List<String> sourceClasses = new CopyOnWriteArrayList<>();
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Thread caller = Thread.currentThread();
+
+		@Override
+		public void publish(final LogRecord record) {
+			published.add(record.getMessage() + "@" + (Thread.currentThread() == caller ? "caller" : "async"));
+			sourceClasses.add(String.valueOf(record.getSourceClassName()));
+			if (record.getMessage().equals("block")) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	public AsyncLogHandlerTest() {
+
+		section("AsyncLogHandler", () -> {
+
+			for (final AsyncLogHandler.DropPolicy policy : AsyncLogHandler.DropPolicy.values()) {
+				test("publish on its own thread and drop with policy " + policy, () -> {
+					final Logger logger = Logger.getLogger(AsyncLogHandlerTest.class.getName() + "." + policy);
+					logger.setUseParentHandlers(false);
+					final BlockingHandler delegate = new BlockingHandler();
+					logger.addHandler(delegate);
+					final AsyncLogHandler async = AsyncLogHandler.install(logger, 2, policy);
+					try {
+						expectEquals(logger.getHandlers().length, 1);
+
+						logger.log(Level.INFO, "block");
+						delegate.blocked.await();
+						logger.log(Level.INFO, "1");
+						logger.log(Level.INFO, "2");
+						logger.log(Level.INFO, "3");
+						expectEquals(async.queueDepth(), 2);
+						expectEquals(async.dropped(), 1L);
+
+						delegate.release.countDown();
+						async.flush();
+						expectEquals(delegate.published.toString(),
+								policy == AsyncLogHandler.DropPolicy.DROP_NEWEST ? "[block@async, 1@async, 2@async]"
+										: "[block@async, 2@async, 3@async]");
+					} finally {
+						delegate.release.countDown();
+						async.close();
+						logger.removeHandler(async);
+					}
+					logger.log(Level.INFO, "after close");
+					expectTrue(delegate.published.size() == 3);
+				});
+			}
+
+			test("infer the source class on the logging thread", () -> {
+				final Logger logger = Logger.getLogger(AsyncLogHandlerTest.class.getName() + ".source");
+				logger.setUseParentHandlers(false);
+				final BlockingHandler delegate = new BlockingHandler();
+				logger.addHandler(delegate);
+				final AsyncLogHandler async = AsyncLogHandler.install(logger, 10, AsyncLogHandler.DropPolicy.DROP_NEWEST);
+				try {
+					logger.info("message");
+					async.flush();
+					expectEquals(delegate.published.toString(), "[message@async]");
+					expectTrue(delegate.sourceClasses.get(0).startsWith(AsyncLogHandlerTest.class.getName()));
+				} finally {
+					async.close();
+					logger.removeHandler(async);
+				}
+			});
+
+		});
+
+	}
+
+}
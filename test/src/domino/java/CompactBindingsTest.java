@@ -0,0 +1,171 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectFalse;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.util.tracker.ServiceTracker;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class CompactBindingsTest extends FreeSpec {
+
+	public interface MyService {
+		String name();
+	}
+
+	private static MyService service(final String name) {
+		return () -> name;
+	}
+
+	public CompactBindingsTest() {
+
+		section("Compact bindings", () -> {
+
+			test("share one tracker and behave like regular bindings", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> seen = new ArrayList<>();
+					final List<ServiceTracker<MyService, MyService>> trackers = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.setCompactBindings(true);
+					context.whenBundleActive(bc -> {
+						for (int i = 0; i < 3; ++i) {
+							final int n = i;
+							trackers.add(context.whenServicePresent(MyService.class, s -> {
+								seen.add(n + "+" + s.name());
+								context.onStop(() -> seen.add(n + "-" + s.name()));
+							}));
+						}
+					});
+					context.start(sr.getBundleContext());
+
+					// one handle per binding
+					expectTrue(trackers.get(0) != trackers.get(1));
+					expectEquals(context.dependencyStatus().bindings().size(), 1);
+					expectFalse(context.dependencyStatus().isSatisfied());
+
+					final ServiceRegistration<MyService> regA = sr.getBundleContext().registerService(MyService.class,
+							service("a"), null);
+					expectEquals(seen.toString(), "[0+a, 1+a, 2+a]");
+					expectTrue(context.dependencyStatus().isSatisfied());
+					expectTrue(trackers.get(0).getService() == trackers.get(2).getService());
+
+					// bindings stay with their service
+					final ServiceRegistration<MyService> regB = sr.getBundleContext().registerService(MyService.class,
+							service("b"), null);
+					expectEquals(seen.size(), 3);
+
+					seen.clear();
+					regA.unregister();
+					expectEquals(seen.toString(), "[0-a, 1-a, 2-a]");
+					expectFalse(context.dependencyStatus().isSatisfied());
+
+					seen.clear();
+					regB.unregister();
+					sr.getBundleContext().registerService(MyService.class, service("c"), null);
+					expectEquals(seen.toString(), "[0+c, 1+c, 2+c]");
+
+					seen.clear();
+					context.stop(sr.getBundleContext());
+					expectEquals(seen.toString(), "[0-c, 1-c, 2-c]");
+					expectEquals(context.dependencyStatus().bindings().size(), 0);
+					expectEquals(trackers.get(0).getTrackingCount(), -1);
+				});
+			});
+
+			test("release only the own binding when closing its tracker", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> seen = new ArrayList<>();
+					final List<ServiceTracker<MyService, MyService>> trackers = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.setCompactBindings(true);
+					context.whenBundleActive(bc -> {
+						for (int i = 0; i < 2; ++i) {
+							final int n = i;
+							trackers.add(context.whenServicePresent(MyService.class, s -> {
+								seen.add(n + "+" + s.name());
+								context.onStop(() -> seen.add(n + "-" + s.name()));
+							}));
+						}
+					});
+					context.start(sr.getBundleContext());
+					sr.getBundleContext().registerService(MyService.class, service("a"), null);
+
+					seen.clear();
+					trackers.get(0).close();
+					expectEquals(seen.toString(), "[0-a]");
+					expectTrue(trackers.get(1).getService() != null);
+					expectTrue(context.dependencyStatus().isSatisfied());
+
+					seen.clear();
+					context.stop(sr.getBundleContext());
+					expectEquals(seen.toString(), "[1-a]");
+				});
+			});
+
+			test("run handlers without holding the lock of the shared bindings", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<ServiceTracker<MyService, MyService>> trackers = new ArrayList<>();
+					final List<Integer> sizes = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.setCompactBindings(true);
+					context.whenBundleActive(bc -> {
+						for (int i = 0; i < 2; ++i) {
+							trackers.add(context.whenServicePresent(MyService.class, s -> {
+								// another thread using the bindings must not block
+								final Thread reader = new Thread(() -> sizes.add(trackers.get(0).size()));
+								reader.start();
+								try {
+									reader.join(5000);
+								} catch (final InterruptedException e) {
+									Thread.currentThread().interrupt();
+								}
+							}));
+						}
+					});
+					context.start(sr.getBundleContext());
+					sr.getBundleContext().registerService(MyService.class, service("a"), null);
+
+					expectEquals(sizes.size(), 2);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("release the slots of nested bindings", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> seen = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.setCompactBindings(true);
+					context.whenBundleActive(bc -> {
+						context.whenServicePresent(MyService.class, outer -> {
+							seen.add("outer+" + outer.name());
+							context.whenServicePresent(MyService.class, inner -> {
+								seen.add("inner+" + inner.name());
+								context.onStop(() -> seen.add("inner-" + inner.name()));
+							});
+						});
+					});
+					context.start(sr.getBundleContext());
+
+					final ServiceRegistration<MyService> reg = sr.getBundleContext().registerService(MyService.class,
+							service("a"), null);
+					reg.unregister();
+					sr.getBundleContext().registerService(MyService.class, service("b"), null);
+
+					expectEquals(seen.toString(), "[outer+a, inner+a, inner-a, outer+b, inner+b]");
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+		});
+
+	}
+
+}
@@ -0,0 +1,120 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectFalse;
+import static de.tobiasroeser.lambdatest.Expect.expectNotNull;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.List;
+
+import org.osgi.framework.ServiceReference;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class DependencyStatusTest extends FreeSpec {
+
+	public interface MyService {
+	}
+
+	public interface MyService2 {
+	}
+
+	public DependencyStatusTest() {
+
+		section("Dependency status", () -> {
+
+			test("reports unsatisfied bindings and completes readiness when satisfied", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.whenServicesPresent(MyService.class, MyService2.class, (s1, s2) -> {
+						});
+					});
+					context.start(sr.getBundleContext());
+
+					expectFalse(context.readiness().toCompletableFuture().isDone());
+					List<ServiceBinding> unsatisfied = context.dependencyStatus().unsatisfiedBindings();
+					expectEquals(unsatisfied.size(), 1);
+					expectEquals(unsatisfied.get(0).type(), MyService.class.getName());
+
+					sr.getBundleContext().registerService(MyService.class, new MyService() {
+					}, null);
+					expectFalse(context.readiness().toCompletableFuture().isDone());
+					unsatisfied = context.dependencyStatus().unsatisfiedBindings();
+					expectEquals(unsatisfied.size(), 1);
+					expectEquals(unsatisfied.get(0).type(), MyService2.class.getName());
+
+					sr.getBundleContext().registerService(MyService2.class, new MyService2() {
+					}, null);
+					expectTrue(context.readiness().toCompletableFuture().isDone());
+					expectTrue(context.dependencyStatus().isSatisfied());
+					for (final ServiceBinding binding : context.dependencyStatus().bindings()) {
+						expectEquals(binding.satisfiedCount(), 1L);
+						expectTrue(binding.lastWaitMillis() >= 0);
+					}
+
+					context.stop(sr.getBundleContext());
+					expectEquals(context.dependencyStatus().bindings().size(), 0);
+					expectFalse(context.readiness().toCompletableFuture().isDone());
+				});
+			});
+
+			test("counts unsatisfied bindings across repeated and late transitions", () -> {
+				final int[] changes = { 0 };
+				final DependencyTracker tracker = new DependencyTracker(() -> changes[0]++);
+				expectTrue(tracker.isSatisfied());
+
+				final ServiceBinding b1 = tracker.register(MyService.class, null, "test");
+				final ServiceBinding b2 = tracker.register(MyService2.class, null, "test");
+				expectFalse(tracker.isSatisfied());
+
+				tracker.satisfied(b1);
+				tracker.satisfied(b1);
+				expectFalse(tracker.isSatisfied());
+				tracker.satisfied(b2);
+				expectTrue(tracker.isSatisfied());
+				expectEquals(changes[0], 3);
+
+				tracker.unsatisfied(b2);
+				tracker.unsatisfied(b2);
+				expectFalse(tracker.isSatisfied());
+				tracker.unregister(b2);
+				expectTrue(tracker.isSatisfied());
+
+				// late events of an unregistered binding are ignored
+				tracker.satisfied(b2);
+				tracker.unsatisfied(b2);
+				tracker.unregister(b2);
+				expectTrue(tracker.isSatisfied());
+
+				tracker.unsatisfied(b1);
+				expectFalse(tracker.isSatisfied());
+				expectEquals(tracker.unsatisfiedBindings().size(), 1);
+			});
+
+			test("publishes the dependency status as service", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final OsgiContext context = new OsgiContext();
+					context.setDependencyStatusPublished(true);
+					context.whenBundleActive(bc -> {
+						context.whenServicePresent(MyService.class, s -> {
+						});
+					});
+					context.start(sr.getBundleContext());
+
+					final ServiceReference<DependencyStatus> ref = sr.getBundleContext()
+							.getServiceReference(DependencyStatus.class);
+					expectNotNull(ref);
+					expectEquals(sr.getBundleContext().getService(ref).unsatisfiedBindings().size(), 1);
+
+					context.stop(sr.getBundleContext());
+					expectEquals(sr.getBundleContext().getServiceReference(DependencyStatus.class), null);
+				});
+			});
+
+		});
+
+	}
+
+}
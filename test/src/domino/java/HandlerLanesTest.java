@@ -0,0 +1,186 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.ServiceRegistration;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.internal.SerialExecutor;
+import domino.java.test.FelixConnectHelper;
+
+public class HandlerLanesTest extends FreeSpec {
+
+	public interface Critical {
+	}
+
+	public interface Metrics {
+	}
+
+	public HandlerLanesTest() {
+
+		section("Handler lanes", () -> {
+
+			test("coalesce and bound modifications in the low priority lane", () -> {
+				final HandlerLanes lanes = new HandlerLanes(1, 2);
+				final HandlerLanes.Lane low = lanes.lane(HandlerPriority.LOW);
+				final SerialExecutor ordering = new SerialExecutor(low.executor());
+				final CountDownLatch blocked = new CountDownLatch(1);
+				final CountDownLatch release = new CountDownLatch(1);
+				final CountDownLatch done = new CountDownLatch(1);
+				final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+				// blocks the lane
+				low.submit(ordering, null, () -> {
+					blocked.countDown();
+					try {
+						release.await();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+				expectTrue(blocked.await(5, TimeUnit.SECONDS));
+				low.submit(ordering, "a", () -> handled.add("a"));
+				low.submit(ordering, "a", () -> handled.add("a"));
+				low.submit(ordering, "b", () -> handled.add("b"));
+				// the queue is full now, so further modifications are dropped ...
+				low.submit(ordering, "c", () -> handled.add("c"));
+				// ... but other events are not
+				low.submit(ordering, null, () -> {
+					handled.add("removed");
+					done.countDown();
+				});
+				expectEquals(low.queueDepth(), 3);
+
+				release.countDown();
+				expectTrue(done.await(5, TimeUnit.SECONDS));
+
+				expectEquals(handled.toString(), "[a, b, removed]");
+				expectEquals(low.coalesced(), 1L);
+				expectEquals(low.dropped(), 1L);
+				expectEquals(low.dispatched(), 4L);
+				expectEquals(low.queueDepth(), 0);
+				expectTrue(low.latency().count() >= 3L);
+			});
+
+			test("only count events handled on the delivering thread", () -> {
+				final HandlerLanes lanes = new HandlerLanes(1, 2);
+				final HandlerLanes.Lane normal = lanes.lane(HandlerPriority.NORMAL);
+				final List<String> threads = new ArrayList<>();
+
+				normal.submit(null, null, () -> threads.add(Thread.currentThread().getName()));
+				normal.submit(null, null, () -> threads.add(Thread.currentThread().getName()));
+
+				expectEquals(threads.size(), 2);
+				expectEquals(threads.get(0), Thread.currentThread().getName());
+				expectEquals(normal.dispatched(), 2L);
+				expectEquals(normal.queueDepth(), 0);
+				expectEquals(normal.latency().count(), 0L);
+			});
+
+			test("never delay high priority handlers by blocked low priority handlers", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final CountDownLatch releaseLow = new CountDownLatch(1);
+					final CountDownLatch criticalSeen = new CountDownLatch(1);
+					final List<String> criticalThreads = Collections.synchronizedList(new ArrayList<>());
+
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.watchAdvancedServices(Metrics.class, null,
+								ServiceWatcherOptions.defaults().withPriority(HandlerPriority.LOW), event -> {
+									try {
+										releaseLow.await();
+									} catch (final InterruptedException e) {
+										Thread.currentThread().interrupt();
+									}
+								});
+						context.whenAdvancedServicePresent(Critical.class, null,
+								ServiceWatcherOptions.defaults().withPriority(HandlerPriority.HIGH), critical -> {
+									criticalThreads.add(Thread.currentThread().getName());
+									criticalSeen.countDown();
+								});
+					});
+					context.start(sr.getBundleContext());
+
+					try {
+						// the registering thread is not blocked by the low priority handler
+						final ServiceRegistration<Metrics> metrics = sr.getBundleContext()
+								.registerService(Metrics.class, new Metrics() {
+								}, null);
+						for (int i = 0; i < 100; ++i) {
+							metrics.setProperties(ServiceProperties.of("i", i));
+						}
+
+						sr.getBundleContext().registerService(Critical.class, new Critical() {
+						}, null);
+						expectTrue(criticalSeen.await(5, TimeUnit.SECONDS));
+						expectTrue(criticalThreads.get(0).startsWith("domino-lane-high"));
+
+						final HandlerLanes.Lane low = HandlerLanes.shared().lane(HandlerPriority.LOW);
+						expectTrue(low.queueDepth() >= 1);
+						expectTrue(low.coalesced() >= 98);
+					} finally {
+						releaseLow.countDown();
+					}
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("drop queued additions and deliver queued removals when stopping a watcher", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final CountDownLatch blocked = new CountDownLatch(1);
+					final CountDownLatch release = new CountDownLatch(1);
+					final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.watchAdvancedServices(Critical.class, null,
+								ServiceWatcherOptions.defaults().withPriority(HandlerPriority.HIGH), event -> {
+									handled.add(event.eventType() + "-"
+											+ event.context().reference().getProperty("name"));
+									blocked.countDown();
+									try {
+										release.await();
+									} catch (final InterruptedException e) {
+										Thread.currentThread().interrupt();
+									}
+								});
+					});
+					context.start(sr.getBundleContext());
+
+					sr.getBundleContext().registerService(Critical.class, new Critical() {
+					}, ServiceProperties.of("name", "a"));
+					expectTrue(blocked.await(5, TimeUnit.SECONDS));
+					// queued behind the blocked handler
+					sr.getBundleContext().registerService(Critical.class, new Critical() {
+					}, ServiceProperties.of("name", "b"));
+
+					final Thread releaser = new Thread(() -> {
+						try {
+							Thread.sleep(200);
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						release.countDown();
+					});
+					releaser.start();
+					context.stop(sr.getBundleContext());
+
+					expectEquals(handled.toString(), "[ADDING-a, REMOVED-a]");
+					Thread.sleep(100);
+					expectEquals(handled.size(), 2);
+				});
+			});
+
+		});
+
+	}
+
+}
@@ -0,0 +1,178 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.internal.DominoExecutors;
+import domino.java.test.FelixConnectHelper;
+
+public class HandlerWatchdogTest extends FreeSpec {
+
+	public interface MyService {
+	}
+
+	public HandlerWatchdogTest() {
+
+		section("Handler watchdog", () -> {
+
+			test("reports a stalled whenBundleActive handler", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final HandlerWatchdog watchdog = new HandlerWatchdog(100);
+					final List<StallReport> reports = new CopyOnWriteArrayList<>();
+					watchdog.addStallListener(reports::add);
+
+					final OsgiContext context = new OsgiContext();
+					context.setHandlerWatchdog(watchdog);
+					context.whenBundleActive(bc -> {
+						try {
+							Thread.sleep(400);
+						} catch (final InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					});
+					context.start(sr.getBundleContext());
+					context.stop(sr.getBundleContext());
+
+					expectEquals(watchdog.invocationCount(), 1L);
+					expectEquals(watchdog.stallCount(), 1L);
+					expectEquals(reports.size(), 1);
+					expectEquals(reports.get(0).handlerKind(), StallReport.HandlerKind.BUNDLE_ACTIVE);
+					expectTrue(reports.get(0).stackTrace().length > 0);
+				});
+			});
+
+			test("schedules no task per timed invocation", () -> {
+				final HandlerWatchdog watchdog = new HandlerWatchdog(10000);
+				final ScheduledThreadPoolExecutor scheduler = (ScheduledThreadPoolExecutor) DominoExecutors.scheduler();
+				final long tasksBefore = scheduler.getTaskCount();
+				for (int i = 0; i < 1000; ++i) {
+					watchdog.time(StallReport.HandlerKind.SERVICE_WATCHER, "test", null, this, null, () -> {
+					});
+				}
+				expectEquals(watchdog.invocationCount(), 1000L);
+				// only the sweeper, other tests might add some more
+				expectTrue(scheduler.getTaskCount() - tasksBefore < 10);
+			});
+
+			test("reports a stalled handler nested in another timed handler", () -> {
+				final HandlerWatchdog watchdog = new HandlerWatchdog(50);
+				final List<StallReport> reports = new CopyOnWriteArrayList<>();
+				watchdog.addStallListener(reports::add);
+				final CountDownLatch reported = new CountDownLatch(1);
+				watchdog.addStallListener(r -> reported.countDown());
+
+				watchdog.time(StallReport.HandlerKind.BUNDLE_ACTIVE, "test", null, this, null, () -> {
+					watchdog.time(StallReport.HandlerKind.SERVICE_WATCHER, "test", "(inner=true)", this, null, () -> {
+						try {
+							// wait for the report while still running
+							reported.await(5, TimeUnit.SECONDS);
+						} catch (final InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					});
+				});
+
+				// the outer handler stalled as well
+				expectEquals(reports.size(), 2);
+				expectEquals(reports.get(1).handlerKind(), StallReport.HandlerKind.BUNDLE_ACTIVE);
+				expectEquals(reports.get(0).handlerKind(), StallReport.HandlerKind.SERVICE_WATCHER);
+				expectEquals(reports.get(0).filter(), "(inner=true)");
+				expectEquals(reports.get(0).completed(), false);
+				expectTrue(reports.get(0).stackTrace().length > 0);
+			});
+
+			test("switches a stalled service watcher to async dispatch in strict mode", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final HandlerWatchdog watchdog = new HandlerWatchdog(100, true);
+					final List<StallReport> reports = new CopyOnWriteArrayList<>();
+					watchdog.addStallListener(reports::add);
+
+					final OsgiContext context = new OsgiContext();
+					context.setHandlerWatchdog(watchdog);
+					context.whenBundleActive(bc -> {
+						context.watchAdvancedServices(MyService.class, null, event -> {
+							try {
+								Thread.sleep(400);
+							} catch (final InterruptedException e) {
+								throw new RuntimeException(e);
+							}
+						});
+					});
+					context.start(sr.getBundleContext());
+					sr.getBundleContext().registerService(MyService.class, new MyService() {
+					}, null);
+
+					expectEquals(reports.size(), 1);
+					expectEquals(reports.get(0).handlerKind(), StallReport.HandlerKind.SERVICE_WATCHER);
+					expectTrue(reports.get(0).filter().contains(MyService.class.getName()));
+
+					// the second event no longer blocks the registering thread
+					final long start = System.currentTimeMillis();
+					sr.getBundleContext().registerService(MyService.class, new MyService() {
+					}, null);
+					expectTrue(System.currentTimeMillis() - start < 300);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("waits for asynchronously dispatched events when stopping a service watcher", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final HandlerWatchdog watchdog = new HandlerWatchdog(100, true);
+					final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+					final CountDownLatch inFlight = new CountDownLatch(1);
+
+					final OsgiContext context = new OsgiContext();
+					context.setHandlerWatchdog(watchdog);
+					context.whenBundleActive(bc -> {
+						context.watchAdvancedServices(MyService.class, null, event -> {
+							final Object name = event.context().reference().getProperty("name");
+							if ("b".equals(name)) {
+								inFlight.countDown();
+							}
+							try {
+								Thread.sleep(300);
+							} catch (final InterruptedException e) {
+								throw new RuntimeException(e);
+							}
+							handled.add(event.eventType() + "-" + name);
+						});
+					});
+					context.start(sr.getBundleContext());
+					// stalls and switches to async dispatch
+					sr.getBundleContext().registerService(MyService.class, new MyService() {
+					}, ServiceProperties.of("name", "a"));
+					// in flight on the dispatcher
+					sr.getBundleContext().registerService(MyService.class, new MyService() {
+					}, ServiceProperties.of("name", "b"));
+					expectTrue(inFlight.await(5, TimeUnit.SECONDS));
+					// queued behind it
+					sr.getBundleContext().registerService(MyService.class, new MyService() {
+					}, ServiceProperties.of("name", "c"));
+
+					context.stop(sr.getBundleContext());
+
+					final String afterStop = handled.toString();
+					expectTrue(afterStop.contains("ADDING-b"));
+					expectTrue(!afterStop.contains("ADDING-c"));
+					expectTrue(afterStop.contains("REMOVED-a"));
+					expectTrue(afterStop.contains("REMOVED-b"));
+					Thread.sleep(400);
+					expectEquals(handled.toString(), afterStop);
+				});
+			});
+
+		});
+
+	}
+
+}
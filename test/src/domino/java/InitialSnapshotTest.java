@@ -0,0 +1,99 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osgi.framework.ServiceRegistration;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class InitialSnapshotTest extends FreeSpec {
+
+	public interface MyService {
+		String name();
+	}
+
+	private static MyService service(final String name) {
+		return () -> name;
+	}
+
+	public InitialSnapshotTest() {
+
+		section("Initial snapshot of service watchers", () -> {
+
+			test("deliver existing services in one event, followed by incremental events", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					sr.getBundleContext().registerService(MyService.class, service("a"), null);
+					sr.getBundleContext().registerService(MyService.class, service("b"), null);
+
+					final List<String> events = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.watchAdvancedServices(MyService.class, null,
+								ServiceWatcherOptions.defaults().withInitialSnapshot(true), event -> {
+									final List<String> names = new ArrayList<>();
+									for (final MyService s : event.services()) {
+										names.add(s.name());
+									}
+									expectEquals(event.references().size(), names.size());
+									events.add(event.eventType() + names.toString());
+								});
+					});
+					context.start(sr.getBundleContext());
+
+					final ServiceRegistration<MyService> reg = sr.getBundleContext()
+							.registerService(MyService.class, service("c"), null);
+					reg.unregister();
+
+					expectEquals(events.toString(), "[INITIAL_SNAPSHOT[a, b], ADDING[c], REMOVED[c]]");
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("deliver an empty snapshot if there are no services", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> events = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.watchAdvancedServices(MyService.class, null,
+								ServiceWatcherOptions.defaults().withInitialSnapshot(true), event -> {
+									events.add(event.eventType() + "" + event.services().size());
+								});
+					});
+					context.start(sr.getBundleContext());
+
+					expectEquals(events.toString(), "[INITIAL_SNAPSHOT0]");
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("deliver each existing service separately by default", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					sr.getBundleContext().registerService(MyService.class, service("a"), null);
+					sr.getBundleContext().registerService(MyService.class, service("b"), null);
+
+					final List<String> events = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.watchAdvancedServices(MyService.class, null, event -> {
+							events.add(event.eventType() + event.services().get(0).name());
+						});
+					});
+					context.start(sr.getBundleContext());
+
+					expectEquals(events.size(), 2);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+		});
+
+	}
+
+}
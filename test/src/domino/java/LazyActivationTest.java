@@ -0,0 +1,107 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectNull;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceReference;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.OsgiContext.LifecycleState;
+import domino.java.test.FelixConnectHelper;
+
+public class LazyActivationTest extends FreeSpec {
+
+	public interface MyService {
+		String name();
+	}
+
+	public LazyActivationTest() {
+
+		section("Lazy activation", () -> {
+
+			test("runs the handlers on the first request of a placeholder", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final AtomicInteger runs = new AtomicInteger();
+					final OsgiContext context = new OsgiContext();
+					context.setLazyActivation(MyService.class);
+					context.whenBundleActive(bc -> {
+						runs.incrementAndGet();
+						context.providesService((MyService) () -> "real", MyService.class);
+					});
+
+					final AtomicInteger unregistered = new AtomicInteger();
+					sr.getBundleContext().addServiceListener(event -> {
+						if (event.getType() == ServiceEvent.UNREGISTERING
+							&& Boolean.TRUE.equals(event.getServiceReference().getProperty("domino.placeholder"))) {
+							unregistered.incrementAndGet();
+						}
+					});
+
+					context.start(sr.getBundleContext());
+					expectEquals(context.lifecycleState(), LifecycleState.LAZY);
+					expectEquals(runs.get(), 0);
+
+					final ServiceReference<MyService> placeholder = sr.getBundleContext()
+						.getServiceReference(MyService.class);
+					expectEquals(placeholder.getProperty("domino.placeholder"), Boolean.TRUE);
+					expectEquals(sr.getBundleContext().getService(placeholder).name(), "real");
+					expectEquals(runs.get(), 1);
+					expectEquals(context.lifecycleState(), LifecycleState.ACTIVE);
+					expectTrue(context.activation().toCompletableFuture().isDone());
+
+					// the placeholder is gone, only the real service is left
+					final Collection<ServiceReference<MyService>> refs = sr.getBundleContext()
+						.getServiceReferences(MyService.class, null);
+					expectEquals(refs.size(), 1);
+					expectNull(refs.iterator().next().getProperty("domino.placeholder"));
+					expectEquals(unregistered.get(), 1);
+
+					context.stop(sr.getBundleContext());
+					expectNull(sr.getBundleContext().getServiceReference(MyService.class));
+				});
+			});
+
+			test("keeps the placeholders if the activation fails", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final AtomicInteger attempts = new AtomicInteger();
+					final OsgiContext context = new OsgiContext();
+					context.setLazyActivation(MyService.class);
+					context.whenBundleActive(bc -> {
+						if (attempts.incrementAndGet() == 1) {
+							throw new IllegalStateException("Expected failure");
+						}
+						context.providesService((MyService) () -> "real", MyService.class);
+					});
+
+					context.start(sr.getBundleContext());
+					final ServiceReference<MyService> placeholder = sr.getBundleContext()
+						.getServiceReference(MyService.class);
+					MyService failed = null;
+					try {
+						failed = sr.getBundleContext().getService(placeholder);
+					} catch (final ServiceException e) {
+						// Felix Connect throws instead of returning null
+					}
+					expectNull(failed);
+					expectEquals(context.lifecycleState(), LifecycleState.LAZY);
+
+					expectEquals(sr.getBundleContext().getService(placeholder).name(), "real");
+					expectEquals(attempts.get(), 2);
+					expectEquals(context.lifecycleState(), LifecycleState.ACTIVE);
+
+					context.stop(sr.getBundleContext());
+					expectEquals(context.lifecycleState(), LifecycleState.STOPPED);
+				});
+			});
+
+		});
+
+	}
+
+}
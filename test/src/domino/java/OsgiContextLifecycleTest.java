@@ -0,0 +1,293 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectFalse;
+import static de.tobiasroeser.lambdatest.Expect.expectNull;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.OsgiContext.LifecycleState;
+import domino.java.test.FelixConnectHelper;
+
+public class OsgiContextLifecycleTest extends FreeSpec {
+
+	public interface MyService {
+	}
+
+	public OsgiContextLifecycleTest() {
+
+		section("OsgiContext lifecycle", () -> {
+
+			test("runs the handlers again after a restart", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final AtomicInteger started = new AtomicInteger();
+					final AtomicInteger stopped = new AtomicInteger();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						started.incrementAndGet();
+						context.providesService(new MyService() {
+						}, MyService.class);
+						context.onStop(() -> stopped.incrementAndGet());
+					});
+					expectEquals(context.lifecycleState(), LifecycleState.STOPPED);
+
+					for (int i = 1; i <= 3; ++i) {
+						context.start(sr.getBundleContext());
+						expectEquals(context.lifecycleState(), LifecycleState.ACTIVE);
+						expectTrue(context.isActive());
+						expectEquals(started.get(), i);
+						expectTrue(sr.getBundleContext().getServiceReference(MyService.class) != null);
+
+						context.stop(sr.getBundleContext());
+						expectEquals(context.lifecycleState(), LifecycleState.STOPPED);
+						expectFalse(context.isActive());
+						expectEquals(stopped.get(), i);
+						expectNull(sr.getBundleContext().getServiceReference(MyService.class));
+					}
+				});
+			});
+
+			test("ignores duplicate start and stop requests", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final AtomicInteger started = new AtomicInteger();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> started.incrementAndGet());
+
+					context.stop(sr.getBundleContext());
+					context.start(sr.getBundleContext());
+					context.start(sr.getBundleContext());
+					expectEquals(started.get(), 1);
+					context.stop(sr.getBundleContext());
+					context.stop(sr.getBundleContext());
+					expectEquals(context.lifecycleState(), LifecycleState.STOPPED);
+				});
+			});
+
+			test("runs handlers registered concurrently exactly once", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final int threads = 8;
+					final int handlersPerThread = 50;
+					final AtomicInteger runs = new AtomicInteger();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+					});
+
+					final CountDownLatch go = new CountDownLatch(1);
+					final List<Thread> workers = new ArrayList<>();
+					for (int t = 0; t < threads; ++t) {
+						final Thread thread = new Thread(() -> {
+							try {
+								go.await();
+							} catch (final InterruptedException e) {
+								return;
+							}
+							for (int i = 0; i < handlersPerThread; ++i) {
+								context.whenBundleActive(bc -> runs.incrementAndGet());
+							}
+						});
+						thread.start();
+						workers.add(thread);
+					}
+					go.countDown();
+					context.start(sr.getBundleContext());
+					for (final Thread thread : workers) {
+						thread.join();
+					}
+
+					expectEquals(context.lifecycleState(), LifecycleState.ACTIVE);
+					expectEquals(runs.get(), threads * handlersPerThread);
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("stops again if a handler fails", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final AtomicInteger stopped = new AtomicInteger();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> context.onStop(() -> stopped.incrementAndGet()));
+					context.whenBundleActive(bc -> {
+						throw new IllegalStateException("Expected failure");
+					});
+
+					boolean failed = false;
+					try {
+						context.start(sr.getBundleContext());
+					} catch (final IllegalStateException e) {
+						failed = true;
+					}
+					expectTrue(failed);
+					expectEquals(stopped.get(), 1);
+					expectEquals(context.lifecycleState(), LifecycleState.STOPPED);
+					expectTrue(context.readiness().toCompletableFuture().isCompletedExceptionally());
+				});
+			});
+
+		});
+
+		section("Asynchronous activation", () -> {
+
+			test("returns from start immediately and completes the activation later", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final CountDownLatch release = new CountDownLatch(1);
+					final OsgiContext context = new OsgiContext();
+					context.setActivationExecutor(Executors.newSingleThreadExecutor());
+					context.whenBundleActive(bc -> {
+						try {
+							release.await();
+						} catch (final InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					});
+
+					context.start(sr.getBundleContext());
+					expectEquals(context.lifecycleState(), LifecycleState.STARTING);
+					expectFalse(context.activation().toCompletableFuture().isDone());
+
+					release.countDown();
+					context.activation().toCompletableFuture().get(5, TimeUnit.SECONDS);
+					expectEquals(context.lifecycleState(), LifecycleState.ACTIVE);
+
+					context.stop(sr.getBundleContext());
+					expectEquals(context.lifecycleState(), LifecycleState.STOPPED);
+				});
+			});
+
+			test("stop waits for the running handler and cancels the remaining ones", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final CountDownLatch running = new CountDownLatch(1);
+					final AtomicInteger secondRuns = new AtomicInteger();
+					final OsgiContext context = new OsgiContext();
+					context.setActivationExecutor(Executors.newSingleThreadExecutor());
+					context.whenBundleActive(bc -> {
+						running.countDown();
+						try {
+							Thread.sleep(200);
+						} catch (final InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					});
+					context.whenBundleActive(bc -> secondRuns.incrementAndGet());
+
+					context.start(sr.getBundleContext());
+					running.await();
+					context.stop(sr.getBundleContext());
+
+					expectEquals(context.lifecycleState(), LifecycleState.STOPPED);
+					expectEquals(secondRuns.get(), 0);
+					expectTrue(context.activation().toCompletableFuture().isCompletedExceptionally());
+				});
+			});
+
+			test("fails the activation after the timeout and stops", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final AtomicInteger stopped = new AtomicInteger();
+					final OsgiContext context = new OsgiContext();
+					context.setActivationExecutor(Executors.newSingleThreadExecutor());
+					context.setActivationTimeout(50);
+					context.whenBundleActive(bc -> {
+						context.onStop(() -> stopped.incrementAndGet());
+						try {
+							Thread.sleep(300);
+						} catch (final InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					});
+
+					context.start(sr.getBundleContext());
+					boolean timedOut = false;
+					try {
+						context.activation().toCompletableFuture().get(5, TimeUnit.SECONDS);
+					} catch (final ExecutionException e) {
+						timedOut = e.getCause() instanceof TimeoutException;
+					}
+					expectTrue(timedOut);
+
+					// the stop completes after the handler returned
+					context.stop(sr.getBundleContext());
+					expectEquals(context.lifecycleState(), LifecycleState.STOPPED);
+					expectEquals(stopped.get(), 1);
+				});
+			});
+
+		});
+
+		section("Activation phases", () -> {
+
+			test("runs critical handlers first and deferred handlers in the background", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> order = new CopyOnWriteArrayList<>();
+					final String[] deferredThread = { null };
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(ActivationPhase.DEFERRED, bc -> {
+						deferredThread[0] = Thread.currentThread().getName();
+						order.add("deferred");
+					});
+					context.whenBundleActive(bc -> order.add("normal"));
+					context.whenBundleActive(ActivationPhase.CRITICAL, bc -> {
+						try {
+							Thread.sleep(20);
+						} catch (final InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						order.add("critical");
+					});
+
+					context.start(sr.getBundleContext());
+					context.deferredActivation().toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+					expectEquals(order.toString(), "[critical, normal, deferred]");
+					expectTrue(deferredThread[0].startsWith("domino-background"));
+					expectTrue(context.activationTimeNanos(ActivationPhase.CRITICAL) >= TimeUnit.MILLISECONDS.toNanos(20));
+					expectTrue(context.activationTimeNanos(ActivationPhase.DEFERRED) > 0);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("runs handlers registered by another thread while starting on the activating thread", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> order = new CopyOnWriteArrayList<>();
+					final CountDownLatch critical = new CountDownLatch(1);
+					final CountDownLatch release = new CountDownLatch(1);
+					final OsgiContext context = new OsgiContext();
+					context.setActivationExecutor(Executors.newSingleThreadExecutor());
+					context.whenBundleActive(ActivationPhase.CRITICAL, bc -> {
+						critical.countDown();
+						try {
+							release.await();
+						} catch (final InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						order.add("critical");
+					});
+
+					context.start(sr.getBundleContext());
+					critical.await();
+					expectEquals(context.lifecycleState(), LifecycleState.STARTING);
+					final Thread caller = Thread.currentThread();
+					context.whenBundleActive(bc -> order.add(Thread.currentThread() == caller ? "normal-caller" : "normal"));
+					expectEquals(order.toString(), "[]");
+
+					release.countDown();
+					context.activation().toCompletableFuture().get(5, TimeUnit.SECONDS);
+					expectEquals(order.toString(), "[critical, normal]");
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+		});
+
+	}
+
+}
@@ -0,0 +1,168 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectFalse;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class PropertySnapshotTest extends FreeSpec {
+
+	public interface MyService {
+	}
+
+	public PropertySnapshotTest() {
+
+		section("PropertySnapshot", () -> {
+
+			test("convert typed properties", () -> {
+				final PropertySnapshot props = PropertySnapshot.of(ServiceProperties.builder()
+						.put("int", 42)
+						.put("intString", " 7 ")
+						.put("long", 5L)
+						.put("bool", "TRUE")
+						.put("broken", "x")
+						.put("array", new String[] { "a", "b" })
+						.put("list", Arrays.asList(1, 2))
+						.build());
+
+				expectEquals(props.getInt("int", 0), 42);
+				expectEquals(props.getInt("intString", 0), 7);
+				expectEquals(props.getInt("broken", -1), -1);
+				expectEquals(props.getInt("missing", -1), -1);
+				expectEquals(props.getLong("long", 0), 5L);
+				expectEquals(props.getLong("int", 0), 42L);
+				expectTrue(props.getBoolean("bool", false));
+				expectFalse(props.getBoolean("broken", false));
+				expectEquals(props.getString("int", null), "42");
+				expectEquals(props.getStrings("array").toString(), "[a, b]");
+				expectEquals(props.getStrings("list").toString(), "[1, 2]");
+				expectEquals(props.getStrings("int").toString(), "[42]");
+				expectTrue(props.getStrings("missing").isEmpty());
+				// conversions are cached
+				expectTrue(props.getStrings("array") == props.getStrings("array"));
+			});
+
+			test("return the default for numbers not convertible without loss", () -> {
+				final PropertySnapshot props = PropertySnapshot.of(ServiceProperties.builder()
+						.put("bigLong", 1L << 40)
+						.put("minInt", (long) Integer.MIN_VALUE)
+						.put("wholeDouble", 3.0d)
+						.put("fraction", 2.5d)
+						.put("hugeDouble", 1e19d)
+						.put("nan", Double.NaN)
+						.build());
+
+				expectEquals(props.getInt("bigLong", -1), -1);
+				expectEquals(props.getLong("bigLong", -1), 1L << 40);
+				expectEquals(props.getInt("minInt", 0), Integer.MIN_VALUE);
+				expectEquals(props.getInt("wholeDouble", -1), 3);
+				expectEquals(props.getInt("fraction", -1), -1);
+				expectEquals(props.getLong("fraction", -1), -1L);
+				expectEquals(props.getLong("hugeDouble", -1), -1L);
+				expectEquals(props.getInt("nan", -1), -1);
+			});
+
+			test("look up keys case-insensitively", () -> {
+				final PropertySnapshot props = PropertySnapshot.of(ServiceProperties.builder()
+						.put("service.pid", "my.pid")
+						.put("Load", 3)
+						.build());
+
+				expectEquals(props.get("Service.PID"), "my.pid");
+				expectEquals(props.getString("SERVICE.PID", null), "my.pid");
+				expectEquals(props.getInt("load", -1), 3);
+				expectEquals(props.get("missing"), null);
+			});
+
+			test("compare arrays by content", () -> {
+				final PropertySnapshot p1 = PropertySnapshot.of(ServiceProperties.of("a", new String[] { "x" }));
+				final PropertySnapshot p2 = PropertySnapshot.of(ServiceProperties.of("a", new String[] { "x" }));
+				final PropertySnapshot p3 = PropertySnapshot.of(ServiceProperties.of("a", new String[] { "y" }));
+				expectEquals(p1, p2);
+				expectEquals(p1.hashCode(), p2.hashCode());
+				expectFalse(p1.equals(p3));
+			});
+
+			test("is attached to service watcher events", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> seen = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.watchAdvancedServices(MyService.class, null, event -> {
+							final PropertySnapshot props = event.properties();
+							expectTrue(props == event.properties());
+							expectEquals(event.serviceId(), event.context().reference().getProperty(Constants.SERVICE_ID));
+							seen.add(event.eventType() + ":" + event.serviceRanking() + ":"
+									+ props.getString("name", "?"));
+						});
+					});
+					context.start(sr.getBundleContext());
+
+					final ServiceRegistration<MyService> reg = sr.getBundleContext().registerService(MyService.class,
+							new MyService() {
+							}, ServiceProperties.of("name", "a", Constants.SERVICE_RANKING, 3));
+					reg.setProperties(ServiceProperties.of("name", "b"));
+					reg.unregister();
+
+					expectEquals(seen.toString(), "[ADDING:3:a, MODIFIED:0:b, REMOVED:0:b]");
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("attach the delta to modifications and suppress modifications without changes, if enabled", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> seen = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.watchAdvancedServices(MyService.class, null,
+								ServiceWatcherOptions.defaults().withPropertyDeltas(true), event -> {
+									if (event.eventType() == ServiceWatcherEvent.EventType.MODIFIED) {
+										final PropertyDelta delta = event.delta();
+										seen.add("added=" + delta.addedKeys() + ",removed=" + delta.removedKeys()
+												+ ",changed=" + delta.changedKeys() + ",a:" + delta.oldValue("a")
+												+ "->" + delta.newValue("a"));
+									}
+								});
+						// without property deltas, each modification is delivered
+						context.watchAdvancedServices(MyService.class, null, event -> {
+							if (event.eventType() == ServiceWatcherEvent.EventType.MODIFIED) {
+								seen.add("delta=" + event.delta());
+							}
+						});
+					});
+					context.start(sr.getBundleContext());
+
+					final ServiceRegistration<MyService> reg = sr.getBundleContext().registerService(MyService.class,
+							new MyService() {
+							}, ServiceProperties.of("a", 1, "b", new String[] { "x" }));
+					reg.setProperties(ServiceProperties.of("a", 2, "b", new String[] { "x" }, "c", true));
+					// no change at all
+					reg.setProperties(ServiceProperties.of("a", 2, "b", new String[] { "x" }, "c", true));
+					reg.setProperties(ServiceProperties.of("a", 2, "c", true));
+					reg.unregister();
+
+					expectEquals(seen.stream().filter(e -> e.startsWith("added")).collect(Collectors.toList()).toString(),
+							"[added=[c],removed=[],changed=[a],a:1->2, added=[],removed=[b],changed=[],a:2->2]");
+					expectEquals(seen.stream().filter(e -> e.startsWith("delta")).collect(Collectors.toList()).toString(),
+							"[delta=null, delta=null, delta=null]");
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+		});
+
+	}
+
+}
@@ -0,0 +1,148 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectFalse;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.util.tracker.ServiceTracker;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class RegistryMirrorTest extends FreeSpec {
+
+	public interface MyService {
+		String name();
+	}
+
+	public interface Unrelated {
+	}
+
+	private static MyService service(final String name) {
+		return () -> name;
+	}
+
+	public RegistryMirrorTest() {
+
+		section("Shared registry mirror", () -> {
+
+			test("feed service watchers from the mirror, if the runtime is present", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final DominoRuntime runtime = new DominoRuntime();
+					runtime.start(sr.getBundleContext());
+					final SharedRegistryMirror mirror = runtime.mirror();
+
+					sr.getBundleContext().registerService(MyService.class, service("existing"), null);
+
+					final List<String> events = new ArrayList<>();
+					final List<String> present = new ArrayList<>();
+					final List<ServiceTracker<MyService, MyService>> trackers = new ArrayList<>();
+					final List<ServiceCollectionCapsule<MyService, Void>> collection = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						trackers.add(context.watchAdvancedServices(MyService.class, null, event -> {
+							events.add(event.eventType() + ":" + event.service().name());
+						}));
+						context.whenServicePresent(MyService.class, s -> present.add(s.name()));
+						collection.add(context.trackAll(MyService.class, "(!(name=hidden))"));
+					});
+					context.start(sr.getBundleContext());
+
+					expectTrue(trackers.get(0) instanceof MirroredServiceTracker);
+					expectEquals(mirror.subscriptionCount(), 3);
+					expectEquals(events.toString(), "[ADDING:existing]");
+					expectEquals(present.toString(), "[existing]");
+
+					final long deliveries = mirror.deliveries();
+					final ServiceRegistration<Unrelated> unrelated = sr.getBundleContext()
+							.registerService(Unrelated.class, new Unrelated() {
+							}, null);
+					unrelated.unregister();
+					// unrelated services are not delivered to any subscriber
+					expectEquals(mirror.deliveries(), deliveries);
+
+					final ServiceRegistration<MyService> reg = sr.getBundleContext()
+							.registerService(MyService.class, service("new"), ServiceProperties.of("name", "hidden"));
+					expectEquals(trackers.get(0).size(), 2);
+					expectEquals(collection.get(0).snapshot().size(), 1);
+
+					reg.setProperties(ServiceProperties.of("name", "visible"));
+					expectEquals(collection.get(0).snapshot().size(), 2);
+
+					reg.unregister();
+					expectEquals(events.toString(), "[ADDING:existing, ADDING:new, MODIFIED:new, REMOVED:new]");
+					expectEquals(trackers.get(0).size(), 1);
+					expectEquals(collection.get(0).snapshot().size(), 1);
+
+					context.stop(sr.getBundleContext());
+					expectEquals(mirror.subscriptionCount(), 0);
+
+					runtime.stop(sr.getBundleContext());
+				});
+			});
+
+			test("fall back to own service listeners when the runtime stops", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final DominoRuntime runtime = new DominoRuntime();
+					runtime.start(sr.getBundleContext());
+					final SharedRegistryMirror mirror = runtime.mirror();
+
+					final List<String> events = new ArrayList<>();
+					final List<ServiceTracker<MyService, MyService>> trackers = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						trackers.add(context.watchAdvancedServices(MyService.class, null, event -> {
+							events.add(event.eventType() + ":" + event.service().name());
+						}));
+					});
+					context.start(sr.getBundleContext());
+					expectTrue(trackers.get(0) instanceof MirroredServiceTracker);
+
+					final ServiceRegistration<MyService> regA = sr.getBundleContext()
+							.registerService(MyService.class, service("a"), null);
+
+					runtime.stop(sr.getBundleContext());
+					expectEquals(mirror.subscriptionCount(), 0);
+
+					final ServiceRegistration<MyService> regB = sr.getBundleContext()
+							.registerService(MyService.class, service("b"), null);
+					regA.unregister();
+					expectEquals(events.toString(), "[ADDING:a, ADDING:b, REMOVED:a]");
+					expectEquals(trackers.get(0).size(), 1);
+
+					context.stop(sr.getBundleContext());
+					expectEquals(events.toString(), "[ADDING:a, ADDING:b, REMOVED:a, REMOVED:b]");
+
+					// the own listener is gone, too
+					regB.unregister();
+					expectEquals(events.size(), 4);
+				});
+			});
+
+			test("fall back to own service trackers without the runtime", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<ServiceTracker<MyService, MyService>> trackers = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						trackers.add(context.watchAdvancedServices(MyService.class, null, event -> {
+						}));
+					});
+					context.start(sr.getBundleContext());
+
+					sr.getBundleContext().registerService(MyService.class, service("a"), null);
+					expectFalse(trackers.get(0) instanceof MirroredServiceTracker);
+					expectEquals(trackers.get(0).size(), 1);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+		});
+
+	}
+
+}
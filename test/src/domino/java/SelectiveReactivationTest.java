@@ -0,0 +1,114 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class SelectiveReactivationTest extends FreeSpec {
+
+	public interface MyService {
+		String name();
+	}
+
+	private static MyService service(final String name) {
+		return () -> name;
+	}
+
+	public SelectiveReactivationTest() {
+
+		section("whenAdvancedServicePresent with significant keys", () -> {
+
+			test("re-activate only if a significant property changes", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> seen = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.whenAdvancedServicePresentWithKeys(MyService.class, null, new HashSet<>(Arrays.asList("url")),
+								s -> {
+									seen.add("start:" + s.name());
+									context.onStop(() -> seen.add("stop:" + s.name()));
+								});
+					});
+					context.start(sr.getBundleContext());
+
+					final ServiceRegistration<MyService> reg = sr.getBundleContext().registerService(MyService.class,
+							service("a"), ServiceProperties.of("url", "x", "label", "1"));
+					reg.setProperties(ServiceProperties.of("url", "x", "label", "2"));
+					reg.setProperties(ServiceProperties.of("url", "y", "label", "2"));
+					reg.unregister();
+
+					expectEquals(seen.toString(), "[start:a, stop:a, start:a, stop:a]");
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("call the update callback instead of re-activating", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> seen = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.whenAdvancedServicePresentWithKeys(MyService.class, null, ServiceWatcherOptions.defaults(),
+								new HashSet<>(Arrays.asList("url")),
+								s -> seen.add("start:" + s.name()),
+								(s, delta) -> seen.add("update:" + s.name() + ":" + delta.oldValue("url") + "->"
+										+ delta.newValue("url")));
+					});
+					context.start(sr.getBundleContext());
+
+					final ServiceRegistration<MyService> reg = sr.getBundleContext().registerService(MyService.class,
+							service("a"), ServiceProperties.of("url", "x"));
+					reg.setProperties(ServiceProperties.of("url", "x", "label", "1"));
+					reg.setProperties(ServiceProperties.of("url", "y"));
+
+					expectEquals(seen.toString(), "[start:a, update:a:x->y]");
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("move the binding to the next match if the bound service leaves the filter", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<String> seen = new ArrayList<>();
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.whenAdvancedServicePresentWithKeys(MyService.class, "(enabled=true)",
+								new HashSet<>(Arrays.asList("url")), s -> {
+									seen.add("start:" + s.name());
+									context.onStop(() -> seen.add("stop:" + s.name()));
+								});
+					});
+					context.start(sr.getBundleContext());
+
+					final ServiceRegistration<MyService> regA = sr.getBundleContext().registerService(
+							MyService.class, service("a"),
+							ServiceProperties.of("enabled", true, Constants.SERVICE_RANKING, 10));
+					sr.getBundleContext().registerService(MyService.class, service("b"),
+							ServiceProperties.of("enabled", true));
+
+					regA.setProperties(ServiceProperties.of("enabled", false, Constants.SERVICE_RANKING, 10));
+					expectEquals(seen.toString(), "[start:a, stop:a, start:b]");
+
+					regA.setProperties(ServiceProperties.of("enabled", true, Constants.SERVICE_RANKING, 10));
+					// the binding stays with b
+					expectEquals(seen.toString(), "[start:a, stop:a, start:b]");
+
+					context.stop(sr.getBundleContext());
+					expectEquals(seen.toString(), "[start:a, stop:a, start:b, stop:b]");
+				});
+			});
+
+		});
+
+	}
+
+}
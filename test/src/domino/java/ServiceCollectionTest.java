@@ -0,0 +1,114 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class ServiceCollectionTest extends FreeSpec {
+
+	public interface Listener {
+		String name();
+	}
+
+	private static Listener listener(final String name) {
+		return () -> name;
+	}
+
+	private static String names(final ServiceCollectionCapsule.Snapshot<Listener, ?> snapshot) {
+		final List<String> names = new ArrayList<>();
+		for (int i = 0; i < snapshot.size(); ++i) {
+			names.add(snapshot.service(i).name());
+		}
+		return names.toString();
+	}
+
+	public ServiceCollectionTest() {
+
+		section("trackAll", () -> {
+
+			test("collect all matching services sorted by ranking", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final OsgiContext provider = new OsgiContext();
+					provider.whenBundleActive(bc -> {
+						provider.providesService(listener("default"), Listener.class);
+						provider.providesService(listener("high"), Listener.class,
+								ServiceProperties.of(Constants.SERVICE_RANKING, 10));
+						provider.providesService(listener("low"), Listener.class,
+								ServiceProperties.of(Constants.SERVICE_RANKING, -5));
+						provider.providesService(listener("other"), Listener.class,
+								ServiceProperties.of("topic", "other"));
+					});
+					provider.start(sr.getBundleContext());
+
+					final List<ServiceCollectionCapsule<Listener, Void>> collection = new ArrayList<>();
+					final OsgiContext consumer = new OsgiContext();
+					consumer.whenBundleActive(bc -> {
+						collection.add(consumer.trackAll(Listener.class, "(!(topic=other))"));
+					});
+					consumer.start(sr.getBundleContext());
+
+					expectEquals(names(collection.get(0).snapshot()), "[high, default, low]");
+
+					consumer.stop(sr.getBundleContext());
+					expectTrue(collection.get(0).snapshot().isEmpty());
+					provider.stop(sr.getBundleContext());
+				});
+			});
+
+			test("update the snapshot incrementally and advance the generation", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<ServiceCollectionCapsule<Listener, Object>> collection = new ArrayList<>();
+					final OsgiContext consumer = new OsgiContext();
+					consumer.whenBundleActive(bc -> {
+						collection.add(consumer.trackAll(Listener.class, null, ref -> ref.getProperty("topic")));
+					});
+					consumer.start(sr.getBundleContext());
+					final ServiceCollectionCapsule<Listener, Object> listeners = collection.get(0);
+
+					final long gen0 = listeners.snapshot().generation();
+					expectTrue(listeners.snapshot().isEmpty());
+
+					final ServiceRegistration<Listener> reg1 = sr.getBundleContext().registerService(Listener.class,
+							listener("a"), ServiceProperties.of("topic", "t1"));
+					final ServiceRegistration<Listener> reg2 = sr.getBundleContext().registerService(Listener.class,
+							listener("b"), ServiceProperties.of("topic", "t2"));
+
+					final ServiceCollectionCapsule.Snapshot<Listener, Object> snapshot = listeners.snapshot();
+					expectEquals(names(snapshot), "[a, b]");
+					expectEquals(snapshot.projection(0), "t1");
+					expectEquals(snapshot.projection(1), "t2");
+					expectTrue(snapshot.generation() > gen0);
+
+					// raising the ranking moves the service to the front and updates its projection
+					reg2.setProperties(ServiceProperties.of("topic", "t3", Constants.SERVICE_RANKING, 1));
+					final ServiceCollectionCapsule.Snapshot<Listener, Object> modified = listeners.snapshot();
+					expectEquals(names(modified), "[b, a]");
+					expectEquals(modified.projection(0), "t3");
+					expectTrue(modified.generation() > snapshot.generation());
+
+					// old snapshots are unaffected
+					expectEquals(names(snapshot), "[a, b]");
+
+					reg1.unregister();
+					expectEquals(names(listeners.snapshot()), "[b]");
+
+					reg2.unregister();
+					expectTrue(listeners.snapshot().isEmpty());
+
+					consumer.stop(sr.getBundleContext());
+				});
+			});
+
+		});
+
+	}
+
+}
@@ -0,0 +1,129 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.List;
+
+import org.osgi.framework.ServiceReference;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class ServiceInstrumentationTest extends FreeSpec {
+
+	public interface Calculator {
+		int add(int a, int b);
+
+		int fail();
+	}
+
+	public static class CalculatorImpl implements Calculator {
+		@Override
+		public int add(final int a, final int b) {
+			return a + b;
+		}
+
+		@Override
+		public int fail() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public ServiceInstrumentationTest() {
+
+		section("Service instrumentation", () -> {
+
+			test("records calls, errors and latencies per method", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					sr.getBundleContext().registerService(Calculator.class, new CalculatorImpl(), null);
+
+					final ServiceInstrumentation instrumentation = new ServiceInstrumentation(1);
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.withService(Calculator.class, instrumentation, calc -> {
+							expectEquals(calc.get().add(1, 2), 3);
+							expectEquals(calc.get().add(3, 4), 7);
+							try {
+								calc.get().fail();
+							} catch (final UnsupportedOperationException e) {
+								// expected
+							}
+							return null;
+						});
+					});
+					context.start(sr.getBundleContext());
+
+					final List<ServiceCallMetrics> metrics = instrumentation.metrics();
+					expectEquals(metrics.size(), 1);
+					expectEquals(metrics.get(0).serviceType(), Calculator.class.getName());
+					expectEquals(metrics.get(0).method(Calculator.class.getMethod("add", int.class, int.class)).calls(),
+						2L);
+					expectEquals(metrics.get(0).method(Calculator.class.getMethod("add", int.class, int.class))
+						.latency().count(), 2L);
+					expectEquals(metrics.get(0).method(Calculator.class.getMethod("fail")).errors(), 1L);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("delivers the same proxy for all events of a watched service", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final ServiceInstrumentation instrumentation = new ServiceInstrumentation();
+					final OsgiContext context = new OsgiContext();
+					final boolean[] stopped = { false };
+					context.whenBundleActive(bc -> {
+						context.whenAdvancedServicePresent(Calculator.class, null,
+							ServiceWatcherOptions.defaults().withInstrumentation(instrumentation), calc -> {
+							expectTrue(!(calc instanceof CalculatorImpl));
+							calc.add(1, 1);
+							context.onStop(() -> stopped[0] = true);
+						});
+					});
+					context.start(sr.getBundleContext());
+					sr.getBundleContext().registerService(Calculator.class, new CalculatorImpl(), null).unregister();
+
+					// the scope was stopped, so REMOVED matched the proxy of ADDING
+					expectTrue(stopped[0]);
+					expectEquals(instrumentation.metrics().get(0).methods().stream().mapToLong(m -> m.calls()).sum(),
+						1L);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("samples latencies by default and answers equals, hashCode and toString for the proxy", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final CalculatorImpl service = new CalculatorImpl();
+					final ServiceReference<Calculator> reference = sr.getBundleContext()
+						.registerService(Calculator.class, service, null).getReference();
+
+					final ServiceInstrumentation instrumentation = new ServiceInstrumentation();
+					expectEquals(instrumentation.samplingInterval(), ServiceInstrumentation.DEFAULT_SAMPLING_INTERVAL);
+					final Calculator proxy = instrumentation.instrument(Calculator.class, sr.getBundleContext(),
+						reference, service);
+					final Calculator other = instrumentation.instrument(Calculator.class, sr.getBundleContext(),
+						reference, service);
+
+					expectTrue(proxy.equals(proxy));
+					expectTrue(proxy.equals(other));
+					expectTrue(!proxy.equals(service));
+					expectTrue(!proxy.equals(null));
+					expectEquals(proxy.hashCode(), service.hashCode());
+					expectEquals(proxy.toString(), service.toString());
+
+					for (int i = 0; i < 640; ++i) {
+						proxy.add(i, 1);
+					}
+					final MethodCallMetrics add = instrumentation.metrics().get(0)
+						.method(Calculator.class.getMethod("add", int.class, int.class));
+					expectEquals(add.calls(), 640L);
+					expectTrue(add.latency().count() < 640L);
+				});
+			});
+
+		});
+
+	}
+
+}
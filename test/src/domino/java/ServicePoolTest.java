@@ -0,0 +1,192 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.PrototypeServiceFactory;
+import org.osgi.framework.ServiceObjects;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class ServicePoolTest extends FreeSpec {
+
+	public static class Worker {
+	}
+
+	public static class WorkerFactory implements PrototypeServiceFactory<Worker> {
+		final AtomicInteger created = new AtomicInteger();
+		final AtomicInteger released = new AtomicInteger();
+
+		@Override
+		public Worker getService(final Bundle bundle, final ServiceRegistration<Worker> registration) {
+			created.incrementAndGet();
+			return new Worker();
+		}
+
+		@Override
+		public void ungetService(final Bundle bundle, final ServiceRegistration<Worker> registration,
+				final Worker service) {
+			released.incrementAndGet();
+		}
+	}
+
+	public ServicePoolTest() {
+
+		section("Pooled service consumption", () -> {
+
+			// Note: Felix Connect does not implement prototype scope, so all
+			// service objects of a bundle are identical here
+			test("borrows one object per concurrent handler and reuses them", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final WorkerFactory factory = new WorkerFactory();
+					final ServiceRegistration<?> reg = sr.getBundleContext().registerService(Worker.class.getName(),
+						factory, null);
+
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+					});
+					context.start(sr.getBundleContext());
+
+					context.withPooledService(Worker.class, null, w1 -> {
+						context.withPooledService(Worker.class, null, w2 -> {
+							expectTrue(w1.isDefined());
+							expectTrue(w2.isDefined());
+							return null;
+						});
+						return null;
+					});
+					context.withPooledService(Worker.class, null, w -> null);
+
+					final ServicePool<?> pool = context.servicePools().iterator().next();
+					expectEquals(pool.borrowCount(), 3L);
+					expectEquals(pool.createdCount(), 2L);
+					expectEquals(pool.idleCount(), 2);
+					expectEquals(pool.borrowedCount(), 0);
+
+					reg.unregister();
+					expectTrue(pool.isDrained());
+					expectEquals(pool.releasedCount(), 2L);
+					expectEquals(context.servicePools().size(), 0);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("drains the pool when the capsule scope stops", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final WorkerFactory factory = new WorkerFactory();
+					sr.getBundleContext().registerService(Worker.class.getName(), factory, null);
+
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.withPooledService(Worker.class, null, w -> null);
+					});
+					context.start(sr.getBundleContext());
+					expectEquals(context.servicePools().size(), 1);
+
+					context.stop(sr.getBundleContext());
+					expectEquals(context.servicePools().size(), 0);
+					expectEquals(factory.released.get(), 1);
+				});
+			});
+
+			test("passes none to a handler waiting for a pool drained meanwhile", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final ServiceRegistration<?> reg = sr.getBundleContext().registerService(Worker.class.getName(),
+						new WorkerFactory(), null);
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+					});
+					context.start(sr.getBundleContext());
+
+					final ServicePoolOptions options = ServicePoolOptions.defaults().withMaxSize(1)
+						.withBorrowTimeout(5000);
+					final List<String> results = Collections.synchronizedList(new ArrayList<>());
+					context.withPooledService(Worker.class, null, options, w1 -> {
+						// the only service object is borrowed, so the other handler waits
+						final Thread other = new Thread(() -> results.add(
+							context.withPooledService(Worker.class, null, options, w2 -> String.valueOf(w2.isDefined()))));
+						other.start();
+						final ServicePool<?> pool = context.servicePools().iterator().next();
+						while (pool.waitCount() == 0) {
+							Thread.yield();
+						}
+						reg.unregister();
+						try {
+							other.join(5000);
+						} catch (final InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						return null;
+					});
+					expectEquals(results.toString(), "[false]");
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("creates service objects without holding the pool lock and frees the slot on failure", () -> {
+				final List<Integer> seenByOthers = Collections.synchronizedList(new ArrayList<>());
+				final AtomicInteger calls = new AtomicInteger();
+				final List<ServicePool<Worker>> pools = new ArrayList<>();
+				final ServiceObjects<Worker> serviceObjects = new ServiceObjects<Worker>() {
+					@Override
+					public Worker getService() {
+						if (calls.incrementAndGet() == 1) {
+							throw new IllegalStateException("creation failed");
+						}
+						// another thread can use the pool meanwhile
+						final Thread other = new Thread(() -> seenByOthers.add(pools.get(0).borrowedCount()));
+						other.start();
+						try {
+							other.join(5000);
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return new Worker();
+					}
+
+					@Override
+					public void ungetService(final Worker service) {
+					}
+
+					@Override
+					public ServiceReference<Worker> getServiceReference() {
+						return null;
+					}
+				};
+				final ServicePool<Worker> pool = new ServicePool<>(serviceObjects,
+					ServicePoolOptions.defaults().withMaxSize(1));
+				pools.add(pool);
+
+				String failure = null;
+				try {
+					pool.borrow();
+				} catch (final IllegalStateException e) {
+					failure = e.getMessage();
+				}
+				expectEquals(failure, "creation failed");
+				expectEquals(pool.borrowedCount(), 0);
+
+				expectTrue(pool.borrow() != null);
+				// the slot was reserved while the object was created
+				expectEquals(seenByOthers.toString(), "[1]");
+				expectEquals(pool.borrowedCount(), 1);
+				expectEquals(pool.createdCount(), 1L);
+				pool.drain();
+			});
+
+		});
+
+	}
+
+}
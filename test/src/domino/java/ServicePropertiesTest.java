@@ -0,0 +1,88 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectFalse;
+import static de.tobiasroeser.lambdatest.Expect.expectNull;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+import static de.tobiasroeser.lambdatest.Intercept.intercept;
+
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.osgi.framework.ServiceReference;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class ServicePropertiesTest extends FreeSpec {
+
+	public interface MyService {
+	}
+
+	public ServicePropertiesTest() {
+
+		section("ServiceProperties", () -> {
+
+			test("behaves like a map and keeps insertion order", () -> {
+				final ServiceProperties props = ServiceProperties.of("b", 1, "a", "x", "b", 2);
+				expectEquals(props.size(), 2);
+				expectEquals(props.get("b"), 2);
+				expectEquals(props.get("a"), "x");
+				expectNull(props.get("c"));
+				expectEquals(props.keyAt(0), "b");
+				expectEquals(props.toString(), "{b=2, a=x}");
+
+				final Map<String, Object> expected = new LinkedHashMap<>();
+				expected.put("a", "x");
+				expected.put("b", 2);
+				expectEquals(props, expected);
+				expectEquals(props.hashCode(), expected.hashCode());
+				expectEquals(props, new Hashtable<>(expected));
+			});
+
+			test("uses an index for larger maps", () -> {
+				final ServiceProperties.Builder builder = ServiceProperties.builder();
+				for (int i = 0; i < 20; ++i) {
+					builder.put("key" + i, i);
+				}
+				final ServiceProperties props = builder.remove("key3").build();
+				expectEquals(props.size(), 19);
+				expectEquals(props.get("key17"), 17);
+				expectFalse(props.containsKey("key3"));
+			});
+
+			test("is immutable", () -> {
+				intercept(UnsupportedOperationException.class, () -> ServiceProperties.of("a", 1).put("b", 2));
+				intercept(NullPointerException.class, () -> ServiceProperties.of("a", null));
+			});
+
+			test("copyOf does not copy ServiceProperties", () -> {
+				final ServiceProperties props = ServiceProperties.of("a", 1);
+				expectTrue(ServiceProperties.copyOf(props) == props);
+				expectTrue(ServiceProperties.copyOf(Collections.emptyMap()) == ServiceProperties.EMPTY);
+			});
+
+			test("can be used as service properties", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final OsgiContext context = new OsgiContext();
+					context.whenBundleActive(bc -> {
+						context.providesService(new MyService() {
+						}, MyService.class, ServiceProperties.of("name", "compact", "ranks", new int[] { 1, 2 }));
+					});
+					context.start(sr.getBundleContext());
+
+					final ServiceReference<MyService> ref = sr.getBundleContext().getServiceReference(MyService.class);
+					expectEquals(ref.getProperty("name"), "compact");
+					expectEquals(((int[]) ref.getProperty("ranks")).length, 2);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+		});
+
+	}
+
+}
@@ -1,12 +1,17 @@
 package domino.java;
 
 import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectFalse;
 import static de.tobiasroeser.lambdatest.Expect.expectNotEquals;
 import static de.tobiasroeser.lambdatest.Expect.expectTrue;
 import static de.tobiasroeser.lambdatest.Expect.expectNotNull;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceReference;
 
 import de.tobiasroeser.lambdatest.junit.FreeSpec;
@@ -121,6 +126,119 @@ public class ServiceProvidingTest extends FreeSpec {
 				});
 			});
 
+			test("create lazy services on first request and dispose them after last release", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final int[] created = { 0 };
+					final int[] disposed = { 0 };
+					class Activator extends OsgiContext {
+						public Activator() {
+							whenBundleActive(bc -> {
+								providesLazyService(() -> {
+									created[0]++;
+									return new ExampleServce();
+								}, Arrays.asList(MyService.class), Collections.emptyMap(),
+									LazyServiceOptions.<ExampleServce>singleton().withDisposer(s -> disposed[0]++));
+							});
+						}
+					}
+					final Activator activator = new Activator();
+					activator.start(sr.getBundleContext());
+					final ServiceReference<?> ref = sr.getServiceReference(MyService.class.getName());
+					expectNotNull(ref);
+					expectEquals(created[0], 0);
+
+					expectTrue(sr.getService(ref) instanceof MyService);
+					expectEquals(created[0], 1);
+					sr.ungetService(ref);
+					expectEquals(disposed[0], 1);
+
+					activator.stop(sr.getBundleContext());
+					expectEquals(created[0], 1);
+				});
+			});
+
+			test("create lazy service objects without blocking other requests", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final int[] counted = { -1 };
+					final AtomicReference<LazyServiceFactory<ExampleServce>> factory = new AtomicReference<>();
+					factory.set(new LazyServiceFactory<>(() -> {
+						// another thread reading the factory must not block
+						final Thread reader = new Thread(() -> counted[0] = factory.get().instanceCount());
+						reader.start();
+						try {
+							reader.join(5000);
+						} catch (final InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						return new ExampleServce();
+					}, LazyServiceOptions.<ExampleServce>singleton()));
+
+					expectNotNull(factory.get().getService(sr.getBundleContext().getBundle(), null));
+					expectEquals(counted[0], 1);
+					expectEquals(factory.get().instanceCount(), 1);
+				});
+			});
+
+			test("coalesce and skip redundant updates of managed service properties", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final int[] modified = { 0 };
+					sr.getBundleContext().addServiceListener(event -> {
+						if (event.getType() == ServiceEvent.MODIFIED) {
+							modified[0]++;
+						}
+					});
+
+					final OsgiContext context = new OsgiContext();
+					final AtomicReference<ManagedServiceProperties<ExampleServce>> props = new AtomicReference<>();
+					context.whenBundleActive(bc -> {
+						props.set(context.providesManagedService(exampleService, Arrays.asList(MyService.class),
+							Util.asMap("load", 1), 10000));
+					});
+					context.start(sr.getBundleContext());
+
+					// unchanged values are skipped
+					expectFalse(props.get().update("load", 1));
+					expectEquals(modified[0], 0);
+
+					// first change is published immediately, further ones are coalesced
+					expectTrue(props.get().update("load", 2));
+					expectTrue(props.get().update("load", 3));
+					expectTrue(props.get().update("load", 4));
+					expectEquals(modified[0], 1);
+					final ServiceReference<?> ref = sr.getServiceReference(MyService.class.getName());
+					expectEquals(ref.getProperty("load"), 2);
+
+					// the latest state is published when the scope stops
+					context.stop(sr.getBundleContext());
+					expectEquals(modified[0], 2);
+					expectEquals(props.get().skippedUpdateCount(), 1L);
+				});
+			});
+
+			test("update managed service properties with case-insensitive keys", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final OsgiContext context = new OsgiContext();
+					final AtomicReference<ManagedServiceProperties<ExampleServce>> props = new AtomicReference<>();
+					context.whenBundleActive(bc -> {
+						props.set(context.providesManagedService(exampleService, Arrays.asList(MyService.class),
+							Util.asMap("load", 1), 0));
+					});
+					context.start(sr.getBundleContext());
+
+					expectFalse(props.get().update("LOAD", 1));
+					expectTrue(props.get().update("Load", 2));
+					expectEquals(props.get().current().toString(), "{load=2}");
+					final ServiceReference<?> ref = sr.getServiceReference(MyService.class.getName());
+					expectEquals(ref.getProperty("load"), 2);
+
+					expectTrue(props.get().remove("LOAD"));
+					expectEquals(props.get().current().size(), 0);
+					expectEquals(ref.getProperty("load"), null);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
 		});
 
 	}
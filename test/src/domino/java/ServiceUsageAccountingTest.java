@@ -0,0 +1,136 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.ServiceReference;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class ServiceUsageAccountingTest extends FreeSpec {
+
+	public interface MyService {
+	}
+
+	public ServiceUsageAccountingTest() {
+
+		section("Service usage accounting", () -> {
+
+			test("reports unbalanced acquisitions with call sites", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					sr.getBundleContext().registerService(MyService.class, new MyService() {
+					}, null);
+
+					final ServiceUsageAccounting accounting = new ServiceUsageAccounting(false, 1, 10);
+					final OsgiContext context = new OsgiContext();
+					context.setServiceUsageAccounting(accounting);
+					context.whenBundleActive(bc -> {
+						context.service(MyService.class);
+						context.services(MyService.class);
+					});
+					context.start(sr.getBundleContext());
+
+					final List<ServiceUsage> unbalanced = accounting.unbalanced();
+					expectEquals(unbalanced.size(), 1);
+					expectEquals(unbalanced.get(0).unbalanced(), 2L);
+					expectEquals(unbalanced.get(0).serviceType(), MyService.class.getName());
+					expectTrue(unbalanced.get(0).callSites().keySet().stream()
+						.allMatch(site -> site.startsWith(ServiceUsageAccountingTest.class.getName())));
+
+					context.ungetService(context.serviceRef(MyService.class).get());
+					expectEquals(accounting.unbalanced().get(0).unbalanced(), 1L);
+
+					context.stop(sr.getBundleContext());
+				});
+			});
+
+			test("releases acquisitions when the scope stops in auto-release mode", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					sr.getBundleContext().registerService(MyService.class, new MyService() {
+					}, null);
+
+					final ServiceUsageAccounting accounting = new ServiceUsageAccounting(true, 0, 0);
+					final OsgiContext context = new OsgiContext();
+					context.setServiceUsageAccounting(accounting);
+					context.whenBundleActive(bc -> {
+						context.service(MyService.class);
+					});
+					context.start(sr.getBundleContext());
+					expectEquals(accounting.unbalanced().size(), 1);
+
+					final ServiceUsage usage = accounting.unbalanced().get(0);
+					context.stop(sr.getBundleContext());
+					expectEquals(usage.unbalanced(), 0L);
+					expectEquals(accounting.usages().size(), 0);
+				});
+			});
+
+			test("releases each auto-released acquisition only once", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final ServiceReference<MyService> ref = sr.getBundleContext()
+							.registerService(MyService.class, new MyService() {
+							}, null).getReference();
+					// another usage of the same bundle, which must survive the scope
+					sr.getBundleContext().getService(ref);
+
+					final ServiceUsageAccounting accounting = new ServiceUsageAccounting(true, 0, 0);
+					final OsgiContext context = new OsgiContext();
+					context.setServiceUsageAccounting(accounting);
+					context.whenBundleActive(bc -> {
+						for (int i = 0; i < 3; ++i) {
+							context.service(MyService.class);
+						}
+						context.ungetService(ref);
+					});
+					context.start(sr.getBundleContext());
+					expectEquals(accounting.unbalanced().get(0).unbalanced(), 2L);
+
+					final ServiceUsage usage = accounting.unbalanced().get(0);
+					context.stop(sr.getBundleContext());
+					expectEquals(usage.unbalanced(), 0L);
+					expectTrue(Arrays.asList(sr.getBundleContext().getBundle().getServicesInUse()).contains(ref));
+				});
+			});
+
+			test("reads the service properties only for the first acquisition", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final ServiceReference<?> ref = sr.getBundleContext()
+							.registerService(MyService.class, new MyService() {
+							}, null).getReference();
+					final AtomicInteger propertyReads = new AtomicInteger();
+					final ServiceReference<?> countingRef = (ServiceReference<?>) Proxy.newProxyInstance(
+							ServiceReference.class.getClassLoader(), new Class<?>[] { ServiceReference.class },
+							(proxy, method, args) -> {
+								if (method.getName().equals("getProperty")) {
+									propertyReads.incrementAndGet();
+								}
+								if (method.getName().equals("equals")) {
+									return proxy == args[0];
+								}
+								if (method.getName().equals("hashCode")) {
+									return System.identityHashCode(proxy);
+								}
+								return method.invoke(ref, args);
+							});
+
+					final ServiceUsageAccounting accounting = new ServiceUsageAccounting(false, 0, 0);
+					for (int i = 0; i < 100; ++i) {
+						accounting.acquired(sr.getBundleContext(), countingRef);
+					}
+
+					expectEquals(accounting.unbalanced(sr.getBundleContext()).get(0).unbalanced(), 100L);
+					expectEquals(propertyReads.get(), 2);
+				});
+			});
+
+		});
+
+	}
+
+}
@@ -0,0 +1,86 @@
+package domino.java;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectNull;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+import static de.tobiasroeser.lambdatest.Intercept.intercept;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceRegistration;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+import domino.java.test.FelixConnectHelper;
+
+public class TransactionalScopeTest extends FreeSpec {
+
+	public interface MyService {
+	}
+
+	public TransactionalScopeTest() {
+
+		section("Transactional capsule scopes", () -> {
+
+			test("register all services after the handler completed, ordered by ranking", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final List<Object> registered = new ArrayList<>();
+					sr.getBundleContext().addServiceListener(event -> {
+						if (event.getType() == ServiceEvent.REGISTERED) {
+							registered.add(event.getServiceReference().getProperty("name"));
+						}
+					}, "(objectClass=" + MyService.class.getName() + ")");
+
+					final OsgiContext context = new OsgiContext();
+					context.setTransactionalScopes(true);
+					context.whenBundleActive(bc -> {
+						context.providesService(new MyService() {
+						}, MyService.class, ServiceProperties.of("name", "low", Constants.SERVICE_RANKING, -1));
+						final ServiceRegistration<MyService> reg = context.providesService(new MyService() {
+						}, MyService.class, ServiceProperties.of("name", "high", Constants.SERVICE_RANKING, 10));
+						context.providesService(new MyService() {
+						}, MyService.class, ServiceProperties.of("name", "default"));
+
+						expectNull(sr.getBundleContext().getServiceReference(MyService.class));
+						boolean notYetRegistered = false;
+						try {
+							reg.getReference();
+						} catch (final IllegalStateException e) {
+							notYetRegistered = true;
+						}
+						expectTrue(notYetRegistered);
+					});
+					context.start(sr.getBundleContext());
+
+					expectEquals(registered.toString(), "[high, default, low]");
+
+					context.stop(sr.getBundleContext());
+					expectNull(sr.getBundleContext().getServiceReference(MyService.class));
+				});
+			});
+
+			test("register nothing if the handler fails", () -> {
+				FelixConnectHelper.withPojoSr(sr -> {
+					final boolean[] stopped = { false };
+					final OsgiContext context = new OsgiContext();
+					context.setTransactionalScopes(true);
+					context.whenBundleActive(bc -> {
+						context.onStop(() -> stopped[0] = true);
+						context.providesService(new MyService() {
+						}, MyService.class);
+						throw new RuntimeException("Expected failure");
+					});
+					intercept(RuntimeException.class, "Expected failure", () -> context.start(sr.getBundleContext()));
+
+					expectNull(sr.getBundleContext().getServiceReference(MyService.class));
+					expectTrue(stopped[0]);
+				});
+			});
+
+		});
+
+	}
+
+}
@@ -0,0 +1,105 @@
+package domino.java.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.osgi.framework.ServiceRegistration;
+
+import domino.java.OsgiContext;
+import domino.java.test.FelixConnectHelper;
+
+/**
+ * Measures the heap footprint of service bindings created with
+ * {@link OsgiContext#whenServicePresent(Class, de.tototec.utils.functional.Procedure1)},
+ * with and without {@link OsgiContext#setCompactBindings(boolean) compact
+ * bindings}, for 1k, 10k and 100k bindings.
+ * <p>
+ * Reports the bytes per binding while no service is present, and the
+ * additional bytes per tracked service once some services are registered.
+ * <p>
+ * This is not a unit test. Run it with `-Xmx2g` via its main method,
+ * optionally with the numbers of bindings to measure as arguments.
+ */
+public class BindingFootprint {
+
+	private static final int[] DEFAULT_BINDINGS = { 1000, 10000, 100000 };
+	private static final int SERVICES = 10;
+
+	public interface MyService {
+	}
+
+	public static void main(final String[] args) throws Exception {
+		// warm up
+		measure(false, 1000, false);
+		measure(true, 1000, false);
+
+		final int[] counts = args.length == 0 ? DEFAULT_BINDINGS
+				: Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+		for (final int bindings : counts) {
+			final long[] regular = measure(false, bindings, true);
+			final long[] compact = measure(true, bindings, true);
+			System.out.println(String.format("%6d bindings: %.1fx less per binding, %.1fx less per tracked service",
+					bindings, (double) regular[0] / Math.max(1, compact[0]),
+					(double) regular[1] / Math.max(1, compact[1])));
+		}
+		// the framework keeps a non-daemon dispatch thread
+		System.exit(0);
+	}
+
+	/**
+	 * @return The bytes per binding and the bytes per tracked service.
+	 */
+	private static long[] measure(final boolean compact, final int bindings, final boolean print) throws Exception {
+		final long[] result = new long[2];
+		FelixConnectHelper.withPojoSr(sr -> {
+			final OsgiContext context = new OsgiContext();
+			context.setCompactBindings(compact);
+			context.setUseRegistryMirror(false);
+
+			final long base = usedHeap();
+			context.whenBundleActive(bc -> {
+				for (int i = 0; i < bindings; ++i) {
+					context.whenServicePresent(MyService.class, s -> {
+					});
+				}
+			});
+			context.start(sr.getBundleContext());
+			final long withBindings = usedHeap();
+
+			final List<ServiceRegistration<MyService>> regs = new ArrayList<>();
+			for (int i = 0; i < SERVICES; ++i) {
+				regs.add(sr.getBundleContext().registerService(MyService.class, new MyService() {
+				}, null));
+			}
+			final long withServices = usedHeap();
+
+			result[0] = (withBindings - base) / bindings;
+			result[1] = (withServices - withBindings) / SERVICES;
+			if (print) {
+				System.out.println(String.format("%-8s %6d bindings: %6d bytes per binding, %8d bytes per tracked service",
+						compact ? "compact" : "regular", bindings, result[0], result[1]));
+			}
+
+			for (final ServiceRegistration<MyService> reg : regs) {
+				reg.unregister();
+			}
+			context.stop(sr.getBundleContext());
+		});
+		return result;
+	}
+
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,75 @@
+package domino.java.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import domino.java.internal.Logger;
+import domino.java.internal.LoggerFactory;
+
+/**
+ * Measures the bytes allocated per service event by the debug logging of a
+ * service watcher, while debug logging is disabled, for both logging
+ * backends.
+ * <p>
+ * Each event logs like the service watcher does, with three arguments. The
+ * "varargs" variant forces the argument array, as all calls did before the
+ * fixed-arity overloads. The "getLogger" variant measures the logger lookup
+ * each capsule does on creation, compared to creating a new logger as before.
+ * <p>
+ * This is not a unit test. Run it via its main method. It needs a JVM which
+ * supports measuring the allocated bytes per thread. In this small loop, the
+ * JIT may remove the argument arrays by escape analysis, which it can not in
+ * the larger methods of the capsules. Run it with `-XX:-DoEscapeAnalysis` to
+ * see the allocations of these call sites.
+ */
+public class DisabledLoggingAllocation {
+
+	private static final int EVENTS = 10000000;
+
+	private interface Event {
+		void run(int i);
+	}
+
+	public static void main(final String[] args) {
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+
+		final org.slf4j.Logger slf4j = org.slf4j.LoggerFactory.getLogger(DisabledLoggingAllocation.class);
+		if (slf4j instanceof ch.qos.logback.classic.Logger) {
+			((ch.qos.logback.classic.Logger) slf4j).setLevel(ch.qos.logback.classic.Level.INFO);
+		}
+		java.util.logging.Logger.getLogger(DisabledLoggingAllocation.class.getName())
+				.setLevel(java.util.logging.Level.INFO);
+
+		final Logger[] loggers = {
+				new LoggerFactory.Slf4jLogger(DisabledLoggingAllocation.class),
+				new LoggerFactory.JavaUtilLogger(DisabledLoggingAllocation.class)
+		};
+		final Object service = new Object();
+		final Object filter = "(objectClass=Service)";
+		for (final Logger log : loggers) {
+			final String name = log.getClass().getSimpleName();
+			measure(threads, name + " fixed arity", i -> log.debug("Bundle {}: Adding service [{}] for filter [{}]",
+					"bundle", service, filter));
+			measure(threads, name + " varargs", i -> log.debug("Bundle {}: Adding service [{}] for filter [{}]",
+					new Object[] { "bundle", service, filter }));
+		}
+		measure(threads, "getLogger", i -> LoggerFactory.getLogger(DisabledLoggingAllocation.class));
+		measure(threads, "new Slf4jLogger", i -> new LoggerFactory.Slf4jLogger(DisabledLoggingAllocation.class));
+	}
+
+	private static void measure(final com.sun.management.ThreadMXBean threads, final String name,
+			final Event event) {
+		// warm up, so that the JIT has a chance to remove allocations
+		for (int i = 0; i < EVENTS; ++i) {
+			event.run(i);
+		}
+		final long thread = Thread.currentThread().getId();
+		final long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < EVENTS; ++i) {
+			event.run(i);
+		}
+		final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		System.out.println(String.format("%-40s %8.2f bytes per event", name, (double) allocated / EVENTS));
+	}
+
+}
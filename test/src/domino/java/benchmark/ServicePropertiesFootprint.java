@@ -0,0 +1,101 @@
+package domino.java.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.osgi.framework.Constants;
+
+import domino.java.ServiceProperties;
+import domino.java.Util;
+
+/**
+ * Compares the heap footprint of the service properties held per service
+ * registration, before and after the introduction of {@link ServiceProperties}.
+ * <p>
+ * Before, a provided service only kept the map given by the user (the
+ * {@link java.util.Hashtable} handed to the framework is garbage after the
+ * registration and not counted). Now, it keeps a single immutable
+ * {@link ServiceProperties} instance.
+ * <p>
+ * This is not a unit test. Run it with `-Xmx1g` via its main method.
+ */
+public class ServicePropertiesFootprint {
+
+	private static final int REGISTRATIONS = 100000;
+
+	public static void main(final String[] args) {
+		// warm up
+		measure("warmup (before)", ServicePropertiesFootprint::before);
+		measure("warmup (after)", ServicePropertiesFootprint::after);
+
+		final long before = measure("before: LinkedHashMap", ServicePropertiesFootprint::before);
+		final long after = measure("after: ServiceProperties", ServicePropertiesFootprint::after);
+		System.out.println(String.format("Saved %d bytes per registration (%.0f %%)", before - after,
+				100.0 * (before - after) / before));
+	}
+
+	private interface Registration {
+		Object create(int i);
+	}
+
+	private static Object before(final int i) {
+		final LinkedHashMap<String, Object> user = Util.asMap(
+				Constants.SERVICE_RANKING, i,
+				Constants.SERVICE_PID, "pid." + i,
+				"name", "service",
+				"enabled", Boolean.TRUE);
+		return user;
+	}
+
+	private static Object after(final int i) {
+		final ServiceProperties props = ServiceProperties.of(
+				Constants.SERVICE_RANKING, i,
+				Constants.SERVICE_PID, "pid." + i,
+				"name", "service",
+				"enabled", Boolean.TRUE);
+		return props;
+	}
+
+	private static long measure(final String name, final Registration registration) {
+		final List<Object> retained = new ArrayList<>(2 * REGISTRATIONS);
+		// Exclude the values, which are identical for both variants
+		final long values = usedHeap(() -> {
+			for (int i = 0; i < REGISTRATIONS; ++i) {
+				retained.add(Integer.valueOf(i));
+				retained.add("pid." + i);
+			}
+		});
+		retained.clear();
+		final long total = usedHeap(() -> {
+			for (int i = 0; i < REGISTRATIONS; ++i) {
+				retained.add(registration.create(i));
+			}
+		});
+		final long perRegistration = (total - values) / REGISTRATIONS;
+		System.out.println(String.format("%-40s %6d bytes per registration", name, perRegistration));
+		retained.clear();
+		return perRegistration;
+	}
+
+	private static long usedHeap(final Runnable allocation) {
+		final Runtime runtime = Runtime.getRuntime();
+		gc();
+		final long start = runtime.totalMemory() - runtime.freeMemory();
+		allocation.run();
+		gc();
+		return runtime.totalMemory() - runtime.freeMemory() - start;
+	}
+
+	private static void gc() {
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package domino.java.capsule;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectFalse;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+
+public class AsyncCapsuleTest extends FreeSpec {
+
+	private static class DelayedCapsule implements AsyncCapsule {
+		final CompletableFuture<Void> startFuture = new CompletableFuture<>();
+		final AtomicInteger starts = new AtomicInteger();
+		final AtomicInteger stops = new AtomicInteger();
+
+		@Override
+		public CompletionStage<Void> startAsync() {
+			starts.incrementAndGet();
+			return startFuture;
+		}
+
+		@Override
+		public CompletionStage<Void> stopAsync() {
+			stops.incrementAndGet();
+			return CompletableFuture.completedFuture(null);
+		}
+	}
+
+	public AsyncCapsuleTest() {
+
+		section("Asynchronous capsules", () -> {
+
+			test("start concurrently and complete the scope when all are started", () -> {
+				final DynamicCapsuleContext context = new DynamicCapsuleContext();
+				final DelayedCapsule c1 = new DelayedCapsule();
+				final DelayedCapsule c2 = new DelayedCapsule();
+
+				final CompletableFuture<CapsuleScope> scope = context.executeWithinNewCapsuleScopeAsync(() -> {
+					context.addCapsule(c1);
+					context.addCapsule(c2);
+				}).toCompletableFuture();
+
+				// both starts were issued before any of them completed
+				expectEquals(c1.starts.get(), 1);
+				expectEquals(c2.starts.get(), 1);
+				expectFalse(scope.isDone());
+
+				c2.startFuture.complete(null);
+				expectFalse(scope.isDone());
+				c1.startFuture.complete(null);
+				expectTrue(scope.isDone());
+
+				scope.get().stop();
+				expectEquals(c1.stops.get(), 1);
+				expectEquals(c2.stops.get(), 1);
+			});
+
+			test("stop all capsules when one fails to start", () -> {
+				final DynamicCapsuleContext context = new DynamicCapsuleContext();
+				final DelayedCapsule c1 = new DelayedCapsule();
+				final DelayedCapsule c2 = new DelayedCapsule();
+				c1.startFuture.complete(null);
+				c2.startFuture.completeExceptionally(new IllegalStateException("broken"));
+
+				boolean failed = false;
+				try {
+					context.executeWithinNewCapsuleScope(() -> {
+						context.addCapsule(c1);
+						context.addCapsule(c2);
+					});
+				} catch (final IllegalStateException e) {
+					failed = true;
+					expectEquals(e.getMessage(), "broken");
+				}
+				expectTrue(failed);
+				expectEquals(c1.stops.get(), 1);
+				expectEquals(c2.stops.get(), 1);
+			});
+
+			test("stop all capsules when the start times out", () -> {
+				final DynamicCapsuleContext context = new DynamicCapsuleContext();
+				context.setAsyncCapsuleTimeout(50);
+				final DelayedCapsule c1 = new DelayedCapsule();
+
+				boolean timedOut = false;
+				try {
+					context.executeWithinNewCapsuleScope(() -> context.addCapsule(c1));
+				} catch (final RuntimeException e) {
+					timedOut = CompletionStages.unwrap(e) instanceof TimeoutException
+							|| e.getCause() instanceof TimeoutException;
+				}
+				expectTrue(timedOut);
+				expectEquals(c1.stops.get(), 1);
+			});
+
+			test("mix synchronous and asynchronous capsules when stopping", () -> {
+				final DynamicCapsuleContext context = new DynamicCapsuleContext();
+				final AtomicInteger syncStops = new AtomicInteger();
+				final DelayedCapsule async = new DelayedCapsule();
+				async.startFuture.complete(null);
+
+				final CapsuleScope scope = context.executeWithinNewCapsuleScope(() -> {
+					context.addCapsule(new Capsule() {
+						@Override
+						public void start() {
+						}
+
+						@Override
+						public void stop() {
+							syncStops.incrementAndGet();
+						}
+					});
+					context.addCapsule(async);
+				});
+
+				scope.stopAsync().toCompletableFuture().get();
+				expectEquals(syncStops.get(), 1);
+				expectEquals(async.stops.get(), 1);
+			});
+
+		});
+
+	}
+
+}
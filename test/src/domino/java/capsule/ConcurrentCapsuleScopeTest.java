@@ -0,0 +1,172 @@
+package domino.java.capsule;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+
+public class ConcurrentCapsuleScopeTest extends FreeSpec {
+
+	private static final int THREADS = 8;
+	private static final int CAPSULES_PER_THREAD = 2000;
+
+	private static class CountingCapsule implements Capsule {
+		final AtomicInteger started = new AtomicInteger();
+		final AtomicInteger stopped = new AtomicInteger();
+
+		@Override
+		public void start() {
+			started.incrementAndGet();
+		}
+
+		@Override
+		public void stop() {
+			stopped.incrementAndGet();
+		}
+	}
+
+	private static void runConcurrently(final int threads, final Runnable task) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; ++t) {
+			final Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (final InterruptedException e) {
+					return;
+				}
+				task.run();
+			});
+			thread.start();
+			workers.add(thread);
+		}
+		start.countDown();
+		for (final Thread thread : workers) {
+			thread.join();
+		}
+	}
+
+	public ConcurrentCapsuleScopeTest() {
+
+		section("Concurrent capsule scopes", () -> {
+
+			test("keep all capsules added from multiple threads and stop each once", () -> {
+				final DynamicCapsuleContext context = new DynamicCapsuleContext();
+				final List<CountingCapsule> all = new ArrayList<>();
+				final CapsuleScope scope = context.executeWithinNewCapsuleScope(() -> {
+					try {
+						// threads inherit the current scope
+						runConcurrently(THREADS, () -> {
+							final List<CountingCapsule> mine = new ArrayList<>();
+							for (int i = 0; i < CAPSULES_PER_THREAD; ++i) {
+								final CountingCapsule capsule = new CountingCapsule();
+								context.addCapsule(capsule);
+								mine.add(capsule);
+							}
+							synchronized (all) {
+								all.addAll(mine);
+							}
+						});
+					} catch (final InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				});
+
+				expectEquals(((ConcurrentCapsuleScope) scope).capsules().size(), THREADS * CAPSULES_PER_THREAD);
+				scope.stop();
+				for (final CountingCapsule capsule : all) {
+					expectEquals(capsule.started.get(), 1);
+					expectEquals(capsule.stopped.get(), 1);
+				}
+			});
+
+			test("remove entries concurrently in constant time", () -> {
+				final ConcurrentAppendList<Integer> list = new ConcurrentAppendList<>();
+				final AtomicInteger next = new AtomicInteger();
+				runConcurrently(THREADS, () -> {
+					for (int i = 0; i < CAPSULES_PER_THREAD; ++i) {
+						final int value = next.getAndIncrement();
+						final ConcurrentAppendList.Entry<Integer> entry = list.append(value);
+						if (value % 2 == 0) {
+							expectTrue(entry.remove());
+						}
+						if (i % 100 == 0) {
+							// unlinks removed entries while others append
+							list.entries();
+						}
+					}
+				});
+
+				final List<Integer> remaining = list.snapshot();
+				expectEquals(remaining.size(), THREADS * CAPSULES_PER_THREAD / 2);
+				for (final Integer value : remaining) {
+					expectEquals(value % 2, 1);
+				}
+			});
+
+			test("remove child capsules stopped before their parent scope", () -> {
+				final DynamicCapsuleContext context = new DynamicCapsuleContext();
+				final List<CountingCapsule> children = new ArrayList<>();
+				final List<ConcurrentAppendList.Entry<Capsule>> entries = new ArrayList<>();
+				final ConcurrentCapsuleScope parent = (ConcurrentCapsuleScope) context.executeWithinNewCapsuleScope(() -> {
+					for (int i = 0; i < CAPSULES_PER_THREAD; ++i) {
+						final CountingCapsule child = new CountingCapsule();
+						children.add(child);
+						entries.add(context.addRemovableCapsule(child));
+					}
+				});
+				expectEquals(parent.capsules().size(), CAPSULES_PER_THREAD);
+
+				// the owners stop all but the last child before the parent
+				for (int i = 0; i < CAPSULES_PER_THREAD - 1; ++i) {
+					children.get(i).stop();
+					expectTrue(entries.get(i).remove());
+				}
+				// the removed entries were unlinked without taking a snapshot
+				expectTrue(parent.linkedSize() < CAPSULES_PER_THREAD / 10);
+				expectEquals(parent.capsules().size(), 1);
+
+				parent.stop();
+				for (final CountingCapsule child : children) {
+					expectEquals(child.started.get(), 1);
+					expectEquals(child.stopped.get(), 1);
+				}
+			});
+
+			test("stop capsules added while the scope is stopping exactly once", () -> {
+				final ConcurrentCapsuleScope scope = new ConcurrentCapsuleScope();
+				final List<CountingCapsule> all = new ArrayList<>();
+				final AtomicInteger added = new AtomicInteger();
+				runConcurrently(THREADS, () -> {
+					final List<CountingCapsule> mine = new ArrayList<>();
+					for (int i = 0; i < CAPSULES_PER_THREAD; ++i) {
+						final CountingCapsule capsule = new CountingCapsule();
+						capsule.start();
+						scope.add(capsule);
+						mine.add(capsule);
+						if (added.incrementAndGet() == THREADS * CAPSULES_PER_THREAD / 2) {
+							scope.stop();
+						}
+					}
+					synchronized (all) {
+						all.addAll(mine);
+					}
+				});
+
+				expectTrue(scope.isStopped());
+				expectEquals(all.size(), THREADS * CAPSULES_PER_THREAD);
+				for (final CountingCapsule capsule : all) {
+					expectEquals(capsule.stopped.get(), 1);
+				}
+			});
+
+		});
+
+	}
+
+}
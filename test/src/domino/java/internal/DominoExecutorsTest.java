@@ -0,0 +1,74 @@
+package domino.java.internal;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectFalse;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+
+public class DominoExecutorsTest extends FreeSpec {
+
+	public DominoExecutorsTest() {
+
+		section("DominoExecutors", () -> {
+
+			test("create threads without context class loader and inherited thread locals", () -> {
+				final InheritableThreadLocal<String> local = new InheritableThreadLocal<>();
+				final ClassLoader previous = Thread.currentThread().getContextClassLoader();
+				final AtomicReference<Object> seenLocal = new AtomicReference<>("unset");
+				final AtomicReference<Object> seenLoader = new AtomicReference<>("unset");
+				local.set("scope");
+				Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[0]));
+				try {
+					final Thread thread = DominoExecutors.daemonThreadFactory("test").newThread(() -> {
+						seenLocal.set(local.get());
+						seenLoader.set(Thread.currentThread().getContextClassLoader());
+					});
+					thread.start();
+					thread.join();
+				} finally {
+					Thread.currentThread().setContextClassLoader(previous);
+					local.remove();
+				}
+				expectEquals(seenLocal.get(), null);
+				expectEquals(seenLoader.get(), null);
+			});
+
+			test("shut down the executors when the last reference is released", () -> {
+				DominoExecutors.acquire();
+				// contexts of other tests might still be active
+				final int references = DominoExecutors.references();
+				final ExecutorService dispatcher = DominoExecutors.dispatcher();
+				try {
+					for (int i = 1; i < references; ++i) {
+						DominoExecutors.release();
+					}
+					expectFalse(dispatcher.isShutdown());
+					DominoExecutors.release();
+					expectTrue(dispatcher.awaitTermination(1, TimeUnit.SECONDS));
+					expectTrue(DominoExecutors.dispatcher() != dispatcher);
+				} finally {
+					for (int i = 1; i < references; ++i) {
+						DominoExecutors.acquire();
+					}
+				}
+			});
+
+			test("let all idle threads time out", () -> {
+				expectTrue(((ThreadPoolExecutor) DominoExecutors.scheduler()).allowsCoreThreadTimeOut());
+				expectTrue(((ThreadPoolExecutor) DominoExecutors.background()).allowsCoreThreadTimeOut());
+				expectEquals(((ThreadPoolExecutor) DominoExecutors.dispatcher()).getCorePoolSize(), 0);
+			});
+
+		});
+
+	}
+
+}
@@ -0,0 +1,97 @@
+package domino.java.internal;
+
+import static de.tobiasroeser.lambdatest.Expect.expectEquals;
+import static de.tobiasroeser.lambdatest.Expect.expectTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import de.tobiasroeser.lambdatest.junit.FreeSpec;
+
+public class LoggerTest extends FreeSpec {
+
+	public LoggerTest() {
+
+		section("LoggerFactory", () -> {
+
+			test("cache the logger per class", () -> {
+				expectTrue(LoggerFactory.getLogger(LoggerTest.class) == LoggerFactory.getLogger(LoggerTest.class));
+			});
+
+		});
+
+		section("MessageTemplate", () -> {
+
+			test("format like the character scan", () -> {
+				final Object[] args = { 1, 2, 3 };
+				expectEquals(MessageTemplate.parse("a {} b {} c").format(args, 3), "a 1 b 2 c");
+				expectEquals(MessageTemplate.parse("{}{}{}{}").format(args, 3), "123{}");
+				expectEquals(MessageTemplate.parse("{}{}").format(args, 1), "1{}");
+				expectEquals(MessageTemplate.parse("{{} {x} {}").format(args, 3), "{{} {x} 1");
+				expectEquals(MessageTemplate.parse("end {").format(args, 3), "end {");
+				expectEquals(MessageTemplate.parse("none").placeholderCount(), 0);
+			});
+
+			test("cache templates by message identity", () -> {
+				final String msg = "cached {}";
+				expectTrue(MessageTemplate.of(msg) == MessageTemplate.of(msg));
+			});
+
+		});
+
+		section("Logger", () -> {
+
+			test("format fixed arity calls and compute lazy arguments only if enabled", () -> {
+				final java.util.logging.Logger underlying = java.util.logging.Logger
+						.getLogger(LoggerTest.class.getName());
+				final List<String> messages = new ArrayList<>();
+				final Handler handler = new Handler() {
+					@Override
+					public void publish(final LogRecord record) {
+						messages.add(record.getMessage());
+					}
+
+					@Override
+					public void flush() {
+					}
+
+					@Override
+					public void close() {
+					}
+				};
+				underlying.addHandler(handler);
+				underlying.setUseParentHandlers(false);
+				try {
+					underlying.setLevel(Level.INFO);
+					final Logger log = new LoggerFactory.JavaUtilLogger(LoggerTest.class);
+					final int[] computed = { 0 };
+					final Object lazy = Logger.lazy(() -> {
+						computed[0]++;
+						return "lazy";
+					});
+
+					log.debug("{}", lazy);
+					log.info("a");
+					log.info("b {}", 1);
+					log.info("c {} {}", 1, lazy);
+					log.info("d {} {} {}", 1, 2, 3);
+					log.info("e {} {} {} {}", 1, 2, 3, 4);
+					log.info("f {}", 1, new RuntimeException());
+
+					expectEquals(messages.toString(), "[a, b 1, c 1 lazy, d 1 2 3, e 1 2 3 4, f 1]");
+					expectEquals(computed[0], 1);
+				} finally {
+					underlying.removeHandler(handler);
+					underlying.setUseParentHandlers(true);
+					underlying.setLevel(null);
+				}
+			});
+
+		});
+
+	}
+
+}